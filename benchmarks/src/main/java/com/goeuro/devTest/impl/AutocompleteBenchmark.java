@@ -0,0 +1,88 @@
+package com.goeuro.devTest.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Prefix lookups in an {@link AutocompleteIndex} of {@code count} names loaded from its file,
+ * with a few names written since, as a type-ahead would send them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AutocompleteBenchmark {
+
+	private static final String[] NAMES = {"Berlin", "Hamburg", "München", "Köln", "Frankfurt am Main", "Stuttgart", 
+			"Düsseldorf", "Alcázar del Rey", "Zürich", "Wien", "Kraków", "Saint-Étienne"};
+
+	private static final int PREFIXES = 1024;
+
+	@Param({"100000", "1000000"})
+	public int count;
+
+	private File directory;
+
+	private AutocompleteIndex index;
+
+	private String[] prefixes;
+
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("benchmark").toFile();
+		File file = new File(directory, "autocomplete.idx");
+		Random random = new Random(count);
+		AutocompleteIndex writer = new AutocompleteIndex(file);
+		for (int i = 0; i < count; i++) {
+			writer.write(i, NAMES[random.nextInt(NAMES.length)] + " " + i, "location", "52.52437", "13.41053");
+		}
+		writer.save();
+
+		index = new AutocompleteIndex(file);
+		for (int i = 0; i < 100; i++) {
+			index.write(count + i, NAMES[random.nextInt(NAMES.length)] + " " + i, "station", "52.52437", "13.41053");
+		}
+		prefixes = new String[PREFIXES];
+		for (int i = 0; i < PREFIXES; i++) {
+			String name = NAMES[random.nextInt(NAMES.length)] + " " + random.nextInt(count);
+			prefixes[i] = name.substring(0, 2 + random.nextInt(name.length() - 2));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	/**
+	 * The first 10 names starting with the prefix.
+	 */
+	@Benchmark
+	public RecordingLocationSink lookup10() throws IOException {
+		RecordingLocationSink sink = new RecordingLocationSink();
+		index.lookup(prefixes[next++ & (PREFIXES - 1)], 10, sink);
+		return sink;
+	}
+}
@@ -0,0 +1,110 @@
+package com.goeuro.devTest.impl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.goeuro.devTest.LocationSink;
+import com.goeuro.devTest.QueryProcessorException;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * The reply decoded to characters by a {@link StreamingLocationParser} and encoded again by a {@link CsvLocationSink},
+ * against the bytes scanned by a {@link ByteLocationParser} and copied by a {@link ByteCsvLocationSink}:
+ * from memory to a discarding stream, and as the whole of {@code process()} to a file.
+ * Run with {@code -prof gc} to compare the allocation per reply.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ByteParsingBenchmark {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	@Param({"100000"})
+	public int count;
+
+	@Param({"STREAMING", "BYTES"})
+	public ParsingMode mode;
+
+	private byte[] reply;
+
+	private ByteLocationParser byteParser;
+
+	private File directory;
+
+	private InMemoryQueryProcessor processor;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		reply = LocationPayloads.json(count);
+		byteParser = new ByteLocationParser();
+		directory = File.createTempFile("bytes", "");
+		directory.delete();
+		processor = new InMemoryQueryProcessor(reply, directory.getPath());
+		processor.setParsingMode(mode);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		processor.close();
+		FileUtils.deleteDirectory(directory);
+	}
+
+	/**
+	 * Every location parsed and written as CSV, without touching the disk.
+	 */
+	@Benchmark
+	public void parseToCsv() throws IOException {
+		if (mode == ParsingMode.BYTES) {
+			LocationSink sink = new ByteCsvLocationSink(Channels.newChannel(new NullOutputStream()), UTF_8, 
+					AbstractQueryProcessor.DEFAULT_BUFFER_SIZE);
+			byteParser.parse(Channels.newChannel(new ByteArrayInputStream(reply)), UTF_8, sink);
+			sink.close();
+		} else {
+			LocationSink sink = new CsvLocationSink(new BufferedWriter(new OutputStreamWriter(new NullOutputStream(), UTF_8), 
+					AbstractQueryProcessor.DEFAULT_BUFFER_SIZE));
+			JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(new ByteArrayInputStream(reply), UTF_8)));
+			new StreamingLocationParser().parse(reader, sink);
+			reader.close();
+			sink.close();
+		}
+	}
+
+	/**
+	 * The whole of {@code process()} from the in-memory reply to a new file, deleted right away.
+	 */
+	@Benchmark
+	public long processToFile() throws QueryProcessorException {
+		File file = processor.process("Berlin");
+		long length = file.length();
+		file.delete();
+		return length;
+	}
+}
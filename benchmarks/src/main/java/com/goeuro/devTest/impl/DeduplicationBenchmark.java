@@ -0,0 +1,68 @@
+package com.goeuro.devTest.impl;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Deduplicating {@code count} location ids, half of them seen before, with the {@link IdBitmap} of the
+ * {@link DeduplicatingLocationSink} against a concurrent set of boxed {@link Integer}s.
+ * Run with {@code -prof gc} to compare the allocations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@State(Scope.Benchmark)
+public class DeduplicationBenchmark {
+
+	@Param({"1000000"})
+	public int count;
+
+	/**
+	 * The ids of the endpoint are dense, spread over ten times as many values as there are locations.
+	 */
+	private int[] ids;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Random random = new Random(count);
+		ids = new int[count];
+		for (int i = 0; i < count; i++) {
+			ids[i] = i % 2 == 1 ? ids[random.nextInt(i)] : random.nextInt(count * 10);
+		}
+	}
+
+	@Benchmark
+	public long idBitmap() {
+		IdBitmap bitmap = new IdBitmap();
+		for (int id : ids) {
+			bitmap.add(id);
+		}
+		return bitmap.size();
+	}
+
+	@Benchmark
+	public long boxedSet() {
+		Set<Integer> set = ConcurrentHashMap.<Integer>newKeySet();
+		for (int id : ids) {
+			set.add(id);
+		}
+		return set.size();
+	}
+}
@@ -0,0 +1,85 @@
+package com.goeuro.devTest.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.goeuro.devTest.QueryProcessorException;
+
+/**
+ * A reply of {@code count} locations written in full as CSV, against the {@link DeltaQueryProcessor} finding that
+ * none of them changed since the previous run, and the cost of loading the {@link LocationHashIndex} alone.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DeltaBenchmark {
+
+	@Param({"100000"})
+	public int count;
+
+	private File directory;
+
+	private InMemoryQueryProcessor processor;
+
+	private DeltaQueryProcessor deltaProcessor;
+
+	private File indexFile;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException, QueryProcessorException {
+		directory = File.createTempFile("delta", "");
+		directory.delete();
+		processor = new InMemoryQueryProcessor(LocationPayloads.json(count), new File(directory, "csv").getPath());
+		processor.setParsingMode(ParsingMode.STREAMING);
+		deltaProcessor = new DeltaQueryProcessor(processor, new File(directory, "index"), processor.getCsvBaseDirectory(), 
+				processor.getCsvEncoding());
+		deltaProcessor.process("Berlin", new NullWriter());
+		indexFile = deltaProcessor.getIndexFile("Berlin");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		deltaProcessor.close();
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Benchmark
+	public void fullExport() throws QueryProcessorException {
+		processor.process("Berlin", new NullWriter());
+	}
+
+	/**
+	 * Includes loading the index and saving the next one.
+	 */
+	@Benchmark
+	public long deltaUnchanged() throws QueryProcessorException {
+		deltaProcessor.process("Berlin", new NullWriter());
+		return deltaProcessor.getUnchanged();
+	}
+
+	@Benchmark
+	public int loadIndex() throws IOException {
+		LocationHashIndex index = LocationHashIndex.load(indexFile);
+		return index.getId(index.size() - 1);
+	}
+}
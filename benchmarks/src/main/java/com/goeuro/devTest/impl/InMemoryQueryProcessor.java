@@ -0,0 +1,26 @@
+package com.goeuro.devTest.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+/**
+ * {@link QueryProcessorImpl} that answers every query with the same reply from memory, like the unit tests do.
+ */
+public class InMemoryQueryProcessor extends QueryProcessorImpl {
+
+	private final byte[] reply;
+
+	/**
+	 * @param reply the JSON reply returned for every query
+	 * @param csvBaseDirectory where the CSVs are written
+	 */
+	public InMemoryQueryProcessor(byte[] reply, String csvBaseDirectory) {
+		super("http://localhost/", csvBaseDirectory, "UTF-8");
+		this.reply = reply;
+	}
+
+	@Override
+	protected InputStream getUrlInputStream(String location) {
+		return new ByteArrayInputStream(reply);
+	}
+}
@@ -0,0 +1,131 @@
+package com.goeuro.devTest.impl;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * How long the {@link StubUpstream} waits before answering, drawn independently for every request.
+ * Written as {@code fixed:MS}, {@code uniform:MIN-MAX}, {@code exponential:MEAN} or {@code lognormal:MEDIAN:P99},
+ * all in milliseconds, see {@link #parse(String)}.
+ */
+public abstract class LatencyDistribution {
+
+	/**
+	 * No delay at all.
+	 */
+	public static final LatencyDistribution NONE = fixed(0);
+
+	/**
+	 * The 99th percentile of the standard normal distribution.
+	 */
+	private static final double Z_99 = 2.3263478740408408;
+
+	private final String description;
+
+	private LatencyDistribution(String description) {
+		this.description = description;
+	}
+
+	/**
+	 * @param random the source of randomness of the calling thread
+	 * @return a delay in nanoseconds, never negative
+	 */
+	public abstract long sample(Random random);
+
+	@Override
+	public String toString() {
+		return description;
+	}
+
+	/**
+	 * @param millis the delay of every request
+	 */
+	public static LatencyDistribution fixed(double millis) {
+		Validate.isTrue(millis >= 0, "millis must not be negative: %f", millis);
+		final long nanos = toNanos(millis);
+		return new LatencyDistribution("fixed:" + millis) {
+			public long sample(Random random) {
+				return nanos;
+			}
+		};
+	}
+
+	/**
+	 * @param min the shortest delay
+	 * @param max the longest delay, not less than {@code min}
+	 */
+	public static LatencyDistribution uniform(double min, double max) {
+		Validate.isTrue(min >= 0 && max >= min, "Invalid range: %f-%f", min, max);
+		final long from = toNanos(min);
+		final long range = toNanos(max) - from;
+		return new LatencyDistribution("uniform:" + min + "-" + max) {
+			public long sample(Random random) {
+				return from + (long) (random.nextDouble() * range);
+			}
+		};
+	}
+
+	/**
+	 * Independent arrivals, e.g. a backend with a queue.
+	 *
+	 * @param mean the mean delay
+	 */
+	public static LatencyDistribution exponential(double mean) {
+		Validate.isTrue(mean >= 0, "mean must not be negative: %f", mean);
+		final double meanNanos = toNanos(mean);
+		return new LatencyDistribution("exponential:" + mean) {
+			public long sample(Random random) {
+				return (long) (-meanNanos * Math.log(1 - random.nextDouble()));
+			}
+		};
+	}
+
+	/**
+	 * A long tail as seen from real services, given by its median and its 99th percentile.
+	 *
+	 * @param median the median delay, positive
+	 * @param p99 the 99th percentile, not less than {@code median}
+	 */
+	public static LatencyDistribution lognormal(double median, double p99) {
+		Validate.isTrue(median > 0 && p99 >= median, "Invalid median and p99: %f:%f", median, p99);
+		final double mu = Math.log(toNanos(median));
+		final double sigma = Math.log(p99 / median) / Z_99;
+		return new LatencyDistribution("lognormal:" + median + ":" + p99) {
+			public long sample(Random random) {
+				return (long) Math.exp(mu + sigma * random.nextGaussian());
+			}
+		};
+	}
+
+	/**
+	 * @param value {@code fixed:MS}, {@code uniform:MIN-MAX}, {@code exponential:MEAN} or {@code lognormal:MEDIAN:P99},
+	 * in milliseconds
+	 * @return the distribution
+	 * @throws IllegalArgumentException if {@code value} is none of these
+	 */
+	public static LatencyDistribution parse(String value) {
+		Validate.notBlank(value);
+
+		String[] parts = value.trim().split("[:-]");
+		try {
+			if ("fixed".equals(parts[0]) && parts.length == 2) {
+				return fixed(Double.parseDouble(parts[1]));
+			} else if ("uniform".equals(parts[0]) && parts.length == 3) {
+				return uniform(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+			} else if ("exponential".equals(parts[0]) && parts.length == 2) {
+				return exponential(Double.parseDouble(parts[1]));
+			} else if ("lognormal".equals(parts[0]) && parts.length == 3) {
+				return lognormal(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid latency distribution: " + value, e);
+		}
+		throw new IllegalArgumentException("Invalid latency distribution: " + value);
+	}
+
+	private static long toNanos(double millis) {
+		return (long) (millis * TimeUnit.MILLISECONDS.toNanos(1));
+	}
+}
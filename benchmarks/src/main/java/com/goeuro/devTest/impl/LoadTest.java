@@ -0,0 +1,399 @@
+package com.goeuro.devTest.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.lang3.Validate;
+
+import com.goeuro.devTest.Arguments;
+import com.goeuro.devTest.OutputFormats;
+import com.goeuro.devTest.QueryProcessorException;
+
+/**
+ * Drives a {@link QueryProcessorImpl} against a {@link StubUpstream}, or any endpoint, over real HTTP and reports
+ * for every parsing mode and every step of a sweep the throughput, the latency percentiles, the CPU and the GC time,
+ * then the step where each mode saturates: the first reaching 95% of its best throughput.
+ * <p>
+ * A sweep is either of concurrencies, closed loop: every worker sends its next query when the previous one is done,
+ * or of request rates, open loop: the queries are sent on schedule whether or not the previous ones are done, and
+ * their latency counts from when they were due, so that a saturated processor shows in the percentiles instead of
+ * slowing the load down.
+ * <p>
+ * {@code java -cp benchmarks/target/benchmarks.jar com.goeuro.devTest.impl.LoadTest [options]}, options:
+ * <ul>
+ * <li>{@code --concurrency=1,2,4,...} or {@code --rate=100,200,...} (requests per second), the steps of the sweep</li>
+ * <li>{@code --modes=GSON,STREAMING,BYTES}, the parsing modes</li>
+ * <li>{@code --duration=10} and {@code --warmup=3}, seconds measured and seconds ignored before, for every step</li>
+ * <li>{@code --output=null} to count the CSV bytes only or {@code --output=file} to write and delete the files</li>
+ * <li>{@code --format=csv}, the output format</li>
+ * <li>{@code --keys=1000}, the number of distinct locations queried</li>
+ * <li>{@code --max-connections=N}, the connection pool, by default the highest concurrency</li>
+ * <li>{@code --url=URL} of a running {@link StubUpstream} or endpoint, otherwise a stub is started in this JVM with
+ * the options of {@link StubUpstream#main(String[])}; its CPU and GC are then part of the report</li>
+ * </ul>
+ */
+public class LoadTest {
+
+	private static final double SATURATION = 0.95;
+
+	private static final int DEFAULT_MAX_IN_FLIGHT = 4096;
+
+	private final String url;
+
+	private final File directory;
+
+	private final boolean files;
+
+	private final String format;
+
+	private final int keys;
+
+	private final int maxConnections;
+
+	private final PrintStream out;
+
+	/**
+	 * @param url the base URL of the endpoint
+	 * @param directory where the files are written if {@code files}
+	 * @param files whether the queries write files, otherwise their CSV is only counted
+	 * @param format the output format, see {@link OutputFormats}
+	 * @param keys the number of distinct locations queried
+	 * @param maxConnections the size of the connection pool
+	 * @param out where the report is printed
+	 */
+	public LoadTest(String url, File directory, boolean files, String format, int keys, int maxConnections, PrintStream out) {
+		Validate.notBlank(url);
+		Validate.notNull(directory);
+		OutputFormats.forName(format);
+		Validate.isTrue(keys > 0, "keys must be positive: %d", keys);
+		Validate.isTrue(maxConnections > 0, "maxConnections must be positive: %d", maxConnections);
+		Validate.notNull(out);
+
+		this.url = url;
+		this.directory = directory;
+		this.files = files;
+		this.format = format;
+		this.keys = keys;
+		this.maxConnections = maxConnections;
+		this.out = out;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Arguments arguments = Arguments.parse(args);
+		boolean open = arguments.hasOption("rate");
+		int[] steps = parseInts(arguments.getOption(open ? "rate" : "concurrency", "1,2,4,8,16,32,64"));
+		List<ParsingMode> modes = new ArrayList<ParsingMode>();
+		for (String mode : arguments.getOption("modes", "GSON,STREAMING,BYTES").split(",")) {
+			modes.add(ParsingMode.valueOf(mode.trim()));
+		}
+		long duration = TimeUnit.SECONDS.toNanos(Long.parseLong(arguments.getOption("duration", "10")));
+		long warmup = TimeUnit.SECONDS.toNanos(Long.parseLong(arguments.getOption("warmup", "3")));
+		int highest = 0;
+		for (int step : steps) {
+			highest = Math.max(highest, step);
+		}
+
+		StubUpstream stub = null;
+		String url = arguments.getOption("url", null);
+		if (url == null) {
+			stub = StubUpstream.create(arguments, 0);
+			stub.start();
+			url = stub.getUrl();
+		}
+		File directory = File.createTempFile("loadtest", "");
+		directory.delete();
+		try {
+			LoadTest loadTest = new LoadTest(url, directory, "file".equals(arguments.getOption("output", "null")),
+					arguments.getOption("format", OutputFormats.DEFAULT_FORMAT),
+					Integer.parseInt(arguments.getOption("keys", "1000")),
+					Integer.parseInt(arguments.getOption("max-connections", Integer.toString(open ? 64 : highest))),
+					System.out);
+			System.out.println("Endpoint " + url + (stub == null ? "" : " (stub in this JVM, counted in CPU and GC)"));
+			loadTest.sweep(modes, steps, open, warmup, duration);
+		} finally {
+			if (stub != null) {
+				stub.stop();
+			}
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	/**
+	 * Runs every step for every mode and prints a line per step, then the saturation point of every mode.
+	 *
+	 * @param modes the parsing modes
+	 * @param steps the concurrencies or the rates
+	 * @param open whether the steps are rates
+	 * @param warmup nanoseconds run before every step is measured
+	 * @param duration nanoseconds measured of every step
+	 * @throws InterruptedException when interrupted
+	 */
+	public void sweep(List<ParsingMode> modes, int[] steps, boolean open, long warmup, long duration)
+			throws InterruptedException, IOException {
+		out.println(String.format(Locale.ROOT, "%-9s %6s %9s %7s %9s %8s %8s %8s %8s %8s %6s %8s %5s",
+				"mode", open ? "rate" : "conc", "requests", "errors", "req/s", "CSV MB/s",
+				"p50 ms", "p90 ms", "p99 ms", "p999 ms", "cpu %", "gc ms", "gcs"));
+		List<String> saturation = new ArrayList<String>();
+		for (ParsingMode mode : modes) {
+			QueryProcessorImpl processor = this.createProcessor(mode);
+			try {
+				List<Step> results = new ArrayList<Step>();
+				for (int step : steps) {
+					this.run(processor, step, open, warmup);
+					Step result = this.run(processor, step, open, duration);
+					result.mode = mode;
+					out.println(result);
+					results.add(result);
+				}
+				saturation.add(saturationOf(results, open));
+			} finally {
+				IOUtils.closeQuietly(processor);
+			}
+		}
+		for (String line : saturation) {
+			out.println(line);
+		}
+	}
+
+	/**
+	 * Runs a single step.
+	 *
+	 * @param step the concurrency or the rate
+	 * @param duration nanoseconds to run
+	 * @return the measures of the step
+	 */
+	Step run(final QueryProcessorImpl processor, int step, boolean open, long duration)
+			throws InterruptedException, IOException {
+		final Step result = new Step(step);
+		final long deadline = System.nanoTime() + duration;
+		final AtomicLong sequence = new AtomicLong();
+		Usage usage = new Usage();
+		long start = System.nanoTime();
+		if (open) {
+			ExecutorService executor = Executors.newCachedThreadPool();
+			Semaphore inFlight = new Semaphore(DEFAULT_MAX_IN_FLIGHT);
+			long interval = TimeUnit.SECONDS.toNanos(1) / step;
+			try {
+				for (long due = start; due < deadline; due += interval) {
+					long wait = due - System.nanoTime();
+					if (wait > 0) {
+						TimeUnit.NANOSECONDS.sleep(wait);
+					}
+					if (!inFlight.tryAcquire()) {
+						result.dropped.increment();
+						continue;
+					}
+					final long scheduled = due;
+					final Semaphore permits = inFlight;
+					executor.execute(new Runnable() {
+						public void run() {
+							try {
+								query(processor, "location-" + sequence.getAndIncrement() % keys, scheduled, result);
+							} finally {
+								permits.release();
+							}
+						}
+					});
+				}
+			} finally {
+				executor.shutdown();
+				executor.awaitTermination(1, TimeUnit.MINUTES);
+			}
+		} else {
+			List<Thread> workers = new ArrayList<Thread>();
+			for (int i = 0; i < step; i++) {
+				Thread worker = new Thread(new Runnable() {
+					public void run() {
+						while (System.nanoTime() < deadline) {
+							query(processor, "location-" + sequence.getAndIncrement() % keys, System.nanoTime(), result);
+						}
+					}
+				}, "load-" + i);
+				worker.start();
+				workers.add(worker);
+			}
+			for (Thread worker : workers) {
+				worker.join();
+			}
+		}
+		result.elapsed = System.nanoTime() - start;
+		usage.end(result);
+		if (files) {
+			FileUtils.cleanDirectory(directory);
+		}
+		return result;
+	}
+
+	/**
+	 * @return a processor of the mode on a connection pool of {@code maxConnections}
+	 */
+	QueryProcessorImpl createProcessor(ParsingMode mode) {
+		QueryProcessorImpl processor = new QueryProcessorImpl(url, directory.getPath(), "UTF-8");
+		processor.setParsingMode(mode);
+		processor.setOutputFormat(OutputFormats.forName(format));
+		processor.setTransport(new PooledHttpTransport(maxConnections, PooledHttpTransport.DEFAULT_CONNECT_TIMEOUT,
+				PooledHttpTransport.DEFAULT_READ_TIMEOUT, PooledHttpTransport.DEFAULT_KEEP_ALIVE, true));
+		return processor;
+	}
+
+	/**
+	 * Runs a query and records its latency from {@code start}, or its failure.
+	 */
+	private void query(QueryProcessorImpl processor, String location, long start, Step result) {
+		try {
+			long bytes;
+			if (files) {
+				File file = processor.process(location);
+				bytes = file.length();
+				file.delete();
+			} else {
+				CountingOutputStream outputStream = new CountingOutputStream(new NullOutputStream());
+				processor.process(location, outputStream);
+				bytes = outputStream.getByteCount();
+			}
+			result.latency.record(System.nanoTime() - start);
+			result.bytes.add(bytes);
+		} catch (QueryProcessorException e) {
+			result.errors.increment();
+		}
+	}
+
+	/**
+	 * @return the first step reaching {@value #SATURATION} of the best throughput
+	 */
+	private static String saturationOf(List<Step> results, boolean open) {
+		double best = 0;
+		for (Step result : results) {
+			best = Math.max(best, result.getThroughput());
+		}
+		for (Step result : results) {
+			if (result.getThroughput() >= SATURATION * best) {
+				return String.format(Locale.ROOT, "%s saturates at %s %d: %.1f req/s, p99 %.1f ms", result.mode,
+						open ? "rate" : "concurrency", result.step, result.getThroughput(),
+						millis(result.latency.getPercentile(99)));
+			}
+		}
+		return results.isEmpty() ? "" : results.get(0).mode + " completed no query";
+	}
+
+	private static int[] parseInts(String values) {
+		String[] parts = values.split(",");
+		int[] result = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			result[i] = Integer.parseInt(parts[i].trim());
+			Validate.isTrue(result[i] > 0, "Steps must be positive: %s", values);
+		}
+		return result;
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1e6;
+	}
+
+	/**
+	 * The measures of a step.
+	 */
+	static class Step {
+
+		final int step;
+
+		ParsingMode mode;
+
+		final LatencyHistogram latency = new LatencyHistogram();
+
+		final LongAdder errors = new LongAdder();
+
+		/**
+		 * Queries not sent by the open loop because too many were in flight.
+		 */
+		final LongAdder dropped = new LongAdder();
+
+		final LongAdder bytes = new LongAdder();
+
+		long elapsed;
+
+		long cpu;
+
+		long gcTime;
+
+		long gcCount;
+
+		Step(int step) {
+			this.step = step;
+		}
+
+		double getThroughput() {
+			return latency.getCount() * 1e9 / elapsed;
+		}
+
+		@Override
+		public String toString() {
+			double seconds = elapsed / 1e9;
+			return String.format(Locale.ROOT, "%-9s %6d %9d %7d %9.1f %8.1f %8.2f %8.2f %8.2f %8.2f %6.0f %8d %5d%s",
+					mode, step, latency.getCount(), errors.sum(), this.getThroughput(), bytes.sum() / 1e6 / seconds,
+					millis(latency.getPercentile(50)), millis(latency.getPercentile(90)),
+					millis(latency.getPercentile(99)), millis(latency.getPercentile(99.9)),
+					cpu < 0 ? -1 : 100.0 * cpu / elapsed / Runtime.getRuntime().availableProcessors(),
+					TimeUnit.NANOSECONDS.toMillis(gcTime), gcCount,
+					dropped.sum() > 0 ? " (" + dropped.sum() + " dropped)" : "");
+		}
+	}
+
+	/**
+	 * The CPU time of the process and the time and number of the collections, from the start to the end of a step.
+	 */
+	private static class Usage {
+
+		private final long cpu = cpuTime();
+
+		private final long gcTime;
+
+		private final long gcCount;
+
+		Usage() {
+			long time = 0;
+			long count = 0;
+			for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+				time += Math.max(0, collector.getCollectionTime());
+				count += Math.max(0, collector.getCollectionCount());
+			}
+			this.gcTime = time;
+			this.gcCount = count;
+		}
+
+		void end(Step step) {
+			Usage end = new Usage();
+			step.cpu = cpu < 0 ? -1 : end.cpu - cpu;
+			step.gcTime = TimeUnit.MILLISECONDS.toNanos(end.gcTime - gcTime);
+			step.gcCount = end.gcCount - gcCount;
+		}
+
+		/**
+		 * @return the CPU time of the process in nanoseconds, -1 if not available
+		 */
+		private static long cpuTime() {
+			OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+			if (os instanceof com.sun.management.OperatingSystemMXBean) {
+				return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+			}
+			return -1;
+		}
+	}
+}
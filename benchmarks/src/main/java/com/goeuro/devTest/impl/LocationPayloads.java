@@ -0,0 +1,52 @@
+package com.goeuro.devTest.impl;
+
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates endpoint replies of a given number of locations for the benchmarks.
+ * The same seed always produces the same reply.
+ */
+public final class LocationPayloads {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final String[] TYPES = {"location", "airport", "station"};
+
+	private static final String[] NAMES = {"Berlin", "Hamburg", "München", "Köln", "Frankfurt am Main", "Stuttgart", 
+			"Düsseldorf", "Alcázar del Rey", "Zürich", "Wien", "Kraków", "Saint-Étienne"};
+
+	private LocationPayloads() {
+	}
+
+	/**
+	 * @param count number of locations
+	 * @return the JSON reply as UTF-8
+	 */
+	public static byte[] json(int count) {
+		Random random = new Random(count);
+		StringBuilder json = new StringBuilder(count * 130);
+		json.append('[');
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			json.append("{\"_id\":").append(100000 + i)
+				.append(",\"key\":null")
+				.append(",\"name\":\"").append(NAMES[random.nextInt(NAMES.length)]).append(' ').append(i).append('"')
+				.append(",\"fullName\":\"").append(NAMES[random.nextInt(NAMES.length)]).append(", Germany\"")
+				.append(",\"iata_airport_code\":null")
+				.append(",\"type\":\"").append(TYPES[random.nextInt(TYPES.length)]).append('"')
+				.append(",\"country\":\"Germany\"")
+				.append(",\"geo_position\":{\"latitude\":")
+				.append(String.format(Locale.ROOT, "%.5f", random.nextDouble() * 180 - 90))
+				.append(",\"longitude\":")
+				.append(String.format(Locale.ROOT, "%.5f", random.nextDouble() * 360 - 180))
+				.append("},\"locationId\":").append(8000000 + i)
+				.append(",\"inEurope\":true,\"countryCode\":\"DE\",\"coreCountry\":true,\"distance\":null}");
+		}
+		json.append(']');
+		return json.toString().getBytes(UTF_8);
+	}
+}
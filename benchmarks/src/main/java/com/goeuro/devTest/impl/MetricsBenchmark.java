@@ -0,0 +1,63 @@
+package com.goeuro.devTest.impl;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.goeuro.devTest.LocationSink;
+import com.goeuro.devTest.QueryProcessorException;
+
+/**
+ * Overhead of the {@link QueryMetrics}: {@code process()} of an in-memory reply with and without metrics.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+
+	@Param({"10", "1000"})
+	public int count;
+
+	@Param({"false", "true"})
+	public boolean metrics;
+
+	private InMemoryQueryProcessor processor;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		processor = new InMemoryQueryProcessor(LocationPayloads.json(count), "csv");
+		processor.setParsingMode(ParsingMode.STREAMING);
+		if (metrics) {
+			processor.setMetrics(new QueryMetrics());
+		}
+	}
+
+	/**
+	 * The whole of {@code process()} from the in-memory reply to CSV, without touching the disk.
+	 */
+	@Benchmark
+	public void processToSink() throws QueryProcessorException, IOException {
+		LocationSink sink = new CsvLocationSink(new BufferedWriter(
+				new OutputStreamWriter(new NullOutputStream(), "UTF-8"), AbstractQueryProcessor.DEFAULT_BUFFER_SIZE));
+		processor.process("Berlin", sink);
+		sink.close();
+	}
+}
@@ -0,0 +1,92 @@
+package com.goeuro.devTest.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.goeuro.devTest.LocationSink;
+import com.goeuro.devTest.OutputFormat;
+import com.goeuro.devTest.OutputFormats;
+import com.goeuro.devTest.QueryProcessorException;
+
+/**
+ * Compares the {@link OutputFormat}s: writing {@code count} locations and reading them back.
+ * The bytes written per location are printed when each trial starts.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OutputFormatBenchmark {
+
+	@Param({"100000"})
+	public int count;
+
+	@Param({"csv", "csv.gz", "ndjson", "columnar"})
+	public String format;
+
+	private OutputFormat outputFormat;
+
+	private List<LocationJson> locations;
+
+	private byte[] written;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException, QueryProcessorException {
+		outputFormat = OutputFormats.forName(format);
+		RecordingLocationSink recorder = new RecordingLocationSink();
+		new InMemoryQueryProcessor(LocationPayloads.json(count), "csv").process("Berlin", recorder);
+		locations = recorder.getRecords();
+
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		this.write(outputStream);
+		written = outputStream.toByteArray();
+		System.out.printf("%n%s: %d bytes, %.1f bytes per location%n", format, written.length, (double) written.length / count);
+	}
+
+	@Benchmark
+	public void write() throws IOException {
+		this.write(new NullOutputStream());
+	}
+
+	@Benchmark
+	public void read(final Blackhole blackhole) throws IOException {
+		outputFormat.read(new ByteArrayInputStream(written), "UTF-8", new LocationSink() {
+			public void write(int id, String name, String type, String latitude, String longitude) {
+				blackhole.consume(id);
+				blackhole.consume(name);
+				blackhole.consume(type);
+				blackhole.consume(latitude);
+				blackhole.consume(longitude);
+			}
+			public void close() {
+			}
+		});
+	}
+
+	private void write(OutputStream outputStream) throws IOException {
+		LocationSink sink = outputFormat.createSink(outputStream, "UTF-8", AbstractQueryProcessor.DEFAULT_BUFFER_SIZE);
+		RecordingLocationSink.replay(locations, sink);
+		sink.close();
+	}
+}
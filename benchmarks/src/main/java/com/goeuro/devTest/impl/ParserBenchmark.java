@@ -0,0 +1,91 @@
+package com.goeuro.devTest.impl;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.goeuro.devTest.LocationSink;
+import com.goeuro.devTest.QueryProcessorException;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Compares the {@link ParsingMode}s, alone and as part of {@code process()}.
+ * Run with {@code -prof gc} to compare the allocation per reply.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParserBenchmark {
+
+	@Param({"1000", "100000"})
+	public int count;
+
+	@Param({"GSON", "STREAMING"})
+	public ParsingMode mode;
+
+	private byte[] reply;
+
+	private LocationParser parser;
+
+	private InMemoryQueryProcessor processor;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		reply = LocationPayloads.json(count);
+		parser = mode.createParser();
+		processor = new InMemoryQueryProcessor(reply, "csv");
+		processor.setParsingMode(mode);
+	}
+
+	/**
+	 * Parsing every location into a sink that only consumes the columns.
+	 */
+	@Benchmark
+	public void parse(final Blackhole blackhole) throws IOException {
+		JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(reply), "UTF-8"));
+		parser.parse(reader, new LocationSink() {
+			public void write(int id, String name, String type, String latitude, String longitude) {
+				blackhole.consume(id);
+				blackhole.consume(name);
+				blackhole.consume(type);
+				blackhole.consume(latitude);
+				blackhole.consume(longitude);
+			}
+			public void close() {
+			}
+		});
+		reader.close();
+	}
+
+	/**
+	 * The whole of {@code process()} from the in-memory reply to CSV, without touching the disk.
+	 */
+	@Benchmark
+	public void processToSink() throws QueryProcessorException, IOException {
+		LocationSink sink = new CsvLocationSink(new BufferedWriter(
+				new OutputStreamWriter(new NullOutputStream(), "UTF-8"), AbstractQueryProcessor.DEFAULT_BUFFER_SIZE));
+		processor.process("Berlin", sink);
+		sink.close();
+	}
+}
@@ -0,0 +1,153 @@
+package com.goeuro.devTest.impl;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.goeuro.devTest.LocationSink;
+import com.goeuro.devTest.QueryOptions;
+import com.goeuro.devTest.QueryProcessorException;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Measures each stage of the parse, flatten and write pipeline in isolation and the whole of {@code process()}.
+ * Every benchmark handles a complete reply of {@code count} locations.
+ * Run with {@code -prof gc} to get the allocation rate.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PipelineBenchmark {
+
+	@Param({"10", "1000", "100000", "1000000"})
+	public int count;
+
+	private byte[] reply;
+
+	private LocationJson[] locations;
+
+	private Object[][] flattened;
+
+	private File directory;
+
+	private InMemoryQueryProcessor processor;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		reply = LocationPayloads.json(count);
+		directory = Files.createTempDirectory("benchmark").toFile();
+		processor = new InMemoryQueryProcessor(reply, directory.getPath());
+
+		RecordingLocationSink recorder = new RecordingLocationSink();
+		processor.parse(new ByteArrayInputStream(reply), recorder, QueryOptions.ALL);
+		locations = recorder.getRecords().toArray(new LocationJson[count]);
+		flattened = new Object[count][];
+		for (int i = 0; i < count; i++) {
+			flattened[i] = processor.flatten(locations[i]);
+		}
+	}
+
+	@TearDown(Level.Iteration)
+	public void cleanDirectory() throws IOException {
+		FileUtils.cleanDirectory(directory);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	/**
+	 * Gson {@code fromJson} of every element into {@link LocationJson}.
+	 */
+	@Benchmark
+	public void gsonFromJson(Blackhole blackhole) throws IOException {
+		JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(reply), "UTF-8"));
+		Gson gson = new Gson();
+		reader.beginArray();
+		while (reader.hasNext()) {
+			blackhole.consume(gson.fromJson(reader, LocationJson.class));
+		}
+		reader.close();
+	}
+
+	/**
+	 * {@link QueryProcessorImpl#flatten(LocationJson)} of every location.
+	 */
+	@Benchmark
+	public void flatten(Blackhole blackhole) {
+		for (LocationJson location : locations) {
+			blackhole.consume(processor.flatten(location));
+		}
+	}
+
+	/**
+	 * {@link CSVFormat#format(Object...)} of every location, as the records were formatted before the sink.
+	 */
+	@Benchmark
+	public void csvFormat(Blackhole blackhole) {
+		for (Object[] values : flattened) {
+			blackhole.consume(CSVFormat.DEFAULT.format(values));
+		}
+	}
+
+	/**
+	 * Writing every location through the {@link CsvLocationSink} that replaced {@code writeCsv}, without touching the disk.
+	 */
+	@Benchmark
+	public void sinkWrite() throws IOException {
+		LocationSink sink = new CsvLocationSink(new BufferedWriter(
+				new OutputStreamWriter(new NullOutputStream(), "UTF-8"), AbstractQueryProcessor.DEFAULT_BUFFER_SIZE));
+		for (LocationJson json : locations) {
+			sink.write(json.get_id(), json.getName(), json.getType(), 
+					json.getGeoPosition().getLatitude(), json.getGeoPosition().getLongitude());
+		}
+		sink.close();
+	}
+
+	/**
+	 * The whole of {@code process()} from the in-memory reply to CSV, without touching the disk.
+	 */
+	@Benchmark
+	public void processToSink() throws QueryProcessorException, IOException {
+		LocationSink sink = new CsvLocationSink(new BufferedWriter(
+				new OutputStreamWriter(new NullOutputStream(), "UTF-8"), AbstractQueryProcessor.DEFAULT_BUFFER_SIZE));
+		processor.process("Berlin", sink);
+		sink.close();
+	}
+
+	/**
+	 * The whole of {@code process()} from the in-memory reply to a CSV file.
+	 */
+	@Benchmark
+	public File processToFile() throws QueryProcessorException {
+		return processor.process("Berlin");
+	}
+}
@@ -0,0 +1,158 @@
+package com.goeuro.devTest.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.goeuro.devTest.LocationSink;
+import com.goeuro.devTest.QueryProcessorException;
+
+/**
+ * Overlap gained by {@link AbstractQueryProcessor#setPipelining(int, int)}: {@code process()} of a large reply
+ * that arrives at {@code networkMBps} and is written at {@code diskMBps}, with the writer on the querying thread
+ * ({@code batchSize} 0) or on its own thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PipelinedWriteBenchmark {
+
+	@Param({"20000"})
+	public int count;
+
+	@Param({"0", "64", "512", "4096"})
+	public int batchSize;
+
+	@Param({"4"})
+	public int queueCapacity;
+
+	@Param({"40"})
+	public int networkMBps;
+
+	@Param({"10"})
+	public int diskMBps;
+
+	private InMemoryQueryProcessor processor;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		processor = new InMemoryQueryProcessor(LocationPayloads.json(count), "csv") {
+			@Override
+			protected InputStream getUrlInputStream(String location) {
+				return new ThrottledInputStream(super.getUrlInputStream(location), networkMBps);
+			}
+			@Override
+			protected void createDirectoryIfNotExisting(String directory) {
+			}
+			@Override
+			protected void createFile(File file) {
+			}
+			@Override
+			protected File publishFile(File temporary, File file) {
+				return file;
+			}
+			@Override
+			protected LocationSink createSink(File file) throws IOException {
+				return getOutputFormat().createSink(new ThrottledOutputStream(new NullOutputStream(), diskMBps),
+						getCsvEncoding(), getBufferSize());
+			}
+		};
+		processor.setParsingMode(ParsingMode.STREAMING);
+		processor.setPipelining(batchSize, queueCapacity);
+	}
+
+	/**
+	 * The whole of {@code process()} from the throttled reply to the throttled file.
+	 */
+	@Benchmark
+	public File process() throws QueryProcessorException {
+		return processor.process("Berlin");
+	}
+
+	/**
+	 * Blocks every call for as long as its bytes take at the given rate, like a slow link or disk.
+	 */
+	private static final class Throttle {
+
+		private final long nanosPerByte;
+
+		Throttle(int megabytesPerSecond) {
+			this.nanosPerByte = 1000L / megabytesPerSecond;
+		}
+
+		void pass(int count) {
+			if (count > 0) {
+				LockSupport.parkNanos(count * nanosPerByte);
+			}
+		}
+	}
+
+	private static final class ThrottledInputStream extends FilterInputStream {
+
+		private final Throttle throttle;
+
+		ThrottledInputStream(InputStream in, int megabytesPerSecond) {
+			super(in);
+			this.throttle = new Throttle(megabytesPerSecond);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			throttle.pass(b < 0 ? 0 : 1);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, Math.min(len, 8192));
+			throttle.pass(read);
+			return read;
+		}
+	}
+
+	private static final class ThrottledOutputStream extends FilterOutputStream {
+
+		private final Throttle throttle;
+
+		ThrottledOutputStream(OutputStream out, int megabytesPerSecond) {
+			super(out);
+			this.throttle = new Throttle(megabytesPerSecond);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			throttle.pass(1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			throttle.pass(len);
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package com.goeuro.devTest.impl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.goeuro.devTest.LocationSink;
+import com.goeuro.devTest.QueryOptions;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * A large reply parsed to a discarding CSV with every location, with one type of three, with the locations of
+ * a bounding box around Europe and with the positions only. {@link ParsingMode#GSON} filters what it has mapped,
+ * as every processor not reading the reply itself, {@link ParsingMode#STREAMING} and {@link ParsingMode#BYTES}
+ * skip what the options leave out while parsing. Run with {@code -prof gc} to compare the allocation per reply.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryOptionsBenchmark {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	@Param({"100000"})
+	public int count;
+
+	@Param({"GSON", "STREAMING", "BYTES"})
+	public ParsingMode mode;
+
+	@Param({"ALL", "TYPE", "BOUNDING_BOX", "POSITIONS"})
+	public String filter;
+
+	private byte[] reply;
+
+	private QueryOptions options;
+
+	private LocationParser parser;
+
+	private ByteLocationParser byteParser;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		reply = LocationPayloads.json(count);
+		if ("TYPE".equals(filter)) {
+			options = QueryOptions.ALL.withTypes("airport");
+		} else if ("BOUNDING_BOX".equals(filter)) {
+			options = QueryOptions.ALL.withBoundingBox(35, -10, 70, 40);
+		} else if ("POSITIONS".equals(filter)) {
+			options = QueryOptions.ALL.withColumns(QueryOptions.Column.LATITUDE, QueryOptions.Column.LONGITUDE);
+		} else {
+			options = QueryOptions.ALL;
+		}
+		parser = mode.createParser();
+		byteParser = mode.createByteParser(false);
+	}
+
+	/**
+	 * The locations kept parsed and written as CSV, without touching the disk.
+	 */
+	@Benchmark
+	public void parseToCsv() throws IOException {
+		if (byteParser != null) {
+			LocationSink sink = new ByteCsvLocationSink(Channels.newChannel(new NullOutputStream()), UTF_8,
+					AbstractQueryProcessor.DEFAULT_BUFFER_SIZE);
+			byteParser.parse(Channels.newChannel(new ByteArrayInputStream(reply)), UTF_8, sink, options);
+			sink.close();
+		} else {
+			LocationSink sink = new CsvLocationSink(new BufferedWriter(new OutputStreamWriter(new NullOutputStream(), UTF_8),
+					AbstractQueryProcessor.DEFAULT_BUFFER_SIZE));
+			JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(new ByteArrayInputStream(reply), UTF_8)));
+			parser.parse(reader, sink, options);
+			reader.close();
+			sink.close();
+		}
+	}
+}
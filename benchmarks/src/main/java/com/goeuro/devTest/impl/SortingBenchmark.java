@@ -0,0 +1,111 @@
+package com.goeuro.devTest.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.goeuro.devTest.LocationSink;
+
+/**
+ * Ten million generated locations sorted by a {@link SortingLocationSink} with a budget far below their size,
+ * in a heap of 1 GB, into a sink that only counts them: rows per second is {@code rows} divided by the time of
+ * {@link #sort()}, {@link #generate()} being the cost of producing the rows alone.
+ * Compare {@code threads} to see how much of the run generation overlaps on several cores.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@State(Scope.Benchmark)
+public class SortingBenchmark {
+
+	private static final String[] NAMES = {"Berlin", "Hamburg", "München", "Köln", "Frankfurt am Main", "Stuttgart",
+		"Düsseldorf", "Dortmund", "Essen", "Leipzig"};
+
+	private static final String[] TYPES = {"location", "airport", "station"};
+
+	@Param({"10000000"})
+	public int rows;
+
+	@Param({"ID", "TYPE_NAME"})
+	public SortingLocationSink.Order order;
+
+	@Param({"1", "4"})
+	public int threads;
+
+	@Param({"67108864"})
+	public long memory;
+
+	private File directory;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		directory = File.createTempFile("sorting", "");
+		directory.delete();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	/**
+	 * Every row written, sorted, spilled and merged.
+	 */
+	@Benchmark
+	public long sort() throws IOException {
+		CountingSink counter = new CountingSink();
+		SortingLocationSink sink = new SortingLocationSink(counter, order, directory, memory, threads);
+		this.write(sink);
+		sink.close();
+		return counter.count;
+	}
+
+	/**
+	 * Every row only generated, the baseline of {@link #sort()}.
+	 */
+	@Benchmark
+	public long generate() throws IOException {
+		CountingSink counter = new CountingSink();
+		this.write(counter);
+		return counter.count;
+	}
+
+	private void write(LocationSink sink) throws IOException {
+		Random random = new Random(rows);
+		for (int i = 0; i < rows; i++) {
+			int id = random.nextInt();
+			sink.write(id, NAMES[random.nextInt(NAMES.length)] + ' ' + (id & 0xffff), TYPES[random.nextInt(TYPES.length)],
+					"52.52437", "13.41053");
+		}
+	}
+
+	private static final class CountingSink implements LocationSink {
+
+		long count;
+
+		public void write(int id, String name, String type, String latitude, String longitude) {
+			count++;
+		}
+
+		public void close() {
+		}
+	}
+}
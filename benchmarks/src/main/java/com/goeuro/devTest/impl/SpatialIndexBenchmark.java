@@ -0,0 +1,95 @@
+package com.goeuro.devTest.impl;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Query latency of the {@link SpatialIndex} over {@code count} locations spread over Europe, as returned by the endpoint.
+ * Every query is centred on a different random location of the same area.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@State(Scope.Benchmark)
+public class SpatialIndexBenchmark {
+
+	private static final String[] TYPES = {"location", "airport", "station"};
+
+	private static final int CENTRES = 1024;
+
+	@Param({"1000000"})
+	public int count;
+
+	@Param({"0.1", "0.5"})
+	public double cellSize;
+
+	private SpatialIndex index;
+
+	private double[] latitudes;
+
+	private double[] longitudes;
+
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Random random = new Random(count);
+		LocationStore store = new LocationStore(count);
+		for (int i = 0; i < count; i++) {
+			store.add(i, "location" + i, TYPES[random.nextInt(TYPES.length)], 
+					35 + random.nextDouble() * 35, -10 + random.nextDouble() * 40);
+		}
+		index = new SpatialIndex(store, cellSize);
+		// builds the grid
+		index.nearest(0, 0, 1, null);
+
+		latitudes = new double[CENTRES];
+		longitudes = new double[CENTRES];
+		for (int i = 0; i < CENTRES; i++) {
+			latitudes[i] = 35 + random.nextDouble() * 35;
+			longitudes[i] = -10 + random.nextDouble() * 40;
+		}
+	}
+
+	/**
+	 * The 10 nearest locations of any type.
+	 */
+	@Benchmark
+	public int[] nearest10() {
+		int i = next++ & (CENTRES - 1);
+		return index.nearest(latitudes[i], longitudes[i], 10, null);
+	}
+
+	/**
+	 * The stations within 20 km.
+	 */
+	@Benchmark
+	public int[] stationsWithin20Km() {
+		int i = next++ & (CENTRES - 1);
+		return index.withinRadius(latitudes[i], longitudes[i], 20, "station");
+	}
+
+	/**
+	 * The airports in a box of one by one degree.
+	 */
+	@Benchmark
+	public int[] airportsInBox() {
+		int i = next++ & (CENTRES - 1);
+		return index.withinBox(latitudes[i], longitudes[i], latitudes[i] + 1, longitudes[i] + 1, "airport");
+	}
+}
@@ -0,0 +1,327 @@
+package com.goeuro.devTest.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.Validate;
+
+import com.goeuro.devTest.Arguments;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in for the location endpoint for load tests: answers {@code GET /{anything}/{location}} with one of
+ * its replies, the same one for the same location, after a delay drawn from a {@link LatencyDistribution},
+ * optionally in chunks with pauses in between, gzip compressed when asked and with an error status for a share
+ * of the requests. Requests are handled on virtual threads when available, otherwise on a cached pool, so that
+ * the delays do not hold each other up.
+ * <p>
+ * Runs on its own with {@code java -cp benchmarks/target/benchmarks.jar com.goeuro.devTest.impl.StubUpstream}
+ * and the options of {@link #main(String[])}, so that its CPU is not counted by the {@link LoadTest}.
+ */
+public class StubUpstream {
+
+	private static final String JSON_CONTENT_TYPE = "application/json;charset=UTF-8";
+
+	static {
+		// the headers and the body are written separately, with Nagle every reply would wait for a delayed ACK
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+	}
+
+	private final byte[][] replies;
+
+	private final byte[][] gzippedReplies;
+
+	private final int port;
+
+	private volatile LatencyDistribution latency = LatencyDistribution.NONE;
+
+	private volatile int chunkSize;
+
+	private volatile long chunkDelay;
+
+	private volatile double errorRate;
+
+	private volatile int errorStatus = 503;
+
+	private volatile boolean gzip = true;
+
+	private final LongAdder requests = new LongAdder();
+
+	private final LongAdder errors = new LongAdder();
+
+	private final LongAdder bytes = new LongAdder();
+
+	private HttpServer server;
+
+	private ExecutorService executor;
+
+	/**
+	 * @param replies the JSON replies in UTF-8, picked by the hash of the location
+	 * @param port the port to listen on, {@code 0} for any free port
+	 * @throws NullPointerException if {@code replies} is {@code null} or contains {@code null}
+	 * @throws IllegalArgumentException if {@code replies} is empty or {@code port} is not a valid port
+	 */
+	public StubUpstream(List<byte[]> replies, int port) {
+		Validate.notEmpty(replies);
+		Validate.noNullElements(replies);
+		Validate.inclusiveBetween(0, 65535, port, "port must be between 0 and 65535: " + port);
+
+		this.replies = replies.toArray(new byte[replies.size()][]);
+		this.gzippedReplies = new byte[this.replies.length][];
+		for (int i = 0; i < this.replies.length; i++) {
+			gzippedReplies[i] = gzip(this.replies[i]);
+		}
+		this.port = port;
+	}
+
+	/**
+	 * @param latency the delay before the status of every reply
+	 */
+	public void setLatency(LatencyDistribution latency) {
+		Validate.notNull(latency);
+		this.latency = latency;
+	}
+
+	/**
+	 * @param chunkSize bytes of every chunk of a chunked reply, {@code 0} to send the reply at once with its length
+	 * @param chunkDelay milliseconds between two chunks
+	 */
+	public void setChunking(int chunkSize, long chunkDelay) {
+		Validate.isTrue(chunkSize >= 0, "chunkSize must not be negative: %d", chunkSize);
+		Validate.isTrue(chunkDelay >= 0, "chunkDelay must not be negative: %d", chunkDelay);
+		this.chunkSize = chunkSize;
+		this.chunkDelay = chunkDelay;
+	}
+
+	/**
+	 * @param errorRate the share of the requests answered with {@code errorStatus}, between 0 and 1
+	 * @param errorStatus the status of the failed requests, e.g. 503 or 429
+	 */
+	public void setErrors(double errorRate, int errorStatus) {
+		Validate.inclusiveBetween(0.0, 1.0, errorRate);
+		Validate.inclusiveBetween(400, 599, errorStatus);
+		this.errorRate = errorRate;
+		this.errorStatus = errorStatus;
+	}
+
+	/**
+	 * @param gzip whether the replies are compressed for the requests accepting gzip, {@code true} by default
+	 */
+	public void setGzip(boolean gzip) {
+		this.gzip = gzip;
+	}
+
+	/**
+	 * Starts listening, returns immediately.
+	 *
+	 * @throws IOException when the port cannot be bound
+	 * @throws IllegalStateException if already started
+	 */
+	public synchronized void start() throws IOException {
+		Validate.validState(server == null, "Stub already started");
+
+		server = HttpServer.create(new InetSocketAddress(port), 1024);
+		server.createContext("/", new ReplyHandler());
+		executor = createExecutor();
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * Stops at once, the replies in progress are cut off.
+	 */
+	public synchronized void stop() {
+		if (server != null) {
+			server.stop(0);
+			executor.shutdownNow();
+			server = null;
+			executor = null;
+		}
+	}
+
+	/**
+	 * @return the base URL of the endpoint, to which the location is appended
+	 * @throws IllegalStateException if not started
+	 */
+	public synchronized String getUrl() {
+		Validate.validState(server != null, "Stub not started");
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/api/v2/position/suggest/en/";
+	}
+
+	public long getRequests() {
+		return requests.sum();
+	}
+
+	public long getErrors() {
+		return errors.sum();
+	}
+
+	/**
+	 * @return the bytes of the bodies sent, compressed or not
+	 */
+	public long getBytes() {
+		return bytes.sum();
+	}
+
+	/**
+	 * @param sizes the number of locations of every reply
+	 * @return generated replies, see {@link LocationPayloads#json(int)}
+	 */
+	public static List<byte[]> generate(int... sizes) {
+		List<byte[]> replies = new ArrayList<byte[]>();
+		for (int size : sizes) {
+			replies.add(LocationPayloads.json(size));
+		}
+		return replies;
+	}
+
+	/**
+	 * @param directory holds replies recorded from the real endpoint, one {@code .json} file each
+	 * @return the replies
+	 * @throws IOException when a file cannot be read
+	 * @throws IllegalArgumentException if there is no {@code .json} file
+	 */
+	public static List<byte[]> read(File directory) throws IOException {
+		List<byte[]> replies = new ArrayList<byte[]>();
+		File[] files = directory.listFiles();
+		if (files != null) {
+			Arrays.sort(files);
+			for (File file : files) {
+				if (file.getName().endsWith(".json")) {
+					replies.add(FileUtils.readFileToByteArray(file));
+				}
+			}
+		}
+		Validate.isTrue(!replies.isEmpty(), "No .json file in %s", directory);
+		return replies;
+	}
+
+	/**
+	 * Options, all optional: {@code --port=N} (8089), {@code --locations=N,...} (sizes of the generated replies, 1000)
+	 * or {@code --recorded=DIR}, {@code --latency=DISTRIBUTION} (see {@link LatencyDistribution#parse(String)}),
+	 * {@code --chunk-size=BYTES}, {@code --chunk-delay=MS}, {@code --error-rate=0..1}, {@code --error-status=N},
+	 * {@code --gzip=false}.
+	 */
+	public static void main(String[] args) throws IOException {
+		Arguments arguments = Arguments.parse(args);
+		StubUpstream stub = create(arguments, Integer.parseInt(arguments.getOption("port", "8089")));
+		stub.start();
+		System.out.println("Serving " + stub.replies.length + " replies on " + stub.getUrl() + ", latency " + stub.latency);
+	}
+
+	/**
+	 * @param arguments the options of {@link #main(String[])}
+	 * @param port the port to listen on
+	 * @return a stub configured from the options, not started
+	 * @throws IOException when the recorded replies cannot be read
+	 */
+	static StubUpstream create(Arguments arguments, int port) throws IOException {
+		List<byte[]> replies;
+		if (arguments.hasOption("recorded")) {
+			replies = read(new File(arguments.getOption("recorded", null)));
+		} else {
+			String[] sizes = arguments.getOption("locations", "1000").split(",");
+			int[] counts = new int[sizes.length];
+			for (int i = 0; i < sizes.length; i++) {
+				counts[i] = Integer.parseInt(sizes[i].trim());
+			}
+			replies = generate(counts);
+		}
+		StubUpstream stub = new StubUpstream(replies, port);
+		if (arguments.hasOption("latency")) {
+			stub.setLatency(LatencyDistribution.parse(arguments.getOption("latency", null)));
+		}
+		stub.setChunking(Integer.parseInt(arguments.getOption("chunk-size", "0")),
+				Long.parseLong(arguments.getOption("chunk-delay", "0")));
+		stub.setErrors(Double.parseDouble(arguments.getOption("error-rate", "0")),
+				Integer.parseInt(arguments.getOption("error-status", "503")));
+		stub.setGzip(Boolean.parseBoolean(arguments.getOption("gzip", "true")));
+		return stub;
+	}
+
+	private static byte[] gzip(byte[] reply) {
+		try {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(reply.length / 4);
+			GZIPOutputStream outputStream = new GZIPOutputStream(compressed);
+			outputStream.write(reply);
+			outputStream.close();
+			return compressed.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static ExecutorService createExecutor() {
+		return Futures.newExecutor("stub");
+	}
+
+	private class ReplyHandler implements HttpHandler {
+
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				requests.increment();
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				sleep(latency.sample(random));
+				if (errorRate > 0 && random.nextDouble() < errorRate) {
+					errors.increment();
+					byte[] message = ("Stub error " + errorStatus).getBytes("UTF-8");
+					exchange.sendResponseHeaders(errorStatus, message.length);
+					exchange.getResponseBody().write(message);
+					return;
+				}
+
+				String path = exchange.getRequestURI().getRawPath();
+				int index = (path.substring(path.lastIndexOf('/') + 1).hashCode() & Integer.MAX_VALUE) % replies.length;
+				String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+				byte[] body = replies[index];
+				if (gzip && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+					body = gzippedReplies[index];
+					exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+				}
+				exchange.getResponseHeaders().set("Content-Type", JSON_CONTENT_TYPE);
+
+				int chunk = chunkSize;
+				exchange.sendResponseHeaders(200, chunk > 0 ? 0 : body.length);
+				OutputStream outputStream = exchange.getResponseBody();
+				if (chunk <= 0) {
+					outputStream.write(body);
+				} else {
+					for (int offset = 0; offset < body.length; offset += chunk) {
+						if (offset > 0) {
+							sleep(TimeUnit.MILLISECONDS.toNanos(chunkDelay));
+						}
+						outputStream.write(body, offset, Math.min(chunk, body.length - offset));
+						outputStream.flush();
+					}
+				}
+				bytes.add(body.length);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				exchange.close();
+			}
+		}
+
+		private void sleep(long nanos) throws InterruptedException {
+			if (nanos > 0) {
+				TimeUnit.NANOSECONDS.sleep(nanos);
+			}
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package com.goeuro.devTest;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * The command line arguments split into leading options and the remaining arguments.
+ * Options are of the form {@code --name=value} or {@code --name} and must come before any other argument.
+ */
+public class Arguments {
+
+	private static final String OPTION_PREFIX = "--";
+
+	private final Map<String, String> options;
+
+	private final String[] remaining;
+
+	private Arguments(Map<String, String> options, String[] remaining) {
+		this.options = options;
+		this.remaining = remaining;
+	}
+
+	/**
+	 * @param args the command line arguments
+	 * @return the parsed arguments
+	 * @throws NullPointerException if {@code args} is {@code null}
+	 * @throws IllegalArgumentException if {@code args} contains {@code null}
+	 */
+	public static Arguments parse(String[] args) {
+		Validate.noNullElements(args);
+
+		Map<String, String> options = new LinkedHashMap<String, String>();
+		int i = 0;
+		while (i < args.length && args[i].startsWith(OPTION_PREFIX) && args[i].length() > OPTION_PREFIX.length()) {
+			String option = args[i].substring(OPTION_PREFIX.length());
+			int separator = option.indexOf('=');
+			if (separator < 0) {
+				options.put(option, "");
+			} else {
+				options.put(option.substring(0, separator), option.substring(separator + 1));
+			}
+			i++;
+		}
+
+		return new Arguments(options, Arrays.copyOfRange(args, i, args.length));
+	}
+
+	/**
+	 * @param name the option name without the leading {@code --}
+	 * @return {@code true} if the option was given
+	 */
+	public boolean hasOption(String name) {
+		return options.containsKey(name);
+	}
+
+	/**
+	 * @param name the option name without the leading {@code --}
+	 * @param defaultValue returned when the option was not given
+	 * @return the value of the option, empty if the option was given without a value
+	 */
+	public String getOption(String name, String defaultValue) {
+		String value = options.get(name);
+		return value == null ? defaultValue : value;
+	}
+
+	/**
+	 * @return the arguments following the options
+	 */
+	public String[] getRemaining() {
+		return remaining.clone();
+	}
+}
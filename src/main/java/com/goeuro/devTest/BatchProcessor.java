@@ -0,0 +1,188 @@
+package com.goeuro.devTest;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+
+import com.goeuro.devTest.impl.Futures;
+
+/**
+ * Runs many location queries through a single {@link QueryProcessor} concurrently.
+ * At most {@code concurrency} queries are in flight at any time. Virtual threads are used when the runtime supports them,
+ * otherwise a fixed pool of {@code concurrency} platform threads.
+ */
+public class BatchProcessor {
+
+	/**
+	 * Lines starting with this are ignored in the list of locations.
+	 */
+	private static final String COMMENT_PREFIX = "#";
+
+	private final QueryProcessor processor;
+
+	private final int concurrency;
+
+	private final PrintStream out;
+
+	private final PrintStream err;
+
+	/**
+	 * @param processor used for every location
+	 * @param concurrency maximum number of queries in flight, must be positive
+	 * @param out where the created files are reported
+	 * @param err where the failures are reported
+	 * @throws NullPointerException if {@code processor}, {@code out} or {@code err} is {@code null}
+	 * @throws IllegalArgumentException if {@code concurrency} is not positive
+	 */
+	public BatchProcessor(QueryProcessor processor, int concurrency, PrintStream out, PrintStream err) {
+		Validate.notNull(processor);
+		Validate.isTrue(concurrency > 0, "concurrency must be positive: %d", concurrency);
+		Validate.notNull(out);
+		Validate.notNull(err);
+
+		this.processor = processor;
+		this.concurrency = concurrency;
+		this.out = out;
+		this.err = err;
+	}
+
+	/**
+	 * Process every location read from {@code locations}, one per line. Blank lines and lines starting with {@code #} are skipped,
+	 * each location is normalized as in {@link Main#getLocationFromArguments(String[])}.
+	 * Returns once every query has finished.
+	 *
+	 * @param locations the location names, not closed by this method
+	 * @return the summary of the batch
+	 * @throws IOException when {@code locations} cannot be read
+	 * @throws InterruptedException when interrupted while waiting for the queries to finish
+	 */
+	public Result process(Reader locations) throws IOException, InterruptedException {
+		return this.process(locations, null);
+	}
+
+	/**
+	 * Process every location read from {@code locations} as in {@link #process(Reader)}, writing the locations of every query
+	 * to {@code sink} instead of a file per query. A query that fails may have written some of its locations.
+	 *
+	 * @param locations the location names, not closed by this method
+	 * @param sink receives the locations of every query concurrently, e.g. a
+	 * {@link com.goeuro.devTest.impl.DeduplicatingLocationSink}, not closed by this method
+	 * @return the summary of the batch
+	 * @throws NullPointerException if {@code locations} or {@code sink} is {@code null}
+	 * @throws IOException when {@code locations} cannot be read
+	 * @throws InterruptedException when interrupted while waiting for the queries to finish
+	 */
+	public Result consolidate(Reader locations, LocationSink sink) throws IOException, InterruptedException {
+		Validate.notNull(sink);
+
+		return this.process(locations, sink);
+	}
+
+	/**
+	 * @param sink {@code null} for a file per query
+	 */
+	private Result process(Reader locations, final LocationSink sink) throws IOException, InterruptedException {
+		Validate.notNull(locations);
+
+		final AtomicInteger succeeded = new AtomicInteger();
+		final AtomicInteger failed = new AtomicInteger();
+		final Semaphore permits = new Semaphore(concurrency);
+		long start = System.nanoTime();
+
+		BufferedReader reader = new BufferedReader(locations);
+		ExecutorService executor = createExecutor();
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (StringUtils.isBlank(line) || line.trim().startsWith(COMMENT_PREFIX)) {
+					continue;
+				}
+				final String location = Main.getLocationFromArguments(new String[] {line.trim()});
+				permits.acquire();
+				try {
+					executor.execute(new Runnable() {
+						public void run() {
+							try {
+								if (sink == null) {
+									File file = processor.process(location);
+									succeeded.incrementAndGet();
+									out.println("Results for \"" + location + "\" saved in \"" + file.getAbsolutePath() + "\"");
+								} else {
+									processor.process(location, sink);
+									succeeded.incrementAndGet();
+									out.println("Results for \"" + location + "\" consolidated");
+								}
+							} catch (Exception e) {
+								failed.incrementAndGet();
+								err.println("Failed to process \"" + location + "\": " + e.getLocalizedMessage());
+							} finally {
+								permits.release();
+							}
+						}
+					});
+				} catch (RuntimeException e) {
+					permits.release();
+					throw e;
+				}
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		}
+
+		return new Result(succeeded.get(), failed.get(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+	}
+
+	/**
+	 * @return a virtual thread per task executor when available, otherwise a fixed pool of {@code concurrency} threads.
+	 * The number of queries in flight is bounded by the caller in both cases.
+	 */
+	protected ExecutorService createExecutor() {
+		return Futures.newExecutor(concurrency);
+	}
+
+	/**
+	 * Summary of a batch run.
+	 */
+	public static class Result {
+
+		private final int succeeded;
+		private final int failed;
+		private final long elapsedMillis;
+
+		public Result(int succeeded, int failed, long elapsedMillis) {
+			this.succeeded = succeeded;
+			this.failed = failed;
+			this.elapsedMillis = elapsedMillis;
+		}
+
+		// Getters
+
+		public int getSucceeded() {
+			return succeeded;
+		}
+
+		public int getFailed() {
+			return failed;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		@Override
+		public String toString() {
+			return "Processed " + (succeeded + failed) + " locations: " + succeeded + " succeeded, "
+					+ failed + " failed in " + elapsedMillis + " ms";
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package com.goeuro.devTest;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+
+import com.goeuro.devTest.impl.CsvLocationSink;
+import com.goeuro.devTest.impl.Futures;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves location queries over HTTP from a single long-lived {@link QueryProcessor},
+ * so that the JVM, the connections and the parsers stay warm between queries.
+ * {@code GET /locations/{name}} streams the locations as CSV, in the format of {@link CsvLocationSink},
+ * while the reply is parsed, without writing a file.
+ * Requests are handled on virtual threads when the runtime supports them, otherwise on a fixed pool of {@code threads} platform threads.
+ */
+public class LocationServer {
+
+	/**
+	 * Path under which the locations are served, followed by the location name.
+	 */
+	public static final String LOCATIONS_PATH = "/locations/";
+
+	/**
+	 * Size in chars of the buffer in front of each response, small so that the first rows reach the client early.
+	 */
+	private static final int RESPONSE_BUFFER_SIZE = 8192;
+
+	private static final String ENCODING = "UTF-8";
+
+	private static final String CSV_CONTENT_TYPE = "text/csv; charset=" + ENCODING;
+
+	private static final String TEXT_CONTENT_TYPE = "text/plain; charset=" + ENCODING;
+
+	private final QueryProcessor processor;
+
+	private final int port;
+
+	private final int threads;
+
+	private final PrintStream err;
+
+	private HttpServer server;
+
+	private ExecutorService executor;
+
+	/**
+	 * @param processor answers every query, not closed by this server
+	 * @param port the port to listen on, {@code 0} for any free port
+	 * @param threads number of request threads when virtual threads are not available, must be positive
+	 * @param err where the failures are reported
+	 * @throws NullPointerException if {@code processor} or {@code err} is {@code null}
+	 * @throws IllegalArgumentException if {@code port} is not a valid port or {@code threads} is not positive
+	 */
+	public LocationServer(QueryProcessor processor, int port, int threads, PrintStream err) {
+		Validate.notNull(processor);
+		Validate.inclusiveBetween(0, 65535, port, "port must be between 0 and 65535: " + port);
+		Validate.isTrue(threads > 0, "threads must be positive: %d", threads);
+		Validate.notNull(err);
+
+		this.processor = processor;
+		this.port = port;
+		this.threads = threads;
+		this.err = err;
+	}
+
+	/**
+	 * Starts listening, returns immediately.
+	 *
+	 * @throws IOException when the port cannot be bound
+	 * @throws IllegalStateException if the server was already started
+	 */
+	public synchronized void start() throws IOException {
+		Validate.validState(server == null, "Server already started");
+
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext(LOCATIONS_PATH, new LocationsHandler());
+		executor = this.createExecutor();
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * Stops accepting connections and waits for the requests in progress to complete,
+	 * at most {@code delay} seconds for the responses and as long again for their threads.
+	 * Does nothing if the server is not started.
+	 *
+	 * @param delay the maximum number of seconds to wait for the requests in progress
+	 * @throws InterruptedException when interrupted while waiting for the request threads
+	 * @throws IllegalArgumentException if {@code delay} is negative
+	 */
+	public synchronized void stop(int delay) throws InterruptedException {
+		Validate.isTrue(delay >= 0, "delay must not be negative: %d", delay);
+		if (server == null) {
+			return;
+		}
+
+		try {
+			server.stop(delay);
+			executor.shutdown();
+			executor.awaitTermination(delay, TimeUnit.SECONDS);
+		} finally {
+			server = null;
+			executor = null;
+		}
+	}
+
+	/**
+	 * @return the port the server listens on, the one picked by the system if started on port {@code 0}
+	 * @throws IllegalStateException if the server is not started
+	 */
+	public synchronized int getPort() {
+		Validate.validState(server != null, "Server not started");
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * @return a virtual thread per task executor when available, otherwise a fixed pool of {@code threads} threads
+	 */
+	protected ExecutorService createExecutor() {
+		return Futures.newExecutor(threads);
+	}
+
+	/**
+	 * Answers {@code GET /locations/{name}}.
+	 * The status is only sent with the first location, so that a query failing before any location gets an error status.
+	 * A query failing afterwards ends the response early.
+	 */
+	private class LocationsHandler implements HttpHandler {
+
+		public void handle(HttpExchange exchange) throws IOException {
+			ResponseSink sink = null;
+			try {
+				if (!"GET".equals(exchange.getRequestMethod())) {
+					exchange.getResponseHeaders().set("Allow", "GET");
+					sendText(exchange, 405, "Only GET is supported");
+					return;
+				}
+				String location = Locations.normalize(exchange.getRequestURI().getPath().substring(LOCATIONS_PATH.length()));
+				if (StringUtils.isBlank(location)) {
+					sendText(exchange, 400, "Missing location name, use " + LOCATIONS_PATH + "{name}");
+					return;
+				}
+
+				sink = new ResponseSink(exchange);
+				try {
+					processor.process(location, sink);
+				} catch (QueryProcessorException e) {
+					err.println("Failed to process \"" + location + "\": " + e.getLocalizedMessage());
+					if (!sink.isCommitted()) {
+						sendText(exchange, 502, "Failed to process \"" + location + "\": " + e.getLocalizedMessage());
+					}
+					return;
+				}
+				sink.commit();
+			} catch (RuntimeException e) {
+				err.println("Failed to handle " + exchange.getRequestURI() + ": " + e);
+				if (sink == null || !sink.isCommitted()) {
+					sendText(exchange, 500, "Internal error");
+				}
+			} finally {
+				IOUtils.closeQuietly(sink);
+				exchange.close();
+			}
+		}
+	}
+
+	private static void sendText(HttpExchange exchange, int status, String message) throws IOException {
+		byte[] body = message.getBytes(ENCODING);
+		exchange.getResponseHeaders().set("Content-Type", TEXT_CONTENT_TYPE);
+		exchange.sendResponseHeaders(status, body.length);
+		exchange.getResponseBody().write(body);
+	}
+
+	/**
+	 * Sends the response headers with the first location, then writes the locations to the chunked response body.
+	 */
+	private static class ResponseSink implements LocationSink {
+
+		private final HttpExchange exchange;
+
+		private CsvLocationSink csv;
+
+		ResponseSink(HttpExchange exchange) {
+			this.exchange = exchange;
+		}
+
+		public void write(int id, String name, String type, String latitude, String longitude) throws IOException {
+			this.commit();
+			csv.write(id, name, type, latitude, longitude);
+		}
+
+		boolean isCommitted() {
+			return csv != null;
+		}
+
+		/**
+		 * Sends the headers if not sent yet.
+		 */
+		void commit() throws IOException {
+			if (csv == null) {
+				exchange.getResponseHeaders().set("Content-Type", CSV_CONTENT_TYPE);
+				exchange.sendResponseHeaders(200, 0);
+				csv = new CsvLocationSink(new BufferedWriter(
+						new OutputStreamWriter(exchange.getResponseBody(), ENCODING), RESPONSE_BUFFER_SIZE));
+			}
+		}
+
+		/**
+		 * Flushes the remaining locations and ends the response body.
+		 */
+		public void close() throws IOException {
+			if (csv != null) {
+				csv.close();
+			}
+		}
+	}
+}
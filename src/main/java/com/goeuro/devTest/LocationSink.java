@@ -0,0 +1,23 @@
+package com.goeuro.devTest;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Receives the locations produced by a {@link QueryProcessor}, one record at a time.
+ * A sink is opened once per query and must be closed when the query is done so that any buffered output is flushed.
+ */
+public interface LocationSink extends Closeable {
+
+	/**
+	 * Write a single location record.
+	 *
+	 * @param id the {@code _id} of the location
+	 * @param name the name of the location, may be {@code null}
+	 * @param type the type of the location, may be {@code null}
+	 * @param latitude the latitude as returned by the endpoint, may be {@code null}
+	 * @param longitude the longitude as returned by the endpoint, may be {@code null}
+	 * @throws IOException when the record cannot be written
+	 */
+	public void write(int id, String name, String type, String latitude, String longitude) throws IOException;
+}
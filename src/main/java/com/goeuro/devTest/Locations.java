@@ -0,0 +1,25 @@
+package com.goeuro.devTest;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Utilities for location names.
+ */
+public final class Locations {
+
+	private Locations() {
+	}
+
+	/**
+	 * Removes the single and double quotes from a location name, 
+	 * so that {@code Berlin}, {@code 'Berlin'} and {@code "Berlin"} are the same location.
+	 * 
+	 * @param location the location name as given by the user
+	 * @return the normalized location name
+	 * @throws NullPointerException if {@code location} is {@code null}
+	 */
+	public static String normalize(String location) {
+		Validate.notNull(location);
+		return location.replace("\'", "").replace("\"", "");
+	}
+}
@@ -1,22 +1,122 @@
 package com.goeuro.devTest;
 
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Locale;
 import java.util.Properties;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 
+import com.goeuro.devTest.impl.AbstractQueryProcessor;
+import com.goeuro.devTest.impl.AsyncHttpTransport;
+import com.goeuro.devTest.impl.AsyncLimitingHttpTransport;
+import com.goeuro.devTest.impl.AsyncPooledHttpTransport;
+import com.goeuro.devTest.impl.AsyncRetryingHttpTransport;
+import com.goeuro.devTest.impl.AutocompleteIndex;
+import com.goeuro.devTest.impl.AutocompleteQueryProcessor;
+import com.goeuro.devTest.impl.CachingQueryProcessor;
+import com.goeuro.devTest.impl.CoalescingQueryProcessor;
+import com.goeuro.devTest.impl.DeltaQueryProcessor;
+import com.goeuro.devTest.impl.DeduplicatingLocationSink;
+import com.goeuro.devTest.impl.HttpTransport;
+import com.goeuro.devTest.impl.LimitingHttpTransport;
+import com.goeuro.devTest.impl.LocationCache;
+import com.goeuro.devTest.impl.OutputLayout;
+import com.goeuro.devTest.impl.ParsingMode;
+import com.goeuro.devTest.impl.PipelinedLocationSink;
+import com.goeuro.devTest.impl.PooledHttpTransport;
+import com.goeuro.devTest.impl.QueryMetrics;
 import com.goeuro.devTest.impl.QueryProcessorImpl;
+import com.goeuro.devTest.impl.RetryingHttpTransport;
+import com.goeuro.devTest.impl.RollingLocationSink;
+import com.goeuro.devTest.impl.SortingLocationSink;
 
 /**
  * The main class for this application.
  */
 public class Main {
 
-	private static final String USAGE_MESSAGE = "Usage: java -jar GoEuroTest.jar \"CITY_NAME\"";
+	private static final String USAGE_MESSAGE = "Usage: java -jar GoEuroTest.jar [--format=FORMAT] [--stdout] \"CITY_NAME\"  (--stdout instead of a file)"
+			+ System.lineSeparator()
+			+ "       java -jar GoEuroTest.jar [--format=FORMAT] --batch=FILE [--concurrency=N] [--consolidate=OUTPUT]"
+			+ " [--sort=ORDER]  (use - as FILE to read standard input, OUTPUT gets every location once instead of a file per city,"
+			+ " sorted by ORDER: id, name or type_name)"
+			+ System.lineSeparator()
+			+ "       java -jar GoEuroTest.jar --server [--port=N] [--concurrency=N]  (serves GET /locations/{name} as CSV)"
+			+ System.lineSeparator()
+			+ "       FORMAT is one of " + OutputFormats.getNames()
+			+ System.lineSeparator()
+			+ "       every mode takes [--types=TYPE,...] [--bbox=MIN_LAT,MIN_LON,MAX_LAT,MAX_LON] [--columns=name,type,latitude,longitude]"
+			+ "  (keeps only these locations and columns)";
 
 	private static final String PROPERTIES_FILE_PATH = "/GoEuroTest.properties";
 
+	/**
+	 * Reads location names, one per line, from the given file or from standard input when the value is {@code -}.
+	 */
+	private static final String OPTION_BATCH = "batch";
+
+	/**
+	 * The maximum number of queries in flight in batch mode.
+	 */
+	private static final String OPTION_CONCURRENCY = "concurrency";
+
+	/**
+	 * The format of the written files, overrides the configured one.
+	 */
+	private static final String OPTION_FORMAT = "format";
+
+	/**
+	 * Serves the queries over HTTP until the process is stopped.
+	 */
+	private static final String OPTION_SERVER = "server";
+
+	/**
+	 * The port of the server, overrides the configured one.
+	 */
+	private static final String OPTION_PORT = "port";
+
+	/**
+	 * Writes the locations of every query of a batch once to the given file instead of a file per query.
+	 */
+	private static final String OPTION_CONSOLIDATE = "consolidate";
+
+	/**
+	 * Sorts the consolidated output by the given order, overrides the configured one.
+	 */
+	private static final String OPTION_SORT = "sort";
+
+	/**
+	 * Writes the locations of a single query to standard output instead of a file.
+	 */
+	private static final String OPTION_STDOUT = "stdout";
+
+	/**
+	 * Keeps only the locations of the given comma separated types, overrides the configured ones.
+	 */
+	private static final String OPTION_TYPES = "types";
+
+	/**
+	 * Keeps only the locations within the given bounding box, overrides the configured one.
+	 */
+	private static final String OPTION_BOUNDING_BOX = "bbox";
+
+	/**
+	 * Writes only the given comma separated columns besides the id, overrides the configured ones.
+	 */
+	private static final String OPTION_COLUMNS = "columns";
+
+	private static final String STANDARD_INPUT = "-";
+
+	private static final int DEFAULT_CONCURRENCY = 16;
+
 	/**
 	 * The URL prepended to the location being queried to form the proper API call.
 	 */
@@ -33,7 +133,278 @@ public class Main {
 	private static final String PROPERTY_JSON_ENCODING = "JSON_ENCODING";
 	
 	/**
-	 * @param args the only argument is the city name. See {@ #getLocationFromArguments(String[])} for details.
+	 * The size in chars of the buffer used when writing the CSV, optional.
+	 */
+	private static final String PROPERTY_CSV_BUFFER_SIZE = "CSV_BUFFER_SIZE";
+	
+	/**
+	 * The format of the written files, see {@link OutputFormats}, optional.
+	 */
+	private static final String PROPERTY_OUTPUT_FORMAT = "OUTPUT_FORMAT";
+	
+	/**
+	 * How the files are spread over subdirectories of the base directory: NONE, DATE or HASH, optional.
+	 */
+	private static final String PROPERTY_OUTPUT_PARTITIONING = "OUTPUT_PARTITIONING";
+	
+	/**
+	 * The records of every part of a consolidated output, 0 for a single file, optional.
+	 */
+	private static final String PROPERTY_OUTPUT_ROLL_RECORDS = "OUTPUT_ROLL_RECORDS";
+	
+	/**
+	 * The approximate bytes of every part of a consolidated output, 0 for a single file, optional.
+	 */
+	private static final String PROPERTY_OUTPUT_ROLL_BYTES = "OUTPUT_ROLL_BYTES";
+	
+	/**
+	 * The order of a consolidated batch output, NONE, ID, NAME or TYPE_NAME, optional.
+	 */
+	private static final String PROPERTY_SORT_ORDER = "SORT_ORDER";
+	
+	/**
+	 * Approximate bytes of locations kept in memory while sorting, optional.
+	 */
+	private static final String PROPERTY_SORT_MEMORY = "SORT_MEMORY";
+	
+	/**
+	 * Number of threads sorting and spilling runs, 0 for the available processors, optional.
+	 */
+	private static final String PROPERTY_SORT_THREADS = "SORT_THREADS";
+	
+	/**
+	 * Where the sorted runs are spilled, the default temporary directory if blank.
+	 */
+	private static final String PROPERTY_SORT_DIRECTORY = "SORT_DIRECTORY";
+	
+	/**
+	 * Comma separated types of the locations kept, optional.
+	 */
+	private static final String PROPERTY_QUERY_TYPES = "QUERY_TYPES";
+	
+	/**
+	 * Bounding box of the locations kept, as minLatitude,minLongitude,maxLatitude,maxLongitude, optional.
+	 */
+	private static final String PROPERTY_QUERY_BOUNDING_BOX = "QUERY_BOUNDING_BOX";
+	
+	/**
+	 * Comma separated columns written besides the id, optional.
+	 */
+	private static final String PROPERTY_QUERY_COLUMNS = "QUERY_COLUMNS";
+	
+	/**
+	 * How the returned JSON is read, GSON, STREAMING or BYTES, optional.
+	 */
+	private static final String PROPERTY_PARSING_MODE = "PARSING_MODE";
+	
+	/**
+	 * Whether the BYTES parsing mode reads the reply into buffers outside of the heap, optional.
+	 */
+	private static final String PROPERTY_PARSING_DIRECT_BUFFERS = "PARSING_DIRECT_BUFFERS";
+	
+	/**
+	 * The number of locations handed over at once to the thread writing the files, 0 to write on the querying thread, optional.
+	 */
+	private static final String PROPERTY_PIPELINE_BATCH_SIZE = "PIPELINE_BATCH_SIZE";
+	
+	/**
+	 * The number of batches that may wait for the thread writing the files, optional.
+	 */
+	private static final String PROPERTY_PIPELINE_QUEUE_CAPACITY = "PIPELINE_QUEUE_CAPACITY";
+	
+	/**
+	 * The maximum number of pooled keep-alive connections to the endpoint, optional.
+	 */
+	private static final String PROPERTY_HTTP_MAX_CONNECTIONS = "HTTP_MAX_CONNECTIONS";
+	
+	/**
+	 * Connect timeout in milliseconds, optional.
+	 */
+	private static final String PROPERTY_HTTP_CONNECT_TIMEOUT = "HTTP_CONNECT_TIMEOUT";
+	
+	/**
+	 * Read timeout in milliseconds, optional.
+	 */
+	private static final String PROPERTY_HTTP_READ_TIMEOUT = "HTTP_READ_TIMEOUT";
+	
+	/**
+	 * How long in milliseconds an idle connection is kept, optional.
+	 */
+	private static final String PROPERTY_HTTP_KEEP_ALIVE = "HTTP_KEEP_ALIVE";
+	
+	/**
+	 * Whether to ask the endpoint for gzip compressed responses, optional.
+	 */
+	private static final String PROPERTY_HTTP_GZIP = "HTTP_GZIP";
+	
+	/**
+	 * Whether to send the requests through a non-blocking client, optional.
+	 */
+	private static final String PROPERTY_HTTP_ASYNC = "HTTP_ASYNC";
+	
+	/**
+	 * The maximum number of attempts of a request, 1 to never retry, optional.
+	 */
+	private static final String PROPERTY_HTTP_MAX_ATTEMPTS = "HTTP_MAX_ATTEMPTS";
+	
+	/**
+	 * Milliseconds of the first backoff before a retry, doubled on every retry, optional.
+	 */
+	private static final String PROPERTY_HTTP_BACKOFF = "HTTP_BACKOFF";
+	
+	/**
+	 * Maximum milliseconds of a backoff, optional.
+	 */
+	private static final String PROPERTY_HTTP_MAX_BACKOFF = "HTTP_MAX_BACKOFF";
+	
+	/**
+	 * Milliseconds a request may take including its retries, 0 for none, optional.
+	 */
+	private static final String PROPERTY_HTTP_DEADLINE = "HTTP_DEADLINE";
+	
+	/**
+	 * Milliseconds after which a slow request is sent again until enough response times were observed, 0 to disable, optional.
+	 */
+	private static final String PROPERTY_HTTP_HEDGE_DELAY = "HTTP_HEDGE_DELAY";
+	
+	/**
+	 * The percentile of the observed response times after which a slow request is sent again, optional.
+	 */
+	private static final String PROPERTY_HTTP_HEDGE_PERCENTILE = "HTTP_HEDGE_PERCENTILE";
+	
+	/**
+	 * Retries and hedges allowed per request, optional.
+	 */
+	private static final String PROPERTY_HTTP_RETRY_BUDGET = "HTTP_RETRY_BUDGET";
+	
+	/**
+	 * How the requests to the endpoint are limited: NONE, TOKEN_BUCKET or ADAPTIVE, optional.
+	 */
+	private static final String PROPERTY_HTTP_LIMIT_MODE = "HTTP_LIMIT_MODE";
+	
+	/**
+	 * Requests per second of the TOKEN_BUCKET limit, optional.
+	 */
+	private static final String PROPERTY_HTTP_LIMIT_RATE = "HTTP_LIMIT_RATE";
+	
+	/**
+	 * Requests sent at once after a quiet period with the TOKEN_BUCKET limit, optional.
+	 */
+	private static final String PROPERTY_HTTP_LIMIT_BURST = "HTTP_LIMIT_BURST";
+	
+	/**
+	 * Maximum requests in flight of the ADAPTIVE limit, optional.
+	 */
+	private static final String PROPERTY_HTTP_LIMIT_MAX_CONCURRENCY = "HTTP_LIMIT_MAX_CONCURRENCY";
+	
+	/**
+	 * Responses slower than this many times the fastest recent one decrease the ADAPTIVE limit, 0 to ignore, optional.
+	 */
+	private static final String PROPERTY_HTTP_LIMIT_LATENCY_TOLERANCE = "HTTP_LIMIT_LATENCY_TOLERANCE";
+	
+	/**
+	 * Milliseconds a request may wait to be let through by the limit, optional.
+	 */
+	private static final String PROPERTY_HTTP_LIMIT_MAX_WAIT = "HTTP_LIMIT_MAX_WAIT";
+	
+	/**
+	 * Whether to cache the replies of the endpoint, optional.
+	 */
+	private static final String PROPERTY_CACHE_ENABLED = "CACHE_ENABLED";
+	
+	/**
+	 * The maximum number of replies cached in memory, optional.
+	 */
+	private static final String PROPERTY_CACHE_MAX_ENTRIES = "CACHE_MAX_ENTRIES";
+	
+	/**
+	 * The directory where replies are cached across runs, optional.
+	 */
+	private static final String PROPERTY_CACHE_DIRECTORY = "CACHE_DIRECTORY";
+	
+	/**
+	 * How long in milliseconds a cached reply is used without revalidation, optional.
+	 */
+	private static final String PROPERTY_CACHE_TTL = "CACHE_TTL";
+	
+	/**
+	 * Whether to answer queries as prefixes of the names already fetched, optional.
+	 */
+	private static final String PROPERTY_AUTOCOMPLETE_ENABLED = "AUTOCOMPLETE_ENABLED";
+	
+	/**
+	 * The file where the names already fetched are indexed across runs, optional.
+	 */
+	private static final String PROPERTY_AUTOCOMPLETE_FILE = "AUTOCOMPLETE_FILE";
+	
+	/**
+	 * Whether only the locations that changed since the previous run of a query are written, optional.
+	 */
+	private static final String PROPERTY_DELTA_ENABLED = "DELTA_ENABLED";
+	
+	/**
+	 * The directory where the hashes of the previous run of every query are kept, optional.
+	 */
+	private static final String PROPERTY_DELTA_DIRECTORY = "DELTA_DIRECTORY";
+	
+	/**
+	 * Whether concurrent queries for the same location share a single request, optional.
+	 */
+	private static final String PROPERTY_COALESCE_QUERIES = "COALESCE_QUERIES";
+	
+	/**
+	 * What the waiting queries do when the shared one fails, PROPAGATE or RETRY, optional.
+	 */
+	private static final String PROPERTY_COALESCE_FAILURE_POLICY = "COALESCE_FAILURE_POLICY";
+	
+	/**
+	 * How long in milliseconds a query waits for the shared one, 0 for as long as it takes, optional.
+	 */
+	private static final String PROPERTY_COALESCE_MAX_WAIT = "COALESCE_MAX_WAIT";
+	
+	/**
+	 * Whether to record the latencies and counters of the queries and expose them over JMX, optional.
+	 */
+	private static final String PROPERTY_METRICS_ENABLED = "METRICS_ENABLED";
+	
+	/**
+	 * The file where the metrics are appended periodically, optional.
+	 */
+	private static final String PROPERTY_METRICS_FILE = "METRICS_FILE";
+	
+	/**
+	 * How often in milliseconds the metrics are appended to the file, optional.
+	 */
+	private static final String PROPERTY_METRICS_DUMP_PERIOD = "METRICS_DUMP_PERIOD";
+	
+	/**
+	 * The port of the server, optional.
+	 */
+	private static final String PROPERTY_SERVER_PORT = "SERVER_PORT";
+	
+	/**
+	 * How long in seconds the server waits for the requests in progress when stopped, optional.
+	 */
+	private static final String PROPERTY_SERVER_SHUTDOWN_DELAY = "SERVER_SHUTDOWN_DELAY";
+	
+	private static final int DEFAULT_CACHE_MAX_ENTRIES = 10000;
+	
+	private static final String DEFAULT_DELTA_DIRECTORY = "delta";
+	
+	private static final long DEFAULT_CACHE_TTL = 24 * 60 * 60 * 1000L;
+	
+	private static final int DEFAULT_METRICS_DUMP_PERIOD = 60000;
+	
+	private static final int DEFAULT_SERVER_PORT = 8080;
+	
+	private static final int DEFAULT_SERVER_SHUTDOWN_DELAY = 10;
+	
+	/**
+	 * @param args the city name, see {@link #getLocationFromArguments(String[])} for details. 
+	 * Optionally {@code --stdout} to write the locations to standard output instead of a file.
+	 * Alternatively {@code --batch=FILE} and optionally {@code --concurrency=N} to process a list of city names,
+	 * and {@code --consolidate=OUTPUT} to write every location of the batch once to a single file,
+	 * or {@code --server} and optionally {@code --port=N} and {@code --concurrency=N} to serve the queries over HTTP.
 	 * 
 	 * @throws NullPointerException if {@code args} is {@code null}
 	 * @throws IllegalArgumentException if {@code args} is empty or contains {@code null}
@@ -42,30 +413,415 @@ public class Main {
 	 */
 	public static void main(String[] args) throws IOException, QueryProcessorException {
 		
-		// get supplied location
+		// get supplied location or batch
 		
+		Arguments arguments = null;
 		String location = null;
+		int concurrency = DEFAULT_CONCURRENCY;
 		try {
-			location = getLocationFromArguments(args);
+			arguments = Arguments.parse(args);
+			if (arguments.hasOption(OPTION_FORMAT)) {
+				OutputFormats.forName(arguments.getOption(OPTION_FORMAT, null));
+			}
+			QueryOptions.parse(arguments.getOption(OPTION_TYPES, null), arguments.getOption(OPTION_BOUNDING_BOX, null), 
+					arguments.getOption(OPTION_COLUMNS, null));
+			if (arguments.hasOption(OPTION_SERVER) || arguments.hasOption(OPTION_BATCH)) {
+				Validate.isTrue(!arguments.hasOption(OPTION_STDOUT));
+			}
+			if (arguments.hasOption(OPTION_CONSOLIDATE)) {
+				Validate.isTrue(arguments.hasOption(OPTION_BATCH) && !arguments.hasOption(OPTION_SERVER));
+				Validate.notBlank(arguments.getOption(OPTION_CONSOLIDATE, null));
+			}
+			if (arguments.hasOption(OPTION_SORT)) {
+				Validate.isTrue(arguments.hasOption(OPTION_CONSOLIDATE));
+				getSortOrder(arguments.getOption(OPTION_SORT, null));
+			}
+			if (arguments.hasOption(OPTION_SERVER)) {
+				if (arguments.hasOption(OPTION_PORT)) {
+					Validate.inclusiveBetween(0, 65535, Integer.parseInt(arguments.getOption(OPTION_PORT, null)));
+				}
+				concurrency = Integer.parseInt(arguments.getOption(OPTION_CONCURRENCY, Integer.toString(DEFAULT_CONCURRENCY)));
+				Validate.isTrue(concurrency > 0);
+			} else if (arguments.hasOption(OPTION_BATCH)) {
+				Validate.notBlank(arguments.getOption(OPTION_BATCH, null));
+				concurrency = Integer.parseInt(arguments.getOption(OPTION_CONCURRENCY, Integer.toString(DEFAULT_CONCURRENCY)));
+				Validate.isTrue(concurrency > 0);
+			} else {
+				location = getLocationFromArguments(arguments.getRemaining());
+			}
 		} catch (NullPointerException e) {
+			arguments = null;
 			System.out.println(USAGE_MESSAGE);
 		} catch (IllegalArgumentException e) {
+			arguments = null;
 			System.out.println(USAGE_MESSAGE);
 		}
 		
 		// proceed with API query and CSV writing
 		
 		if (location != null) {
-			Properties properties = new Properties();
-			properties.load(Main.class.getResourceAsStream(PROPERTIES_FILE_PATH));
-			
-			String baseUrl = properties.getProperty(PROPERTY_BASE_URL);
-			String baseCsvDirectory = properties.getProperty(PROPERTY_BASE_CSV_DIRECTORY);
-			String jsonEncoding = properties.getProperty(PROPERTY_JSON_ENCODING);
-			QueryProcessor processor = new QueryProcessorImpl(baseUrl, baseCsvDirectory, jsonEncoding);
-			File file = processor.process(location);
-			System.out.println("Results saved in \"" + file.getAbsolutePath() + "\"");
+			QueryProcessor processor = createProcessor(loadProperties(arguments));
+			try {
+				if (arguments.hasOption(OPTION_STDOUT)) {
+					System.out.flush();
+					processor.process(location, new FileOutputStream(FileDescriptor.out));
+				} else {
+					File file = processor.process(location);
+					System.out.println("Results saved in \"" + file.getAbsolutePath() + "\"");
+				}
+			} finally {
+				IOUtils.closeQuietly(processor);
+			}
+		} else if (arguments != null && arguments.hasOption(OPTION_SERVER)) {
+			serve(loadProperties(arguments), concurrency);
+		} else if (arguments != null && arguments.hasOption(OPTION_BATCH)) {
+			Properties properties = loadProperties(arguments);
+			if (arguments.hasOption(OPTION_CONSOLIDATE)) {
+				Validate.isTrue(!isDeltaEnabled(properties), "%s cannot be combined with --%s", PROPERTY_DELTA_ENABLED, OPTION_CONSOLIDATE);
+			}
+			QueryProcessor processor = createProcessor(properties);
+			String batch = arguments.getOption(OPTION_BATCH, null);
+			Reader reader = STANDARD_INPUT.equals(batch) ? new InputStreamReader(System.in) : new FileReader(batch);
+			try {
+				BatchProcessor batchProcessor = new BatchProcessor(processor, concurrency, System.out, System.err);
+				if (arguments.hasOption(OPTION_CONSOLIDATE)) {
+					consolidate(properties, batchProcessor, reader, new File(arguments.getOption(OPTION_CONSOLIDATE, null)));
+				} else {
+					System.out.println(batchProcessor.process(reader));
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				System.err.println("Interrupted before the batch finished");
+			} finally {
+				IOUtils.closeQuietly(reader);
+				IOUtils.closeQuietly(processor);
+			}
+		}
+	}
+	
+	/**
+	 * Runs the batch into a single file in the configured format, dropping the locations already written,
+	 * or into numbered parts of it if rolling is configured, sorted if an order is configured.
+	 * 
+	 * @param properties the application properties
+	 * @param batchProcessor runs the queries
+	 * @param reader the location names
+	 * @param file the consolidated output, replaced if existing
+	 * @throws IOException when the file cannot be written
+	 * @throws InterruptedException when interrupted while waiting for the queries to finish
+	 */
+	private static void consolidate(Properties properties, BatchProcessor batchProcessor, Reader reader, File file) 
+			throws IOException, InterruptedException {
+		RollingLocationSink output = new RollingLocationSink(file, 
+				OutputFormats.forName(properties.getProperty(PROPERTY_OUTPUT_FORMAT, OutputFormats.DEFAULT_FORMAT)),
+				properties.getProperty(PROPERTY_JSON_ENCODING).trim(),
+				getIntProperty(properties, PROPERTY_CSV_BUFFER_SIZE, AbstractQueryProcessor.DEFAULT_BUFFER_SIZE),
+				getLongProperty(properties, PROPERTY_OUTPUT_ROLL_RECORDS, 0),
+				getLongProperty(properties, PROPERTY_OUTPUT_ROLL_BYTES, 0));
+		SortingLocationSink.Order order = getSortOrder(properties.getProperty(PROPERTY_SORT_ORDER));
+		SortingLocationSink sorter = null;
+		if (order != null) {
+			String sortDirectory = properties.getProperty(PROPERTY_SORT_DIRECTORY);
+			sorter = new SortingLocationSink(output, order, 
+					StringUtils.isBlank(sortDirectory) ? null : new File(sortDirectory.trim()),
+					getLongProperty(properties, PROPERTY_SORT_MEMORY, SortingLocationSink.DEFAULT_MEMORY),
+					getIntProperty(properties, PROPERTY_SORT_THREADS, 0));
 		}
+		DeduplicatingLocationSink sink = new DeduplicatingLocationSink(sorter == null ? output : sorter);
+		BatchProcessor.Result result;
+		boolean completed = false;
+		try {
+			result = batchProcessor.consolidate(reader, sink);
+			sink.close();
+			completed = true;
+		} finally {
+			if (!completed) {
+				if (sorter != null) {
+					sorter.discard();
+				}
+				output.discard();
+			}
+		}
+		System.out.println(result);
+		System.out.println(sink.getDistinct() + " locations saved in " + output.getFiles().size() + " file(s) from \"" 
+				+ output.getFiles().get(0).getAbsolutePath() + "\", " + sink.getDuplicates() + " duplicates dropped");
+	}
+	
+	/**
+	 * Starts a {@link LocationServer} that runs until the process is stopped, 
+	 * then waits for the requests in progress and closes the processor.
+	 * 
+	 * @param properties the application properties
+	 * @param concurrency number of request threads when virtual threads are not available
+	 * @throws IOException when the port cannot be bound
+	 */
+	private static void serve(Properties properties, int concurrency) throws IOException {
+		Validate.isTrue(!isDeltaEnabled(properties), "%s cannot be combined with --%s", PROPERTY_DELTA_ENABLED, OPTION_SERVER);
+		final QueryProcessor processor = createProcessor(properties);
+		final LocationServer server = new LocationServer(processor, 
+				getIntProperty(properties, PROPERTY_SERVER_PORT, DEFAULT_SERVER_PORT), concurrency, System.err);
+		final int shutdownDelay = getIntProperty(properties, PROPERTY_SERVER_SHUTDOWN_DELAY, DEFAULT_SERVER_SHUTDOWN_DELAY);
+		try {
+			server.start();
+		} catch (IOException e) {
+			IOUtils.closeQuietly(processor);
+			throw e;
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				try {
+					server.stop(shutdownDelay);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					IOUtils.closeQuietly(processor);
+				}
+			}
+		}));
+		System.out.println("Serving locations on http://localhost:" + server.getPort() + LocationServer.LOCATIONS_PATH + "{name}");
+	}
+	
+	/**
+	 * @param arguments the options overriding the properties
+	 * @return the application properties
+	 * @throws IOException
+	 */
+	private static Properties loadProperties(Arguments arguments) throws IOException {
+		Properties properties = new Properties();
+		properties.load(Main.class.getResourceAsStream(PROPERTIES_FILE_PATH));
+		if (arguments.hasOption(OPTION_FORMAT)) {
+			properties.setProperty(PROPERTY_OUTPUT_FORMAT, arguments.getOption(OPTION_FORMAT, null));
+		}
+		if (arguments.hasOption(OPTION_PORT)) {
+			properties.setProperty(PROPERTY_SERVER_PORT, arguments.getOption(OPTION_PORT, null));
+		}
+		if (arguments.hasOption(OPTION_SORT)) {
+			properties.setProperty(PROPERTY_SORT_ORDER, arguments.getOption(OPTION_SORT, null));
+		}
+		if (arguments.hasOption(OPTION_TYPES)) {
+			properties.setProperty(PROPERTY_QUERY_TYPES, arguments.getOption(OPTION_TYPES, null));
+		}
+		if (arguments.hasOption(OPTION_BOUNDING_BOX)) {
+			properties.setProperty(PROPERTY_QUERY_BOUNDING_BOX, arguments.getOption(OPTION_BOUNDING_BOX, null));
+		}
+		if (arguments.hasOption(OPTION_COLUMNS)) {
+			properties.setProperty(PROPERTY_QUERY_COLUMNS, arguments.getOption(OPTION_COLUMNS, null));
+		}
+		return properties;
+	}
+	
+	/**
+	 * @param properties the application properties
+	 * @return the processor configured from {@code properties}
+	 * @throws IOException if the autocomplete index cannot be loaded
+	 */
+	private static QueryProcessor createProcessor(Properties properties) throws IOException {
+		String baseUrl = properties.getProperty(PROPERTY_BASE_URL);
+		String baseCsvDirectory = properties.getProperty(PROPERTY_BASE_CSV_DIRECTORY);
+		String jsonEncoding = properties.getProperty(PROPERTY_JSON_ENCODING);
+		QueryMetrics metrics = createMetrics(properties);
+		QueryProcessorImpl processor = new QueryProcessorImpl(baseUrl, baseCsvDirectory, jsonEncoding);
+		processor.setMetrics(metrics);
+		processor.setBufferSize(getIntProperty(properties, PROPERTY_CSV_BUFFER_SIZE, AbstractQueryProcessor.DEFAULT_BUFFER_SIZE));
+		processor.setOutputFormat(OutputFormats.forName(properties.getProperty(PROPERTY_OUTPUT_FORMAT, OutputFormats.DEFAULT_FORMAT)));
+		processor.setOutputLayout(new OutputLayout(baseCsvDirectory, OutputLayout.Partitioning.valueOf(
+				properties.getProperty(PROPERTY_OUTPUT_PARTITIONING, OutputLayout.Partitioning.NONE.name()).trim())));
+		processor.setParsingMode(ParsingMode.valueOf(properties.getProperty(PROPERTY_PARSING_MODE, ParsingMode.GSON.name()).trim()));
+		processor.setDirectBuffers(Boolean.parseBoolean(properties.getProperty(PROPERTY_PARSING_DIRECT_BUFFERS, Boolean.FALSE.toString()).trim()));
+		processor.setPipelining(getIntProperty(properties, PROPERTY_PIPELINE_BATCH_SIZE, 0), 
+				getIntProperty(properties, PROPERTY_PIPELINE_QUEUE_CAPACITY, PipelinedLocationSink.DEFAULT_QUEUE_CAPACITY));
+		processor.setTransport(createTransport(properties, metrics));
+		QueryOptions queryOptions = QueryOptions.parse(properties.getProperty(PROPERTY_QUERY_TYPES), 
+				properties.getProperty(PROPERTY_QUERY_BOUNDING_BOX), properties.getProperty(PROPERTY_QUERY_COLUMNS));
+		processor.setQueryOptions(queryOptions);
+		
+		QueryProcessor result = processor;
+		if (Boolean.parseBoolean(properties.getProperty(PROPERTY_CACHE_ENABLED, Boolean.FALSE.toString()).trim())) {
+			result = createCachingProcessor(properties, processor);
+		}
+		if (isDeltaEnabled(properties)) {
+			// compares complete replies, the autocomplete index caps them
+			DeltaQueryProcessor deltaProcessor = new DeltaQueryProcessor(result, 
+					new File(properties.getProperty(PROPERTY_DELTA_DIRECTORY, DEFAULT_DELTA_DIRECTORY).trim()),
+					processor.getCsvBaseDirectory(), processor.getCsvEncoding());
+			deltaProcessor.setBufferSize(processor.getBufferSize());
+			deltaProcessor.setOutputFormat(processor.getOutputFormat());
+			deltaProcessor.setOutputLayout(processor.getOutputLayout());
+			deltaProcessor.setPipelining(processor.getPipelineBatchSize(), processor.getPipelineQueueCapacity());
+			deltaProcessor.setMetrics(metrics);
+			result = deltaProcessor;
+		} else if (Boolean.parseBoolean(properties.getProperty(PROPERTY_AUTOCOMPLETE_ENABLED, Boolean.FALSE.toString()).trim())) {
+			String autocompleteFile = properties.getProperty(PROPERTY_AUTOCOMPLETE_FILE);
+			AutocompleteQueryProcessor autocompleteProcessor = new AutocompleteQueryProcessor(result, 
+					new AutocompleteIndex(StringUtils.isBlank(autocompleteFile) ? null : new File(autocompleteFile.trim())),
+					processor.getCsvBaseDirectory(), processor.getCsvEncoding());
+			autocompleteProcessor.setBufferSize(processor.getBufferSize());
+			autocompleteProcessor.setOutputFormat(processor.getOutputFormat());
+			autocompleteProcessor.setOutputLayout(processor.getOutputLayout());
+			autocompleteProcessor.setPipelining(processor.getPipelineBatchSize(), processor.getPipelineQueueCapacity());
+			autocompleteProcessor.setMetrics(metrics);
+			autocompleteProcessor.setQueryOptions(queryOptions);
+			result = autocompleteProcessor;
+		}
+		if (Boolean.parseBoolean(properties.getProperty(PROPERTY_COALESCE_QUERIES, Boolean.FALSE.toString()).trim())) {
+			result = new CoalescingQueryProcessor(result, 
+					CoalescingQueryProcessor.FailurePolicy.valueOf(properties.getProperty(PROPERTY_COALESCE_FAILURE_POLICY, 
+							CoalescingQueryProcessor.FailurePolicy.PROPAGATE.name()).trim()),
+					getIntProperty(properties, PROPERTY_COALESCE_MAX_WAIT, 0));
+		}
+		return result;
+	}
+	
+	/**
+	 * The delta files are only written by the queries of single locations and of batches without {@code --consolidate}:
+	 * the server and the consolidation take every location through {@link QueryProcessor#process(String, LocationSink)},
+	 * which cannot tell a removed location from the others, while the index would move on.
+	 * 
+	 * @param properties the application properties
+	 * @return whether {@link DeltaQueryProcessor} is enabled
+	 */
+	private static boolean isDeltaEnabled(Properties properties) {
+		return Boolean.parseBoolean(properties.getProperty(PROPERTY_DELTA_ENABLED, Boolean.FALSE.toString()).trim());
+	}
+	
+	/**
+	 * @param properties the application properties
+	 * @param metrics records the connections, may be {@code null}
+	 * @return a {@link PooledHttpTransport} behind a {@link LimitingHttpTransport} if configured and a {@link RetryingHttpTransport},
+	 * or their non-blocking variants if {@code HTTP_ASYNC} is set, configured from {@code properties}
+	 */
+	private static HttpTransport createTransport(Properties properties, QueryMetrics metrics) {
+		int maxConnections = getIntProperty(properties, PROPERTY_HTTP_MAX_CONNECTIONS, PooledHttpTransport.DEFAULT_MAX_CONNECTIONS);
+		int connectTimeout = getIntProperty(properties, PROPERTY_HTTP_CONNECT_TIMEOUT, PooledHttpTransport.DEFAULT_CONNECT_TIMEOUT);
+		int readTimeout = getIntProperty(properties, PROPERTY_HTTP_READ_TIMEOUT, PooledHttpTransport.DEFAULT_READ_TIMEOUT);
+		int keepAlive = getIntProperty(properties, PROPERTY_HTTP_KEEP_ALIVE, PooledHttpTransport.DEFAULT_KEEP_ALIVE);
+		boolean gzip = Boolean.parseBoolean(properties.getProperty(PROPERTY_HTTP_GZIP, Boolean.TRUE.toString()).trim());
+		RetryingHttpTransport transport;
+		if (Boolean.parseBoolean(properties.getProperty(PROPERTY_HTTP_ASYNC, Boolean.FALSE.toString()).trim())) {
+			transport = new AsyncRetryingHttpTransport((AsyncHttpTransport) createLimitingTransport(properties, 
+					new AsyncPooledHttpTransport(maxConnections, connectTimeout, readTimeout, keepAlive, gzip, metrics), metrics));
+		} else {
+			transport = new RetryingHttpTransport(createLimitingTransport(properties, 
+					new PooledHttpTransport(maxConnections, connectTimeout, readTimeout, keepAlive, gzip, metrics), metrics));
+		}
+		transport.setMaxAttempts(getIntProperty(properties, PROPERTY_HTTP_MAX_ATTEMPTS, RetryingHttpTransport.DEFAULT_MAX_ATTEMPTS));
+		transport.setBackoff(getIntProperty(properties, PROPERTY_HTTP_BACKOFF, (int) RetryingHttpTransport.DEFAULT_BACKOFF), 
+				getIntProperty(properties, PROPERTY_HTTP_MAX_BACKOFF, (int) RetryingHttpTransport.DEFAULT_MAX_BACKOFF));
+		transport.setDeadline(getIntProperty(properties, PROPERTY_HTTP_DEADLINE, 0));
+		transport.setHedging(getIntProperty(properties, PROPERTY_HTTP_HEDGE_DELAY, 0), 
+				Double.parseDouble(properties.getProperty(PROPERTY_HTTP_HEDGE_PERCENTILE, 
+						Double.toString(RetryingHttpTransport.DEFAULT_HEDGE_PERCENTILE)).trim()));
+		transport.setRetryBudget(Double.parseDouble(properties.getProperty(PROPERTY_HTTP_RETRY_BUDGET, 
+				Double.toString(RetryingHttpTransport.DEFAULT_BUDGET_RATIO)).trim()), RetryingHttpTransport.DEFAULT_BUDGET_MIN);
+		return transport;
+	}
+	
+	/**
+	 * @param properties the application properties
+	 * @param transport sends the requests let through
+	 * @param metrics receives the limit, may be {@code null}
+	 * @return {@code transport} behind a {@link LimitingHttpTransport} configured from {@code properties}, 
+	 * an {@link AsyncLimitingHttpTransport} if {@code transport} is an {@link AsyncHttpTransport},
+	 * or {@code transport} itself if the requests are not limited
+	 */
+	private static HttpTransport createLimitingTransport(Properties properties, HttpTransport transport, QueryMetrics metrics) {
+		String mode = properties.getProperty(PROPERTY_HTTP_LIMIT_MODE, "NONE").trim();
+		if ("NONE".equals(mode)) {
+			return transport;
+		}
+		LimitingHttpTransport.Mode limitMode = LimitingHttpTransport.Mode.valueOf(mode);
+		LimitingHttpTransport limitingTransport = transport instanceof AsyncHttpTransport 
+				? new AsyncLimitingHttpTransport((AsyncHttpTransport) transport, limitMode, metrics)
+				: new LimitingHttpTransport(transport, limitMode, metrics);
+		if (limitingTransport.getMode() == LimitingHttpTransport.Mode.TOKEN_BUCKET) {
+			limitingTransport.setRate(Double.parseDouble(properties.getProperty(PROPERTY_HTTP_LIMIT_RATE, 
+					Double.toString(LimitingHttpTransport.DEFAULT_RATE)).trim()),
+					getIntProperty(properties, PROPERTY_HTTP_LIMIT_BURST, LimitingHttpTransport.DEFAULT_BURST));
+		} else {
+			limitingTransport.setLimits(LimitingHttpTransport.DEFAULT_INITIAL_LIMIT, LimitingHttpTransport.DEFAULT_MIN_LIMIT,
+					getIntProperty(properties, PROPERTY_HTTP_LIMIT_MAX_CONCURRENCY, LimitingHttpTransport.DEFAULT_MAX_LIMIT));
+			limitingTransport.setBackoff(LimitingHttpTransport.DEFAULT_BACKOFF_RATIO, 
+					Double.parseDouble(properties.getProperty(PROPERTY_HTTP_LIMIT_LATENCY_TOLERANCE, 
+							Double.toString(LimitingHttpTransport.DEFAULT_LATENCY_TOLERANCE)).trim()));
+		}
+		limitingTransport.setMaxWait(getIntProperty(properties, PROPERTY_HTTP_LIMIT_MAX_WAIT, (int) LimitingHttpTransport.DEFAULT_MAX_WAIT));
+		return limitingTransport;
+	}
+	
+	/**
+	 * @param properties the application properties
+	 * @return the metrics registered over JMX and dumped to a file if configured, or {@code null} if disabled
+	 */
+	private static QueryMetrics createMetrics(Properties properties) {
+		if (!Boolean.parseBoolean(properties.getProperty(PROPERTY_METRICS_ENABLED, Boolean.FALSE.toString()).trim())) {
+			return null;
+		}
+		QueryMetrics metrics = new QueryMetrics();
+		metrics.register();
+		String metricsFile = properties.getProperty(PROPERTY_METRICS_FILE);
+		if (StringUtils.isNotBlank(metricsFile)) {
+			metrics.startDump(new File(metricsFile.trim()), 
+					getIntProperty(properties, PROPERTY_METRICS_DUMP_PERIOD, DEFAULT_METRICS_DUMP_PERIOD));
+		}
+		return metrics;
+	}
+	
+	/**
+	 * @param properties the application properties
+	 * @param processor fetches the replies that are not cached
+	 * @return a {@link CachingQueryProcessor} configured from {@code properties}
+	 */
+	private static QueryProcessor createCachingProcessor(Properties properties, QueryProcessorImpl processor) {
+		String cacheDirectory = properties.getProperty(PROPERTY_CACHE_DIRECTORY);
+		String cacheTtl = properties.getProperty(PROPERTY_CACHE_TTL);
+		LocationCache cache = new LocationCache(
+				getIntProperty(properties, PROPERTY_CACHE_MAX_ENTRIES, DEFAULT_CACHE_MAX_ENTRIES),
+				StringUtils.isBlank(cacheDirectory) ? null : new File(cacheDirectory.trim()),
+				cacheTtl == null ? DEFAULT_CACHE_TTL : Long.parseLong(cacheTtl.trim()));
+		CachingQueryProcessor cachingProcessor = new CachingQueryProcessor(processor, cache, 
+				processor.getCsvBaseDirectory(), processor.getCsvEncoding());
+		cachingProcessor.setBufferSize(processor.getBufferSize());
+		cachingProcessor.setOutputFormat(processor.getOutputFormat());
+		cachingProcessor.setOutputLayout(processor.getOutputLayout());
+		cachingProcessor.setPipelining(processor.getPipelineBatchSize(), processor.getPipelineQueueCapacity());
+		cachingProcessor.setMetrics(processor.getMetrics());
+		return cachingProcessor;
+	}
+	
+	/**
+	 * @param properties the application properties
+	 * @param key the property name
+	 * @param defaultValue returned when the property is absent
+	 * @return the value of the property as an {@code int}
+	 * @throws NumberFormatException if the property is not a number
+	 */
+	private static int getIntProperty(Properties properties, String key, int defaultValue) {
+		String value = properties.getProperty(key);
+		return value == null ? defaultValue : Integer.parseInt(value.trim());
+	}
+	
+	/**
+	 * @param value NONE, ID, NAME or TYPE_NAME, case insensitive, blank for none
+	 * @return the order, {@code null} for none
+	 * @throws IllegalArgumentException if {@code value} is not an order
+	 */
+	private static SortingLocationSink.Order getSortOrder(String value) {
+		if (StringUtils.isBlank(value) || "NONE".equalsIgnoreCase(value.trim())) {
+			return null;
+		}
+		return SortingLocationSink.Order.valueOf(value.trim().toUpperCase(Locale.ROOT));
+	}
+	
+	/**
+	 * @param properties the application properties
+	 * @param key the property name
+	 * @param defaultValue returned when the property is absent
+	 * @return the value of the property as a {@code long}
+	 * @throws NumberFormatException if the property is not a number
+	 */
+	private static long getLongProperty(Properties properties, String key, long defaultValue) {
+		String value = properties.getProperty(key);
+		return value == null ? defaultValue : Long.parseLong(value.trim());
 	}
 	
 	/**
@@ -88,12 +844,12 @@ public class Main {
 		
 		String location = null;
 		if (args.length == 1) {
-			location = args[0].replace("\'", "").replace("\"", "");
+			location = Locations.normalize(args[0]);
 		} else {
 			StringBuffer sb = new StringBuffer();
-			sb.append(args[0].replace("\'", "").replace("\"", ""));
+			sb.append(Locations.normalize(args[0]));
 			for (int i = 1; i < args.length; i++) {
-				sb.append(" ").append(args[i].replace("\'", "").replace("\"", ""));
+				sb.append(" ").append(Locations.normalize(args[i]));
 			}
 			location = sb.toString();
 		}
@@ -0,0 +1,74 @@
+package com.goeuro.devTest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A format of the files written by a {@link QueryProcessor}. Implementations are found with {@link java.util.ServiceLoader}
+ * through {@code META-INF/services/com.goeuro.devTest.OutputFormat}, see {@link OutputFormats}.
+ * Implementations must be thread-safe.
+ */
+public interface OutputFormat {
+
+	/**
+	 * @return the name the format is selected by, e.g. {@code csv}
+	 */
+	public String getName();
+
+	/**
+	 * @return the extension of the files, including the dot
+	 */
+	public String getExtension();
+
+	/**
+	 * @param outputStream where the locations are written, closed together with the sink
+	 * @param encoding the encoding of any text
+	 * @param bufferSize size of the buffer in front of {@code outputStream}
+	 * @return a sink writing the locations in this format
+	 * @throws IOException
+	 */
+	public LocationSink createSink(OutputStream outputStream, String encoding, int bufferSize) throws IOException;
+
+	/**
+	 * Formats that can write their bytes without a stream in between override this, 
+	 * the others write to the channel through {@link #createSink(OutputStream, String, int)}.
+	 *
+	 * @param channel where the locations are written, such as a {@link java.nio.channels.FileChannel}, 
+	 * closed together with the sink
+	 * @param encoding the encoding of any text
+	 * @param bufferSize size of the buffer in front of {@code channel}
+	 * @return a sink writing the locations in this format
+	 * @throws IOException
+	 */
+	public default LocationSink createSink(WritableByteChannel channel, String encoding, int bufferSize) throws IOException {
+		return this.createSink(Channels.newOutputStream(channel), encoding, bufferSize);
+	}
+
+	/**
+	 * Text formats write their text to the writer as is, binary formats do not support writers.
+	 *
+	 * @param writer where the locations are written, closed together with the sink
+	 * @param bufferSize size of the buffer in front of {@code writer}, in chars
+	 * @return a sink writing the locations in this format
+	 * @throws IOException
+	 * @throws UnsupportedOperationException if this is not a text format
+	 */
+	public default LocationSink createSink(Writer writer, int bufferSize) throws IOException {
+		throw new UnsupportedOperationException(this.getName() + " is not a text format");
+	}
+
+	/**
+	 * Reads back what a sink of this format wrote. Values that the format does not store as written, 
+	 * such as coordinates kept as numbers, are written to the sink in their canonical form.
+	 *
+	 * @param inputStream what a sink of this format wrote, not closed
+	 * @param encoding the encoding of any text
+	 * @param sink receives the locations, not closed
+	 * @throws IOException when the input cannot be read or is not in this format
+	 */
+	public void read(InputStream inputStream, String encoding, LocationSink sink) throws IOException;
+}
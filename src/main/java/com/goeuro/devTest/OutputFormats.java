@@ -0,0 +1,49 @@
+package com.goeuro.devTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Looks up the available {@link OutputFormat}s.
+ */
+public final class OutputFormats {
+
+	/**
+	 * Name of the format used when none is configured.
+	 */
+	public static final String DEFAULT_FORMAT = "csv";
+
+	private OutputFormats() {
+	}
+
+	/**
+	 * @param name the name of the format, case insensitive
+	 * @return the format
+	 * @throws NullPointerException if {@code name} is {@code null}
+	 * @throws IllegalArgumentException if there is no such format
+	 */
+	public static OutputFormat forName(String name) {
+		Validate.notNull(name);
+
+		for (OutputFormat format : ServiceLoader.load(OutputFormat.class, OutputFormats.class.getClassLoader())) {
+			if (format.getName().equalsIgnoreCase(name.trim())) {
+				return format;
+			}
+		}
+		throw new IllegalArgumentException("Unknown output format: " + name + ", available: " + getNames());
+	}
+
+	/**
+	 * @return the names of the available formats
+	 */
+	public static List<String> getNames() {
+		List<String> names = new ArrayList<String>();
+		for (OutputFormat format : ServiceLoader.load(OutputFormat.class, OutputFormats.class.getClassLoader())) {
+			names.add(format.getName());
+		}
+		return names;
+	}
+}
@@ -0,0 +1,258 @@
+package com.goeuro.devTest;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Which locations of a reply are kept and which of their columns are read: only some types, only within a bounding
+ * box, only some columns. Parsers that read the reply token by token apply them while reading, skipping the rest of
+ * a location as soon as it is known to be filtered out and never decoding the columns left out; every other
+ * processor applies them to its sink, see {@link #filter(LocationSink)}.
+ * The id is always kept, the columns left out are written as {@code null}, so that the layout of the output stays
+ * the same. Immutable.
+ */
+public final class QueryOptions {
+
+	/**
+	 * The columns that can be left out.
+	 */
+	public enum Column {
+		NAME, TYPE, LATITUDE, LONGITUDE
+	}
+
+	/**
+	 * Every location with every column.
+	 */
+	public static final QueryOptions ALL = new QueryOptions(null, null, EnumSet.allOf(Column.class));
+
+	/**
+	 * {@code null} for any type.
+	 */
+	private final Set<String> types;
+
+	/**
+	 * Minimum latitude, minimum longitude, maximum latitude and maximum longitude, {@code null} for anywhere.
+	 */
+	private final double[] box;
+
+	private final Set<Column> columns;
+
+	private QueryOptions(Set<String> types, double[] box, Set<Column> columns) {
+		this.types = types;
+		this.box = box;
+		this.columns = columns;
+	}
+
+	/**
+	 * @param types the types kept, e.g. {@code location}, none for any type
+	 * @return these options keeping only the locations of one of {@code types}
+	 * @throws NullPointerException if {@code types} is {@code null}
+	 * @throws IllegalArgumentException if {@code types} contains {@code null}
+	 */
+	public QueryOptions withTypes(String... types) {
+		Validate.noNullElements(types);
+		return new QueryOptions(types.length == 0 ? null : Collections.unmodifiableSet(new LinkedHashSet<String>(Arrays.asList(types))),
+				box, columns);
+	}
+
+	/**
+	 * The box crosses the antimeridian when {@code minLongitude} is greater than {@code maxLongitude},
+	 * like {@link com.goeuro.devTest.impl.SpatialIndex#withinBox(double, double, double, double, String)}.
+	 *
+	 * @return these options keeping only the locations within the box, edges included
+	 * @throws IllegalArgumentException if {@code minLatitude} is greater than {@code maxLatitude}
+	 */
+	public QueryOptions withBoundingBox(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+		Validate.isTrue(minLatitude <= maxLatitude, "minLatitude must not be greater than maxLatitude");
+		return new QueryOptions(types, new double[] {minLatitude, minLongitude, maxLatitude, maxLongitude}, columns);
+	}
+
+	/**
+	 * @param columns the columns read besides the id
+	 * @return these options reading only {@code columns}
+	 * @throws NullPointerException if {@code columns} is {@code null}
+	 * @throws IllegalArgumentException if {@code columns} contains {@code null}
+	 */
+	public QueryOptions withColumns(Column... columns) {
+		Validate.noNullElements(columns);
+		EnumSet<Column> set = EnumSet.noneOf(Column.class);
+		set.addAll(Arrays.asList(columns));
+		return new QueryOptions(types, box, Collections.unmodifiableSet(set));
+	}
+
+	/**
+	 * @return {@code true} if every location is kept with every column
+	 */
+	public boolean isAll() {
+		return types == null && box == null && columns.size() == Column.values().length;
+	}
+
+	/**
+	 * @return {@code true} if some locations may be left out
+	 */
+	public boolean isFiltered() {
+		return types != null || box != null;
+	}
+
+	/**
+	 * @return {@code true} if the locations are filtered by type
+	 */
+	public boolean hasTypes() {
+		return types != null;
+	}
+
+	/**
+	 * @return the types kept, empty for any type
+	 */
+	public Set<String> getTypes() {
+		return types == null ? Collections.<String>emptySet() : types;
+	}
+
+	/**
+	 * @return {@code true} if the locations are filtered by position
+	 */
+	public boolean hasBoundingBox() {
+		return box != null;
+	}
+
+	/**
+	 * @return {@code true} if {@code column} is read
+	 */
+	public boolean isProjected(Column column) {
+		return columns.contains(column);
+	}
+
+	/**
+	 * @param type the type of a location, may be {@code null}
+	 * @return {@code true} if the type is kept
+	 */
+	public boolean acceptsType(String type) {
+		return types == null || (type != null && types.contains(type));
+	}
+
+	/**
+	 * @param latitude the latitude of a location, may be {@code null}
+	 * @param longitude the longitude of a location, may be {@code null}
+	 * @return {@code true} if there is no bounding box or the position is a number within it
+	 */
+	public boolean acceptsPosition(String latitude, String longitude) {
+		if (box == null) {
+			return true;
+		}
+		if (latitude == null || longitude == null) {
+			return false;
+		}
+		try {
+			return this.acceptsPosition(Double.parseDouble(latitude), Double.parseDouble(longitude));
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return {@code true} if there is no bounding box or the position is within it
+	 */
+	public boolean acceptsPosition(double latitude, double longitude) {
+		if (box == null) {
+			return true;
+		}
+		if (!(latitude >= box[0] && latitude <= box[2])) {
+			return false;
+		}
+		if (box[1] <= box[3]) {
+			return longitude >= box[1] && longitude <= box[3];
+		}
+		return longitude >= box[1] || longitude <= box[3];
+	}
+
+	/**
+	 * @param sink receives the locations kept with the columns read
+	 * @return {@code sink} itself if every location is kept with every column,
+	 * otherwise a sink applying these options to every location before {@code sink}
+	 */
+	public LocationSink filter(final LocationSink sink) {
+		Validate.notNull(sink);
+		if (this.isAll()) {
+			return sink;
+		}
+		return new LocationSink() {
+			public void write(int id, String name, String type, String latitude, String longitude) throws IOException {
+				if (acceptsType(type) && acceptsPosition(latitude, longitude)) {
+					sink.write(id, isProjected(Column.NAME) ? name : null, isProjected(Column.TYPE) ? type : null,
+							isProjected(Column.LATITUDE) ? latitude : null, isProjected(Column.LONGITUDE) ? longitude : null);
+				}
+			}
+			public void close() throws IOException {
+				sink.close();
+			}
+		};
+	}
+
+	/**
+	 * @param types comma separated types, blank for any
+	 * @param boundingBox {@code minLatitude,minLongitude,maxLatitude,maxLongitude}, blank for anywhere
+	 * @param columns comma separated columns, case insensitive, blank for every column; {@code id} may be listed
+	 * @return the options
+	 * @throws IllegalArgumentException if a value is not valid
+	 */
+	public static QueryOptions parse(String types, String boundingBox, String columns) {
+		QueryOptions options = ALL;
+		if (StringUtils.isNotBlank(types)) {
+			options = options.withTypes(StringUtils.stripAll(StringUtils.split(types, ',')));
+		}
+		if (StringUtils.isNotBlank(boundingBox)) {
+			String[] corners = StringUtils.split(boundingBox, ',');
+			Validate.isTrue(corners.length == 4, "Bounding box must be minLatitude,minLongitude,maxLatitude,maxLongitude: %s", boundingBox);
+			options = options.withBoundingBox(Double.parseDouble(corners[0].trim()), Double.parseDouble(corners[1].trim()),
+					Double.parseDouble(corners[2].trim()), Double.parseDouble(corners[3].trim()));
+		}
+		if (StringUtils.isNotBlank(columns)) {
+			EnumSet<Column> set = EnumSet.noneOf(Column.class);
+			for (String column : StringUtils.split(columns, ',')) {
+				if (!"ID".equals(column.trim().toUpperCase(Locale.ROOT))) {
+					set.add(Column.valueOf(column.trim().toUpperCase(Locale.ROOT)));
+				}
+			}
+			options = options.withColumns(set.toArray(new Column[set.size()]));
+		}
+		return options;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof QueryOptions)) {
+			return false;
+		}
+		QueryOptions options = (QueryOptions) other;
+		return (types == null ? options.types == null : types.equals(options.types))
+				&& Arrays.equals(box, options.box) && columns.equals(options.columns);
+	}
+
+	@Override
+	public int hashCode() {
+		return (types == null ? 0 : types.hashCode()) * 31 * 31 + Arrays.hashCode(box) * 31 + columns.hashCode();
+	}
+
+	/**
+	 * @return the options in the format of {@link #parse(String, String, String)}, e.g. {@code types=location;box=47.0,5.0,55.0,15.0;columns=latitude,longitude}
+	 */
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		result.append("types=").append(types == null ? "" : StringUtils.join(types, ','));
+		result.append(";box=");
+		if (box != null) {
+			result.append(box[0]).append(',').append(box[1]).append(',').append(box[2]).append(',').append(box[3]);
+		}
+		result.append(";columns=").append(StringUtils.join(columns, ',').toLowerCase(Locale.ROOT));
+		return result.toString();
+	}
+}
@@ -1,11 +1,25 @@
 package com.goeuro.devTest;
 
+import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.goeuro.devTest.impl.CsvLocationSink;
 
 /**
  * Retrieves the JSON reply using the given location query and write the information to CSV.
  */
-public interface QueryProcessor {
+public interface QueryProcessor extends Closeable {
 
 	/**
 	 * Retrieve the JSON reply to the query and write to CSV.
@@ -15,4 +29,118 @@ public interface QueryProcessor {
 	 * @throws QueryProcessorException when there are problems with processing the JSON or CSV
 	 */
 	public File process(String location) throws QueryProcessorException;
+	
+	/**
+	 * Retrieve the JSON reply to the query and write to CSV without blocking the calling thread.
+	 * 
+	 * @param location
+	 * @return completed with the created {@link File}, or failed with a {@link QueryProcessorException}
+	 * when there are problems with processing the JSON or CSV. Cancelling it stops the query and discards the file.
+	 * @see #processAsync(String, long, TimeUnit)
+	 */
+	public default CompletableFuture<File> processAsync(String location) {
+		return this.processAsync(location, 0, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Like {@link #processAsync(String)}, failing with a {@link QueryProcessorException} caused by a
+	 * {@link java.util.concurrent.TimeoutException} if the query takes longer than {@code timeout}.
+	 * 
+	 * By default {@link #process(String)} runs on the calling thread and the future is returned complete,
+	 * so neither the timeout nor cancelling apply; processors that can query without blocking override it.
+	 * 
+	 * @param location
+	 * @param timeout 0 for none
+	 * @param unit the unit of {@code timeout}
+	 * @return completed with the created {@link File}, or failed with a {@link QueryProcessorException}
+	 */
+	public default CompletableFuture<File> processAsync(String location, long timeout, TimeUnit unit) {
+		CompletableFuture<File> result = new CompletableFuture<File>();
+		try {
+			result.complete(this.process(location));
+		} catch (QueryProcessorException e) {
+			result.completeExceptionally(e);
+		} catch (RuntimeException e) {
+			result.completeExceptionally(e);
+		}
+		return result;
+	}
+	
+	/**
+	 * Retrieve the JSON reply to the query and write every location to {@code sink}.
+	 * The sink is not closed.
+	 * 
+	 * @param location
+	 * @param sink receives the locations in the order they are returned
+	 * @throws QueryProcessorException when there are problems with processing the JSON or writing to the sink
+	 */
+	public void process(String location, LocationSink sink) throws QueryProcessorException;
+	
+	/**
+	 * Like {@link #process(String, LocationSink)}, writing only the locations and the columns of {@code options}.
+	 * Processors that parse the reply skip what the options leave out while parsing, the others filter what they write.
+	 * 
+	 * @param location
+	 * @param sink receives the locations kept, in the order they are returned
+	 * @param options the locations kept and the columns read
+	 * @throws QueryProcessorException when there are problems with processing the JSON or writing to the sink
+	 */
+	public default void process(String location, LocationSink sink, QueryOptions options) throws QueryProcessorException {
+		this.process(location, options.filter(sink));
+	}
+	
+	/**
+	 * Retrieve the JSON reply to the query and stream it to {@code outputStream} in the configured format, 
+	 * as it is parsed and without any file. The stream is flushed but not closed.
+	 * By default the locations are written as UTF-8 CSV by {@link #process(String, Writer)}.
+	 * 
+	 * @param location
+	 * @param outputStream receives the formatted locations
+	 * @throws QueryProcessorException when there are problems with processing the JSON or writing to the stream
+	 */
+	public default void process(String location, OutputStream outputStream) throws QueryProcessorException {
+		Writer writer = new OutputStreamWriter(outputStream, Charset.forName("UTF-8"));
+		this.process(location, writer);
+		try {
+			writer.flush();
+		} catch (IOException ioe) {
+			throw new QueryProcessorException(ioe.getLocalizedMessage(), ioe);
+		}
+	}
+	
+	/**
+	 * Like {@link #process(String, OutputStream)} for formats that are text, such as CSV.
+	 * The writer is flushed but not closed. By default the locations of {@link #process(String, LocationSink)} 
+	 * are written as CSV.
+	 * 
+	 * @param location
+	 * @param writer receives the formatted locations
+	 * @throws QueryProcessorException when there are problems with processing the JSON or writing to the writer
+	 * @throws UnsupportedOperationException if the configured format is not text
+	 */
+	public default void process(String location, Writer writer) throws QueryProcessorException {
+		try {
+			LocationSink sink = new CsvLocationSink(new BufferedWriter(new FilterWriter(writer) {
+				@Override
+				public void close() throws IOException {
+					flush();
+				}
+			}));
+			this.process(location, sink);
+			sink.close();
+		} catch (IOException ioe) {
+			throw new QueryProcessorException(ioe.getLocalizedMessage(), ioe);
+		}
+	}
+	
+	/**
+	 * Like {@link #process(String, OutputStream)}, the channel is not closed.
+	 * 
+	 * @param location
+	 * @param channel receives the formatted locations
+	 * @throws QueryProcessorException when there are problems with processing the JSON or writing to the channel
+	 */
+	public default void process(String location, WritableByteChannel channel) throws QueryProcessorException {
+		this.process(location, Channels.newOutputStream(channel));
+	}
 }
@@ -0,0 +1,663 @@
+package com.goeuro.devTest.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.lang3.Validate;
+
+import com.goeuro.devTest.LocationSink;
+import com.goeuro.devTest.OutputFormat;
+import com.goeuro.devTest.QueryProcessor;
+import com.goeuro.devTest.QueryProcessorException;
+
+/**
+ * Base class of the {@link QueryProcessor} implementations, writes the file of a query in its {@link OutputFormat}, CSV by default,
+ * on top of {@link QueryProcessor#process(String, LocationSink)}.
+ */
+public abstract class AbstractQueryProcessor implements QueryProcessor {
+
+	/**
+	 * Default size of the buffer used when writing the files.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The path of the base directory where the generated CSVs will be located.
+	 */
+	private final String csvBaseDirectory;
+
+	/**
+	 * The encoding used for writing the CSV.
+	 */
+	private final String csvEncoding;
+
+	/**
+	 * Names the resulting files and publishes them once complete.
+	 */
+	private volatile OutputLayout outputLayout;
+
+	/**
+	 * Size of the buffer used when writing the files, in chars for text formats.
+	 */
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+	/**
+	 * The format of the written files.
+	 */
+	private volatile OutputFormat outputFormat = new CsvOutputFormat();
+
+	/**
+	 * Records the queries, {@code null} when disabled.
+	 */
+	private volatile QueryMetrics metrics;
+
+	/**
+	 * Number of locations handed over at once to the writer thread, {@code 0} to write on the querying thread.
+	 */
+	private int pipelineBatchSize;
+
+	/**
+	 * Number of batches that may wait for the writer thread.
+	 */
+	private int pipelineQueueCapacity = PipelinedLocationSink.DEFAULT_QUEUE_CAPACITY;
+
+	/**
+	 * Runs the asynchronous queries, created on first use if not set.
+	 */
+	private Executor executor;
+
+	/**
+	 * The executor created on first use, shut down on {@link #close()}.
+	 */
+	private ExecutorService ownedExecutor;
+
+	/**
+	 * @param csvBaseDirectory path of the base directory where the generated CSVs will be located.
+	 * @param csvEncoding the encoding used for writing the CSV.
+	 *
+     * @throws NullPointerException if {@code csvBaseDirectory} or {@code csvEncoding} is {@code null}
+     * @throws IllegalArgumentException if {@code csvBaseDirectory} or {@code csvEncoding} is blank
+	 */
+	protected AbstractQueryProcessor(String csvBaseDirectory, String csvEncoding) {
+		Validate.notBlank(csvBaseDirectory);
+		Validate.notBlank(csvEncoding);
+
+		this.csvBaseDirectory = csvBaseDirectory;
+		this.csvEncoding = csvEncoding;
+		this.outputLayout = new OutputLayout(csvBaseDirectory);
+	}
+
+	/**
+	 * @param bufferSize size of the buffer used when writing the files, in chars for text formats, must be positive
+	 * @throws IllegalArgumentException if {@code bufferSize} is not positive
+	 */
+	public void setBufferSize(int bufferSize) {
+		Validate.isTrue(bufferSize > 0, "bufferSize must be positive: %d", bufferSize);
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * @param outputFormat the format of the written files, CSV by default
+	 * @throws NullPointerException if {@code outputFormat} is {@code null}
+	 */
+	public void setOutputFormat(OutputFormat outputFormat) {
+		Validate.notNull(outputFormat);
+		this.outputFormat = outputFormat;
+	}
+	/**
+	 * @param outputLayout names the files and spreads them over subdirectories, 
+	 * by default every file directly in the base directory
+	 * @throws NullPointerException if {@code outputLayout} is {@code null}
+	 */
+	public void setOutputLayout(OutputLayout outputLayout) {
+		Validate.notNull(outputLayout);
+		this.outputLayout = outputLayout;
+	}
+
+
+	/**
+	 * @param metrics records the queries and the bytes of the written files, {@code null} to disable.
+	 * Shared by the processors of a chain and closed by the {@link QueryProcessorImpl} at its end.
+	 */
+	public void setMetrics(QueryMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Writes the files on a separate thread through a {@link PipelinedLocationSink},
+	 * so that the reply is read and parsed while the previous locations are formatted and written.
+	 * Worth it for large replies when both the network and the disk are slow.
+	 *
+	 * @param batchSize number of locations handed over at once, {@code 0} to write on the querying thread (the default)
+	 * @param queueCapacity number of batches that may wait for the writer before the query is held back, must be positive
+	 * @throws IllegalArgumentException if {@code batchSize} is negative or {@code queueCapacity} is not positive
+	 */
+	public void setPipelining(int batchSize, int queueCapacity) {
+		Validate.isTrue(batchSize >= 0, "batchSize must not be negative: %d", batchSize);
+		Validate.isTrue(queueCapacity > 0, "queueCapacity must be positive: %d", queueCapacity);
+		this.pipelineBatchSize = batchSize;
+		this.pipelineQueueCapacity = queueCapacity;
+	}
+
+	/**
+	 * @param executor runs the asynchronous queries, not shut down by this processor.
+	 * By default virtual threads when available, otherwise a cached pool of daemon threads.
+	 * @throws NullPointerException if {@code executor} is {@code null}
+	 */
+	public synchronized void setExecutor(Executor executor) {
+		Validate.notNull(executor);
+		this.executor = executor;
+	}
+
+	/**
+	 * Writes the locations to a new file in the {@link OutputFormat} through a single buffered sink that is flushed once at the end.
+	 * The file is only created once the query starts returning data and is deleted again if the query fails.
+	 * It is named by the {@link OutputLayout}, written under a temporary name and renamed once complete.
+	 * Runs {@link #processAsync(String, long, TimeUnit)} on the calling thread.
+	 * @see com.goeuro.devTest.QueryProcessor#process(java.lang.String)
+	 */
+	public File process(String location) throws QueryProcessorException {
+		Validate.notBlank(location);
+
+		return Futures.await(this.write(location, null, Futures.DIRECT, new FileOutput(location)));
+	}
+
+	/**
+	 * Writes the file like {@link #process(String)} on the executor, see {@link #setExecutor(Executor)}.
+	 * Cancelling the future or its timeout stops the query before its next location and deletes the file.
+	 * @see com.goeuro.devTest.QueryProcessor#processAsync(java.lang.String, long, java.util.concurrent.TimeUnit)
+	 */
+	public CompletableFuture<File> processAsync(String location, long timeout, TimeUnit unit) {
+		Validate.notBlank(location);
+		Validate.isTrue(timeout >= 0, "timeout must not be negative: %d", timeout);
+		Validate.notNull(unit);
+
+		return Futures.withTimeout(this.write(location, null, this.getExecutor(), new FileOutput(location)), timeout, unit, location);
+	}
+
+	/**
+	 * Writes the file like {@link #process(String)} and every location to {@code collector} as well,
+	 * e.g. to keep the result in a {@link LocationStore}.
+	 * 
+	 * @param location the location to query
+	 * @param collector receives every location alongside the file, not closed
+	 * @return the written file
+	 * @throws QueryProcessorException when there are problems with the query, the file or the collector
+	 */
+	public File processAndCollect(String location, LocationSink collector) throws QueryProcessorException {
+		Validate.notBlank(location);
+		Validate.notNull(collector);
+
+		return Futures.await(this.write(location, collector, Futures.DIRECT, new FileOutput(location)));
+	}
+
+	/**
+	 * Streams the locations to {@code outputStream} in the {@link OutputFormat} as they are parsed, without any file.
+	 * @see com.goeuro.devTest.QueryProcessor#process(java.lang.String, java.io.OutputStream)
+	 */
+	public void process(String location, OutputStream outputStream) throws QueryProcessorException {
+		Validate.notBlank(location);
+		Validate.notNull(outputStream);
+
+		Futures.await(this.write(location, null, Futures.DIRECT, new StreamOutput(outputStream)));
+	}
+
+	/**
+	 * Streams the locations to {@code writer} in the {@link OutputFormat} as they are parsed, without any file.
+	 * @throws UnsupportedOperationException if the {@link OutputFormat} is not a text format
+	 * @see com.goeuro.devTest.QueryProcessor#process(java.lang.String, java.io.Writer)
+	 */
+	public void process(String location, Writer writer) throws QueryProcessorException {
+		Validate.notBlank(location);
+		Validate.notNull(writer);
+
+		Futures.await(this.write(location, null, Futures.DIRECT, new WriterOutput(writer)));
+	}
+
+	/**
+	 * Shuts down the executor if it was created by this processor.
+	 */
+	public void close() throws IOException {
+		ExecutorService owned;
+		synchronized (this) {
+			owned = ownedExecutor;
+			ownedExecutor = null;
+			executor = null;
+		}
+		if (owned != null) {
+			owned.shutdown();
+		}
+	}
+
+	/**
+	 * Retrieves the reply to the query and writes every location to {@code sink} on {@code executor}.
+	 * By default runs {@link #process(String, LocationSink)} on the executor, taking one of its threads for the whole query.
+	 *
+	 * @param location the location to query
+	 * @param sink receives the locations, not closed
+	 * @param executor runs the query
+	 * @param cancellation the query stops as early as possible once this completes, e.g. the future handed to the caller
+	 * @return completed once {@code sink} is no longer used, or failed with a {@link QueryProcessorException}
+	 */
+	protected CompletableFuture<Void> processAsync(final String location, final LocationSink sink, Executor executor,
+			final CompletableFuture<?> cancellation) {
+		final CompletableFuture<Void> result = new CompletableFuture<Void>();
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					if (cancellation.isDone()) {
+						result.cancel(false);
+						return;
+					}
+					try {
+						process(location, sink);
+						result.complete(null);
+					} catch (Throwable t) {
+						result.completeExceptionally(t);
+					}
+				}
+			});
+		} catch (RejectedExecutionException ree) {
+			result.completeExceptionally(new QueryProcessorException("Query of \"" + location + "\" rejected", ree));
+		}
+		return result;
+	}
+
+	/**
+	 * @return the executor of the asynchronous queries, created on first use if not set
+	 */
+	protected synchronized Executor getExecutor() {
+		if (executor == null) {
+			ownedExecutor = this.createExecutor();
+			executor = ownedExecutor;
+		}
+		return executor;
+	}
+
+	/**
+	 * @return a virtual thread per task executor when available, otherwise a cached pool of daemon threads
+	 */
+	protected ExecutorService createExecutor() {
+		return Futures.newExecutor("query");
+	}
+
+	/**
+	 * @param collector also receives the locations if not {@code null}
+	 * @param executor runs the query
+	 * @param output receives the locations
+	 * @return completed with the result of {@code output} once closed, cancelling it stops the query and discards the output
+	 */
+	private <T> CompletableFuture<T> write(String location, LocationSink collector, Executor executor, final Output<T> output) {
+		final PipelinedLocationSink pipeline = pipelineBatchSize > 0
+				? new PipelinedLocationSink(output, pipelineBatchSize, pipelineQueueCapacity) : null;
+		final LocationSink target = pipeline != null ? pipeline : output;
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		LocationSink cancellable = new CancellableLocationSink(target, result);
+
+		this.processAsync(location, collector == null ? cancellable : new TeeLocationSink(cancellable, collector), executor, result)
+				.whenComplete(new BiConsumer<Void, Throwable>() {
+			public void accept(Void ignored, Throwable failure) {
+				boolean completed = false;
+				try {
+					if (failure != null) {
+						result.completeExceptionally(Futures.unwrap(failure));
+					} else if (!result.isDone()) {
+						target.close();
+						QueryMetrics currentMetrics = metrics;
+						if (currentMetrics != null && output.getBytes() >= 0) {
+							currentMetrics.addBytesOut(output.getBytes());
+						}
+						completed = result.complete(output.getResult());
+					}
+				} catch (IOException ioe) {
+					result.completeExceptionally(new QueryProcessorException(ioe.getLocalizedMessage(), ioe));
+				} catch (RuntimeException e) {
+					result.completeExceptionally(e);
+				} finally {
+					if (!completed) {
+						if (pipeline != null) {
+							pipeline.abort();
+						}
+						output.discard();
+					}
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Opens the sink where the locations of a single query are written.
+	 *
+	 * @param file the file to append to
+	 * @return a sink of the {@link OutputFormat} with a buffer of {@code bufferSize}
+	 * @throws IOException
+	 */
+	protected LocationSink createSink(File file) throws IOException {
+		FileOutputStream outputStream = new FileOutputStream(file, true);
+		try {
+			return this.createSink(outputStream);
+		} catch (IOException ioe) {
+			IOUtils.closeQuietly(outputStream);
+			throw ioe;
+		}
+	}
+
+	/**
+	 * Opens the sink where the locations of a single query are streamed.
+	 *
+	 * @param outputStream closed together with the sink
+	 * @return a sink of the {@link OutputFormat} with a buffer of {@code bufferSize}
+	 * @throws IOException
+	 */
+	protected LocationSink createSink(OutputStream outputStream) throws IOException {
+		return outputFormat.createSink(outputStream, csvEncoding, bufferSize);
+	}
+
+	/**
+	 * @param directory directory to create together with its missing parents, must not be blank
+	 */
+	protected void createDirectoryIfNotExisting(String directory) {
+		Validate.notBlank(csvBaseDirectory);
+		File file = new File(directory);
+		if (!file.exists()) {
+			file.mkdirs();
+		}
+	}
+
+	/**
+	 * @param file the file to create
+	 * @throws FileAlreadyExistsException if the file exists, it is never shared by two queries
+	 * @throws IOException
+	 */
+	protected void createFile(File file) throws IOException {
+		if (!file.createNewFile()) {
+			throw new FileAlreadyExistsException(file.getPath());
+		}
+	}
+
+	/**
+	 * Renames the complete file of a query to its name, see {@link OutputLayout#publish(File, File)}.
+	 *
+	 * @param temporary the complete file
+	 * @param file the name given by the {@link OutputLayout}
+	 * @return the published file
+	 * @throws IOException
+	 */
+	protected File publishFile(File temporary, File file) throws IOException {
+		return OutputLayout.publish(temporary, file);
+	}
+
+	// Getters
+
+	public String getCsvBaseDirectory() {
+		return csvBaseDirectory;
+	}
+
+	public String getCsvEncoding() {
+		return csvEncoding;
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public OutputFormat getOutputFormat() {
+		return outputFormat;
+	}
+
+	public OutputLayout getOutputLayout() {
+		return outputLayout;
+	}
+
+	public QueryMetrics getMetrics() {
+		return metrics;
+	}
+
+	public int getPipelineBatchSize() {
+		return pipelineBatchSize;
+	}
+
+	public int getPipelineQueueCapacity() {
+		return pipelineQueueCapacity;
+	}
+
+	/**
+	 * Fails the writes once the query is cancelled or timed out, which stops the parsing.
+	 */
+	static class CancellableLocationSink implements ByteLocationSink {
+
+		private final LocationSink sink;
+
+		private final CompletableFuture<?> cancellation;
+
+		CancellableLocationSink(LocationSink sink, CompletableFuture<?> cancellation) {
+			this.sink = sink;
+			this.cancellation = cancellation;
+		}
+
+		public void write(int id, String name, String type, String latitude, String longitude) throws IOException {
+			if (cancellation.isDone()) {
+				throw new InterruptedIOException("Query cancelled");
+			}
+			sink.write(id, name, type, latitude, longitude);
+		}
+
+		public void write(LocationBytes location) throws IOException {
+			if (cancellation.isDone()) {
+				throw new InterruptedIOException("Query cancelled");
+			}
+			if (sink instanceof ByteLocationSink) {
+				((ByteLocationSink) sink).write(location);
+			} else {
+				location.writeTo(sink);
+			}
+		}
+
+		public void close() throws IOException {
+			sink.close();
+		}
+	}
+
+	/**
+	 * Where the locations of a single query go, opened on the first record or when closed without any record.
+	 *
+	 * @param <T> the result of the query once written
+	 */
+	private abstract static class Output<T> implements ByteLocationSink {
+
+		/**
+		 * The sink of the {@link OutputFormat}, {@code null} until opened.
+		 */
+		protected LocationSink sink;
+
+		public void write(int id, String name, String type, String latitude, String longitude) throws IOException {
+			if (sink == null) {
+				sink = open();
+			}
+			sink.write(id, name, type, latitude, longitude);
+		}
+
+		/**
+		 * Passes the bytes on if the sink of the {@link OutputFormat} takes them, otherwise decodes them.
+		 */
+		public void write(LocationBytes location) throws IOException {
+			if (sink == null) {
+				sink = open();
+			}
+			if (sink instanceof ByteLocationSink) {
+				((ByteLocationSink) sink).write(location);
+			} else {
+				location.writeTo(sink);
+			}
+		}
+
+		public void close() throws IOException {
+			if (sink == null) {
+				sink = open();
+			}
+			sink.close();
+		}
+
+		/**
+		 * @return the sink of the {@link OutputFormat}
+		 */
+		protected abstract LocationSink open() throws IOException;
+
+		/**
+		 * @return the result of the query once closed
+		 */
+		abstract T getResult();
+
+		/**
+		 * @return the number of bytes written once closed, or -1 if unknown
+		 */
+		abstract long getBytes();
+
+		/**
+		 * Drops what was written when the query fails.
+		 */
+		abstract void discard();
+	}
+
+	/**
+	 * Writes a new file under the base directory, published under its name once closed.
+	 */
+	private class FileOutput extends Output<File> {
+
+		private final String location;
+
+		/**
+		 * Where the file is written, until published.
+		 */
+		private File temporary;
+
+		private File file;
+
+		FileOutput(String location) {
+			this.location = location;
+		}
+
+		protected LocationSink open() throws IOException {
+			file = outputLayout.newFile(location, outputFormat.getExtension());
+			createDirectoryIfNotExisting(file.getParent());
+			temporary = OutputLayout.getTemporaryFile(file);
+			createFile(temporary);
+			return createSink(temporary);
+		}
+
+		@Override
+		public void close() throws IOException {
+			super.close();
+			file = publishFile(temporary, file);
+			temporary = null;
+		}
+
+		File getResult() {
+			return file;
+		}
+
+		long getBytes() {
+			return file.length();
+		}
+
+		/**
+		 * Closes the sink and deletes the incomplete file.
+		 */
+		void discard() {
+			IOUtils.closeQuietly(sink);
+			if (temporary != null) {
+				temporary.delete();
+			}
+		}
+	}
+
+	/**
+	 * Streams to a stream of the caller, which is flushed but not closed.
+	 */
+	private class StreamOutput extends Output<Void> {
+
+		private final OutputStream outputStream;
+
+		private CountingOutputStream countingStream;
+
+		StreamOutput(OutputStream outputStream) {
+			this.outputStream = outputStream;
+		}
+
+		protected LocationSink open() throws IOException {
+			countingStream = new CountingOutputStream(new CloseShieldOutputStream(outputStream));
+			return createSink(countingStream);
+		}
+
+		@Override
+		public void close() throws IOException {
+			super.close();
+			outputStream.flush();
+		}
+
+		Void getResult() {
+			return null;
+		}
+
+		long getBytes() {
+			return countingStream.getByteCount();
+		}
+
+		/**
+		 * What was already streamed stays, the rest of the buffer is dropped.
+		 */
+		void discard() {
+		}
+	}
+
+	/**
+	 * Streams the text of the {@link OutputFormat} to a writer of the caller, which is flushed but not closed.
+	 */
+	private class WriterOutput extends Output<Void> {
+
+		private final Writer writer;
+
+		WriterOutput(Writer writer) {
+			this.writer = writer;
+		}
+
+		protected LocationSink open() throws IOException {
+			return outputFormat.createSink(new FilterWriter(writer) {
+				@Override
+				public void close() throws IOException {
+					out.flush();
+				}
+			}, bufferSize);
+		}
+
+		Void getResult() {
+			return null;
+		}
+
+		long getBytes() {
+			return -1;
+		}
+
+		/**
+		 * What was already streamed stays, the rest of the buffer is dropped.
+		 */
+		void discard() {
+		}
+	}
+}
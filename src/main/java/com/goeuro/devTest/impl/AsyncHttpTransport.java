@@ -0,0 +1,23 @@
+package com.goeuro.devTest.impl;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link HttpTransport} that can execute requests without blocking a thread while waiting for the response,
+ * e.g. on top of a non-blocking HTTP client.
+ * {@link QueryProcessorImpl#processAsync(String)} only takes a thread of its executor once the response arrives.
+ */
+public interface AsyncHttpTransport extends HttpTransport {
+
+	/**
+	 * Execute a GET request asynchronously.
+	 *
+	 * @param url the full URL to request
+	 * @param headers additional request headers, may be empty
+	 * @return completed with the response, which must be closed by the caller to release the connection,
+	 * or failed with an {@link java.io.IOException} when the request cannot be executed or times out.
+	 * Cancelling it aborts the request.
+	 */
+	public CompletableFuture<TransportResponse> getAsync(String url, Map<String, String> headers);
+}
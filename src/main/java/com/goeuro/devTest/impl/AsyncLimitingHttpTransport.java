@@ -0,0 +1,32 @@
+package com.goeuro.devTest.impl;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link LimitingHttpTransport} over an {@link AsyncHttpTransport}, which lets the asynchronous requests through
+ * without blocking a thread: a request waiting for its token is sent by a timer, a request waiting for a slot
+ * is sent once another one releases it. The blocking requests are limited like by the {@link LimitingHttpTransport}.
+ */
+public class AsyncLimitingHttpTransport extends LimitingHttpTransport implements AsyncHttpTransport {
+
+	private final AsyncHttpTransport delegate;
+
+	/**
+	 * @param delegate executes the requests, will be closed together with this transport
+	 * @param mode how the requests are limited
+	 * @param metrics receives the current limit, the rejections and the throttled responses, may be {@code null}
+	 * @throws NullPointerException if {@code delegate} or {@code mode} is {@code null}
+	 */
+	public AsyncLimitingHttpTransport(AsyncHttpTransport delegate, Mode mode, QueryMetrics metrics) {
+		super(delegate, mode, metrics);
+		this.delegate = delegate;
+	}
+
+	/**
+	 * @see com.goeuro.devTest.impl.AsyncHttpTransport#getAsync(java.lang.String, java.util.Map)
+	 */
+	public CompletableFuture<TransportResponse> getAsync(String url, Map<String, String> headers) {
+		return this.getAsync(delegate, url, headers);
+	}
+}
@@ -0,0 +1,213 @@
+package com.goeuro.devTest.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.ManagedNHttpClientConnectionFactory;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * {@link AsyncHttpTransport} backed by a non-blocking client and a pool of keep-alive connections:
+ * a few I/O threads serve every request in flight, no thread waits for a response.
+ * The body of a response is received in memory before the future completes, the replies of the endpoint are small.
+ * When gzip is enabled, {@code Accept-Encoding: gzip} is sent and compressed responses are decompressed while read.
+ * Only the {@link QueryMetrics.Phase#DNS} phase of new connections is recorded.
+ */
+public class AsyncPooledHttpTransport implements AsyncHttpTransport {
+
+	private final CloseableHttpAsyncClient client;
+
+	private final boolean gzip;
+
+	/**
+	 * Uses the defaults of {@link PooledHttpTransport} with gzip enabled.
+	 */
+	public AsyncPooledHttpTransport() {
+		this(PooledHttpTransport.DEFAULT_MAX_CONNECTIONS, PooledHttpTransport.DEFAULT_CONNECT_TIMEOUT,
+				PooledHttpTransport.DEFAULT_READ_TIMEOUT, PooledHttpTransport.DEFAULT_KEEP_ALIVE, true, null);
+	}
+
+	/**
+	 * @param maxConnections maximum number of pooled connections, also waited for at most {@code connectTimeout}
+	 * @param connectTimeout connect timeout in milliseconds, 0 for none
+	 * @param readTimeout maximum inactivity in milliseconds while waiting for data, 0 for none
+	 * @param keepAlive how long in milliseconds an idle connection is kept when the server does not say otherwise
+	 * @param gzip whether to ask for and decompress gzip responses
+	 * @param metrics records the {@link QueryMetrics.Phase#DNS} phase of new connections, may be {@code null}
+	 * @throws IllegalArgumentException if {@code maxConnections} or {@code keepAlive} is not positive,
+	 * or a timeout is negative
+	 * @throws IllegalStateException if the I/O threads cannot be started
+	 */
+	public AsyncPooledHttpTransport(int maxConnections, int connectTimeout, int readTimeout, final int keepAlive, boolean gzip,
+			QueryMetrics metrics) {
+		Validate.isTrue(maxConnections > 0, "maxConnections must be positive: %d", maxConnections);
+		Validate.isTrue(connectTimeout >= 0, "connectTimeout must not be negative: %d", connectTimeout);
+		Validate.isTrue(readTimeout >= 0, "readTimeout must not be negative: %d", readTimeout);
+		Validate.isTrue(keepAlive > 0, "keepAlive must be positive: %d", keepAlive);
+
+		PoolingNHttpClientConnectionManager connectionManager;
+		try {
+			DefaultConnectingIOReactor ioReactor = new DefaultConnectingIOReactor(IOReactorConfig.custom()
+					.setConnectTimeout(connectTimeout)
+					.setSoTimeout(readTimeout)
+					.build());
+			connectionManager = metrics == null ? new PoolingNHttpClientConnectionManager(ioReactor)
+					: new PoolingNHttpClientConnectionManager(ioReactor, ManagedNHttpClientConnectionFactory.INSTANCE,
+							new PooledHttpTransport.MeasuringDnsResolver(metrics));
+		} catch (IOReactorException e) {
+			throw new IllegalStateException("Cannot start the I/O threads", e);
+		}
+		connectionManager.setMaxTotal(maxConnections);
+		connectionManager.setDefaultMaxPerRoute(maxConnections);
+
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(connectTimeout)
+				.setSocketTimeout(readTimeout)
+				.setConnectionRequestTimeout(connectTimeout)
+				.build();
+
+		ConnectionKeepAliveStrategy keepAliveStrategy = new DefaultConnectionKeepAliveStrategy() {
+			@Override
+			public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+				long duration = super.getKeepAliveDuration(response, context);
+				return duration > 0 ? duration : keepAlive;
+			}
+		};
+
+		this.gzip = gzip;
+		this.client = HttpAsyncClients.custom()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.setKeepAliveStrategy(keepAliveStrategy)
+				.build();
+		client.start();
+	}
+
+	/**
+	 * @see com.goeuro.devTest.impl.AsyncHttpTransport#getAsync(java.lang.String, java.util.Map)
+	 */
+	public CompletableFuture<TransportResponse> getAsync(String url, Map<String, String> headers) {
+		final CompletableFuture<TransportResponse> result = new CompletableFuture<TransportResponse>();
+		HttpGet request;
+		try {
+			request = new HttpGet(url);
+		} catch (IllegalArgumentException e) {
+			MalformedURLException mue = new MalformedURLException(e.getLocalizedMessage());
+			mue.initCause(e);
+			result.completeExceptionally(mue);
+			return result;
+		}
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			request.setHeader(header.getKey(), header.getValue());
+		}
+		if (gzip) {
+			request.setHeader("Accept-Encoding", "gzip");
+		}
+
+		final Future<HttpResponse> execution = client.execute(request, new FutureCallback<HttpResponse>() {
+			public void completed(HttpResponse response) {
+				try {
+					result.complete(toTransportResponse(response));
+				} catch (IOException ioe) {
+					result.completeExceptionally(ioe);
+				}
+			}
+			public void failed(Exception e) {
+				result.completeExceptionally(e instanceof IOException ? e : new IOException(e));
+			}
+			public void cancelled() {
+				result.cancel(false);
+			}
+		});
+		result.whenComplete(new BiConsumer<TransportResponse, Throwable>() {
+			public void accept(TransportResponse response, Throwable failure) {
+				if (result.isCancelled()) {
+					execution.cancel(true);
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Waits for {@link #getAsync(String, Map)}.
+	 * @see com.goeuro.devTest.impl.HttpTransport#get(java.lang.String, java.util.Map)
+	 */
+	public TransportResponse get(String url, Map<String, String> headers) throws IOException {
+		CompletableFuture<TransportResponse> future = this.getAsync(url, headers);
+		try {
+			return future.get();
+		} catch (InterruptedException ie) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while requesting " + url);
+		} catch (ExecutionException ee) {
+			Throwable cause = ee.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Stops the I/O threads and closes every pooled connection, requests in progress fail.
+	 */
+	public void close() throws IOException {
+		client.close();
+	}
+
+	/**
+	 * Decompresses a gzip body and drops the headers describing the compressed one, like the blocking client does.
+	 */
+	private TransportResponse toTransportResponse(HttpResponse response) throws IOException {
+		Map<String, String> responseHeaders = new HashMap<String, String>();
+		for (Header header : response.getAllHeaders()) {
+			responseHeaders.put(header.getName(), header.getValue());
+		}
+		HttpEntity entity = response.getEntity();
+		InputStream body = entity == null ? new ByteArrayInputStream(new byte[0]) : entity.getContent();
+		Header encoding = response.getFirstHeader("Content-Encoding");
+		if (gzip && entity != null && entity.getContentLength() != 0 && encoding != null && "gzip".equalsIgnoreCase(encoding.getValue().trim())) {
+			body = new GZIPInputStream(body);
+			for (Header header : response.getAllHeaders()) {
+				if (header.getName().equalsIgnoreCase("Content-Encoding") || header.getName().equalsIgnoreCase("Content-Length")
+						|| header.getName().equalsIgnoreCase("Content-MD5")) {
+					responseHeaders.remove(header.getName());
+				}
+			}
+		}
+		return new TransportResponse(response.getStatusLine().getStatusCode(), responseHeaders, body);
+	}
+}
@@ -0,0 +1,32 @@
+package com.goeuro.devTest.impl;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link RetryingHttpTransport} over an {@link AsyncHttpTransport}, which retries and hedges the asynchronous requests
+ * without blocking a thread: the attempts are sent through the delegate and the backoffs, hedges and deadline are timed
+ * by a timer. The blocking requests are retried like by the {@link RetryingHttpTransport}.
+ */
+public class AsyncRetryingHttpTransport extends RetryingHttpTransport implements AsyncHttpTransport {
+
+	private final AsyncHttpTransport delegate;
+
+	/**
+	 * Retries with the defaults, without deadline nor hedging.
+	 *
+	 * @param delegate executes the requests, will be closed together with this transport
+	 * @throws NullPointerException if {@code delegate} is {@code null}
+	 */
+	public AsyncRetryingHttpTransport(AsyncHttpTransport delegate) {
+		super(delegate);
+		this.delegate = delegate;
+	}
+
+	/**
+	 * @see com.goeuro.devTest.impl.AsyncHttpTransport#getAsync(java.lang.String, java.util.Map)
+	 */
+	public CompletableFuture<TransportResponse> getAsync(String url, Map<String, String> headers) {
+		return this.getAsync(delegate, url, headers);
+	}
+}
@@ -0,0 +1,425 @@
+package com.goeuro.devTest.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.Validate;
+
+import com.goeuro.devTest.LocationSink;
+import com.goeuro.devTest.QueryOptions;
+
+/**
+ * Prefix index over location names, folded to lower case without accents so that {@code "mun"} finds {@code "München"}.
+ * Every location is kept once per id, the last written one wins.
+ * <p>
+ * The index is made of a file of entries sorted by folded name, memory-mapped when the index is created,
+ * and of the locations written since then, kept in memory until {@link #save()} merges both into a new file.
+ * The file starts with the number of entries and the offset of each of them, so prefixes are found by binary search
+ * without reading the whole file.
+ */
+public class AutocompleteIndex implements LocationSink {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final int MAGIC = 0x41555443;
+
+	private static final int VERSION = 1;
+
+	/**
+	 * Magic, version and number of entries.
+	 */
+	private static final int HEADER_SIZE = 12;
+
+	private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
+	/**
+	 * Where the index is saved, {@code null} to keep it in memory only.
+	 */
+	private final File file;
+
+	/**
+	 * The mapped file, {@code null} if there is none yet.
+	 */
+	private ByteBuffer base;
+
+	private int baseCount;
+
+	/**
+	 * Locations written since the file was mapped, by folded name and id.
+	 */
+	private final TreeMap<String, TreeMap<Integer, LocationJson>> updates = new TreeMap<String, TreeMap<Integer, LocationJson>>();
+
+	/**
+	 * Folded name of every id in {@link #updates}, their entries in the file are hidden.
+	 */
+	private final Map<Integer, String> updatedIds = new HashMap<Integer, String>();
+
+	/**
+	 * @param file where the index is loaded from if it exists and saved to, {@code null} to keep it in memory only
+	 * @throws IOException if the file exists but cannot be mapped or is not an index
+	 */
+	public AutocompleteIndex(File file) throws IOException {
+		this.file = file;
+		if (file != null && file.exists()) {
+			this.map(file);
+		}
+	}
+
+	/**
+	 * @param text a name or a prefix
+	 * @return the text trimmed, in lower case and without accents
+	 */
+	public static String fold(String text) {
+		String decomposed = Normalizer.normalize(text.trim(), Normalizer.Form.NFD);
+		return COMBINING_MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Adds the location, replacing the one with the same id. Locations without a name are ignored.
+	 * @see com.goeuro.devTest.LocationSink#write(int, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+	 */
+	public synchronized void write(int id, String name, String type, String latitude, String longitude) {
+		if (name == null) {
+			return;
+		}
+
+		Integer key = Integer.valueOf(id);
+		String previous = updatedIds.remove(key);
+		if (previous != null) {
+			TreeMap<Integer, LocationJson> locations = updates.get(previous);
+			locations.remove(key);
+			if (locations.isEmpty()) {
+				updates.remove(previous);
+			}
+		}
+
+		String folded = fold(name);
+		TreeMap<Integer, LocationJson> locations = updates.get(folded);
+		if (locations == null) {
+			locations = new TreeMap<Integer, LocationJson>();
+			updates.put(folded, locations);
+		}
+		locations.put(key, RecordingLocationSink.toLocation(id, name, type, latitude, longitude));
+		updatedIds.put(key, folded);
+	}
+
+	/**
+	 * Nothing to release, the index stays usable.
+	 */
+	public void close() {
+	}
+
+	/**
+	 * Writes the locations whose folded name starts with the folded prefix, by folded name and id.
+	 *
+	 * @param prefix the beginning of the name
+	 * @param limit maximum number of locations to write
+	 * @param sink receives the locations, not closed
+	 * @return the number of locations written
+	 * @throws IOException when the sink cannot be written
+	 * @throws NullPointerException if {@code prefix} or {@code sink} is {@code null}
+	 */
+	public int lookup(String prefix, int limit, LocationSink sink) throws IOException {
+		return this.lookup(prefix, limit, QueryOptions.ALL, sink);
+	}
+
+	/**
+	 * Like {@link #lookup(String, int, LocationSink)}, writing only the locations and the columns of {@code options}.
+	 * The locations are filtered before the limit, so that up to {@code limit} accepted locations are written.
+	 *
+	 * @param prefix the beginning of the name
+	 * @param limit maximum number of locations to write
+	 * @param options the locations kept and the columns written
+	 * @param sink receives the locations, not closed
+	 * @return the number of locations written
+	 * @throws IOException when the sink cannot be written
+	 * @throws NullPointerException if {@code prefix}, {@code options} or {@code sink} is {@code null}
+	 */
+	public int lookup(String prefix, int limit, QueryOptions options, LocationSink sink) throws IOException {
+		Validate.notNull(prefix);
+		Validate.notNull(options);
+		Validate.notNull(sink);
+
+		List<LocationJson> matches;
+		synchronized (this) {
+			matches = this.find(fold(prefix), limit, options);
+		}
+		RecordingLocationSink.replay(matches, options.filter(sink));
+		return matches.size();
+	}
+
+	/**
+	 * @return the number of locations in the index
+	 */
+	public synchronized int size() {
+		int size = 0;
+		for (int i = 0; i < baseCount; i++) {
+			if (!updatedIds.containsKey(Integer.valueOf(this.readId(i)))) {
+				size++;
+			}
+		}
+		return size + updatedIds.size();
+	}
+
+	/**
+	 * @return whether locations were written since the index was loaded or saved
+	 */
+	public synchronized boolean isModified() {
+		return !updatedIds.isEmpty();
+	}
+
+	/**
+	 * Merges the file and the locations written since into a new file that replaces the previous one atomically, and maps it.
+	 *
+	 * @throws IOException
+	 * @throws IllegalStateException if the index has no file
+	 */
+	public synchronized void save() throws IOException {
+		Validate.validState(file != null, "The index has no file");
+
+		List<String> keys = new ArrayList<String>();
+		List<LocationJson> locations = new ArrayList<LocationJson>();
+		this.merge(0, "", Integer.MAX_VALUE, QueryOptions.ALL, keys, locations);
+
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.exists()) {
+			parent.mkdirs();
+		}
+		File temporary = File.createTempFile(file.getName(), ".tmp", parent);
+		DataOutputStream output = null;
+		try {
+			output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+			this.write(output, keys, locations);
+			output.close();
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			IOUtils.closeQuietly(output);
+			temporary.delete();
+		}
+
+		updates.clear();
+		updatedIds.clear();
+		this.map(file);
+	}
+
+	// Getters
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return up to {@code limit} locations whose folded name starts with {@code prefix} and that {@code options} accept
+	 */
+	private List<LocationJson> find(String prefix, int limit, QueryOptions options) {
+		List<LocationJson> locations = new ArrayList<LocationJson>();
+		this.merge(this.lowerBound(prefix), prefix, limit, options, null, locations);
+		return locations;
+	}
+
+	/**
+	 * Merges the entries of the file and the written locations whose folded name starts with {@code prefix}, 
+	 * by folded name and id. The entries of the file that were replaced and the locations {@code options} do not accept
+	 * are skipped.
+	 *
+	 * @param from the first entry of the file whose folded name may start with {@code prefix}
+	 * @param keys receives the folded names if not {@code null}
+	 * @param locations receives up to {@code limit} locations
+	 */
+	private void merge(int from, String prefix, int limit, QueryOptions options, List<String> keys, List<LocationJson> locations) {
+		List<String> updatedKeys = new ArrayList<String>();
+		List<LocationJson> updatedLocations = new ArrayList<LocationJson>();
+		for (Map.Entry<String, TreeMap<Integer, LocationJson>> entry : updates.tailMap(prefix).entrySet()) {
+			if (!entry.getKey().startsWith(prefix) || updatedLocations.size() >= limit) {
+				break;
+			}
+			for (LocationJson location : entry.getValue().values()) {
+				if (updatedLocations.size() >= limit) {
+					break;
+				}
+				if (!accepts(options, location)) {
+					continue;
+				}
+				updatedKeys.add(entry.getKey());
+				updatedLocations.add(location);
+			}
+		}
+
+		int i = from;
+		int to = baseCount;
+		int j = 0;
+		while (locations.size() < limit) {
+			while (i < to && updatedIds.containsKey(Integer.valueOf(this.readId(i)))) {
+				i++;
+			}
+			if (i < to && !this.readKey(i).startsWith(prefix)) {
+				to = i;
+			}
+			if (i == to && j == updatedLocations.size()) {
+				break;
+			}
+
+			boolean fromBase;
+			if (i == to) {
+				fromBase = false;
+			} else if (j == updatedLocations.size()) {
+				fromBase = true;
+			} else {
+				int order = this.readKey(i).compareTo(updatedKeys.get(j));
+				fromBase = order < 0 || order == 0 && this.readId(i) < updatedLocations.get(j).get_id();
+			}
+
+			if (fromBase) {
+				LocationJson location = this.readLocation(i);
+				if (accepts(options, location)) {
+					if (keys != null) {
+						keys.add(this.readKey(i));
+					}
+					locations.add(location);
+				}
+				i++;
+			} else {
+				if (keys != null) {
+					keys.add(updatedKeys.get(j));
+				}
+				locations.add(updatedLocations.get(j));
+				j++;
+			}
+		}
+	}
+
+	private static boolean accepts(QueryOptions options, LocationJson location) {
+		return options.isAll() || options.acceptsType(location.getType())
+				&& options.acceptsPosition(location.getGeoPosition().getLatitude(), location.getGeoPosition().getLongitude());
+	}
+
+	private void write(DataOutputStream output, List<String> keys, List<LocationJson> locations) throws IOException {
+		List<byte[]> entries = new ArrayList<byte[]>(locations.size());
+		for (int i = 0; i < locations.size(); i++) {
+			LocationJson location = locations.get(i);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+			DataOutputStream entry = new DataOutputStream(bytes);
+			writeString(entry, keys.get(i));
+			entry.writeInt(location.get_id());
+			writeString(entry, location.getName());
+			writeString(entry, location.getType());
+			writeString(entry, location.getGeoPosition().getLatitude());
+			writeString(entry, location.getGeoPosition().getLongitude());
+			entries.add(bytes.toByteArray());
+		}
+
+		output.writeInt(MAGIC);
+		output.writeInt(VERSION);
+		output.writeInt(entries.size());
+		int offset = HEADER_SIZE + 4 * entries.size();
+		for (byte[] entry : entries) {
+			output.writeInt(offset);
+			offset += entry.length;
+		}
+		for (byte[] entry : entries) {
+			output.write(entry);
+		}
+	}
+
+	private void map(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (mapped.limit() < HEADER_SIZE || mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+				throw new IOException("Not an autocomplete index: " + file);
+			}
+			base = mapped;
+			baseCount = mapped.getInt(8);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * @return the first entry of the file whose folded name is not less than {@code key}
+	 */
+	private int lowerBound(String key) {
+		int low = 0;
+		int high = baseCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (this.readKey(middle).compareTo(key) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private String readKey(int entry) {
+		return this.readString(base.getInt(HEADER_SIZE + 4 * entry));
+	}
+
+	private int readId(int entry) {
+		int position = base.getInt(HEADER_SIZE + 4 * entry);
+		return base.getInt(position + 4 + base.getInt(position));
+	}
+
+	private LocationJson readLocation(int entry) {
+		int position = base.getInt(HEADER_SIZE + 4 * entry);
+		position += 4 + Math.max(base.getInt(position), 0);
+		int id = base.getInt(position);
+		position += 4;
+		String name = this.readString(position);
+		position += 4 + Math.max(base.getInt(position), 0);
+		String type = this.readString(position);
+		position += 4 + Math.max(base.getInt(position), 0);
+		String latitude = this.readString(position);
+		position += 4 + Math.max(base.getInt(position), 0);
+		String longitude = this.readString(position);
+		return RecordingLocationSink.toLocation(id, name, type, latitude, longitude);
+	}
+
+	/**
+	 * @return the string at {@code position}, written by {@link #writeString(DataOutputStream, String)}
+	 */
+	private String readString(int position) {
+		int length = base.getInt(position);
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		ByteBuffer view = base.duplicate();
+		view.position(position + 4);
+		view.get(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	/**
+	 * Writes the length of the UTF-8 bytes, {@code -1} for {@code null}, and the bytes.
+	 */
+	private static void writeString(DataOutputStream output, String value) throws IOException {
+		if (value == null) {
+			output.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+}
@@ -0,0 +1,148 @@
+package com.goeuro.devTest.impl;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+
+import com.goeuro.devTest.LocationSink;
+import com.goeuro.devTest.Locations;
+import com.goeuro.devTest.QueryOptions;
+import com.goeuro.devTest.QueryProcessor;
+import com.goeuro.devTest.QueryProcessorException;
+
+/**
+ * Answers queries from an {@link AutocompleteIndex} of the names already fetched, treating the location as a prefix.
+ * Only when the index knows no matching name the query options accept is the delegate queried, for every location
+ * and column so that the index can answer any options, and its results are added to the index before being filtered.
+ * Locations are normalized with {@link Locations#normalize(String)}.
+ */
+public class AutocompleteQueryProcessor extends AbstractQueryProcessor {
+
+	/**
+	 * Default maximum number of locations answered from the index.
+	 */
+	public static final int DEFAULT_MAX_RESULTS = 100;
+
+	private final QueryProcessor delegate;
+
+	private final AutocompleteIndex index;
+
+	private volatile int maxResults = DEFAULT_MAX_RESULTS;
+
+	/**
+	 * Applied to the locations written, the index keeps them unfiltered.
+	 */
+	private volatile QueryOptions queryOptions = QueryOptions.ALL;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param delegate queries the names the index does not know, will be closed together with this processor
+	 * @param index the names already fetched, saved when this processor is closed if it has a file
+	 * @param csvBaseDirectory path of the base directory where the generated CSVs will be located.
+	 * @param csvEncoding the encoding used for writing the CSV.
+	 * @throws NullPointerException if any argument is {@code null}
+	 * @throws IllegalArgumentException if {@code csvBaseDirectory} or {@code csvEncoding} is blank
+	 */
+	public AutocompleteQueryProcessor(QueryProcessor delegate, AutocompleteIndex index, String csvBaseDirectory, String csvEncoding) {
+		super(csvBaseDirectory, csvEncoding);
+		Validate.notNull(delegate);
+		Validate.notNull(index);
+
+		this.delegate = delegate;
+		this.index = index;
+	}
+
+	/**
+	 * @param maxResults maximum number of locations answered from the index, must be positive
+	 * @throws IllegalArgumentException if {@code maxResults} is not positive
+	 */
+	public void setMaxResults(int maxResults) {
+		Validate.isTrue(maxResults > 0, "maxResults must be positive: %d", maxResults);
+		this.maxResults = maxResults;
+	}
+
+	/**
+	 * @param queryOptions applied to the locations written, {@link QueryOptions#ALL} by default;
+	 * the delegate is always queried with {@link QueryOptions#ALL}
+	 * @throws NullPointerException if {@code queryOptions} is {@code null}
+	 */
+	public void setQueryOptions(QueryOptions queryOptions) {
+		Validate.notNull(queryOptions);
+		this.queryOptions = queryOptions;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if nothing is left of {@code location} once normalized and folded,
+	 * such as {@code "'"}, since an empty prefix would match every name of the index
+	 * @see com.goeuro.devTest.QueryProcessor#process(java.lang.String, com.goeuro.devTest.LocationSink)
+	 */
+	public void process(String location, LocationSink sink) throws QueryProcessorException {
+		Validate.notBlank(location);
+		Validate.notNull(sink);
+
+		String prefix = Locations.normalize(location);
+		Validate.isTrue(!AutocompleteIndex.fold(prefix).isEmpty(), "location is blank once normalized: %s", location);
+		QueryOptions options = queryOptions;
+		try {
+			if (index.lookup(prefix, maxResults, options, sink) > 0) {
+				hits.incrementAndGet();
+				return;
+			}
+		} catch (IOException ioe) {
+			throw new QueryProcessorException(ioe.getLocalizedMessage(), ioe);
+		}
+
+		misses.incrementAndGet();
+		delegate.process(prefix, new TeeLocationSink(options.filter(sink), index), QueryOptions.ALL);
+	}
+
+	/**
+	 * Saves the index if it has a file and was modified, and closes the delegate and the default executor.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (index.getFile() != null && index.isModified()) {
+				index.save();
+			}
+		} finally {
+			try {
+				delegate.close();
+			} finally {
+				super.close();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of queries answered from the index
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of queries sent to the delegate
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	// Getters
+
+	public AutocompleteIndex getIndex() {
+		return index;
+	}
+
+	public int getMaxResults() {
+		return maxResults;
+	}
+
+	public QueryOptions getQueryOptions() {
+		return queryOptions;
+	}
+}
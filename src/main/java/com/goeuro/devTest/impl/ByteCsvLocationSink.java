@@ -0,0 +1,170 @@
+package com.goeuro.devTest.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Writes the same CSV as the {@link CsvLocationSink} straight as bytes to a channel, such as a
+ * {@link java.nio.channels.FileChannel}, through a direct buffer. The bytes of a {@link LocationBytes} are copied
+ * as they are, so the values are never decoded; {@code String}s are encoded once.
+ * Only for the encodings of {@link ByteLocationParser#supports(Charset)}, where quoting can be decided byte by byte.
+ */
+public class ByteCsvLocationSink implements ByteLocationSink {
+
+	private static final byte[] RECORD_SEPARATOR = System.lineSeparator().getBytes(Charset.forName("US-ASCII"));
+
+	private final WritableByteChannel channel;
+
+	private final Charset charset;
+
+	private final ByteBuffer buffer;
+
+	/**
+	 * The digits of the id, written backwards.
+	 */
+	private final byte[] digits = new byte[13];
+
+	/**
+	 * @param channel the destination of the CSV, will be closed together with this sink
+	 * @param charset the encoding of the CSV, must be supported by {@link ByteLocationParser#supports(Charset)}
+	 * @param bufferSize the size in bytes of the buffer, must be positive
+	 * @throws NullPointerException if {@code channel} or {@code charset} is {@code null}
+	 * @throws IllegalArgumentException if {@code charset} is not supported or {@code bufferSize} is not positive
+	 */
+	public ByteCsvLocationSink(WritableByteChannel channel, Charset charset, int bufferSize) {
+		Validate.notNull(channel);
+		Validate.notNull(charset);
+		Validate.isTrue(ByteLocationParser.supports(charset), "Not an ASCII compatible encoding: %s", charset);
+		Validate.isTrue(bufferSize > 0, "bufferSize must be positive: %d", bufferSize);
+
+		this.channel = channel;
+		this.charset = charset;
+		this.buffer = ByteBuffer.allocateDirect(bufferSize);
+	}
+
+	/**
+	 * @see com.goeuro.devTest.impl.ByteLocationSink#write(com.goeuro.devTest.impl.LocationBytes)
+	 */
+	public void write(LocationBytes location) throws IOException {
+		this.writeId(location.getId());
+		for (int field = LocationBytes.NAME; field <= LocationBytes.LONGITUDE; field++) {
+			this.put((byte) ',');
+			this.writeValue(location.getBytes(field), location.getLength(field));
+		}
+		this.put(RECORD_SEPARATOR, 0, RECORD_SEPARATOR.length);
+	}
+
+	/**
+	 * @see com.goeuro.devTest.LocationSink#write(int, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+	 */
+	public void write(int id, String name, String type, String latitude, String longitude) throws IOException {
+		this.writeId(id);
+		this.writeValue(name);
+		this.writeValue(type);
+		this.writeValue(latitude);
+		this.writeValue(longitude);
+		this.put(RECORD_SEPARATOR, 0, RECORD_SEPARATOR.length);
+	}
+
+	/**
+	 * Flushes the buffer and closes the channel.
+	 */
+	public void close() throws IOException {
+		try {
+			this.flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * A negative id is quoted like any first value of a record that does not start with a letter or a digit.
+	 */
+	private void writeId(int id) throws IOException {
+		long value = Math.abs((long) id);
+		int start = digits.length;
+		if (id < 0) {
+			digits[--start] = '"';
+		}
+		do {
+			digits[--start] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value > 0);
+		if (id < 0) {
+			digits[--start] = '-';
+			digits[--start] = '"';
+		}
+		this.put(digits, start, digits.length - start);
+	}
+
+	private void writeValue(String value) throws IOException {
+		this.put((byte) ',');
+		if (value != null) {
+			byte[] bytes = value.getBytes(charset);
+			this.writeValue(bytes, bytes.length);
+		}
+	}
+
+	/**
+	 * Quotes the value exactly when the {@link org.apache.commons.csv.CSVFormat#DEFAULT} does for a value that is not
+	 * the first of its record: when it starts with a byte up to {@code #}, ends with a byte up to a space or contains
+	 * a comma, a quote or a line break. Quotes are doubled.
+	 *
+	 * @param length -1 for {@code null}, written as nothing
+	 */
+	private void writeValue(byte[] bytes, int length) throws IOException {
+		if (length <= 0) {
+			return;
+		}
+		boolean quote = (bytes[0] & 0xFF) <= '#' || (bytes[length - 1] & 0xFF) <= ' ';
+		for (int i = 0; i < length && !quote; i++) {
+			byte b = bytes[i];
+			quote = b == ',' || b == '"' || b == '\n' || b == '\r';
+		}
+		if (!quote) {
+			this.put(bytes, 0, length);
+			return;
+		}
+		this.put((byte) '"');
+		int start = 0;
+		for (int i = 0; i < length; i++) {
+			if (bytes[i] == '"') {
+				this.put(bytes, start, i + 1 - start);
+				start = i;
+			}
+		}
+		this.put(bytes, start, length - start);
+		this.put((byte) '"');
+	}
+
+	private void put(byte b) throws IOException {
+		if (!buffer.hasRemaining()) {
+			this.flush();
+		}
+		buffer.put(b);
+	}
+
+	private void put(byte[] bytes, int offset, int length) throws IOException {
+		while (length > 0) {
+			if (!buffer.hasRemaining()) {
+				this.flush();
+			}
+			int count = Math.min(length, buffer.remaining());
+			buffer.put(bytes, offset, count);
+			offset += count;
+			length -= count;
+		}
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
@@ -0,0 +1,652 @@
+package com.goeuro.devTest.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.commons.lang3.Validate;
+
+import com.goeuro.devTest.LocationSink;
+import com.goeuro.devTest.QueryOptions;
+import com.google.gson.stream.MalformedJsonException;
+
+/**
+ * Reads the JSON array of locations straight from the bytes of the reply, without decoding it to characters.
+ * The values are copied as bytes into a reused {@link LocationBytes}, so a {@link ByteLocationSink} such as the
+ * {@link ByteCsvLocationSink} writes them without a single {@code String}; other sinks get them decoded.
+ * <p>
+ * Only encodings where every byte below 0x80 is the ASCII character and nothing else, see {@link #supports(Charset)},
+ * can be scanned this way. Values are converted as {@link StreamingLocationParser} converts them, but the JSON must be
+ * strict: the lenient syntax Gson accepts, such as unquoted names, is rejected.
+ * <p>
+ * Thread-safe, the buffers are pooled between the replies.
+ */
+public class ByteLocationParser {
+
+	/**
+	 * The buffers kept for the next replies, at most.
+	 */
+	private static final int MAX_POOLED_BUFFERS = 64;
+
+	private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+
+	private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+
+	private static final byte[] ID_FIELD = ascii("_id");
+
+	private static final byte[] NAME_FIELD = ascii("name");
+
+	private static final byte[] TYPE_FIELD = ascii("type");
+
+	private static final byte[] GEO_POSITION_FIELD = ascii("geo_position");
+
+	private static final byte[] LATITUDE_FIELD = ascii("latitude");
+
+	private static final byte[] LONGITUDE_FIELD = ascii("longitude");
+
+	private final int bufferSize;
+
+	private final boolean direct;
+
+	private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+
+	/**
+	 * Parses through heap buffers of {@link AbstractQueryProcessor#DEFAULT_BUFFER_SIZE}.
+	 */
+	public ByteLocationParser() {
+		this(AbstractQueryProcessor.DEFAULT_BUFFER_SIZE, false);
+	}
+
+	/**
+	 * @param bufferSize the size in bytes of the buffers the reply is read into, must be positive
+	 * @param direct whether the buffers are allocated outside of the heap,
+	 * which spares a copy when the channel reads from the network or a file
+	 * @throws IllegalArgumentException if {@code bufferSize} is not positive
+	 */
+	public ByteLocationParser(int bufferSize, boolean direct) {
+		Validate.isTrue(bufferSize > 0, "bufferSize must be positive: %d", bufferSize);
+		this.bufferSize = bufferSize;
+		this.direct = direct;
+	}
+
+	/**
+	 * @return whether the JSON in {@code charset} can be scanned as bytes: UTF-8, US-ASCII and ISO-8859-1
+	 */
+	public static boolean supports(Charset charset) {
+		String name = charset.name();
+		return "UTF-8".equals(name) || "US-ASCII".equals(name) || "ISO-8859-1".equals(name);
+	}
+
+	/**
+	 * Reads the whole array and writes each location to the sink as soon as it is read.
+	 *
+	 * @param channel the reply, positioned before the array, not closed
+	 * @param charset the encoding of the reply, kept by the values
+	 * @param sink receives the locations, not closed
+	 * @throws IOException when the JSON cannot be read or the sink cannot be written
+	 * @throws IllegalArgumentException if {@code charset} is not supported
+	 */
+	public void parse(ReadableByteChannel channel, Charset charset, LocationSink sink) throws IOException {
+		this.parse(channel, charset, sink, QueryOptions.ALL);
+	}
+
+	/**
+	 * Like {@link #parse(ReadableByteChannel, Charset, LocationSink)}, writing only the locations and the columns
+	 * of {@code options}: the columns left out and not needed by a filter are skipped without being copied, and the
+	 * rest of a location is skipped as soon as its type or its position is filtered out.
+	 *
+	 * @param options the locations kept and the columns read
+	 * @throws IOException when the JSON cannot be read or the sink cannot be written
+	 * @throws IllegalArgumentException if {@code charset} is not supported
+	 */
+	public void parse(ReadableByteChannel channel, Charset charset, LocationSink sink, QueryOptions options) throws IOException {
+		Validate.notNull(channel);
+		Validate.notNull(sink);
+		Validate.notNull(options);
+		Validate.isTrue(supports(charset), "Not an ASCII compatible encoding: %s", charset);
+
+		ByteBuffer buffer = buffers.poll();
+		if (buffer == null) {
+			buffer = direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+		}
+		try {
+			buffer.clear().limit(0);
+			new Scanner(channel, buffer, charset, sink, options).parse();
+		} finally {
+			if (buffers.size() < MAX_POOLED_BUFFERS) {
+				buffers.offer(buffer);
+			}
+		}
+	}
+
+	private static byte[] ascii(String value) {
+		return value.getBytes(Charset.forName("US-ASCII"));
+	}
+
+	/**
+	 * The state of the parsing of a single reply.
+	 */
+	private static final class Scanner {
+
+		private final ReadableByteChannel channel;
+
+		private final ByteBuffer buffer;
+
+		private final Charset charset;
+
+		private final LocationSink sink;
+
+		private final QueryOptions options;
+
+		/**
+		 * The types kept in the encoding of the reply, {@code null} for any type.
+		 */
+		private final byte[][] types;
+
+		private final boolean readName;
+
+		private final boolean readType;
+
+		private final boolean readPosition;
+
+		/**
+		 * {@code sink} if it takes bytes, otherwise {@code null}.
+		 */
+		private final ByteLocationSink byteSink;
+
+		private final LocationBytes location;
+
+		/**
+		 * The names of the fields and the ids are read here, as if they were a field of a second location.
+		 */
+		private final LocationBytes scratch;
+
+		/**
+		 * A high surrogate escaped as {@code \\uXXXX}, waiting for its low surrogate, or 0.
+		 */
+		private char highSurrogate;
+
+		Scanner(ReadableByteChannel channel, ByteBuffer buffer, Charset charset, LocationSink sink, QueryOptions options) {
+			this.channel = channel;
+			this.buffer = buffer;
+			this.charset = charset;
+			this.sink = sink;
+			this.options = options;
+			if (options.hasTypes()) {
+				types = new byte[options.getTypes().size()][];
+				int i = 0;
+				for (String type : options.getTypes()) {
+					types[i++] = type.getBytes(charset);
+				}
+			} else {
+				types = null;
+			}
+			this.readName = options.isProjected(QueryOptions.Column.NAME);
+			this.readType = options.hasTypes() || options.isProjected(QueryOptions.Column.TYPE);
+			this.readPosition = options.hasBoundingBox() || options.isProjected(QueryOptions.Column.LATITUDE) 
+					|| options.isProjected(QueryOptions.Column.LONGITUDE);
+			this.byteSink = sink instanceof ByteLocationSink ? (ByteLocationSink) sink : null;
+			this.location = new LocationBytes(charset);
+			this.scratch = new LocationBytes(charset);
+		}
+
+		void parse() throws IOException {
+			this.expect('[', this.nextToken());
+			int c = this.nextToken();
+			if (c == ']') {
+				return;
+			}
+			while (true) {
+				this.expect('{', c);
+				this.readLocation();
+				c = this.nextToken();
+				if (c == ']') {
+					return;
+				}
+				this.expect(',', c);
+				c = this.nextToken();
+			}
+		}
+
+		/**
+		 * Reads the members of a location object, after its opening brace, and writes it to the sink if kept
+		 * by the options. Once it is filtered out, the remaining members are skipped.
+		 */
+		private void readLocation() throws IOException {
+			location.clear();
+			boolean kept = true;
+			int c = this.nextToken();
+			while (c != '}') {
+				this.expect('"', c);
+				this.readName();
+				if (!kept) {
+					this.skipValue(this.nextToken());
+				} else if (this.isName(ID_FIELD)) {
+					c = this.nextToken();
+					if (c == 'n') {
+						this.expectLiteral("ull");
+					} else {
+						location.setId(this.readInt(c));
+					}
+				} else if (readName && this.isName(NAME_FIELD)) {
+					this.readValue(LocationBytes.NAME, this.nextToken());
+				} else if (readType && this.isName(TYPE_FIELD)) {
+					this.readValue(LocationBytes.TYPE, this.nextToken());
+					kept = this.acceptsType();
+				} else if (readPosition && this.isName(GEO_POSITION_FIELD)) {
+					c = this.nextToken();
+					if (c == '{') {
+						this.readGeoPosition();
+						kept = this.acceptsPosition();
+					} else {
+						this.skipValue(c);
+					}
+				} else {
+					this.skipValue(this.nextToken());
+				}
+				c = this.nextToken();
+				if (c == ',') {
+					c = this.nextToken();
+				} else if (c != '}') {
+					throw this.syntaxError("Expected ',' or '}'", c);
+				}
+			}
+
+			if (!kept || (options.isFiltered() && !(this.acceptsType() && this.acceptsPosition()))) {
+				return;
+			}
+			if (!options.isProjected(QueryOptions.Column.TYPE)) {
+				location.setNull(LocationBytes.TYPE);
+			}
+			if (!options.isProjected(QueryOptions.Column.LATITUDE)) {
+				location.setNull(LocationBytes.LATITUDE);
+			}
+			if (!options.isProjected(QueryOptions.Column.LONGITUDE)) {
+				location.setNull(LocationBytes.LONGITUDE);
+			}
+			if (byteSink != null) {
+				byteSink.write(location);
+			} else {
+				location.writeTo(sink);
+			}
+		}
+
+		/**
+		 * @return whether the type read so far is kept, compared as bytes
+		 */
+		private boolean acceptsType() {
+			if (types == null) {
+				return true;
+			}
+			int length = location.getLength(LocationBytes.TYPE);
+			byte[] bytes = location.getBytes(LocationBytes.TYPE);
+			for (byte[] type : types) {
+				if (type.length == length) {
+					int i = 0;
+					while (i < length && bytes[i] == type[i]) {
+						i++;
+					}
+					if (i == length) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * @return whether the position read so far is kept
+		 */
+		private boolean acceptsPosition() {
+			return !options.hasBoundingBox() 
+					|| options.acceptsPosition(location.getDouble(LocationBytes.LATITUDE), location.getDouble(LocationBytes.LONGITUDE));
+		}
+
+		/**
+		 * Reads the members of the geo position object, after its opening brace.
+		 */
+		private void readGeoPosition() throws IOException {
+			location.setNull(LocationBytes.LATITUDE);
+			location.setNull(LocationBytes.LONGITUDE);
+			int c = this.nextToken();
+			while (c != '}') {
+				this.expect('"', c);
+				this.readName();
+				if (this.isName(LATITUDE_FIELD)) {
+					this.readValue(LocationBytes.LATITUDE, this.nextToken());
+				} else if (this.isName(LONGITUDE_FIELD)) {
+					this.readValue(LocationBytes.LONGITUDE, this.nextToken());
+				} else {
+					this.skipValue(this.nextToken());
+				}
+				c = this.nextToken();
+				if (c == ',') {
+					c = this.nextToken();
+				} else if (c != '}') {
+					throw this.syntaxError("Expected ',' or '}'", c);
+				}
+			}
+		}
+
+		/**
+		 * Reads the name of a member, after its opening quote, and the colon that follows it.
+		 */
+		private void readName() throws IOException {
+			scratch.start(LocationBytes.NAME);
+			this.readString(scratch, LocationBytes.NAME);
+			this.expect(':', this.nextToken());
+		}
+
+		/**
+		 * @return whether the name last read by {@link #readName()} is {@code name}
+		 */
+		private boolean isName(byte[] name) {
+			if (scratch.getLength(LocationBytes.NAME) != name.length) {
+				return false;
+			}
+			byte[] bytes = scratch.getBytes(LocationBytes.NAME);
+			for (int i = 0; i < name.length; i++) {
+				if (bytes[i] != name[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Reads a value the way Gson reads it into a {@code String} field: numbers as written, booleans as
+		 * {@code true} or {@code false}.
+		 *
+		 * @param c the first byte of the value
+		 */
+		private void readValue(int field, int c) throws IOException {
+			if (c == 'n') {
+				this.expectLiteral("ull");
+				location.setNull(field);
+				return;
+			}
+			location.start(field);
+			if (c == '"') {
+				this.readString(location, field);
+			} else if (c == 't') {
+				this.expectLiteral("rue");
+				location.append(field, TRUE);
+			} else if (c == 'f') {
+				this.expectLiteral("alse");
+				location.append(field, FALSE);
+			} else if (c == '-' || (c >= '0' && c <= '9')) {
+				this.readNumber(location, field, c);
+			} else {
+				throw this.syntaxError("Expected a string", c);
+			}
+		}
+
+		/**
+		 * Reads an int the way Gson does: from a number or a string, either integral or a double without fraction.
+		 *
+		 * @param c the first byte of the value
+		 */
+		private int readInt(int c) throws IOException {
+			scratch.start(LocationBytes.TYPE);
+			if (c == '"') {
+				this.readString(scratch, LocationBytes.TYPE);
+			} else if (c == '-' || (c >= '0' && c <= '9')) {
+				this.readNumber(scratch, LocationBytes.TYPE, c);
+			} else {
+				throw this.syntaxError("Expected an int", c);
+			}
+			byte[] bytes = scratch.getBytes(LocationBytes.TYPE);
+			int length = scratch.getLength(LocationBytes.TYPE);
+			boolean negative = length > 0 && bytes[0] == '-';
+			if (length > (negative ? 1 : 0) && length <= (negative ? 11 : 10)) {
+				long result = 0;
+				int i = negative ? 1 : 0;
+				while (i < length && bytes[i] >= '0' && bytes[i] <= '9') {
+					result = result * 10 + (bytes[i++] - '0');
+				}
+				result = negative ? -result : result;
+				if (i == length && result == (int) result) {
+					return (int) result;
+				}
+			}
+			String value = scratch.getString(LocationBytes.TYPE);
+			try {
+				return Integer.parseInt(value);
+			} catch (NumberFormatException nfe) {
+				try {
+					double asDouble = Double.parseDouble(value);
+					int result = (int) asDouble;
+					if (result == asDouble) {
+						return result;
+					}
+				} catch (NumberFormatException e) {
+					// not a number at all
+				}
+				throw new MalformedJsonException("Expected an int but was " + value);
+			}
+		}
+
+		/**
+		 * Copies the bytes of a string, after its opening quote, up to its closing quote.
+		 */
+		private void readString(LocationBytes target, int field) throws IOException {
+			while (true) {
+				if (!buffer.hasRemaining() && !this.fill()) {
+					throw new MalformedJsonException("Unterminated string");
+				}
+				int start = buffer.position();
+				int end = start;
+				int limit = buffer.limit();
+				while (end < limit) {
+					byte b = buffer.get(end);
+					if (b == '"' || b == '\\') {
+						break;
+					}
+					end++;
+				}
+				if (end > start) {
+					this.flushSurrogate(target, field);
+					target.append(field, buffer, end - start);
+				}
+				if (end == limit) {
+					continue;
+				}
+				if (buffer.get() == '"') {
+					this.flushSurrogate(target, field);
+					return;
+				}
+				this.readEscape(target, field);
+			}
+		}
+
+		/**
+		 * Decodes the escape sequence after a backslash, in the encoding of the reply.
+		 */
+		private void readEscape(LocationBytes target, int field) throws IOException {
+			int c = this.next();
+			if (c != 'u') {
+				this.flushSurrogate(target, field);
+			}
+			switch (c) {
+			case -1:
+				throw new MalformedJsonException("Unterminated escape sequence");
+			case 'u':
+				char escaped = 0;
+				for (int i = 0; i < 4; i++) {
+					int digit = Character.digit(this.next(), 16);
+					if (digit < 0) {
+						throw new MalformedJsonException("Malformed unicode escape");
+					}
+					escaped = (char) (escaped << 4 | digit);
+				}
+				if (highSurrogate != 0 && Character.isLowSurrogate(escaped)) {
+					target.append(field, new String(new char[] {highSurrogate, escaped}).getBytes(charset));
+					highSurrogate = 0;
+				} else {
+					this.flushSurrogate(target, field);
+					if (Character.isHighSurrogate(escaped)) {
+						highSurrogate = escaped;
+					} else {
+						target.append(field, String.valueOf(escaped).getBytes(charset));
+					}
+				}
+				break;
+			case 't':
+				target.append(field, '\t');
+				break;
+			case 'b':
+				target.append(field, '\b');
+				break;
+			case 'n':
+				target.append(field, '\n');
+				break;
+			case 'r':
+				target.append(field, '\r');
+				break;
+			case 'f':
+				target.append(field, '\f');
+				break;
+			default:
+				// quote, backslash, slash and anything else stand for themselves as in Gson
+				target.append(field, c);
+				break;
+			}
+		}
+
+		/**
+		 * Writes a high surrogate not followed by its low surrogate the way the encoder writes a lone surrogate.
+		 */
+		private void flushSurrogate(LocationBytes target, int field) {
+			if (highSurrogate != 0) {
+				target.append(field, String.valueOf(highSurrogate).getBytes(charset));
+				highSurrogate = 0;
+			}
+		}
+
+		/**
+		 * Copies the bytes of a number up to the byte that ends it.
+		 *
+		 * @param c the first byte of the number
+		 */
+		private void readNumber(LocationBytes target, int field, int c) throws IOException {
+			while (true) {
+				target.append(field, c);
+				c = this.next();
+				if (!(c >= '0' && c <= '9') && c != '.' && c != '-' && c != '+' && c != 'e' && c != 'E') {
+					this.pushBack(c);
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Skips a value of any type.
+		 *
+		 * @param c the first byte of the value
+		 */
+		private void skipValue(int c) throws IOException {
+			if (c == '"') {
+				this.skipString();
+			} else if (c == '{' || c == '[') {
+				int depth = 1;
+				while (depth > 0) {
+					c = this.next();
+					if (c == -1) {
+						throw new MalformedJsonException("End of input");
+					} else if (c == '"') {
+						this.skipString();
+					} else if (c == '{' || c == '[') {
+						depth++;
+					} else if (c == '}' || c == ']') {
+						depth--;
+					}
+				}
+			} else if (c == -1 || c == ',' || c == '}' || c == ']') {
+				throw this.syntaxError("Expected a value", c);
+			} else {
+				while (c != -1 && c != ',' && c != '}' && c != ']' && c > ' ') {
+					c = this.next();
+				}
+				this.pushBack(c);
+			}
+		}
+
+		private void skipString() throws IOException {
+			while (true) {
+				int c = this.next();
+				if (c == -1) {
+					throw new MalformedJsonException("Unterminated string");
+				} else if (c == '"') {
+					return;
+				} else if (c == '\\') {
+					this.next();
+				}
+			}
+		}
+
+		private void expectLiteral(String rest) throws IOException {
+			for (int i = 0; i < rest.length(); i++) {
+				this.expect(rest.charAt(i), this.next());
+			}
+		}
+
+		private void expect(char expected, int c) throws MalformedJsonException {
+			if (c != expected) {
+				throw this.syntaxError("Expected '" + expected + "'", c);
+			}
+		}
+
+		private MalformedJsonException syntaxError(String message, int c) {
+			return new MalformedJsonException(message + " but was " + (c == -1 ? "end of input" : "'" + (char) c + "'"));
+		}
+
+		/**
+		 * @return the next byte that is not whitespace, or -1 at the end of the reply
+		 */
+		private int nextToken() throws IOException {
+			while (true) {
+				int c = this.next();
+				if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+					return c;
+				}
+			}
+		}
+
+		/**
+		 * @return the next byte, or -1 at the end of the reply
+		 */
+		private int next() throws IOException {
+			if (!buffer.hasRemaining() && !this.fill()) {
+				return -1;
+			}
+			return buffer.get() & 0xFF;
+		}
+
+		/**
+		 * Steps back over the byte just returned by {@link #next()}, which is always still in the buffer.
+		 */
+		private void pushBack(int c) {
+			if (c != -1) {
+				buffer.position(buffer.position() - 1);
+			}
+		}
+
+		/**
+		 * Reads the next bytes of the reply into the empty buffer.
+		 *
+		 * @return {@code false} at the end of the reply
+		 */
+		private boolean fill() throws IOException {
+			buffer.clear();
+			int read;
+			do {
+				read = channel.read(buffer);
+			} while (read == 0);
+			buffer.flip();
+			return read > 0;
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package com.goeuro.devTest.impl;
+
+import java.io.IOException;
+
+import com.goeuro.devTest.LocationSink;
+
+/**
+ * A {@link LocationSink} that also takes the locations as the bytes of the reply,
+ * which spares decoding them to {@code String}s, see {@link ByteLocationParser}.
+ */
+public interface ByteLocationSink extends LocationSink {
+
+	/**
+	 * Write a single location record.
+	 *
+	 * @param location only valid during the call
+	 * @throws IOException when the record cannot be written
+	 */
+	public void write(LocationBytes location) throws IOException;
+}
@@ -0,0 +1,61 @@
+package com.goeuro.devTest.impl;
+
+import java.util.List;
+
+/**
+ * The cached reply to a single normalized location query. Immutable, an entry is replaced rather than updated,
+ * so that it can be shared between the threads reading the cache.
+ */
+public class CacheEntry {
+
+	private final String key;
+	private final List<LocationJson> records;
+	private final long expiresAt;
+	private final CacheValidators validators;
+	
+	/**
+	 * For Gson, which sets the fields when reading an entry from disk.
+	 */
+	private CacheEntry() {
+		this(null, null, 0, null);
+	}
+	
+	/**
+	 * @param key the normalized location
+	 * @param records the locations of the reply, not modified afterwards
+	 * @param expiresAt time in milliseconds since the epoch after which the entry must be revalidated
+	 * @param validators of the reply, may be {@code null}
+	 */
+	public CacheEntry(String key, List<LocationJson> records, long expiresAt, CacheValidators validators) {
+		this.key = key;
+		this.records = records;
+		this.expiresAt = expiresAt;
+		this.validators = validators;
+	}
+	
+	/**
+	 * @param now time in milliseconds since the epoch
+	 * @return {@code true} if the entry must be revalidated before use
+	 */
+	public boolean isExpired(long now) {
+		return now >= expiresAt;
+	}
+	
+	// Getters
+	
+	public String getKey() {
+		return key;
+	}
+	
+	public List<LocationJson> getRecords() {
+		return records;
+	}
+	
+	public long getExpiresAt() {
+		return expiresAt;
+	}
+	
+	public CacheValidators getValidators() {
+		return validators;
+	}
+}
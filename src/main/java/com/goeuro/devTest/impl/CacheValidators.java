@@ -0,0 +1,44 @@
+package com.goeuro.devTest.impl;
+
+/**
+ * The {@code ETag} and {@code Last-Modified} of a response, used to ask the endpoint whether a cached reply is still current.
+ * Immutable, like the {@link CacheEntry} holding it.
+ */
+public class CacheValidators {
+
+	private final String etag;
+	private final String lastModified;
+	
+	/**
+	 * For Gson, which sets the fields when reading an entry from disk.
+	 */
+	private CacheValidators() {
+		this(null, null);
+	}
+	
+	/**
+	 * @param etag the {@code ETag} header, may be {@code null}
+	 * @param lastModified the {@code Last-Modified} header, may be {@code null}
+	 */
+	public CacheValidators(String etag, String lastModified) {
+		this.etag = etag;
+		this.lastModified = lastModified;
+	}
+	
+	/**
+	 * @return {@code true} if there is anything to revalidate with
+	 */
+	public boolean isPresent() {
+		return etag != null || lastModified != null;
+	}
+	
+	// Getters
+	
+	public String getEtag() {
+		return etag;
+	}
+	
+	public String getLastModified() {
+		return lastModified;
+	}
+}
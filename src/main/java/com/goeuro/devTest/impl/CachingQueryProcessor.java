@@ -0,0 +1,141 @@
+package com.goeuro.devTest.impl;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+
+import com.goeuro.devTest.LocationSink;
+import com.goeuro.devTest.Locations;
+import com.goeuro.devTest.QueryOptions;
+import com.goeuro.devTest.QueryProcessorException;
+
+/**
+ * Serves the replies of a {@link QueryProcessorImpl} from a {@link LocationCache}.
+ * Fresh entries are replayed without any request. Expired entries are revalidated with their {@code ETag} 
+ * or {@code Last-Modified} when the endpoint provided one, and fetched again otherwise.
+ * Keys are normalized with {@link Locations#normalize(String)} and qualified with the query options, those of the delegate
+ * unless others are given, when they are not {@link QueryOptions#ALL}, so that replies filtered differently are not mixed up.
+ */
+public class CachingQueryProcessor extends AbstractQueryProcessor {
+
+	private final QueryProcessorImpl delegate;
+	
+	private final LocationCache cache;
+	
+	private final AtomicLong hits = new AtomicLong();
+	
+	private final AtomicLong misses = new AtomicLong();
+	
+	private final AtomicLong revalidations = new AtomicLong();
+	
+	/**
+	 * @param delegate fetches the replies that are not cached, will be closed together with this processor
+	 * @param cache where the replies are kept
+	 * @param csvBaseDirectory path of the base directory where the generated CSVs will be located.
+	 * @param csvEncoding the encoding used for writing the CSV.
+	 * @throws NullPointerException if any argument is {@code null}
+	 * @throws IllegalArgumentException if {@code csvBaseDirectory} or {@code csvEncoding} is blank
+	 */
+	public CachingQueryProcessor(QueryProcessorImpl delegate, LocationCache cache, String csvBaseDirectory, String csvEncoding) {
+		super(csvBaseDirectory, csvEncoding);
+		Validate.notNull(delegate);
+		Validate.notNull(cache);
+		
+		this.delegate = delegate;
+		this.cache = cache;
+	}
+
+	/**
+	 * @see com.goeuro.devTest.QueryProcessor#process(java.lang.String, com.goeuro.devTest.LocationSink)
+	 */
+	public void process(String location, LocationSink sink) throws QueryProcessorException {
+		this.process(location, sink, delegate.getQueryOptions());
+	}
+
+	/**
+	 * Caches the reply under the given options instead of those of the delegate.
+	 * @see com.goeuro.devTest.QueryProcessor#process(java.lang.String, com.goeuro.devTest.LocationSink, com.goeuro.devTest.QueryOptions)
+	 */
+	@Override
+	public void process(String location, LocationSink sink, QueryOptions options) throws QueryProcessorException {
+		Validate.notBlank(location);
+		Validate.notNull(sink);
+		Validate.notNull(options);
+		
+		String key = Locations.normalize(location);
+		String cacheKey = options.isAll() ? key : key + '?' + options;
+		long now = System.currentTimeMillis();
+		CacheEntry entry = cache.get(cacheKey);
+		if (entry != null && !entry.isExpired(now)) {
+			hits.incrementAndGet();
+			this.replay(entry, sink);
+			return;
+		}
+		
+		RecordingLocationSink recorder = new RecordingLocationSink();
+		CacheValidators validators = delegate.process(key, new TeeLocationSink(sink, recorder), 
+				entry == null ? null : entry.getValidators(), options);
+		try {
+			if (validators == null) {
+				revalidations.incrementAndGet();
+				entry = new CacheEntry(cacheKey, entry.getRecords(), cache.getExpiry(now), entry.getValidators());
+				cache.put(entry);
+				this.replay(entry, sink);
+			} else {
+				misses.incrementAndGet();
+				cache.put(new CacheEntry(cacheKey, recorder.getRecords(), cache.getExpiry(now), validators));
+			}
+		} catch (IOException ioe) {
+			throw new QueryProcessorException(ioe.getLocalizedMessage(), ioe);
+		}
+	}
+	
+	/**
+	 * Closes the delegate and the default executor.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			delegate.close();
+		} finally {
+			super.close();
+		}
+	}
+	
+	/**
+	 * @return the number of queries served from a fresh entry
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+	
+	/**
+	 * @return the number of queries fetched again
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	/**
+	 * @return the number of expired entries confirmed by the endpoint as not modified
+	 */
+	public long getRevalidations() {
+		return revalidations.get();
+	}
+	
+	/**
+	 * @return the number of entries evicted from memory
+	 */
+	public long getEvictions() {
+		return cache.getEvictions();
+	}
+	
+	private void replay(CacheEntry entry, LocationSink sink) throws QueryProcessorException {
+		try {
+			RecordingLocationSink.replay(entry.getRecords(), sink);
+		} catch (IOException ioe) {
+			throw new QueryProcessorException(ioe.getLocalizedMessage(), ioe);
+		}
+	}
+}
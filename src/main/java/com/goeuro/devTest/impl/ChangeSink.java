@@ -0,0 +1,21 @@
+package com.goeuro.devTest.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Receives the locations that changed since the previous run of a query, see {@link DeltaQueryProcessor}.
+ */
+public interface ChangeSink extends Closeable {
+
+	/**
+	 * @param change how the location changed
+	 * @param id the id of the location
+	 * @param name {@code null} when {@link ChangeType#REMOVED}
+	 * @param type {@code null} when {@link ChangeType#REMOVED}
+	 * @param latitude {@code null} when {@link ChangeType#REMOVED}
+	 * @param longitude {@code null} when {@link ChangeType#REMOVED}
+	 * @throws IOException
+	 */
+	public void write(ChangeType change, int id, String name, String type, String latitude, String longitude) throws IOException;
+}
@@ -0,0 +1,22 @@
+package com.goeuro.devTest.impl;
+
+/**
+ * How a location differs from the previous run, see {@link DeltaQueryProcessor}.
+ */
+public enum ChangeType {
+
+	/**
+	 * Not returned by the previous run.
+	 */
+	ADDED,
+
+	/**
+	 * Returned by the previous run with a different name, type or position.
+	 */
+	CHANGED,
+
+	/**
+	 * Returned by the previous run only, only its id is known.
+	 */
+	REMOVED
+}
@@ -0,0 +1,281 @@
+package com.goeuro.devTest.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.Validate;
+
+import com.goeuro.devTest.LocationSink;
+import com.goeuro.devTest.Locations;
+import com.goeuro.devTest.QueryProcessor;
+import com.goeuro.devTest.QueryProcessorException;
+
+/**
+ * Coalesces concurrent identical queries: while a query for a normalized location is in flight,
+ * other callers for the same location wait for it and share its result instead of querying the delegate again.
+ * Callers of {@link #process(String)} share the produced {@link File},
+ * callers of {@link #process(String, LocationSink)} get the recorded locations replayed to their own sink.
+ */
+public class CoalescingQueryProcessor implements QueryProcessor {
+
+	/**
+	 * What the waiting callers do when the query they wait for fails, including when its thread is interrupted.
+	 */
+	public enum FailurePolicy {
+
+		/**
+		 * Fail with the same cause.
+		 */
+		PROPAGATE,
+
+		/**
+		 * Query again, coalescing with each other. Every caller retries at most once.
+		 */
+		RETRY
+	}
+
+	private final QueryProcessor delegate;
+
+	private final FailurePolicy failurePolicy;
+
+	/**
+	 * How long in milliseconds a caller waits for the query of another one, 0 to wait as long as it takes.
+	 */
+	private final long maxWait;
+
+	private final ConcurrentMap<String, CompletableFuture<File>> fileFlights = new ConcurrentHashMap<String, CompletableFuture<File>>();
+
+	private final ConcurrentMap<String, CompletableFuture<List<LocationJson>>> recordFlights =
+			new ConcurrentHashMap<String, CompletableFuture<List<LocationJson>>>();
+
+	private final AtomicLong coalesced = new AtomicLong();
+
+	/**
+	 * @param delegate executes the queries, will be closed together with this processor
+	 * @param failurePolicy what the waiting callers do when the query they wait for fails
+	 * @param maxWait how long in milliseconds a caller waits for the query of another one, 0 to wait as long as it takes
+	 * @throws NullPointerException if {@code delegate} or {@code failurePolicy} is {@code null}
+	 * @throws IllegalArgumentException if {@code maxWait} is negative
+	 */
+	public CoalescingQueryProcessor(QueryProcessor delegate, FailurePolicy failurePolicy, long maxWait) {
+		Validate.notNull(delegate);
+		Validate.notNull(failurePolicy);
+		Validate.isTrue(maxWait >= 0, "maxWait must not be negative: %d", maxWait);
+
+		this.delegate = delegate;
+		this.failurePolicy = failurePolicy;
+		this.maxWait = maxWait;
+	}
+
+	/**
+	 * The created {@link File} is shared by every caller of the same flight.
+	 * @see com.goeuro.devTest.QueryProcessor#process(java.lang.String)
+	 */
+	public File process(final String location) throws QueryProcessorException {
+		Validate.notBlank(location);
+
+		return this.coalesce(fileFlights, location, new Query<File>() {
+			public File execute() throws QueryProcessorException {
+				return delegate.process(location);
+			}
+		});
+	}
+
+	/**
+	 * Joins the flight of the same normalized location, started by either {@link #process(String)} or this method,
+	 * or starts one with {@link QueryProcessor#processAsync(String)} of the delegate.
+	 * Every caller gets its own future: cancelling it or its timeout leaves the flight to the other callers.
+	 * @see com.goeuro.devTest.QueryProcessor#processAsync(java.lang.String, long, java.util.concurrent.TimeUnit)
+	 */
+	public CompletableFuture<File> processAsync(String location, long timeout, TimeUnit unit) {
+		Validate.notBlank(location);
+		Validate.isTrue(timeout >= 0, "timeout must not be negative: %d", timeout);
+		Validate.notNull(unit);
+
+		return Futures.withTimeout(this.coalesceAsync(location, false), timeout, unit, location);
+	}
+
+	/**
+	 * The caller that runs the query records the reply and completes the flight with it before replaying it into its own
+	 * sink, like the other callers do, so that a failing sink fails only the call it belongs to.
+	 * @see com.goeuro.devTest.QueryProcessor#process(java.lang.String, com.goeuro.devTest.LocationSink)
+	 */
+	public void process(final String location, LocationSink sink) throws QueryProcessorException {
+		Validate.notBlank(location);
+		Validate.notNull(sink);
+
+		List<LocationJson> records = this.coalesce(recordFlights, location, new Query<List<LocationJson>>() {
+			public List<LocationJson> execute() throws QueryProcessorException {
+				RecordingLocationSink recorder = new RecordingLocationSink();
+				delegate.process(location, recorder);
+				return recorder.getRecords();
+			}
+		});
+		try {
+			RecordingLocationSink.replay(records, sink);
+		} catch (IOException ioe) {
+			throw new QueryProcessorException(ioe.getLocalizedMessage(), ioe);
+		}
+	}
+
+	/**
+	 * Not coalesced, the stream of every caller receives the reply as it is parsed.
+	 * @see com.goeuro.devTest.QueryProcessor#process(java.lang.String, java.io.OutputStream)
+	 */
+	public void process(String location, OutputStream outputStream) throws QueryProcessorException {
+		delegate.process(location, outputStream);
+	}
+
+	/**
+	 * Not coalesced, the writer of every caller receives the reply as it is parsed.
+	 * @see com.goeuro.devTest.QueryProcessor#process(java.lang.String, java.io.Writer)
+	 */
+	public void process(String location, Writer writer) throws QueryProcessorException {
+		delegate.process(location, writer);
+	}
+
+	/**
+	 * Closes the delegate.
+	 */
+	public void close() throws IOException {
+		delegate.close();
+	}
+
+	/**
+	 * @return the number of calls that were served by the query of another caller
+	 */
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+
+	/**
+	 * Runs the query unless one for the same normalized location is already in flight, in which case waits for that one.
+	 */
+	private <T> T coalesce(ConcurrentMap<String, CompletableFuture<T>> flights, String location, Query<T> query)
+			throws QueryProcessorException {
+		String key = Locations.normalize(location);
+		boolean retried = false;
+
+		while (true) {
+			CompletableFuture<T> flight = new CompletableFuture<T>();
+			CompletableFuture<T> existing = flights.putIfAbsent(key, flight);
+			if (existing == null) {
+				return this.lead(flights, key, flight, query);
+			}
+
+			try {
+				T result = maxWait == 0 ? existing.get() : existing.get(maxWait, TimeUnit.MILLISECONDS);
+				coalesced.incrementAndGet();
+				return result;
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new QueryProcessorException("Interrupted while waiting for the query of \"" + location + "\"", ie);
+			} catch (TimeoutException te) {
+				throw new QueryProcessorException("Timed out waiting for the query of \"" + location + "\"", te);
+			} catch (ExecutionException ee) {
+				if (failurePolicy == FailurePolicy.PROPAGATE || retried) {
+					throw new QueryProcessorException(ee.getCause().getLocalizedMessage(), ee.getCause());
+				}
+				retried = true;
+			}
+		}
+	}
+
+	/**
+	 * Runs the query and publishes its outcome to the waiting callers.
+	 * The flight is removed before it completes, so that callers retrying after a failure start a new one.
+	 */
+	private <T> T lead(ConcurrentMap<String, CompletableFuture<T>> flights, String key, CompletableFuture<T> flight, Query<T> query)
+			throws QueryProcessorException {
+		T result;
+		try {
+			result = query.execute();
+		} catch (QueryProcessorException e) {
+			flights.remove(key, flight);
+			flight.completeExceptionally(e);
+			throw e;
+		} catch (RuntimeException e) {
+			flights.remove(key, flight);
+			flight.completeExceptionally(e);
+			throw e;
+		} catch (Error e) {
+			flights.remove(key, flight);
+			flight.completeExceptionally(e);
+			throw e;
+		}
+		flights.remove(key, flight);
+		flight.complete(result);
+		return result;
+	}
+
+	/**
+	 * Starts a flight for the location unless one is already in flight, in which case joins that one.
+	 *
+	 * @param retried whether the caller already retried after a failed flight of another caller
+	 */
+	private CompletableFuture<File> coalesceAsync(final String location, final boolean retried) {
+		final String key = Locations.normalize(location);
+		final CompletableFuture<File> flight = new CompletableFuture<File>();
+		CompletableFuture<File> existing = fileFlights.putIfAbsent(key, flight);
+		if (existing == null) {
+			CompletableFuture<File> query;
+			try {
+				query = delegate.processAsync(location);
+			} catch (RuntimeException e) {
+				query = new CompletableFuture<File>();
+				query.completeExceptionally(e);
+			}
+			query.whenComplete(new BiConsumer<File, Throwable>() {
+				public void accept(File file, Throwable failure) {
+					fileFlights.remove(key, flight);
+					if (failure == null) {
+						flight.complete(file);
+					} else {
+						flight.completeExceptionally(Futures.unwrap(failure));
+					}
+				}
+			});
+			return Futures.copy(flight);
+		}
+
+		CompletableFuture<File> joined = existing.thenApply(new Function<File, File>() {
+			public File apply(File file) {
+				coalesced.incrementAndGet();
+				return file;
+			}
+		});
+		if (failurePolicy == FailurePolicy.RETRY && !retried) {
+			joined = joined.handle(new BiFunction<File, Throwable, CompletableFuture<File>>() {
+				public CompletableFuture<File> apply(File file, Throwable failure) {
+					return failure == null ? CompletableFuture.completedFuture(file) : coalesceAsync(location, true);
+				}
+			}).thenCompose(new Function<CompletableFuture<File>, CompletableFuture<File>>() {
+				public CompletableFuture<File> apply(CompletableFuture<File> result) {
+					return result;
+				}
+			});
+		}
+		return Futures.withTimeout(joined, maxWait, TimeUnit.MILLISECONDS, location);
+	}
+
+	/**
+	 * A query to the delegate.
+	 */
+	private interface Query<T> {
+
+		T execute() throws QueryProcessorException;
+	}
+}
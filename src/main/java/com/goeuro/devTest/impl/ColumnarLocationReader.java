@@ -0,0 +1,176 @@
+package com.goeuro.devTest.impl;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.Validate;
+
+import com.goeuro.devTest.LocationSink;
+
+/**
+ * Reads what a {@link ColumnarLocationSink} wrote, a block of columns at a time.
+ * The column arrays are reused for every block and may be longer than {@link #getRows()}.
+ */
+public class ColumnarLocationReader {
+
+	private final DataInputStream input;
+
+	private final Charset charset;
+
+	private final List<String> typeDictionary = new ArrayList<String>();
+
+	private int rows;
+
+	private int[] ids = new int[0];
+
+	private double[] latitudes = new double[0];
+
+	private double[] longitudes = new double[0];
+
+	private int[] types = new int[0];
+
+	private String[] names = new String[0];
+
+	private boolean ended;
+
+	/**
+	 * @param inputStream what a {@link ColumnarLocationSink} wrote, will be buffered but not closed
+	 * @param encoding the encoding of the names and types
+	 * @throws NullPointerException if {@code inputStream} or {@code encoding} is {@code null}
+	 * @throws IOException if the stream cannot be read or was not written by a {@link ColumnarLocationSink}
+	 */
+	public ColumnarLocationReader(InputStream inputStream, String encoding) throws IOException {
+		Validate.notNull(inputStream);
+		Validate.notNull(encoding);
+
+		this.input = new DataInputStream(new BufferedInputStream(inputStream));
+		this.charset = Charset.forName(encoding);
+		if (input.readInt() != ColumnarLocationSink.MAGIC || input.readInt() != ColumnarLocationSink.VERSION) {
+			throw new IOException("Not a columnar location stream");
+		}
+	}
+
+	/**
+	 * Reads the next block.
+	 *
+	 * @return {@code false} at the end of the stream
+	 * @throws IOException
+	 */
+	public boolean next() throws IOException {
+		if (ended) {
+			return false;
+		}
+		rows = input.readInt();
+		if (rows <= 0) {
+			rows = 0;
+			ended = true;
+			return false;
+		}
+
+		int newTypes = input.readInt();
+		for (int i = 0; i < newTypes; i++) {
+			typeDictionary.add(this.readString());
+		}
+		if (ids.length < rows) {
+			ids = new int[rows];
+			latitudes = new double[rows];
+			longitudes = new double[rows];
+			types = new int[rows];
+			names = new String[rows];
+		}
+		for (int i = 0; i < rows; i++) {
+			ids[i] = input.readInt();
+		}
+		for (int i = 0; i < rows; i++) {
+			latitudes[i] = input.readDouble();
+		}
+		for (int i = 0; i < rows; i++) {
+			longitudes[i] = input.readDouble();
+		}
+		for (int i = 0; i < rows; i++) {
+			types[i] = input.readInt();
+		}
+		for (int i = 0; i < rows; i++) {
+			names[i] = this.readString();
+		}
+		return true;
+	}
+
+	/**
+	 * Writes every remaining location to the sink, coordinates as by {@link Double#toString(double)}.
+	 *
+	 * @param sink receives the locations, not closed
+	 * @throws IOException
+	 */
+	public void readAll(LocationSink sink) throws IOException {
+		while (this.next()) {
+			for (int i = 0; i < rows; i++) {
+				sink.write(ids[i], names[i], this.getType(types[i]), toString(latitudes[i]), toString(longitudes[i]));
+			}
+		}
+	}
+
+	/**
+	 * @return the number of rows in the current block
+	 */
+	public int getRows() {
+		return rows;
+	}
+
+	public int[] getIds() {
+		return ids;
+	}
+
+	public double[] getLatitudes() {
+		return latitudes;
+	}
+
+	public double[] getLongitudes() {
+		return longitudes;
+	}
+
+	/**
+	 * @return the type codes, see {@link #getType(int)}
+	 */
+	public int[] getTypeCodes() {
+		return types;
+	}
+
+	public String[] getNames() {
+		return names;
+	}
+
+	/**
+	 * @param code a type code of the current or a previous block
+	 * @return the type, {@code null} for {@code -1}
+	 * @throws IOException if the code is not in the dictionary
+	 */
+	public String getType(int code) throws IOException {
+		if (code < 0) {
+			return null;
+		}
+		if (code >= typeDictionary.size()) {
+			throw new IOException("Unknown type code " + code);
+		}
+		return typeDictionary.get(code);
+	}
+
+	private String readString() throws IOException {
+		int length = input.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		input.readFully(bytes);
+		return new String(bytes, charset);
+	}
+
+	private static String toString(double coordinate) {
+		return Double.isNaN(coordinate) ? null : Double.toString(coordinate);
+	}
+}
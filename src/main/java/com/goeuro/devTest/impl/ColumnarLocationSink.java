@@ -0,0 +1,161 @@
+package com.goeuro.devTest.impl;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.Validate;
+
+import com.goeuro.devTest.LocationSink;
+
+/**
+ * A {@link LocationSink} writing the locations in blocks of columns: the ids as {@code int}s, 
+ * the coordinates as {@code double}s, the types as codes into a dictionary and the names as length prefixed strings.
+ * <p>
+ * The stream starts with a magic number and a version, and each block with its number of rows and the types first used in it,
+ * the block of 0 rows ends the stream. Missing coordinates are written as {@link Double#NaN}, a missing type as {@code -1}
+ * and a missing name with a length of {@code -1}. Read it with {@link ColumnarLocationReader}.
+ */
+public class ColumnarLocationSink implements LocationSink {
+
+	static final int MAGIC = 0x4745434C;
+
+	static final int VERSION = 1;
+
+	/**
+	 * Default number of rows per block.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+	private final DataOutputStream output;
+
+	private final Charset charset;
+
+	private final int[] ids;
+
+	private final double[] latitudes;
+
+	private final double[] longitudes;
+
+	private final int[] types;
+
+	private final String[] names;
+
+	private int rows;
+
+	private final Map<String, Integer> typeCodes = new HashMap<String, Integer>();
+
+	/**
+	 * Types added to the dictionary since the last block was written.
+	 */
+	private final List<String> newTypes = new ArrayList<String>();
+
+	/**
+	 * @param outputStream the destination, should be buffered. Will be closed together with this sink.
+	 * @param encoding the encoding of the names and types
+	 * @param blockSize number of rows per block, must be positive
+	 * @throws NullPointerException if {@code outputStream} or {@code encoding} is {@code null}
+	 * @throws IllegalArgumentException if {@code blockSize} is not positive or {@code encoding} is not supported
+	 * @throws IOException
+	 */
+	public ColumnarLocationSink(OutputStream outputStream, String encoding, int blockSize) throws IOException {
+		Validate.notNull(outputStream);
+		Validate.notNull(encoding);
+		Validate.isTrue(blockSize > 0, "blockSize must be positive: %d", blockSize);
+
+		this.output = new DataOutputStream(outputStream);
+		this.charset = Charset.forName(encoding);
+		this.ids = new int[blockSize];
+		this.latitudes = new double[blockSize];
+		this.longitudes = new double[blockSize];
+		this.types = new int[blockSize];
+		this.names = new String[blockSize];
+
+		output.writeInt(MAGIC);
+		output.writeInt(VERSION);
+	}
+
+	/**
+	 * @throws NumberFormatException if a coordinate is not a number
+	 * @see com.goeuro.devTest.LocationSink#write(int, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+	 */
+	public void write(int id, String name, String type, String latitude, String longitude) throws IOException {
+		ids[rows] = id;
+		names[rows] = name;
+		types[rows] = this.encode(type);
+		latitudes[rows] = latitude == null || latitude.isEmpty() ? Double.NaN : Double.parseDouble(latitude);
+		longitudes[rows] = longitude == null || longitude.isEmpty() ? Double.NaN : Double.parseDouble(longitude);
+		if (++rows == ids.length) {
+			this.writeBlock();
+		}
+	}
+
+	/**
+	 * Writes the last block and the end of the stream, and closes the underlying stream.
+	 */
+	public void close() throws IOException {
+		try {
+			if (rows > 0) {
+				this.writeBlock();
+			}
+			output.writeInt(0);
+			output.flush();
+		} finally {
+			output.close();
+		}
+	}
+
+	private void writeBlock() throws IOException {
+		output.writeInt(rows);
+		output.writeInt(newTypes.size());
+		for (String type : newTypes) {
+			this.writeString(type);
+		}
+		newTypes.clear();
+		for (int i = 0; i < rows; i++) {
+			output.writeInt(ids[i]);
+		}
+		for (int i = 0; i < rows; i++) {
+			output.writeDouble(latitudes[i]);
+		}
+		for (int i = 0; i < rows; i++) {
+			output.writeDouble(longitudes[i]);
+		}
+		for (int i = 0; i < rows; i++) {
+			output.writeInt(types[i]);
+		}
+		for (int i = 0; i < rows; i++) {
+			this.writeString(names[i]);
+			names[i] = null;
+		}
+		rows = 0;
+	}
+
+	private int encode(String type) {
+		if (type == null) {
+			return -1;
+		}
+		Integer code = typeCodes.get(type);
+		if (code == null) {
+			code = Integer.valueOf(typeCodes.size());
+			typeCodes.put(type, code);
+			newTypes.add(type);
+		}
+		return code.intValue();
+	}
+
+	private void writeString(String value) throws IOException {
+		if (value == null) {
+			output.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(charset);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+}
@@ -0,0 +1,40 @@
+package com.goeuro.devTest.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.goeuro.devTest.LocationSink;
+import com.goeuro.devTest.OutputFormat;
+
+/**
+ * Writes the locations in the binary columnar format of {@link ColumnarLocationSink}.
+ */
+public class ColumnarOutputFormat implements OutputFormat {
+
+	public String getName() {
+		return "columnar";
+	}
+
+	public String getExtension() {
+		return ".loc";
+	}
+
+	/**
+	 * The buffer size is in bytes, blocks have {@link ColumnarLocationSink#DEFAULT_BLOCK_SIZE} rows.
+	 * @see com.goeuro.devTest.OutputFormat#createSink(java.io.OutputStream, java.lang.String, int)
+	 */
+	public LocationSink createSink(OutputStream outputStream, String encoding, int bufferSize) throws IOException {
+		return new ColumnarLocationSink(new BufferedOutputStream(outputStream, bufferSize), encoding, 
+				ColumnarLocationSink.DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Coordinates are read back as by {@link Double#toString(double)}.
+	 * @see com.goeuro.devTest.OutputFormat#read(java.io.InputStream, java.lang.String, com.goeuro.devTest.LocationSink)
+	 */
+	public void read(InputStream inputStream, String encoding, LocationSink sink) throws IOException {
+		new ColumnarLocationReader(inputStream, encoding).readAll(sink);
+	}
+}
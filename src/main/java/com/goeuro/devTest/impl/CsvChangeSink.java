@@ -0,0 +1,48 @@
+package com.goeuro.devTest.impl;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * A {@link ChangeSink} writing the CSV of the {@link CsvLocationSink} with the {@link ChangeType} as first column.
+ */
+public class CsvChangeSink implements ChangeSink {
+
+	private static final CSVFormat CSV_FORMAT = CSVFormat.DEFAULT.withRecordSeparator(System.lineSeparator());
+
+	private final CSVPrinter printer;
+
+	/**
+	 * @param writer the destination of the CSV, should be buffered. Will be closed together with this sink.
+	 * @throws NullPointerException if {@code writer} is {@code null}
+	 * @throws IOException
+	 */
+	public CsvChangeSink(Writer writer) throws IOException {
+		Validate.notNull(writer);
+		this.printer = new CSVPrinter(writer, CSV_FORMAT);
+	}
+
+	/**
+	 * @see com.goeuro.devTest.impl.ChangeSink#write(com.goeuro.devTest.impl.ChangeType, int, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+	 */
+	public void write(ChangeType change, int id, String name, String type, String latitude, String longitude) throws IOException {
+		printer.print(change.name());
+		printer.print(Integer.toString(id));
+		printer.print(name);
+		printer.print(type);
+		printer.print(latitude);
+		printer.print(longitude);
+		printer.println();
+	}
+
+	/**
+	 * Flushes and closes the underlying {@link Writer}.
+	 */
+	public void close() throws IOException {
+		printer.close();
+	}
+}
@@ -0,0 +1,55 @@
+package com.goeuro.devTest.impl;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.lang3.Validate;
+
+import com.goeuro.devTest.LocationSink;
+
+/**
+ * A {@link LocationSink} that keeps a single {@link CSVPrinter} open for the whole query.
+ * Records are written in {@link CSVFormat#DEFAULT} with the platform line separator,
+ * and the underlying {@link Writer} is only flushed when the sink is closed.
+ */
+public class CsvLocationSink implements LocationSink {
+
+	/**
+	 * Same format previously used to write each record separately.
+	 */
+	private static final CSVFormat CSV_FORMAT = CSVFormat.DEFAULT.withRecordSeparator(System.lineSeparator());
+
+	private final CSVPrinter printer;
+
+	/**
+	 * @param writer the destination of the CSV, should be buffered. Will be closed together with this sink.
+	 * @throws NullPointerException if {@code writer} is {@code null}
+	 * @throws IOException
+	 */
+	public CsvLocationSink(Writer writer) throws IOException {
+		Validate.notNull(writer);
+		this.printer = new CSVPrinter(writer, CSV_FORMAT);
+	}
+
+	/**
+	 * @see com.goeuro.devTest.LocationSink#write(int, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+	 */
+	public void write(int id, String name, String type, String latitude, String longitude) throws IOException {
+		printer.print(Integer.toString(id));
+		printer.print(name);
+		printer.print(type);
+		printer.print(latitude);
+		printer.print(longitude);
+		printer.println();
+	}
+
+	/**
+	 * Flushes and closes the underlying {@link Writer}.
+	 */
+	public void close() throws IOException {
+		printer.close();
+	}
+
+}
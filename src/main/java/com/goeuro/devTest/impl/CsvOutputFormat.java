@@ -0,0 +1,76 @@
+package com.goeuro.devTest.impl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVRecord;
+
+import com.goeuro.devTest.LocationSink;
+import com.goeuro.devTest.OutputFormat;
+
+/**
+ * Writes the locations as CSV through a {@link CsvLocationSink}, the format used when none is configured.
+ */
+public class CsvOutputFormat implements OutputFormat {
+
+	public String getName() {
+		return "csv";
+	}
+
+	public String getExtension() {
+		return ".csv";
+	}
+
+	/**
+	 * @see com.goeuro.devTest.OutputFormat#createSink(java.io.OutputStream, java.lang.String, int)
+	 */
+	public LocationSink createSink(OutputStream outputStream, String encoding, int bufferSize) throws IOException {
+		return new CsvLocationSink(new BufferedWriter(new OutputStreamWriter(outputStream, encoding), bufferSize));
+	}
+
+	/**
+	 * Writes the bytes through a {@link ByteCsvLocationSink} when the encoding allows it, see {@link ByteLocationParser#supports(Charset)}.
+	 * @see com.goeuro.devTest.OutputFormat#createSink(java.nio.channels.WritableByteChannel, java.lang.String, int)
+	 */
+	public LocationSink createSink(WritableByteChannel channel, String encoding, int bufferSize) throws IOException {
+		if (Charset.isSupported(encoding) && ByteLocationParser.supports(Charset.forName(encoding))) {
+			return new ByteCsvLocationSink(channel, Charset.forName(encoding), bufferSize);
+		}
+		return this.createSink(Channels.newOutputStream(channel), encoding, bufferSize);
+	}
+
+	/**
+	 * @see com.goeuro.devTest.OutputFormat#createSink(java.io.Writer, int)
+	 */
+	public LocationSink createSink(Writer writer, int bufferSize) throws IOException {
+		return new CsvLocationSink(new BufferedWriter(writer, bufferSize));
+	}
+
+	/**
+	 * Missing values are read as empty strings.
+	 * @see com.goeuro.devTest.OutputFormat#read(java.io.InputStream, java.lang.String, com.goeuro.devTest.LocationSink)
+	 */
+	public void read(InputStream inputStream, String encoding, LocationSink sink) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, encoding));
+		for (CSVRecord record : CSVFormat.DEFAULT.parse(reader)) {
+			if (record.size() != 5) {
+				throw new IOException("Expected 5 values in record " + record.getRecordNumber() + " but got " + record.size());
+			}
+			try {
+				sink.write(Integer.parseInt(record.get(0)), record.get(1), record.get(2), record.get(3), record.get(4));
+			} catch (NumberFormatException nfe) {
+				throw new IOException("Invalid id in record " + record.getRecordNumber(), nfe);
+			}
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package com.goeuro.devTest.impl;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang3.Validate;
+
+import com.goeuro.devTest.LocationSink;
+
+/**
+ * Writes every location id once to another sink, shared by concurrent queries to consolidate their replies.
+ * Duplicates are dropped without locking against an {@link IdBitmap}, the first location of every id is written
+ * to the other sink one at a time.
+ * A location whose write failed is not written again.
+ */
+public class DeduplicatingLocationSink implements LocationSink {
+
+	private final LocationSink sink;
+
+	private final IdBitmap ids;
+
+	private final LongAdder duplicates = new LongAdder();
+
+	/**
+	 * Guarded by {@code this}.
+	 */
+	private boolean closed;
+
+	/**
+	 * @param sink receives the first location of every id, does not need to be thread-safe
+	 * @throws NullPointerException if {@code sink} is {@code null}
+	 */
+	public DeduplicatingLocationSink(LocationSink sink) {
+		this(sink, new IdBitmap());
+	}
+
+	/**
+	 * @param sink receives the first location of every id, does not need to be thread-safe
+	 * @param ids the ids already written, which are dropped
+	 * @throws NullPointerException if {@code sink} or {@code ids} is {@code null}
+	 */
+	public DeduplicatingLocationSink(LocationSink sink, IdBitmap ids) {
+		Validate.notNull(sink);
+		Validate.notNull(ids);
+
+		this.sink = sink;
+		this.ids = ids;
+	}
+
+	/**
+	 * Thread-safe.
+	 * @see com.goeuro.devTest.LocationSink#write(int, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+	 * @throws IllegalStateException if closed
+	 */
+	public void write(int id, String name, String type, String latitude, String longitude) throws IOException {
+		if (!ids.add(id)) {
+			duplicates.increment();
+			return;
+		}
+		synchronized (this) {
+			Validate.validState(!closed, "Closed");
+			sink.write(id, name, type, latitude, longitude);
+		}
+	}
+
+	/**
+	 * Closes the other sink, the locations written afterwards fail.
+	 */
+	public synchronized void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			sink.close();
+		}
+	}
+
+	/**
+	 * @return the number of distinct ids seen
+	 */
+	public long getDistinct() {
+		return ids.size();
+	}
+
+	/**
+	 * @return the number of locations dropped as duplicates
+	 */
+	public long getDuplicates() {
+		return duplicates.sum();
+	}
+}
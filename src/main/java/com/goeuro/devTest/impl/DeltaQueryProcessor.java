@@ -0,0 +1,497 @@
+package com.goeuro.devTest.impl;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.lang3.Validate;
+
+import com.goeuro.devTest.LocationSink;
+import com.goeuro.devTest.Locations;
+import com.goeuro.devTest.OutputFormat;
+import com.goeuro.devTest.QueryProcessor;
+import com.goeuro.devTest.QueryProcessorException;
+
+/**
+ * Writes only the locations that changed since the previous run of the same query, with a {@link ChangeType} column,
+ * always as CSV. The content hash of every location of the last successful run of each query is kept in a {@link LocationHashIndex}
+ * per query, which is only replaced once the query and its output completed, so that a failed or cancelled run is reported again
+ * by the next one. Runs of the same query are serialized, runs of different queries are not.
+ * Keys are normalized with {@link Locations#normalize(String)}.
+ * The delegate must return complete replies, not ones capped like those of the {@link AutocompleteQueryProcessor},
+ * or the locations beyond the cap are reported as {@link ChangeType#REMOVED}.
+ */
+public class DeltaQueryProcessor extends AbstractQueryProcessor {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Extension of the files written by {@link #process(String)}.
+	 */
+	public static final String FILE_EXTENSION = ".delta.csv";
+
+	private static final String INDEX_EXTENSION = ".idx";
+
+	private final QueryProcessor delegate;
+
+	/**
+	 * Where the index of every query is kept.
+	 */
+	private final File indexDirectory;
+
+	/**
+	 * Serializes the runs of every query, an entry is removed by the run that holds it once it is done.
+	 */
+	private final ConcurrentMap<String, Object> locks = new ConcurrentHashMap<String, Object>();
+
+	private final AtomicLong added = new AtomicLong();
+
+	private final AtomicLong changed = new AtomicLong();
+
+	private final AtomicLong removed = new AtomicLong();
+
+	private final AtomicLong unchanged = new AtomicLong();
+
+	/**
+	 * @param delegate executes the queries, will be closed together with this processor
+	 * @param indexDirectory where the index of every query is kept between runs
+	 * @param csvBaseDirectory path of the base directory where the generated CSVs will be located.
+	 * @param csvEncoding the encoding used for writing the CSV.
+	 * @throws NullPointerException if any argument is {@code null}
+	 * @throws IllegalArgumentException if {@code csvBaseDirectory} or {@code csvEncoding} is blank
+	 */
+	public DeltaQueryProcessor(QueryProcessor delegate, File indexDirectory, String csvBaseDirectory, String csvEncoding) {
+		super(csvBaseDirectory, csvEncoding);
+		Validate.notNull(delegate);
+		Validate.notNull(indexDirectory);
+
+		this.delegate = delegate;
+		this.indexDirectory = indexDirectory;
+	}
+
+	/**
+	 * The changes are only written as CSV, the {@code csv} format is the only one accepted.
+	 * @throws IllegalArgumentException if {@code outputFormat} is not {@code csv}
+	 * @see com.goeuro.devTest.impl.AbstractQueryProcessor#setOutputFormat(com.goeuro.devTest.OutputFormat)
+	 */
+	@Override
+	public void setOutputFormat(OutputFormat outputFormat) {
+		Validate.notNull(outputFormat);
+		Validate.isTrue("csv".equals(outputFormat.getName()), "Changes are only written as csv: %s", outputFormat.getName());
+		super.setOutputFormat(outputFormat);
+	}
+
+	/**
+	 * Writes the changes to a new file named by the {@link OutputLayout} with the {@value #FILE_EXTENSION} extension,
+	 * empty when nothing changed. The file is written under a temporary name and renamed once complete,
+	 * before the index is replaced; it is deleted again if the query fails or the index cannot be replaced.
+	 * Runs {@link #processAsync(String, long, TimeUnit)} on the calling thread.
+	 * @see com.goeuro.devTest.QueryProcessor#process(java.lang.String)
+	 */
+	@Override
+	public File process(String location) throws QueryProcessorException {
+		Validate.notBlank(location);
+
+		return Futures.await(this.write(location, null, Futures.DIRECT));
+	}
+
+	/**
+	 * Writes the file like {@link #process(String)} on the executor, see {@link #setExecutor(Executor)}.
+	 * Cancelling the future or its timeout stops the query before its next location, deletes the file
+	 * and keeps the previous index. A file is kept once the index was replaced, even if the future was cancelled meanwhile.
+	 * @see com.goeuro.devTest.QueryProcessor#processAsync(java.lang.String, long, java.util.concurrent.TimeUnit)
+	 */
+	@Override
+	public CompletableFuture<File> processAsync(String location, long timeout, TimeUnit unit) {
+		Validate.notBlank(location);
+		Validate.isTrue(timeout >= 0, "timeout must not be negative: %d", timeout);
+		Validate.notNull(unit);
+
+		return Futures.withTimeout(this.write(location, null, this.getExecutor()), timeout, unit, location);
+	}
+
+	/**
+	 * Writes the changes to the file like {@link #process(String)} and every location of the reply to {@code collector}.
+	 * @see com.goeuro.devTest.impl.AbstractQueryProcessor#processAndCollect(java.lang.String, com.goeuro.devTest.LocationSink)
+	 */
+	@Override
+	public File processAndCollect(String location, LocationSink collector) throws QueryProcessorException {
+		Validate.notBlank(location);
+		Validate.notNull(collector);
+
+		return Futures.await(this.write(location, collector, Futures.DIRECT));
+	}
+
+	/**
+	 * Writes the changes to {@code sink}.
+	 *
+	 * @param location the location to query
+	 * @param sink receives the changes, not closed
+	 * @throws QueryProcessorException when there are problems with the query, the index or the sink
+	 */
+	public void process(String location, ChangeSink sink) throws QueryProcessorException {
+		Validate.notBlank(location);
+		Validate.notNull(sink);
+
+		this.process(location, null, sink, null, new CompletableFuture<Void>());
+	}
+
+	/**
+	 * Writes the added and changed locations as they are, and the removed ones with their id only.
+	 * @see com.goeuro.devTest.QueryProcessor#process(java.lang.String, com.goeuro.devTest.LocationSink)
+	 */
+	public void process(String location, final LocationSink sink) throws QueryProcessorException {
+		Validate.notBlank(location);
+		Validate.notNull(sink);
+
+		this.process(location, new ChangeSink() {
+			public void write(ChangeType change, int id, String name, String type, String latitude, String longitude)
+					throws IOException {
+				sink.write(id, name, type, latitude, longitude);
+			}
+			public void close() {
+			}
+		});
+	}
+
+	/**
+	 * Streams the changes as CSV to {@code outputStream}, which is flushed but not closed.
+	 * @see com.goeuro.devTest.QueryProcessor#process(java.lang.String, java.io.OutputStream)
+	 */
+	@Override
+	public void process(String location, OutputStream outputStream) throws QueryProcessorException {
+		Validate.notBlank(location);
+		Validate.notNull(outputStream);
+
+		CountingOutputStream countingStream = new CountingOutputStream(new CloseShieldOutputStream(outputStream));
+		try {
+			CsvChangeSink sink = new CsvChangeSink(new BufferedWriter(new OutputStreamWriter(countingStream, this.getCsvEncoding()), 
+					this.getBufferSize()));
+			this.process(location, null, sink, sink, new CompletableFuture<Void>());
+			outputStream.flush();
+		} catch (IOException ioe) {
+			throw new QueryProcessorException(ioe.getLocalizedMessage(), ioe);
+		}
+		this.addBytesOut(countingStream.getByteCount());
+	}
+
+	/**
+	 * Streams the changes as CSV to {@code writer}, which is flushed but not closed.
+	 * @see com.goeuro.devTest.QueryProcessor#process(java.lang.String, java.io.Writer)
+	 */
+	@Override
+	public void process(String location, Writer writer) throws QueryProcessorException {
+		Validate.notBlank(location);
+		Validate.notNull(writer);
+
+		try {
+			CsvChangeSink sink = new CsvChangeSink(new BufferedWriter(new FilterWriter(writer) {
+				@Override
+				public void close() throws IOException {
+					flush();
+				}
+			}, this.getBufferSize()));
+			this.process(location, null, sink, sink, new CompletableFuture<Void>());
+		} catch (IOException ioe) {
+			throw new QueryProcessorException(ioe.getLocalizedMessage(), ioe);
+		}
+	}
+
+	/**
+	 * Closes the delegate and shuts down the executor if it was created by this processor.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			delegate.close();
+		} finally {
+			super.close();
+		}
+	}
+
+	/**
+	 * @return the number of locations added since the previous runs
+	 */
+	public long getAdded() {
+		return added.get();
+	}
+
+	/**
+	 * @return the number of locations changed since the previous runs
+	 */
+	public long getChanged() {
+		return changed.get();
+	}
+
+	/**
+	 * @return the number of locations removed since the previous runs
+	 */
+	public long getRemoved() {
+		return removed.get();
+	}
+
+	/**
+	 * @return the number of locations left out because they did not change
+	 */
+	public long getUnchanged() {
+		return unchanged.get();
+	}
+
+	/**
+	 * @return the file of the index of the query, named by the SHA-1 of the key
+	 */
+	protected File getIndexFile(String key) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(UTF_8));
+			return new File(indexDirectory, String.format("%040x", new BigInteger(1, digest)) + INDEX_EXTENSION);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Writes the file of the changes on {@code executor}.
+	 *
+	 * @param collector also receives every location of the reply if not {@code null}
+	 * @return completed with the published file, cancelling it stops the query and discards the file
+	 */
+	private CompletableFuture<File> write(final String location, final LocationSink collector, Executor executor) {
+		final CompletableFuture<File> result = new CompletableFuture<File>();
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					if (result.isDone()) {
+						return;
+					}
+					try {
+						result.complete(writeFile(location, collector, result));
+					} catch (Throwable t) {
+						result.completeExceptionally(t);
+					}
+				}
+			});
+		} catch (RejectedExecutionException ree) {
+			result.completeExceptionally(new QueryProcessorException("Query of \"" + location + "\" rejected", ree));
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the changes to a new file, published before the index is replaced.
+	 */
+	private File writeFile(String location, LocationSink collector, CompletableFuture<?> cancellation) throws QueryProcessorException {
+		final File file = this.getOutputLayout().newFile(location, FILE_EXTENSION);
+		this.createDirectoryIfNotExisting(file.getParent());
+		final File temporary = OutputLayout.getTemporaryFile(file);
+		final File[] published = new File[1];
+		CsvChangeSink sink = null;
+		boolean completed = false;
+		try {
+			this.createFile(temporary);
+			FileOutputStream outputStream = new FileOutputStream(temporary);
+			try {
+				sink = new CsvChangeSink(new BufferedWriter(new OutputStreamWriter(outputStream, this.getCsvEncoding()), this.getBufferSize()));
+			} finally {
+				if (sink == null) {
+					IOUtils.closeQuietly(outputStream);
+				}
+			}
+			final CsvChangeSink csv = sink;
+			this.process(location, collector, csv, new Closeable() {
+				public void close() throws IOException {
+					csv.close();
+					published[0] = publishFile(temporary, file);
+				}
+			}, cancellation);
+			completed = true;
+			this.addBytesOut(published[0].length());
+			return published[0];
+		} catch (IOException ioe) {
+			throw new QueryProcessorException(ioe.getLocalizedMessage(), ioe);
+		} finally {
+			if (!completed) {
+				IOUtils.closeQuietly(sink);
+				temporary.delete();
+				if (published[0] != null) {
+					published[0].delete();
+				}
+			}
+		}
+	}
+
+	private void addBytesOut(long count) {
+		QueryMetrics metrics = this.getMetrics();
+		if (metrics != null) {
+			metrics.addBytesOut(count);
+		}
+	}
+
+	/**
+	 * Compares the reply to the index of the previous run, writes the changes to {@code sink},
+	 * closes {@code output} and only then replaces the index.
+	 *
+	 * The lock of the query is removed from {@link #locks} when the run is done, so a caller that acquires a lock
+	 * no longer mapped to the key takes the current one instead.
+	 *
+	 * @param collector also receives every location of the reply if not {@code null}
+	 * @param output closed before the index is replaced, may be {@code null}
+	 * @param cancellation the run stops before its next location and keeps the previous index once this completes
+	 */
+	private void process(String location, LocationSink collector, ChangeSink sink, Closeable output, 
+			CompletableFuture<?> cancellation) throws QueryProcessorException {
+		String key = Locations.normalize(location);
+		while (true) {
+			Object lock = new Object();
+			Object existing = locks.putIfAbsent(key, lock);
+			if (existing != null) {
+				lock = existing;
+			}
+			synchronized (lock) {
+				if (locks.get(key) != lock) {
+					continue;
+				}
+				try {
+					this.run(key, collector, sink, output, cancellation);
+					return;
+				} finally {
+					locks.remove(key, lock);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A run of the query, holding its lock. The changes are written on a separate thread when pipelining is configured,
+	 * see {@link #setPipelining(int, int)}.
+	 */
+	private void run(String key, LocationSink collector, ChangeSink sink, Closeable output, CompletableFuture<?> cancellation) 
+			throws QueryProcessorException {
+		File indexFile = this.getIndexFile(key);
+		PipelinedLocationSink pipeline = null;
+		boolean completed = false;
+		try {
+			checkCancellation(cancellation);
+			Diff diff = new Diff(LocationHashIndex.load(indexFile), sink);
+			if (this.getPipelineBatchSize() > 0) {
+				pipeline = new PipelinedLocationSink(diff, this.getPipelineBatchSize(), this.getPipelineQueueCapacity());
+			}
+			LocationSink target = new CancellableLocationSink(pipeline != null ? pipeline : diff, cancellation);
+			delegate.process(key, collector == null ? target : new TeeLocationSink(target, collector));
+			if (pipeline != null) {
+				pipeline.close();
+			}
+			completed = true;
+			diff.writeRemoved();
+			if (output != null) {
+				output.close();
+			}
+			checkCancellation(cancellation);
+			diff.next.save(indexFile);
+			added.addAndGet(diff.added);
+			changed.addAndGet(diff.changed);
+			removed.addAndGet(diff.removed);
+			unchanged.addAndGet(diff.unchanged);
+		} catch (IOException ioe) {
+			throw new QueryProcessorException(ioe.getLocalizedMessage(), ioe);
+		} finally {
+			if (!completed && pipeline != null) {
+				pipeline.abort();
+			}
+		}
+	}
+
+	/**
+	 * @throws InterruptedIOException once {@code cancellation} is done
+	 */
+	private static void checkCancellation(CompletableFuture<?> cancellation) throws InterruptedIOException {
+		if (cancellation.isDone()) {
+			throw new InterruptedIOException("Query cancelled");
+		}
+	}
+
+	/**
+	 * Writes the locations of the reply that are not in the previous index with the same hash,
+	 * and collects the next index.
+	 */
+	private static class Diff implements LocationSink {
+
+		private final LocationHashIndex previous;
+
+		private final ChangeSink sink;
+
+		/**
+		 * The ids of the previous index found in the reply, by position.
+		 */
+		private final boolean[] seen;
+
+		final LocationHashIndex.Builder next = new LocationHashIndex.Builder();
+
+		int added;
+
+		int changed;
+
+		int removed;
+
+		int unchanged;
+
+		Diff(LocationHashIndex previous, ChangeSink sink) {
+			this.previous = previous;
+			this.sink = sink;
+			this.seen = new boolean[previous.size()];
+		}
+
+		public void write(int id, String name, String type, String latitude, String longitude) throws IOException {
+			long hash = LocationHashIndex.hash(name, type, latitude, longitude);
+			next.add(id, hash);
+			int index = previous.indexOf(id);
+			if (index < 0) {
+				added++;
+				sink.write(ChangeType.ADDED, id, name, type, latitude, longitude);
+			} else if (!seen[index]) {
+				seen[index] = true;
+				if (previous.getHash(index) == hash) {
+					unchanged++;
+				} else {
+					changed++;
+					sink.write(ChangeType.CHANGED, id, name, type, latitude, longitude);
+				}
+			}
+		}
+
+		/**
+		 * Writes the ids of the previous index missing from the reply.
+		 */
+		void writeRemoved() throws IOException {
+			for (int index = 0; index < seen.length; index++) {
+				if (!seen[index]) {
+					removed++;
+					sink.write(ChangeType.REMOVED, previous.getId(index), null, null, null, null);
+				}
+			}
+		}
+
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package com.goeuro.devTest.impl;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import com.goeuro.devTest.QueryProcessorException;
+
+/**
+ * Helpers for the {@link CompletableFuture}s of the asynchronous queries, which Java 8 lacks,
+ * and for the executors running them.
+ */
+public final class Futures {
+
+	/**
+	 * Runs the tasks on the calling thread, so that the synchronous queries run the asynchronous path without a hand-off.
+	 */
+	static final Executor DIRECT = new Executor() {
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	/**
+	 * Fails the futures that time out, created on first use.
+	 */
+	private static ScheduledExecutorService timer;
+
+	private Futures() {
+	}
+
+	/**
+	 * Fails {@code future} with a {@link QueryProcessorException} caused by a {@link TimeoutException}
+	 * unless it completes within {@code timeout}.
+	 *
+	 * @param future the future to fail
+	 * @param timeout 0 for none
+	 * @param unit the unit of {@code timeout}
+	 * @param location the location of the query, for the message
+	 * @return {@code future}
+	 */
+	static <T> CompletableFuture<T> withTimeout(final CompletableFuture<T> future, final long timeout, final TimeUnit unit,
+			final String location) {
+		if (timeout <= 0 || future.isDone()) {
+			return future;
+		}
+		final ScheduledFuture<?> task = timer().schedule(new Runnable() {
+			public void run() {
+				future.completeExceptionally(new QueryProcessorException("Timed out after " + unit.toMillis(timeout)
+						+ " ms querying \"" + location + "\"", new TimeoutException()));
+			}
+		}, timeout, unit);
+		future.whenComplete(new BiConsumer<T, Throwable>() {
+			public void accept(T result, Throwable failure) {
+				task.cancel(false);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Runs {@code task} on the timer thread after {@code delay}, e.g. to back off or hedge without holding a thread.
+	 * The task must not block.
+	 *
+	 * @return cancels the task
+	 */
+	static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+		return timer().schedule(task, delay, unit);
+	}
+
+	/**
+	 * @return a future completed like {@code future}, which can be cancelled or time out on its own
+	 */
+	static <T> CompletableFuture<T> copy(CompletableFuture<T> future) {
+		return future.thenApply(new Function<T, T>() {
+			public T apply(T result) {
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * Waits for a query started on behalf of a synchronous caller.
+	 *
+	 * @return the result of {@code future}
+	 * @throws QueryProcessorException as it failed {@code future}, or if interrupted or cancelled
+	 */
+	static <T> T await(CompletableFuture<T> future) throws QueryProcessorException {
+		try {
+			return future.get();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new QueryProcessorException("Interrupted while waiting for the query", ie);
+		} catch (CancellationException ce) {
+			throw new QueryProcessorException("Query cancelled", ce);
+		} catch (ExecutionException ee) {
+			Throwable cause = unwrap(ee.getCause());
+			if (cause instanceof QueryProcessorException) {
+				throw (QueryProcessorException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new QueryProcessorException(cause.getLocalizedMessage(), cause);
+		}
+	}
+
+	/**
+	 * @return the cause of a {@link CompletionException}, or {@code failure} itself
+	 */
+	static Throwable unwrap(Throwable failure) {
+		if (failure instanceof CompletionException && failure.getCause() != null) {
+			return failure.getCause();
+		}
+		return failure;
+	}
+
+	/**
+	 * @param threadName the name of the threads of the pool
+	 * @return a virtual thread per task executor when available, otherwise a cached pool of daemon threads
+	 */
+	public static ExecutorService newExecutor(final String threadName) {
+		ExecutorService executor = newVirtualThreadPerTaskExecutor();
+		if (executor != null) {
+			return executor;
+		}
+		return Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, threadName);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @param threads the size of the pool
+	 * @return a virtual thread per task executor when available, otherwise a fixed pool of {@code threads} threads
+	 */
+	public static ExecutorService newExecutor(int threads) {
+		ExecutorService executor = newVirtualThreadPerTaskExecutor();
+		return executor != null ? executor : Executors.newFixedThreadPool(threads);
+	}
+
+	/**
+	 * @return {@code Executors.newVirtualThreadPerTaskExecutor()} on Java 21 and later, {@code null} before
+	 */
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	private static synchronized ScheduledExecutorService timer() {
+		if (timer == null) {
+			ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "query-timeout");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			executor.setRemoveOnCancelPolicy(true);
+			timer = executor;
+		}
+		return timer;
+	}
+}
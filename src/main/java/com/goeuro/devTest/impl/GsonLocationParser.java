@@ -0,0 +1,30 @@
+package com.goeuro.devTest.impl;
+
+import java.io.IOException;
+
+import com.goeuro.devTest.LocationSink;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * {@link LocationParser} that maps every element to a {@link LocationJson} with Gson.
+ */
+public class GsonLocationParser implements LocationParser {
+
+	private final Gson gson = new GsonBuilder().create();
+
+	/**
+	 * @see com.goeuro.devTest.impl.LocationParser#parse(com.google.gson.stream.JsonReader, com.goeuro.devTest.LocationSink)
+	 */
+	public void parse(JsonReader reader, LocationSink sink) throws IOException {
+		reader.beginArray();
+		while (reader.hasNext()) {
+            // Read data into object model
+            LocationJson json = gson.fromJson(reader, LocationJson.class);
+            sink.write(json.get_id(), json.getName(), json.getType(), 
+            		json.getGeoPosition().getLatitude(), json.getGeoPosition().getLongitude());
+        }
+		reader.endArray();
+	}
+}
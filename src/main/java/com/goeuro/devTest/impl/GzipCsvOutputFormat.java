@@ -0,0 +1,63 @@
+package com.goeuro.devTest.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.goeuro.devTest.LocationSink;
+
+/**
+ * Writes the locations as CSV compressed by the JDK deflater while they are written.
+ */
+public class GzipCsvOutputFormat extends CsvOutputFormat {
+
+	@Override
+	public String getName() {
+		return "csv.gz";
+	}
+
+	@Override
+	public String getExtension() {
+		return ".csv.gz";
+	}
+
+	/**
+	 * @see com.goeuro.devTest.impl.CsvOutputFormat#createSink(java.io.OutputStream, java.lang.String, int)
+	 */
+	@Override
+	public LocationSink createSink(OutputStream outputStream, String encoding, int bufferSize) throws IOException {
+		return super.createSink(new GZIPOutputStream(outputStream, bufferSize), encoding, bufferSize);
+	}
+
+	/**
+	 * The bytes are compressed, so they go through {@link #createSink(OutputStream, String, int)}.
+	 * @see com.goeuro.devTest.impl.CsvOutputFormat#createSink(java.nio.channels.WritableByteChannel, java.lang.String, int)
+	 */
+	@Override
+	public LocationSink createSink(WritableByteChannel channel, String encoding, int bufferSize) throws IOException {
+		return this.createSink(Channels.newOutputStream(channel), encoding, bufferSize);
+	}
+
+	/**
+	 * Compressed CSV is binary, so it cannot be written as characters.
+	 *
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public LocationSink createSink(Writer writer, int bufferSize) {
+		throw new UnsupportedOperationException(this.getName() + " is not a text format");
+	}
+
+	/**
+	 * @see com.goeuro.devTest.impl.CsvOutputFormat#read(java.io.InputStream, java.lang.String, com.goeuro.devTest.LocationSink)
+	 */
+	@Override
+	public void read(InputStream inputStream, String encoding, LocationSink sink) throws IOException {
+		super.read(new GZIPInputStream(inputStream, AbstractQueryProcessor.DEFAULT_BUFFER_SIZE), encoding, sink);
+	}
+}
@@ -0,0 +1,26 @@
+package com.goeuro.devTest.impl;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the endpoint answers with a status other than 2xx.
+ */
+public class HttpStatusException extends IOException {
+
+	private static final long serialVersionUID = -2160451829362539714L;
+
+	private final int status;
+
+	/**
+	 * @param url the requested URL
+	 * @param status the HTTP status code of the response
+	 */
+	public HttpStatusException(String url, int status) {
+		super("Unexpected HTTP status " + status + " from \"" + url + "\"");
+		this.status = status;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+}
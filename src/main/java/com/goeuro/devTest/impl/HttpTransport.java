@@ -0,0 +1,22 @@
+package com.goeuro.devTest.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Executes the HTTP requests to the location endpoint. Implementations are shared by all queries of a processor
+ * and must be thread-safe.
+ */
+public interface HttpTransport extends Closeable {
+
+	/**
+	 * Execute a GET request.
+	 * 
+	 * @param url the full URL to request
+	 * @param headers additional request headers, may be empty
+	 * @return the response, which must be closed by the caller to release the connection
+	 * @throws IOException when the request cannot be executed or times out
+	 */
+	public TransportResponse get(String url, Map<String, String> headers) throws IOException;
+}
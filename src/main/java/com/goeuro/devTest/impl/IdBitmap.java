@@ -0,0 +1,88 @@
+package com.goeuro.devTest.impl;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe set of {@code int} ids without boxing, as a bitmap over the whole {@code int} range split into pages
+ * of {@value #PAGE_IDS} consecutive ids allocated on first use.
+ * A page takes 8 KiB, so the location ids, which are dense, take about one bit each, and the whole range 512 MiB at most
+ * however many ids are added. Adding is lock-free: pages are installed and bits set with compare-and-set.
+ */
+public class IdBitmap {
+
+	private static final int PAGE_BITS = 16;
+
+	/**
+	 * Number of ids per page.
+	 */
+	static final int PAGE_IDS = 1 << PAGE_BITS;
+
+	private static final int WORDS_PER_PAGE = PAGE_IDS / Long.SIZE;
+
+	/**
+	 * Indexed by the high 16 bits of the id.
+	 */
+	private final AtomicReferenceArray<AtomicLongArray> pages = new AtomicReferenceArray<AtomicLongArray>(1 << (Integer.SIZE - PAGE_BITS));
+
+	private final LongAdder size = new LongAdder();
+
+	private final LongAdder allocatedPages = new LongAdder();
+
+	/**
+	 * @param id any {@code int}, negative ones included
+	 * @return {@code true} if {@code id} was not in the set yet
+	 */
+	public boolean add(int id) {
+		AtomicLongArray page = this.page(id >>> PAGE_BITS);
+		int word = (id & (PAGE_IDS - 1)) >>> 6;
+		long bit = 1L << id;
+		for (;;) {
+			long current = page.get(word);
+			if ((current & bit) != 0) {
+				return false;
+			}
+			if (page.compareAndSet(word, current, current | bit)) {
+				size.increment();
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @param id any {@code int}
+	 * @return {@code true} if {@code id} was added
+	 */
+	public boolean contains(int id) {
+		AtomicLongArray page = pages.get(id >>> PAGE_BITS);
+		return page != null && (page.get((id & (PAGE_IDS - 1)) >>> 6) & (1L << id)) != 0;
+	}
+
+	/**
+	 * @return the number of ids added, exact once the concurrent additions returned
+	 */
+	public long size() {
+		return size.sum();
+	}
+
+	/**
+	 * @return the bytes taken by the allocated pages
+	 */
+	public long getAllocatedBytes() {
+		return allocatedPages.sum() * WORDS_PER_PAGE * (Long.SIZE / Byte.SIZE);
+	}
+
+	private AtomicLongArray page(int number) {
+		AtomicLongArray page = pages.get(number);
+		if (page != null) {
+			return page;
+		}
+		AtomicLongArray created = new AtomicLongArray(WORDS_PER_PAGE);
+		if (pages.compareAndSet(number, null, created)) {
+			allocatedPages.increment();
+			return created;
+		}
+		return pages.get(number);
+	}
+}
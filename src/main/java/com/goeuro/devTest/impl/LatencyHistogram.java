@@ -0,0 +1,202 @@
+package com.goeuro.devTest.impl;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Lock-free histogram of durations in nanoseconds with log-linear buckets:
+ * every power of two is split into {@value #SUB_BUCKETS} buckets, so that percentiles are within about 6% of the recorded values.
+ * The count, total and maximum are exact. Recording is a few atomic increments and allocates nothing.
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Buckets per power of two.
+	 */
+	private static final int SUB_BUCKETS = 16;
+
+	private static final int SUB_BUCKET_BITS = 4;
+
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private static final double NANOS_PER_MILLI = 1000000.0;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	private final LongAdder count = new LongAdder();
+
+	private final LongAdder total = new LongAdder();
+
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param nanos a duration, negative ones are recorded as {@code 0}
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts.incrementAndGet(bucketOf(nanos));
+		count.increment();
+		total.add(nanos);
+		long current;
+		while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) {
+			// retry until the maximum is at least nanos
+		}
+	}
+
+	/**
+	 * @return the number of recorded durations
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return the sum of the recorded durations in nanoseconds
+	 */
+	public long getTotal() {
+		return total.sum();
+	}
+
+	/**
+	 * @return the longest recorded duration in nanoseconds, {@code 0} if none
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @param percentile between {@code 0} and {@code 100}
+	 * @return the duration in nanoseconds that {@code percentile} percent of the recorded durations do not exceed,
+	 * rounded to the middle of its bucket, {@link #getMax()} in the highest bucket, {@code 0} if nothing was recorded
+	 * @throws IllegalArgumentException if {@code percentile} is not between {@code 0} and {@code 100}
+	 */
+	public long getPercentile(double percentile) {
+		Validate.inclusiveBetween(0.0, 100.0, percentile);
+
+		long recorded = 0;
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			recorded += counts.get(bucket);
+		}
+		if (recorded == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * recorded));
+		long seen = 0;
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			seen += counts.get(bucket);
+			if (seen >= recorded) {
+				return this.getMax();
+			}
+			if (seen >= rank) {
+				return Math.min(middleOf(bucket), this.getMax());
+			}
+		}
+		return this.getMax();
+	}
+
+	/**
+	 * Clears every recorded duration. Durations recorded concurrently may be partially cleared.
+	 */
+	public void reset() {
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			counts.set(bucket, 0);
+		}
+		count.reset();
+		total.reset();
+		max.set(0);
+	}
+
+	/**
+	 * @return the count, mean, median, 99th percentile and maximum
+	 */
+	public Snapshot snapshot() {
+		long snapshotCount = this.getCount();
+		return new Snapshot(snapshotCount,
+				snapshotCount == 0 ? 0 : this.getTotal() / NANOS_PER_MILLI / snapshotCount,
+				this.getPercentile(50) / NANOS_PER_MILLI,
+				this.getPercentile(99) / NANOS_PER_MILLI,
+				this.getMax() / NANOS_PER_MILLI);
+	}
+
+	static int bucketOf(long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (int) nanos;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @return the smallest value of the bucket
+	 */
+	static long lowerBoundOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+	}
+
+	private static long middleOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		return lowerBoundOf(bucket) + ((1L << (exponent - SUB_BUCKET_BITS)) >> 1);
+	}
+
+	/**
+	 * Summary of a histogram in milliseconds, as exposed over JMX.
+	 */
+	public static class Snapshot {
+
+		private final long count;
+		private final double mean;
+		private final double p50;
+		private final double p99;
+		private final double max;
+
+		@ConstructorProperties({"count", "mean", "p50", "p99", "max"})
+		public Snapshot(long count, double mean, double p50, double p99, double max) {
+			this.count = count;
+			this.mean = mean;
+			this.p50 = p50;
+			this.p99 = p99;
+			this.max = max;
+		}
+
+		// Getters
+
+		public long getCount() {
+			return count;
+		}
+
+		public double getMean() {
+			return mean;
+		}
+
+		public double getP50() {
+			return p50;
+		}
+
+		public double getP99() {
+			return p99;
+		}
+
+		public double getMax() {
+			return max;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("count=%d mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms", count, mean, p50, p99, max);
+		}
+	}
+}
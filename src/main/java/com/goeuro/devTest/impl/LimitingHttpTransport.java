@@ -0,0 +1,671 @@
+package com.goeuro.devTest.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.ProxyInputStream;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * {@link HttpTransport} that limits the requests sent to the endpoint by another transport, in one of two {@link Mode}s:
+ * <ul>
+ * <li>{@link Mode#TOKEN_BUCKET} sends at most {@code rate} requests per second, with bursts of up to {@code burst} requests.</li>
+ * <li>{@link Mode#ADAPTIVE} limits the requests in flight and adapts the limit to the endpoint (AIMD):
+ * the limit grows by one per round trip while the requests succeed and shrinks by {@code backoffRatio} on a {@code 429} or
+ * {@code 5xx} status, on a timeout, and on a response slower than {@code latencyTolerance} times the fastest recent one.
+ * A request holds its slot until its response is closed. Requests sent before the last decrease do not decrease it again,
+ * so that a burst of throttled responses counts as one.</li>
+ * </ul>
+ * A request waits for up to {@code maxWait} milliseconds to be let through, after which it fails with a
+ * {@link LimitExceededException} and is counted as rejected.
+ * Put it under a {@link RetryingHttpTransport} so that retries and hedges are limited as well.
+ * {@link AsyncLimitingHttpTransport} does the same without blocking over an {@link AsyncHttpTransport}.
+ */
+public class LimitingHttpTransport implements HttpTransport {
+
+	/**
+	 * How the requests are limited.
+	 */
+	public enum Mode {
+
+		/**
+		 * A fixed number of requests per second.
+		 */
+		TOKEN_BUCKET,
+
+		/**
+		 * A number of requests in flight adapted to the responses.
+		 */
+		ADAPTIVE
+	}
+
+	public static final double DEFAULT_RATE = 10;
+
+	public static final int DEFAULT_BURST = 10;
+
+	public static final int DEFAULT_INITIAL_LIMIT = 4;
+
+	public static final int DEFAULT_MIN_LIMIT = 1;
+
+	public static final int DEFAULT_MAX_LIMIT = PooledHttpTransport.DEFAULT_MAX_CONNECTIONS;
+
+	public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+
+	public static final double DEFAULT_LATENCY_TOLERANCE = 0;
+
+	public static final long DEFAULT_MAX_WAIT = 30000;
+
+	/**
+	 * Number of responses over which the fastest one is the baseline of the latency tolerance.
+	 */
+	static final int LATENCY_WINDOW = 100;
+
+	private final HttpTransport delegate;
+
+	private final Mode mode;
+
+	/**
+	 * Receives the current limit, may be {@code null}.
+	 */
+	private final QueryMetrics metrics;
+
+	/**
+	 * Guards the state of both modes, notified when a slot is released.
+	 */
+	private final Object lock = new Object();
+
+	// TOKEN_BUCKET
+
+	private double rate = DEFAULT_RATE;
+
+	private int burst = DEFAULT_BURST;
+
+	/**
+	 * Negative when requests are waiting for their token.
+	 */
+	private double tokens = DEFAULT_BURST;
+
+	private long refilled = System.nanoTime();
+
+	// ADAPTIVE
+
+	private double limit = DEFAULT_INITIAL_LIMIT;
+
+	private int minLimit = DEFAULT_MIN_LIMIT;
+
+	private int maxLimit = DEFAULT_MAX_LIMIT;
+
+	private double backoffRatio = DEFAULT_BACKOFF_RATIO;
+
+	private double latencyTolerance = DEFAULT_LATENCY_TOLERANCE;
+
+	private int inFlight;
+
+	/**
+	 * The asynchronous requests waiting for a slot, in order, completed once they hold one.
+	 */
+	private final Deque<CompletableFuture<Void>> waiters = new ArrayDeque<CompletableFuture<Void>>();
+
+	/**
+	 * When the limit was last decreased.
+	 */
+	private long decreased = Long.MIN_VALUE;
+
+	/**
+	 * The fastest response of the last complete window, 0 before.
+	 */
+	private long baseline;
+
+	private long windowFastest = Long.MAX_VALUE;
+
+	private int windowCount;
+
+	private volatile long maxWait = DEFAULT_MAX_WAIT;
+
+	private final AtomicLong rejections = new AtomicLong();
+
+	private final AtomicLong throttled = new AtomicLong();
+
+	/**
+	 * @param delegate executes the requests, will be closed together with this transport
+	 * @param mode how the requests are limited
+	 * @throws NullPointerException if {@code delegate} or {@code mode} is {@code null}
+	 */
+	public LimitingHttpTransport(HttpTransport delegate, Mode mode) {
+		this(delegate, mode, null);
+	}
+
+	/**
+	 * @param delegate executes the requests, will be closed together with this transport
+	 * @param mode how the requests are limited
+	 * @param metrics receives the current limit, the rejections and the throttled responses, may be {@code null}
+	 * @throws NullPointerException if {@code delegate} or {@code mode} is {@code null}
+	 */
+	public LimitingHttpTransport(HttpTransport delegate, Mode mode, QueryMetrics metrics) {
+		Validate.notNull(delegate);
+		Validate.notNull(mode);
+
+		this.delegate = delegate;
+		this.mode = mode;
+		this.metrics = metrics;
+		this.publishLimit();
+	}
+
+	/**
+	 * @param rate requests per second
+	 * @param burst requests that may be sent at once after a quiet period, also the initial number
+	 * @throws IllegalArgumentException if {@code rate} or {@code burst} is not positive
+	 * @throws IllegalStateException if the mode is not {@link Mode#TOKEN_BUCKET}
+	 */
+	public void setRate(double rate, int burst) {
+		Validate.isTrue(rate > 0, "rate must be positive: %s", rate);
+		Validate.isTrue(burst > 0, "burst must be positive: %d", burst);
+		Validate.validState(mode == Mode.TOKEN_BUCKET, "Not a token bucket: %s", mode);
+		synchronized (lock) {
+			this.rate = rate;
+			this.burst = burst;
+			this.tokens = burst;
+			this.refilled = System.nanoTime();
+		}
+		this.publishLimit();
+	}
+
+	/**
+	 * @param initialLimit requests in flight at first
+	 * @param minLimit requests in flight however overloaded the endpoint is
+	 * @param maxLimit requests in flight however fast the endpoint is
+	 * @throws IllegalArgumentException if {@code minLimit} is not positive or {@code initialLimit} is not between the others
+	 * @throws IllegalStateException if the mode is not {@link Mode#ADAPTIVE}
+	 */
+	public void setLimits(int initialLimit, int minLimit, int maxLimit) {
+		Validate.isTrue(minLimit > 0, "minLimit must be positive: %d", minLimit);
+		Validate.inclusiveBetween(minLimit, maxLimit, initialLimit);
+		Validate.validState(mode == Mode.ADAPTIVE, "Not adaptive: %s", mode);
+		synchronized (lock) {
+			this.limit = initialLimit;
+			this.minLimit = minLimit;
+			this.maxLimit = maxLimit;
+			lock.notifyAll();
+		}
+		this.grantSlots();
+		this.publishLimit();
+	}
+
+	/**
+	 * @param backoffRatio the limit is multiplied by it when the endpoint is overloaded
+	 * @param latencyTolerance a response slower than this many times the fastest recent one means that the endpoint
+	 * is overloaded, 0 to only go by the statuses
+	 * @throws IllegalArgumentException if {@code backoffRatio} is not between 0 and 1 or {@code latencyTolerance}
+	 * is neither 0 nor greater than 1
+	 * @throws IllegalStateException if the mode is not {@link Mode#ADAPTIVE}
+	 */
+	public void setBackoff(double backoffRatio, double latencyTolerance) {
+		Validate.isTrue(backoffRatio > 0 && backoffRatio < 1, "backoffRatio must be between 0 and 1: %s", backoffRatio);
+		Validate.isTrue(latencyTolerance == 0 || latencyTolerance > 1, "latencyTolerance must be 0 or greater than 1: %s",
+				latencyTolerance);
+		Validate.validState(mode == Mode.ADAPTIVE, "Not adaptive: %s", mode);
+		synchronized (lock) {
+			this.backoffRatio = backoffRatio;
+			this.latencyTolerance = latencyTolerance;
+		}
+	}
+
+	/**
+	 * @param maxWait milliseconds a request may wait to be let through, 0 to reject it at once
+	 * @throws IllegalArgumentException if {@code maxWait} is negative
+	 */
+	public void setMaxWait(long maxWait) {
+		Validate.isTrue(maxWait >= 0, "maxWait must not be negative: %d", maxWait);
+		this.maxWait = maxWait;
+	}
+
+	/**
+	 * @see com.goeuro.devTest.impl.HttpTransport#get(java.lang.String, java.util.Map)
+	 * @throws LimitExceededException if the request could not be let through within the maximum wait
+	 */
+	public TransportResponse get(String url, Map<String, String> headers) throws IOException {
+		if (mode == Mode.TOKEN_BUCKET) {
+			this.takeToken(url);
+			TransportResponse response = delegate.get(url, headers);
+			if (response.getStatus() == 429) {
+				this.addThrottled();
+			}
+			return response;
+		}
+
+		this.acquireSlot(url);
+		long start = System.nanoTime();
+		boolean released = false;
+		try {
+			TransportResponse response = delegate.get(url, headers);
+			this.onResponse(start, response.getStatus());
+			released = true;
+			return new TransportResponse(response.getStatus(), response.getHeaders(), new SlotInputStream(response.getBody()));
+		} catch (SocketTimeoutException ste) {
+			this.onOverload(start);
+			throw ste;
+		} finally {
+			if (!released) {
+				this.releaseSlot();
+			}
+		}
+	}
+
+	/**
+	 * The asynchronous variant of {@link #get(String, Map)} for the {@link AsyncLimitingHttpTransport}: the request is sent
+	 * through {@code async}, the delegate, once it is let through, without a thread waiting for its turn.
+	 *
+	 * @return completed with the response, or failed with a {@link LimitExceededException} if the request could not be
+	 * let through within the maximum wait. Cancelling it gives up the place of the request or aborts it.
+	 */
+	CompletableFuture<TransportResponse> getAsync(final AsyncHttpTransport async, final String url, final Map<String, String> headers) {
+		final CompletableFuture<TransportResponse> result = new CompletableFuture<TransportResponse>();
+		if (mode == Mode.TOKEN_BUCKET) {
+			long wait;
+			try {
+				wait = this.reserveToken(url);
+			} catch (LimitExceededException lee) {
+				result.completeExceptionally(lee);
+				return result;
+			}
+			Runnable send = new Runnable() {
+				public void run() {
+					if (result.isDone()) {
+						return;
+					}
+					forward(async.getAsync(url, headers), result, Long.MIN_VALUE);
+				}
+			};
+			if (wait == 0) {
+				send.run();
+			} else {
+				final ScheduledFuture<?> turn = Futures.schedule(send, wait, TimeUnit.NANOSECONDS);
+				result.whenComplete(new BiConsumer<TransportResponse, Throwable>() {
+					public void accept(TransportResponse response, Throwable failure) {
+						turn.cancel(false);
+					}
+				});
+			}
+			return result;
+		}
+
+		final CompletableFuture<Void> slot = this.acquireSlotAsync(url);
+		result.whenComplete(new BiConsumer<TransportResponse, Throwable>() {
+			public void accept(TransportResponse response, Throwable failure) {
+				slot.cancel(false);
+			}
+		});
+		slot.whenComplete(new BiConsumer<Void, Throwable>() {
+			public void accept(Void ignored, Throwable failure) {
+				if (slot.isCancelled()) {
+					return;
+				}
+				if (failure != null) {
+					result.completeExceptionally(Futures.unwrap(failure));
+					return;
+				}
+				if (result.isDone()) {
+					releaseSlot();
+					return;
+				}
+				forward(async.getAsync(url, headers), result, System.nanoTime());
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Completes {@code result} like {@code request}, adapting the limit to the response in {@link Mode#ADAPTIVE},
+	 * where the slot is released once the body of the response is closed.
+	 *
+	 * @param start when the request was sent in {@link Mode#ADAPTIVE}
+	 */
+	private void forward(final CompletableFuture<TransportResponse> request, final CompletableFuture<TransportResponse> result, 
+			final long start) {
+		result.whenComplete(new BiConsumer<TransportResponse, Throwable>() {
+			public void accept(TransportResponse response, Throwable failure) {
+				if (result.isCancelled()) {
+					request.cancel(true);
+				}
+			}
+		});
+		request.whenComplete(new BiConsumer<TransportResponse, Throwable>() {
+			public void accept(TransportResponse response, Throwable failure) {
+				if (mode == Mode.TOKEN_BUCKET) {
+					if (failure == null && response.getStatus() == 429) {
+						addThrottled();
+					}
+				} else if (failure == null) {
+					onResponse(start, response.getStatus());
+					response = new TransportResponse(response.getStatus(), response.getHeaders(), new SlotInputStream(response.getBody()));
+				} else {
+					if (Futures.unwrap(failure) instanceof SocketTimeoutException) {
+						onOverload(start);
+					}
+					releaseSlot();
+				}
+				if (failure != null) {
+					result.completeExceptionally(Futures.unwrap(failure));
+				} else if (!result.complete(response)) {
+					IOUtils.closeQuietly(response);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Closes the delegate.
+	 */
+	public void close() throws IOException {
+		delegate.close();
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * @return the requests per second for {@link Mode#TOKEN_BUCKET}, the current requests in flight allowed for {@link Mode#ADAPTIVE}
+	 */
+	public double getLimit() {
+		synchronized (lock) {
+			return mode == Mode.TOKEN_BUCKET ? rate : Math.floor(limit);
+		}
+	}
+
+	/**
+	 * @return the requests waiting for their response or sending their body, always 0 for {@link Mode#TOKEN_BUCKET}
+	 */
+	public int getInFlight() {
+		synchronized (lock) {
+			return inFlight;
+		}
+	}
+
+	/**
+	 * @return the number of requests not let through within the maximum wait
+	 */
+	public long getRejections() {
+		return rejections.get();
+	}
+
+	/**
+	 * @return the number of {@code 429} responses
+	 */
+	public long getThrottled() {
+		return throttled.get();
+	}
+
+	/**
+	 * Takes a token, waiting until it is its turn.
+	 */
+	private void takeToken(String url) throws IOException {
+		long wait = this.reserveToken(url);
+		if (wait > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting to request " + url);
+			}
+		}
+	}
+
+	/**
+	 * Reserves a token. Tokens are reserved in order, so that waiting requests are let through
+	 * at the rate in the order they came.
+	 *
+	 * @return the nanoseconds to wait before it is the turn of the request
+	 */
+	private long reserveToken(String url) throws LimitExceededException {
+		synchronized (lock) {
+			long now = System.nanoTime();
+			tokens = Math.min(burst, tokens + (now - refilled) * rate / TimeUnit.SECONDS.toNanos(1));
+			refilled = now;
+			long wait = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) * TimeUnit.SECONDS.toNanos(1) / rate);
+			if (wait > TimeUnit.MILLISECONDS.toNanos(maxWait)) {
+				this.reject(url);
+			}
+			tokens--;
+			return wait;
+		}
+	}
+
+	private void acquireSlot(String url) throws IOException {
+		long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWait);
+		synchronized (lock) {
+			while (inFlight >= (int) limit) {
+				long remaining = end - System.nanoTime();
+				if (remaining <= 0) {
+					this.reject(url);
+				}
+				try {
+					TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting to request " + url);
+				}
+			}
+			inFlight++;
+		}
+	}
+
+	/**
+	 * Takes a slot for an asynchronous request, in the order of the requests, waiting for up to {@code maxWait} milliseconds.
+	 *
+	 * @return completed once the request holds a slot, failed with a {@link LimitExceededException} after the maximum wait.
+	 * Cancelling it gives up the place of the request.
+	 */
+	private CompletableFuture<Void> acquireSlotAsync(final String url) {
+		final CompletableFuture<Void> slot = new CompletableFuture<Void>();
+		synchronized (lock) {
+			if (waiters.isEmpty() && inFlight < (int) limit) {
+				inFlight++;
+				slot.complete(null);
+				return slot;
+			}
+			waiters.add(slot);
+		}
+		final ScheduledFuture<?> timeout = Futures.schedule(new Runnable() {
+			public void run() {
+				LimitExceededException rejection = null;
+				synchronized (lock) {
+					if (!waiters.remove(slot)) {
+						return;
+					}
+					try {
+						reject(url);
+					} catch (LimitExceededException lee) {
+						rejection = lee;
+					}
+				}
+				slot.completeExceptionally(rejection);
+			}
+		}, maxWait, TimeUnit.MILLISECONDS);
+		slot.whenComplete(new BiConsumer<Void, Throwable>() {
+			public void accept(Void ignored, Throwable failure) {
+				timeout.cancel(false);
+				if (slot.isCancelled()) {
+					synchronized (lock) {
+						waiters.remove(slot);
+					}
+				}
+			}
+		});
+		return slot;
+	}
+
+	private void releaseSlot() {
+		synchronized (lock) {
+			inFlight--;
+			lock.notifyAll();
+		}
+		this.grantSlots();
+	}
+
+	/**
+	 * Hands the free slots over to the asynchronous requests waiting for one, in order.
+	 */
+	private void grantSlots() {
+		List<CompletableFuture<Void>> granted = new ArrayList<CompletableFuture<Void>>();
+		synchronized (lock) {
+			while (!waiters.isEmpty() && inFlight < (int) limit) {
+				inFlight++;
+				granted.add(waiters.poll());
+			}
+		}
+		for (CompletableFuture<Void> slot : granted) {
+			if (!slot.complete(null)) {
+				// cancelled meanwhile
+				this.releaseSlot();
+			}
+		}
+	}
+
+	/**
+	 * Adapts the limit to a response received {@code start} nanoseconds after the request was sent.
+	 */
+	private void onResponse(long start, int status) {
+		long latency = System.nanoTime() - start;
+		if (status == 429) {
+			this.addThrottled();
+		}
+		if (status == 429 || status >= 500) {
+			this.onOverload(start);
+			return;
+		}
+		if (status < 200 || status >= 300) {
+			return;
+		}
+		boolean changed;
+		synchronized (lock) {
+			long fastest = this.recordLatency(latency);
+			if (latencyTolerance > 0 && fastest > 0 && latency > latencyTolerance * fastest) {
+				changed = this.decrease(start);
+			} else if (inFlight * 2 >= limit && limit < maxLimit) {
+				// only while the limit is used, so that it does not grow unbounded when the load is light
+				limit = Math.min(maxLimit, limit + 1 / limit);
+				lock.notifyAll();
+				changed = true;
+			} else {
+				changed = false;
+			}
+		}
+		if (changed) {
+			this.grantSlots();
+			this.publishLimit();
+		}
+	}
+
+	private void onOverload(long start) {
+		boolean changed;
+		synchronized (lock) {
+			changed = this.decrease(start);
+		}
+		if (changed) {
+			this.publishLimit();
+		}
+	}
+
+	/**
+	 * Must hold the lock.
+	 *
+	 * @return {@code true} if the limit was decreased, {@code false} if the request was sent before the last decrease
+	 */
+	private boolean decrease(long start) {
+		if (decreased != Long.MIN_VALUE && start - decreased < 0) {
+			return false;
+		}
+		decreased = System.nanoTime();
+		limit = Math.max(minLimit, limit * backoffRatio);
+		return true;
+	}
+
+	/**
+	 * Must hold the lock.
+	 *
+	 * @return the fastest response time of the last complete window, or of the current one while there is no complete window
+	 */
+	private long recordLatency(long latency) {
+		windowFastest = Math.min(windowFastest, latency);
+		if (++windowCount >= LATENCY_WINDOW) {
+			baseline = windowFastest;
+			windowFastest = Long.MAX_VALUE;
+			windowCount = 0;
+		}
+		return baseline > 0 ? baseline : windowFastest;
+	}
+
+	/**
+	 * Must hold the lock.
+	 */
+	private void reject(String url) throws LimitExceededException {
+		rejections.incrementAndGet();
+		if (metrics != null) {
+			metrics.addRejection();
+		}
+		throw new LimitExceededException("Request limit reached, not sent within " + maxWait + " ms: " + url);
+	}
+
+	private void addThrottled() {
+		throttled.incrementAndGet();
+		if (metrics != null) {
+			metrics.addThrottled();
+		}
+	}
+
+	private void publishLimit() {
+		if (metrics != null) {
+			metrics.setRequestLimit(this.getLimit());
+		}
+	}
+
+	/**
+	 * Releases the slot of its request when closed.
+	 */
+	private class SlotInputStream extends ProxyInputStream {
+
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		SlotInputStream(InputStream body) {
+			super(body);
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				if (released.compareAndSet(false, true)) {
+					releaseSlot();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Thrown when a request is not let through within the maximum wait, it is not retried.
+	 */
+	public static class LimitExceededException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		LimitExceededException(String message) {
+			super(message);
+		}
+	}
+}
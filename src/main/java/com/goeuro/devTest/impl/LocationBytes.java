@@ -0,0 +1,185 @@
+package com.goeuro.devTest.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import com.goeuro.devTest.LocationSink;
+
+/**
+ * A location as the bytes of its values in the encoding of the reply, with the JSON escapes already decoded.
+ * A single instance is reused for every location of a reply by the {@link ByteLocationParser},
+ * so it is only valid during {@link ByteLocationSink#write(LocationBytes)}.
+ */
+public final class LocationBytes {
+
+	public static final int NAME = 0;
+
+	public static final int TYPE = 1;
+
+	public static final int LATITUDE = 2;
+
+	public static final int LONGITUDE = 3;
+
+	private static final int FIELDS = 4;
+
+	private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+
+	private final Charset charset;
+
+	private int id;
+
+	private final byte[][] values = new byte[FIELDS][];
+
+	/**
+	 * The length of every value, -1 for {@code null}.
+	 */
+	private final int[] lengths = new int[FIELDS];
+
+	/**
+	 * @param charset the encoding of the values
+	 */
+	LocationBytes(Charset charset) {
+		this.charset = charset;
+		for (int field = 0; field < FIELDS; field++) {
+			values[field] = new byte[32];
+		}
+		this.clear();
+	}
+
+	/**
+	 * @return the encoding of the values
+	 */
+	public Charset getCharset() {
+		return charset;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * @param field {@link #NAME}, {@link #TYPE}, {@link #LATITUDE} or {@link #LONGITUDE}
+	 * @return the bytes of the value, from 0 to {@link #getLength(int)} excluded
+	 */
+	public byte[] getBytes(int field) {
+		return values[field];
+	}
+
+	/**
+	 * @param field {@link #NAME}, {@link #TYPE}, {@link #LATITUDE} or {@link #LONGITUDE}
+	 * @return the length of the value in bytes, or -1 if it is {@code null}
+	 */
+	public int getLength(int field) {
+		return lengths[field];
+	}
+
+	/**
+	 * @param field {@link #NAME}, {@link #TYPE}, {@link #LATITUDE} or {@link #LONGITUDE}
+	 * @return the value decoded, may be {@code null}
+	 */
+	public String getString(int field) {
+		return lengths[field] < 0 ? null : new String(values[field], 0, lengths[field], charset);
+	}
+
+	/**
+	 * Plain decimals of up to 15 digits are read from the bytes without decoding, every other value
+	 * as by {@link Double#parseDouble(String)}.
+	 *
+	 * @param field {@link #LATITUDE} or {@link #LONGITUDE}
+	 * @return the value as a number, {@link Double#NaN} if it is {@code null} or not a number
+	 */
+	public double getDouble(int field) {
+		int length = lengths[field];
+		if (length < 0) {
+			return Double.NaN;
+		}
+		byte[] bytes = values[field];
+		int i = length > 0 && bytes[0] == '-' ? 1 : 0;
+		long mantissa = 0;
+		int digits = 0;
+		int decimals = -1;
+		for (; i < length; i++) {
+			byte b = bytes[i];
+			if (b >= '0' && b <= '9') {
+				mantissa = mantissa * 10 + (b - '0');
+				digits++;
+				if (decimals >= 0) {
+					decimals++;
+				}
+			} else if (b == '.' && decimals < 0) {
+				decimals = 0;
+			} else {
+				break;
+			}
+		}
+		if (i == length && digits > 0 && digits <= 15 && decimals != 0) {
+			// both exact as doubles, so the quotient is correctly rounded
+			double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+			return bytes[0] == '-' ? -value : value;
+		}
+		try {
+			return Double.parseDouble(this.getString(field));
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * Decodes the values and writes them to a sink of {@code String}s.
+	 */
+	public void writeTo(LocationSink sink) throws IOException {
+		sink.write(id, this.getString(NAME), this.getString(TYPE), this.getString(LATITUDE), this.getString(LONGITUDE));
+	}
+
+	/**
+	 * Resets the id to 0 and every value to {@code null}.
+	 */
+	void clear() {
+		id = 0;
+		Arrays.fill(lengths, -1);
+	}
+
+	void setId(int id) {
+		this.id = id;
+	}
+
+	void setNull(int field) {
+		lengths[field] = -1;
+	}
+
+	/**
+	 * Starts the value over as empty.
+	 */
+	void start(int field) {
+		lengths[field] = 0;
+	}
+
+	void append(int field, int b) {
+		this.ensureCapacity(field, 1);
+		values[field][lengths[field]++] = (byte) b;
+	}
+
+	void append(int field, byte[] bytes) {
+		this.ensureCapacity(field, bytes.length);
+		System.arraycopy(bytes, 0, values[field], lengths[field], bytes.length);
+		lengths[field] += bytes.length;
+	}
+
+	/**
+	 * Moves {@code length} bytes from the position of {@code buffer} to the value.
+	 */
+	void append(int field, ByteBuffer buffer, int length) {
+		this.ensureCapacity(field, length);
+		buffer.get(values[field], lengths[field], length);
+		lengths[field] += length;
+	}
+
+	private void ensureCapacity(int field, int length) {
+		int required = lengths[field] + length;
+		if (required > values[field].length) {
+			values[field] = Arrays.copyOf(values[field], Math.max(required, values[field].length * 2));
+		}
+	}
+}
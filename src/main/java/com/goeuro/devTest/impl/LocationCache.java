@@ -0,0 +1,207 @@
+package com.goeuro.devTest.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.Validate;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+/**
+ * Two tier cache of location replies: a size bounded in-memory LRU in front of an optional directory of JSON files
+ * that survives restarts. Entries evicted from memory are still found on disk.
+ */
+public class LocationCache {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	
+	private static final String FILE_EXTENSION = ".json";
+	
+	/**
+	 * Least recently used first, guarded by itself.
+	 */
+	private final Map<String, CacheEntry> memory;
+	
+	/**
+	 * {@code null} if there is no disk tier.
+	 */
+	private final File directory;
+	
+	/**
+	 * How long in milliseconds a new entry is used without revalidation.
+	 */
+	private final long ttl;
+	
+	private final Gson gson;
+	
+	private final AtomicLong evictions = new AtomicLong();
+	
+	/**
+	 * @param maxEntries maximum number of entries kept in memory, must be positive
+	 * @param directory where entries are persisted, {@code null} to only cache in memory
+	 * @param ttl how long in milliseconds a new entry is used without revalidation, must not be negative
+	 * @throws IllegalArgumentException if {@code maxEntries} is not positive or {@code ttl} is negative
+	 */
+	public LocationCache(final int maxEntries, File directory, long ttl) {
+		Validate.isTrue(maxEntries > 0, "maxEntries must be positive: %d", maxEntries);
+		Validate.isTrue(ttl >= 0, "ttl must not be negative: %d", ttl);
+		
+		this.memory = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+				if (size() > maxEntries) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+		this.directory = directory;
+		this.ttl = ttl;
+		this.gson = new GsonBuilder().create();
+		if (directory != null) {
+			directory.mkdirs();
+		}
+	}
+	
+	/**
+	 * @param key the normalized location
+	 * @return the entry from memory or else from disk, possibly expired, or {@code null} if there is none
+	 */
+	public CacheEntry get(String key) {
+		Validate.notNull(key);
+		
+		synchronized (memory) {
+			CacheEntry entry = memory.get(key);
+			if (entry != null) {
+				return entry;
+			}
+		}
+		CacheEntry entry = this.read(key);
+		if (entry != null) {
+			synchronized (memory) {
+				memory.put(key, entry);
+			}
+		}
+		return entry;
+	}
+	
+	/**
+	 * Stores the entry in memory and on disk, replacing any previous entry with the same key.
+	 * 
+	 * @param entry to store
+	 * @throws IOException when the entry cannot be written to disk
+	 */
+	public void put(CacheEntry entry) throws IOException {
+		Validate.notNull(entry);
+		Validate.notNull(entry.getKey());
+		
+		synchronized (memory) {
+			memory.put(entry.getKey(), entry);
+		}
+		this.write(entry);
+	}
+	
+	/**
+	 * @param now time in milliseconds since the epoch
+	 * @return the expiry time of an entry stored at {@code now}
+	 */
+	public long getExpiry(long now) {
+		return now + ttl;
+	}
+	
+	/**
+	 * @return the number of entries evicted from memory since creation
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+	
+	/**
+	 * @return the number of entries in memory
+	 */
+	public int size() {
+		synchronized (memory) {
+			return memory.size();
+		}
+	}
+	
+	/**
+	 * @return the entry on disk, or {@code null} if there is none or it cannot be read
+	 */
+	private CacheEntry read(String key) {
+		if (directory == null) {
+			return null;
+		}
+		File file = this.getFile(key);
+		if (!file.isFile()) {
+			return null;
+		}
+		
+		Reader reader = null;
+		try {
+			reader = new InputStreamReader(new FileInputStream(file), UTF_8);
+			CacheEntry entry = gson.fromJson(reader, CacheEntry.class);
+			return entry != null && key.equals(entry.getKey()) ? entry : null;
+		} catch (IOException ioe) {
+			return null;
+		} catch (JsonParseException jpe) {
+			file.delete();
+			return null;
+		} finally {
+			IOUtils.closeQuietly(reader);
+		}
+	}
+	
+	/**
+	 * Writes to a temporary file first, so that readers never see a partially written entry.
+	 */
+	private void write(CacheEntry entry) throws IOException {
+		if (directory == null) {
+			return;
+		}
+		File file = this.getFile(entry.getKey());
+		File temporary = File.createTempFile(file.getName(), ".tmp", directory);
+		Writer writer = null;
+		try {
+			writer = new OutputStreamWriter(new FileOutputStream(temporary), UTF_8);
+			gson.toJson(entry, writer);
+			writer.close();
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			IOUtils.closeQuietly(writer);
+			temporary.delete();
+		}
+	}
+	
+	/**
+	 * @return the file of the entry, named by the SHA-1 of the key
+	 */
+	private File getFile(String key) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(UTF_8));
+			return new File(directory, String.format("%040x", new BigInteger(1, digest)) + FILE_EXTENSION);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,221 @@
+package com.goeuro.devTest.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Content hash of every location of a reply by id, saved between runs to find the locations that changed.
+ * <p>
+ * The file holds the number of entries, then the ids in ascending order, then the hash of each of them.
+ * It is memory-mapped when loaded and searched in place, so loading costs the same whatever its size.
+ * A {@link Builder} writes a new file next to the old one and renames it over the old one,
+ * so that readers see either index complete.
+ */
+public class LocationHashIndex {
+
+	private static final int MAGIC = 0x4C484958;
+
+	private static final int VERSION = 1;
+
+	/**
+	 * Magic, version and number of entries.
+	 */
+	private static final int HEADER_SIZE = 12;
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	/**
+	 * The index without entries.
+	 */
+	public static final LocationHashIndex EMPTY = new LocationHashIndex(null, 0);
+
+	/**
+	 * The mapped file, {@code null} if empty.
+	 */
+	private final ByteBuffer buffer;
+
+	private final int count;
+
+	private LocationHashIndex(ByteBuffer buffer, int count) {
+		this.buffer = buffer;
+		this.count = count;
+	}
+
+	/**
+	 * @param file the index saved by a {@link Builder}
+	 * @return the index in {@code file}, or {@link #EMPTY} if it does not exist
+	 * @throws IOException if the file cannot be mapped or is not an index
+	 */
+	public static LocationHashIndex load(File file) throws IOException {
+		if (!file.exists()) {
+			return EMPTY;
+		}
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (mapped.limit() < HEADER_SIZE || mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION
+					|| mapped.limit() != HEADER_SIZE + 12L * mapped.getInt(8)) {
+				throw new IOException("Not a location hash index: " + file);
+			}
+			return new LocationHashIndex(mapped, mapped.getInt(8));
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * 64-bit FNV-1a of the fields of a location, telling {@code null} and empty fields apart.
+	 *
+	 * @return the content hash of the location
+	 */
+	public static long hash(String name, String type, String latitude, String longitude) {
+		long hash = FNV_OFFSET_BASIS;
+		hash = hash(hash, name);
+		hash = hash(hash, type);
+		hash = hash(hash, latitude);
+		return hash(hash, longitude);
+	}
+
+	/**
+	 * @return the position of {@code id} in the index, or a negative number if absent
+	 */
+	public int indexOf(int id) {
+		int low = 0;
+		int high = count - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int current = this.getId(middle);
+			if (current < id) {
+				low = middle + 1;
+			} else if (current > id) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param index from 0 to {@link #size()} excluded, the ids are in ascending order
+	 */
+	public int getId(int index) {
+		return buffer.getInt(HEADER_SIZE + 4 * index);
+	}
+
+	/**
+	 * @param index from 0 to {@link #size()} excluded
+	 */
+	public long getHash(int index) {
+		return buffer.getLong(HEADER_SIZE + 4 * count + 8 * index);
+	}
+
+	/**
+	 * @return the number of ids
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Hashes the characters of {@code value} followed by a separator, which are outside of the {@code char} range
+	 * like the marker of {@code null}.
+	 */
+	private static long hash(long hash, String value) {
+		if (value == null) {
+			return (hash ^ 0x10001) * FNV_PRIME;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+		}
+		return (hash ^ 0x10000) * FNV_PRIME;
+	}
+
+	/**
+	 * Collects the hashes of a reply, in any order, and saves them as an index. The first hash of an id wins.
+	 * Not thread-safe.
+	 */
+	public static class Builder {
+
+		private int[] ids = new int[64];
+
+		private long[] hashes = new long[64];
+
+		private int count;
+
+		public void add(int id, long hash) {
+			if (count == ids.length) {
+				ids = Arrays.copyOf(ids, count * 2);
+				hashes = Arrays.copyOf(hashes, count * 2);
+			}
+			ids[count] = id;
+			hashes[count] = hash;
+			count++;
+		}
+
+		/**
+		 * Replaces {@code file} atomically.
+		 *
+		 * @param file where the index is saved, its directory is created if needed
+		 * @throws IOException
+		 */
+		public void save(File file) throws IOException {
+			// ids in the high bits sort by id, then by order of addition
+			long[] order = new long[count];
+			for (int i = 0; i < count; i++) {
+				order[i] = ((long) ids[i] << 32) | i;
+			}
+			Arrays.sort(order);
+			int distinct = 0;
+			for (int i = 0; i < count; i++) {
+				if (i == 0 || (int) (order[i] >> 32) != (int) (order[i - 1] >> 32)) {
+					order[distinct++] = order[i];
+				}
+			}
+
+			File parent = file.getAbsoluteFile().getParentFile();
+			if (parent != null && !parent.exists()) {
+				parent.mkdirs();
+			}
+			File temporary = File.createTempFile(file.getName(), ".tmp", parent);
+			DataOutputStream output = null;
+			try {
+				output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+				output.writeInt(MAGIC);
+				output.writeInt(VERSION);
+				output.writeInt(distinct);
+				for (int i = 0; i < distinct; i++) {
+					output.writeInt((int) (order[i] >> 32));
+				}
+				for (int i = 0; i < distinct; i++) {
+					output.writeLong(hashes[(int) order[i]]);
+				}
+				output.close();
+				Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				IOUtils.closeQuietly(output);
+				temporary.delete();
+			}
+		}
+
+		/**
+		 * @return the number of hashes added, duplicate ids included
+		 */
+		public int size() {
+			return count;
+		}
+	}
+}
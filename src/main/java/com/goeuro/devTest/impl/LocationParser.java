@@ -0,0 +1,35 @@
+package com.goeuro.devTest.impl;
+
+import java.io.IOException;
+
+import com.goeuro.devTest.LocationSink;
+import com.goeuro.devTest.QueryOptions;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Reads the JSON array of locations returned by the endpoint. Implementations must be thread-safe.
+ */
+public interface LocationParser {
+
+	/**
+	 * Reads the whole array and writes each location to the sink as soon as it is read.
+	 * 
+	 * @param reader positioned before the array
+	 * @param sink receives the locations, not closed
+	 * @throws IOException when the JSON cannot be read or the sink cannot be written
+	 */
+	public void parse(JsonReader reader, LocationSink sink) throws IOException;
+
+	/**
+	 * Like {@link #parse(JsonReader, LocationSink)}, writing only the locations and the columns of {@code options}.
+	 * By default every location is read and the options are applied to the sink, see {@link QueryOptions#filter(LocationSink)}.
+	 * 
+	 * @param reader positioned before the array
+	 * @param sink receives the locations kept, not closed
+	 * @param options the locations kept and the columns read
+	 * @throws IOException when the JSON cannot be read or the sink cannot be written
+	 */
+	public default void parse(JsonReader reader, LocationSink sink, QueryOptions options) throws IOException {
+		this.parse(reader, options.filter(sink));
+	}
+}
@@ -0,0 +1,361 @@
+package com.goeuro.devTest.impl;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.Validate;
+
+import com.goeuro.devTest.LocationSink;
+
+/**
+ * Keeps locations in memory in primitive columns instead of a pair of objects per location:
+ * ids in an {@code int[]}, coordinates in {@code double[]}s, types as codes into a dictionary and names deduplicated through a pool.
+ * Rows are addressed by their index, from {@code 0} to {@link #size()} exclusive, in the order they were written.
+ * Missing coordinates are stored as {@link Double#NaN}, a missing type as {@code -1}.
+ * Not thread-safe.
+ */
+public class LocationStore implements LocationSink {
+
+	/**
+	 * Initial number of rows when none is given.
+	 */
+	public static final int DEFAULT_CAPACITY = 64;
+
+	private int size;
+
+	private int[] ids;
+
+	private String[] names;
+
+	private int[] types;
+
+	private double[] latitudes;
+
+	private double[] longitudes;
+
+	/**
+	 * The distinct types, indexed by their code.
+	 */
+	private final List<String> typeDictionary = new ArrayList<String>();
+
+	private final Map<String, Integer> typeCodes = new HashMap<String, Integer>();
+
+	/**
+	 * One instance of every distinct name, so that repeated names share their {@code String}.
+	 */
+	private final Map<String, String> namePool = new HashMap<String, String>();
+
+	/**
+	 * Row of every id, the last written one for duplicate ids.
+	 */
+	private final IdIndex index;
+
+	public LocationStore() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity the number of rows to allocate upfront, the store grows past it as needed
+	 * @throws IllegalArgumentException if {@code capacity} is not positive
+	 */
+	public LocationStore(int capacity) {
+		Validate.isTrue(capacity > 0, "capacity must be positive: %d", capacity);
+
+		this.ids = new int[capacity];
+		this.names = new String[capacity];
+		this.types = new int[capacity];
+		this.latitudes = new double[capacity];
+		this.longitudes = new double[capacity];
+		this.index = new IdIndex(capacity);
+	}
+
+	/**
+	 * Appends a row. The coordinates are parsed as {@code double}s.
+	 * @throws NumberFormatException if a coordinate is not a number
+	 * @see com.goeuro.devTest.LocationSink#write(int, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+	 */
+	public void write(int id, String name, String type, String latitude, String longitude) {
+		this.add(id, name, type, toDouble(latitude), toDouble(longitude));
+	}
+
+	/**
+	 * Appends a row.
+	 *
+	 * @param id
+	 * @param name may be {@code null}
+	 * @param type may be {@code null}
+	 * @param latitude {@link Double#NaN} if missing
+	 * @param longitude {@link Double#NaN} if missing
+	 * @return the row of the location
+	 */
+	public int add(int id, String name, String type, double latitude, double longitude) {
+		if (size == ids.length) {
+			this.grow();
+		}
+
+		int row = size++;
+		ids[row] = id;
+		names[row] = this.pool(name);
+		types[row] = this.encode(type);
+		latitudes[row] = latitude;
+		longitudes[row] = longitude;
+		index.put(id, row);
+		return row;
+	}
+
+	/**
+	 * Nothing to release, the store stays usable.
+	 */
+	public void close() {
+	}
+
+	/**
+	 * @return the number of rows
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param id the location id
+	 * @return the row of the location, the last written one if the id was written more than once, or {@code -1}
+	 */
+	public int indexOf(int id) {
+		return index.get(id);
+	}
+
+	public int getId(int row) {
+		this.checkRow(row);
+		return ids[row];
+	}
+
+	public String getName(int row) {
+		this.checkRow(row);
+		return names[row];
+	}
+
+	/**
+	 * @return the type, or {@code null} if missing
+	 */
+	public String getType(int row) {
+		return this.decode(this.getTypeCode(row));
+	}
+
+	/**
+	 * @return the code of the type in the dictionary, or {@code -1} if missing
+	 * @see #decode(int)
+	 */
+	public int getTypeCode(int row) {
+		this.checkRow(row);
+		return types[row];
+	}
+
+	public double getLatitude(int row) {
+		this.checkRow(row);
+		return latitudes[row];
+	}
+
+	public double getLongitude(int row) {
+		this.checkRow(row);
+		return longitudes[row];
+	}
+
+	/**
+	 * @param type
+	 * @return the code of the type, or {@code -1} if no location has this type
+	 */
+	public int encodeType(String type) {
+		Integer code = typeCodes.get(type);
+		return code == null ? -1 : code.intValue();
+	}
+
+	/**
+	 * @param code a type code
+	 * @return the type, or {@code null} for {@code -1}
+	 * @throws IndexOutOfBoundsException if {@code code} is not in the dictionary
+	 */
+	public String decode(int code) {
+		return code < 0 ? null : typeDictionary.get(code);
+	}
+
+	/**
+	 * @return the number of distinct types
+	 */
+	public int getTypeCount() {
+		return typeDictionary.size();
+	}
+
+	/**
+	 * Writes every row to the sink in order. Coordinates are written as by {@link Double#toString(double)},
+	 * missing ones as {@code null}.
+	 *
+	 * @param sink receives the rows, not closed
+	 * @throws IOException when the sink cannot be written
+	 * @throws NullPointerException if {@code sink} is {@code null}
+	 */
+	public void writeTo(LocationSink sink) throws IOException {
+		Validate.notNull(sink);
+
+		for (int row = 0; row < size; row++) {
+			sink.write(ids[row], names[row], this.decode(types[row]), toString(latitudes[row]), toString(longitudes[row]));
+		}
+	}
+
+	/**
+	 * Exports every row as CSV in the format of {@link CsvLocationSink}.
+	 *
+	 * @param writer destination of the CSV, flushed but not closed
+	 * @throws IOException when the writer cannot be written
+	 * @throws NullPointerException if {@code writer} is {@code null}
+	 */
+	public void exportCsv(Writer writer) throws IOException {
+		Validate.notNull(writer);
+
+		CsvLocationSink sink = new CsvLocationSink(writer);
+		this.writeTo(sink);
+		writer.flush();
+	}
+
+	/**
+	 * Shrinks the columns to the number of rows.
+	 */
+	public void trimToSize() {
+		if (size > 0 && size < ids.length) {
+			this.resize(size);
+		}
+	}
+
+	private void grow() {
+		this.resize(ids.length + (ids.length >> 1) + 1);
+	}
+
+	private void resize(int capacity) {
+		ids = Arrays.copyOf(ids, capacity);
+		names = Arrays.copyOf(names, capacity);
+		types = Arrays.copyOf(types, capacity);
+		latitudes = Arrays.copyOf(latitudes, capacity);
+		longitudes = Arrays.copyOf(longitudes, capacity);
+	}
+
+	private String pool(String name) {
+		if (name == null) {
+			return null;
+		}
+		String pooled = namePool.get(name);
+		if (pooled == null) {
+			namePool.put(name, name);
+			pooled = name;
+		}
+		return pooled;
+	}
+
+	private int encode(String type) {
+		if (type == null) {
+			return -1;
+		}
+		Integer code = typeCodes.get(type);
+		if (code == null) {
+			code = Integer.valueOf(typeDictionary.size());
+			typeDictionary.add(type);
+			typeCodes.put(type, code);
+		}
+		return code.intValue();
+	}
+
+	private void checkRow(int row) {
+		if (row < 0 || row >= size) {
+			throw new IndexOutOfBoundsException("row " + row + " not in [0, " + size + ")");
+		}
+	}
+
+	private static double toDouble(String coordinate) {
+		return coordinate == null || coordinate.isEmpty() ? Double.NaN : Double.parseDouble(coordinate);
+	}
+
+	private static String toString(double coordinate) {
+		return Double.isNaN(coordinate) ? null : Double.toString(coordinate);
+	}
+
+	/**
+	 * Open addressing map from id to row with linear probing, without boxing.
+	 */
+	private static final class IdIndex {
+
+		private static final int FREE = -1;
+
+		private int[] keys;
+
+		/**
+		 * Row of the key at the same slot, {@link #FREE} for an empty slot.
+		 */
+		private int[] rows;
+
+		private int count;
+
+		IdIndex(int expected) {
+			int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+			keys = new int[capacity];
+			rows = new int[capacity];
+			Arrays.fill(rows, FREE);
+		}
+
+		int get(int key) {
+			int mask = keys.length - 1;
+			for (int slot = mix(key) & mask; rows[slot] != FREE; slot = (slot + 1) & mask) {
+				if (keys[slot] == key) {
+					return rows[slot];
+				}
+			}
+			return FREE;
+		}
+
+		void put(int key, int row) {
+			int mask = keys.length - 1;
+			int slot = mix(key) & mask;
+			while (rows[slot] != FREE) {
+				if (keys[slot] == key) {
+					rows[slot] = row;
+					return;
+				}
+				slot = (slot + 1) & mask;
+			}
+			keys[slot] = key;
+			rows[slot] = row;
+			if (++count * 2 > keys.length) {
+				this.rehash();
+			}
+		}
+
+		private void rehash() {
+			int[] oldKeys = keys;
+			int[] oldRows = rows;
+			keys = new int[oldKeys.length * 2];
+			rows = new int[oldRows.length * 2];
+			Arrays.fill(rows, FREE);
+			int mask = keys.length - 1;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldRows[i] != FREE) {
+					int slot = mix(oldKeys[i]) & mask;
+					while (rows[slot] != FREE) {
+						slot = (slot + 1) & mask;
+					}
+					keys[slot] = oldKeys[i];
+					rows[slot] = oldRows[i];
+				}
+			}
+		}
+
+		/**
+		 * Spreads consecutive ids over the table.
+		 */
+		private static int mix(int key) {
+			int h = key * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+	}
+}
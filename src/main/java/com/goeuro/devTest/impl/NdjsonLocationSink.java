@@ -0,0 +1,68 @@
+package com.goeuro.devTest.impl;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.Validate;
+
+import com.goeuro.devTest.LocationSink;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A {@link LocationSink} writing one JSON object per line, with the fields of the endpoint reply:
+ * {@code {"_id":376217,"name":"Berlin","type":"location","geo_position":{"latitude":52.52437,"longitude":13.41053}}}.
+ * Coordinates are written as numbers when they are valid JSON numbers, as strings otherwise.
+ */
+public class NdjsonLocationSink implements LocationSink {
+
+	private static final Pattern JSON_NUMBER = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
+
+	private final Writer writer;
+
+	private final JsonWriter json;
+
+	/**
+	 * @param writer the destination, should be buffered. Will be closed together with this sink.
+	 * @throws NullPointerException if {@code writer} is {@code null}
+	 */
+	public NdjsonLocationSink(Writer writer) {
+		Validate.notNull(writer);
+		this.writer = writer;
+		this.json = new JsonWriter(writer);
+		// allows a value per line
+		this.json.setLenient(true);
+	}
+
+	/**
+	 * @see com.goeuro.devTest.LocationSink#write(int, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+	 */
+	public void write(int id, String name, String type, String latitude, String longitude) throws IOException {
+		json.beginObject();
+		json.name("_id").value(id);
+		json.name("name").value(name);
+		json.name("type").value(type);
+		json.name("geo_position").beginObject();
+		this.writeCoordinate("latitude", latitude);
+		this.writeCoordinate("longitude", longitude);
+		json.endObject();
+		json.endObject();
+		writer.write('\n');
+	}
+
+	/**
+	 * Flushes and closes the underlying {@link Writer}.
+	 */
+	public void close() throws IOException {
+		json.close();
+	}
+
+	private void writeCoordinate(String name, String value) throws IOException {
+		json.name(name);
+		if (value != null && JSON_NUMBER.matcher(value).matches()) {
+			json.jsonValue(value);
+		} else {
+			json.value(value);
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package com.goeuro.devTest.impl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import com.goeuro.devTest.LocationSink;
+import com.goeuro.devTest.OutputFormat;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Writes the locations as newline delimited JSON through a {@link NdjsonLocationSink}.
+ */
+public class NdjsonOutputFormat implements OutputFormat {
+
+	private final StreamingLocationParser parser = new StreamingLocationParser();
+
+	public String getName() {
+		return "ndjson";
+	}
+
+	public String getExtension() {
+		return ".ndjson";
+	}
+
+	/**
+	 * @see com.goeuro.devTest.OutputFormat#createSink(java.io.OutputStream, java.lang.String, int)
+	 */
+	public LocationSink createSink(OutputStream outputStream, String encoding, int bufferSize) throws IOException {
+		return new NdjsonLocationSink(new BufferedWriter(new OutputStreamWriter(outputStream, encoding), bufferSize));
+	}
+
+	/**
+	 * @see com.goeuro.devTest.OutputFormat#createSink(java.io.Writer, int)
+	 */
+	public LocationSink createSink(Writer writer, int bufferSize) throws IOException {
+		return new NdjsonLocationSink(new BufferedWriter(writer, bufferSize));
+	}
+
+	/**
+	 * Coordinates are read back as they were written.
+	 * @see com.goeuro.devTest.OutputFormat#read(java.io.InputStream, java.lang.String, com.goeuro.devTest.LocationSink)
+	 */
+	public void read(InputStream inputStream, String encoding, LocationSink sink) throws IOException {
+		JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(inputStream, encoding)));
+		// allows a value per line
+		reader.setLenient(true);
+		try {
+			while (reader.peek() != JsonToken.END_DOCUMENT) {
+				parser.readLocation(reader, sink);
+			}
+		} catch (IllegalStateException ise) {
+			throw new IOException(ise.getLocalizedMessage(), ise);
+		} catch (NumberFormatException nfe) {
+			throw new IOException(nfe.getLocalizedMessage(), nfe);
+		} catch (JsonParseException jpe) {
+			throw new IOException(jpe.getLocalizedMessage(), jpe);
+		}
+	}
+}
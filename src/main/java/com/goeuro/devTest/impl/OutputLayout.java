@@ -0,0 +1,205 @@
+package com.goeuro.devTest.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.Normalizer;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.time.FastDateFormat;
+
+/**
+ * Where the files of the queries go: every query gets a name of its own made of a timestamp, a sequence number and
+ * a slug of the location, e.g. {@code 20161018-101500123-000042-munchen.csv}, optionally in a subdirectory by date
+ * or by hash so that no directory grows to millions of files.
+ * <p>
+ * Files are written under a hidden temporary name, see {@link #getTemporaryFile(File)}, and renamed by
+ * {@link #publish(File, File)} once complete, so that readers of the directory only ever see complete files and
+ * a file is never overwritten, even by another process writing to the same directory.
+ * Thread-safe.
+ */
+public class OutputLayout {
+
+	/**
+	 * How the files are spread over subdirectories of the base directory.
+	 */
+	public enum Partitioning {
+
+		/**
+		 * Every file directly in the base directory.
+		 */
+		NONE,
+
+		/**
+		 * A subdirectory per day, e.g. {@code 20161018}.
+		 */
+		DATE,
+
+		/**
+		 * {@value OutputLayout#HASH_PARTITIONS} subdirectories, {@code 00} to {@code ff}, chosen by the hash of the name.
+		 */
+		HASH
+	}
+
+	/**
+	 * The number of subdirectories of {@link Partitioning#HASH}.
+	 */
+	public static final int HASH_PARTITIONS = 256;
+
+	private static final FastDateFormat TIMESTAMP_FORMAT = FastDateFormat.getInstance("yyyyMMdd-HHmmssSSS");
+
+	/**
+	 * The slugs are cut to this many characters.
+	 */
+	private static final int MAX_SLUG_LENGTH = 32;
+
+	private final File baseDirectory;
+
+	private final Partitioning partitioning;
+
+	/**
+	 * Tells apart the files named in the same millisecond.
+	 */
+	private final AtomicLong sequence = new AtomicLong();
+
+	/**
+	 * Every file directly in {@code baseDirectory}.
+	 *
+	 * @param baseDirectory path of the base directory of the files
+	 * @throws NullPointerException if {@code baseDirectory} is {@code null}
+	 * @throws IllegalArgumentException if {@code baseDirectory} is blank
+	 */
+	public OutputLayout(String baseDirectory) {
+		this(baseDirectory, Partitioning.NONE);
+	}
+
+	/**
+	 * @param baseDirectory path of the base directory of the files
+	 * @param partitioning how the files are spread over subdirectories
+	 * @throws NullPointerException if any argument is {@code null}
+	 * @throws IllegalArgumentException if {@code baseDirectory} is blank
+	 */
+	public OutputLayout(String baseDirectory, Partitioning partitioning) {
+		Validate.notBlank(baseDirectory);
+		Validate.notNull(partitioning);
+
+		this.baseDirectory = new File(baseDirectory);
+		this.partitioning = partitioning;
+	}
+
+	/**
+	 * Names the file of a query, without creating it or its directory.
+	 *
+	 * @param location the location of the query, its slug ends the name
+	 * @param extension the extension of the file, including the dot
+	 * @return a file no other call of this layout returns
+	 */
+	public File newFile(String location, String extension) {
+		Validate.notNull(location);
+		Validate.notNull(extension);
+
+		String timestamp = TIMESTAMP_FORMAT.format(new Date());
+		String name = timestamp + "-" + String.format("%06d", sequence.incrementAndGet()) + "-" + slug(location) + extension;
+		switch (partitioning) {
+		case DATE:
+			return new File(new File(baseDirectory, timestamp.substring(0, 8)), name);
+		case HASH:
+			int hash = name.hashCode();
+			hash ^= hash >>> 16;
+			hash *= 0x45d9f3b;
+			hash ^= hash >>> 16;
+			return new File(new File(baseDirectory, String.format("%02x", hash & (HASH_PARTITIONS - 1))), name);
+		default:
+			return new File(baseDirectory, name);
+		}
+	}
+
+	public File getBaseDirectory() {
+		return baseDirectory;
+	}
+
+	public Partitioning getPartitioning() {
+		return partitioning;
+	}
+
+	/**
+	 * @param location any location
+	 * @return the location in lower case ASCII letters and digits, accents dropped and anything else
+	 * turned into single dashes, at most {@value #MAX_SLUG_LENGTH} characters, {@code location} if nothing is left
+	 */
+	public static String slug(String location) {
+		String decomposed = Normalizer.normalize(location, Normalizer.Form.NFD);
+		StringBuilder slug = new StringBuilder(Math.min(decomposed.length(), MAX_SLUG_LENGTH));
+		for (int i = 0; i < decomposed.length() && slug.length() < MAX_SLUG_LENGTH; i++) {
+			char c = Character.toLowerCase(decomposed.charAt(i));
+			if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+				slug.append(c);
+			} else if (Character.getType(c) != Character.NON_SPACING_MARK
+					&& slug.length() > 0 && slug.charAt(slug.length() - 1) != '-') {
+				slug.append('-');
+			}
+		}
+		while (slug.length() > 0 && slug.charAt(slug.length() - 1) == '-') {
+			slug.setLength(slug.length() - 1);
+		}
+		return slug.length() == 0 ? "location" : slug.toString();
+	}
+
+	/**
+	 * @param file the file to be published
+	 * @return the hidden file next to {@code file} where it is written until published
+	 */
+	public static File getTemporaryFile(File file) {
+		return new File(file.getParentFile(), "." + file.getName() + ".tmp");
+	}
+
+	/**
+	 * Renames the complete {@code temporary} to {@code file} atomically, without overwriting anything: if {@code file}
+	 * exists already, a dash and a number are added to the name before the extension, e.g. {@code name-1.csv}.
+	 * The file is linked under its new name and then unlinked from the temporary one, where the file system does
+	 * not support hard links it is moved if no file has the name.
+	 *
+	 * @param temporary the complete file
+	 * @param file where it is published
+	 * @return the published file, {@code file} unless the name was taken
+	 * @throws IOException if {@code temporary} cannot be renamed
+	 */
+	public static File publish(File temporary, File file) throws IOException {
+		String name = file.getName();
+		int dot = name.indexOf('.', 1);
+		String base = dot < 0 ? name : name.substring(0, dot);
+		String extension = dot < 0 ? "" : name.substring(dot);
+		File target = file;
+		for (int attempt = 1; ; attempt++) {
+			try {
+				Files.createLink(target.toPath(), temporary.toPath());
+				Files.delete(temporary.toPath());
+				return target;
+			} catch (FileAlreadyExistsException e) {
+				target = new File(file.getParentFile(), base + "-" + attempt + extension);
+			} catch (UnsupportedOperationException e) {
+				return move(temporary, target, base, extension);
+			} catch (IOException e) {
+				if (!temporary.exists()) {
+					throw e;
+				}
+				return move(temporary, target, base, extension);
+			}
+		}
+	}
+
+	/**
+	 * Renames to the first free name from {@code target} on, for file systems without hard links.
+	 */
+	private static File move(File temporary, File target, String base, String extension) throws IOException {
+		for (int attempt = 1; target.exists(); attempt++) {
+			target = new File(target.getParentFile(), base + "-" + attempt + extension);
+		}
+		Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		return target;
+	}
+}
@@ -0,0 +1,54 @@
+package com.goeuro.devTest.impl;
+
+/**
+ * How {@link QueryProcessorImpl} reads the JSON returned by the endpoint.
+ */
+public enum ParsingMode {
+
+	/**
+	 * Every element is mapped to a {@link LocationJson} by Gson.
+	 */
+	GSON {
+		@Override
+		LocationParser createParser() {
+			return new GsonLocationParser();
+		}
+	},
+
+	/**
+	 * The tokens are written straight to the output without intermediate objects.
+	 */
+	STREAMING {
+		@Override
+		LocationParser createParser() {
+			return new StreamingLocationParser();
+		}
+	},
+
+	/**
+	 * The bytes of the reply are scanned by a {@link ByteLocationParser} without decoding them, and the CSV files 
+	 * are written as bytes through a {@link java.nio.channels.FileChannel}. Replies in an encoding that cannot be 
+	 * scanned as bytes are read as in {@link #STREAMING}.
+	 */
+	BYTES {
+		@Override
+		LocationParser createParser() {
+			return new StreamingLocationParser();
+		}
+
+		@Override
+		ByteLocationParser createByteParser(boolean directBuffers) {
+			return new ByteLocationParser(AbstractQueryProcessor.DEFAULT_BUFFER_SIZE, directBuffers);
+		}
+	};
+
+	abstract LocationParser createParser();
+
+	/**
+	 * @param directBuffers whether the reply is read into buffers outside of the heap
+	 * @return the parser of the bytes of the reply, or {@code null} if this mode reads characters
+	 */
+	ByteLocationParser createByteParser(boolean directBuffers) {
+		return null;
+	}
+}
@@ -0,0 +1,259 @@
+package com.goeuro.devTest.impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.Validate;
+
+import com.goeuro.devTest.LocationSink;
+
+/**
+ * A {@link LocationSink} that hands the locations over to another thread, which writes them to the downstream sink,
+ * so that reading and parsing the reply overlaps with formatting and writing the file.
+ * Locations are collected in batches of primitive columns which travel through a bounded queue and are recycled once written:
+ * at most {@code queueCapacity} full batches wait for the writer, beyond that {@link #write} blocks until the writer catches up.
+ * Once filled the batches allocate nothing.
+ * A failure of the downstream sink is thrown by the next {@link #write} or {@link #close()}.
+ * Must be written to by a single thread.
+ */
+public class PipelinedLocationSink implements LocationSink {
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 4;
+
+	/**
+	 * Tells the writer that no more batches follow.
+	 */
+	private static final Batch END = new Batch(0);
+
+	private final LocationSink sink;
+
+	/**
+	 * Filled batches, waiting to be written.
+	 */
+	private final BlockingQueue<Batch> full;
+
+	/**
+	 * Written batches, ready to be filled again.
+	 */
+	private final BlockingQueue<Batch> empty;
+
+	private final Thread writer;
+
+	/**
+	 * The batch being filled.
+	 */
+	private Batch current;
+
+	/**
+	 * The first failure of the downstream sink, after which the writer discards the batches.
+	 */
+	private volatile Throwable failure;
+
+	private boolean ended;
+
+	/**
+	 * @param sink receives the locations from the writer thread, closed together with this sink
+	 * @param batchSize the number of locations handed over at once
+	 * @param queueCapacity the number of full batches that may wait for the writer
+	 * @throws NullPointerException if {@code sink} is {@code null}
+	 * @throws IllegalArgumentException if {@code batchSize} or {@code queueCapacity} is not positive
+	 */
+	public PipelinedLocationSink(LocationSink sink, int batchSize, int queueCapacity) {
+		Validate.notNull(sink);
+		Validate.isTrue(batchSize > 0, "batchSize must be positive: %d", batchSize);
+		Validate.isTrue(queueCapacity > 0, "queueCapacity must be positive: %d", queueCapacity);
+
+		this.sink = sink;
+		// one more slot for END, one more batch for the writer and one for the producer
+		this.full = new ArrayBlockingQueue<Batch>(queueCapacity + 1);
+		this.empty = new ArrayBlockingQueue<Batch>(queueCapacity + 2);
+		for (int i = 0; i < queueCapacity + 1; i++) {
+			empty.add(new Batch(batchSize));
+		}
+		this.current = new Batch(batchSize);
+		this.writer = new Thread(new Runnable() {
+			public void run() {
+				drain();
+			}
+		}, "location-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Adds the location to the current batch, and hands the batch over once full.
+	 * @see com.goeuro.devTest.LocationSink#write(int, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+	 */
+	public void write(int id, String name, String type, String latitude, String longitude) throws IOException {
+		Validate.validState(!ended, "Sink closed");
+		this.checkFailure();
+
+		current.add(id, name, type, latitude, longitude);
+		if (current.isFull()) {
+			this.handOver();
+		}
+	}
+
+	/**
+	 * Hands over the last batch, waits for the writer to finish and closes the downstream sink.
+	 *
+	 * @throws IOException if the downstream sink failed
+	 */
+	public void close() throws IOException {
+		if (ended) {
+			return;
+		}
+		try {
+			if (current.size > 0 && failure == null) {
+				this.handOver();
+			}
+		} finally {
+			this.end();
+		}
+		if (failure != null) {
+			IOUtils.closeQuietly(sink);
+			this.checkFailure();
+		}
+		sink.close();
+	}
+
+	/**
+	 * Stops the writer without writing the pending locations nor closing the downstream sink, e.g. when the query failed.
+	 * The downstream sink is no longer used once this returns.
+	 */
+	public void abort() {
+		if (ended) {
+			return;
+		}
+		if (failure == null) {
+			failure = new IOException("Aborted");
+		}
+		try {
+			this.end();
+		} catch (InterruptedIOException e) {
+			// the interrupt status is kept
+		}
+	}
+
+	private void handOver() throws InterruptedIOException {
+		try {
+			full.put(current);
+			current = empty.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while handing over the locations");
+		}
+	}
+
+	/**
+	 * Sends {@link #END} and waits for the writer.
+	 */
+	private void end() throws InterruptedIOException {
+		ended = true;
+		try {
+			full.put(END);
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the writer");
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		Throwable cause = failure;
+		if (cause instanceof IOException) {
+			throw (IOException) cause;
+		}
+		if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		}
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+	}
+
+	/**
+	 * Runs on the writer thread until {@link #END}.
+	 */
+	private void drain() {
+		while (true) {
+			Batch batch;
+			try {
+				batch = full.take();
+			} catch (InterruptedException e) {
+				if (failure == null) {
+					failure = new InterruptedIOException("Writer interrupted");
+				}
+				continue;
+			}
+			if (batch == END) {
+				return;
+			}
+			if (failure == null) {
+				try {
+					batch.writeTo(sink);
+				} catch (Throwable t) {
+					failure = t;
+				}
+			}
+			batch.clear();
+			empty.add(batch);
+		}
+	}
+
+	/**
+	 * The columns of up to {@code capacity} locations.
+	 */
+	private static final class Batch {
+
+		private final int[] ids;
+		private final String[] names;
+		private final String[] types;
+		private final String[] latitudes;
+		private final String[] longitudes;
+		private int size;
+
+		Batch(int capacity) {
+			ids = new int[capacity];
+			names = new String[capacity];
+			types = new String[capacity];
+			latitudes = new String[capacity];
+			longitudes = new String[capacity];
+		}
+
+		void add(int id, String name, String type, String latitude, String longitude) {
+			ids[size] = id;
+			names[size] = name;
+			types[size] = type;
+			latitudes[size] = latitude;
+			longitudes[size] = longitude;
+			size++;
+		}
+
+		boolean isFull() {
+			return size == ids.length;
+		}
+
+		void writeTo(LocationSink sink) throws IOException {
+			for (int i = 0; i < size; i++) {
+				sink.write(ids[i], names[i], types[i], latitudes[i], longitudes[i]);
+			}
+		}
+
+		/**
+		 * Drops the references so that the strings can be collected.
+		 */
+		void clear() {
+			for (int i = 0; i < size; i++) {
+				names[i] = null;
+				types[i] = null;
+				latitudes[i] = null;
+				longitudes[i] = null;
+			}
+			size = 0;
+		}
+	}
+}
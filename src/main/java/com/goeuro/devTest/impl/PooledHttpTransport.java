@@ -0,0 +1,221 @@
+package com.goeuro.devTest.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * {@link HttpTransport} backed by a pool of keep-alive connections.
+ * Connections are returned to the pool once the body of a response is read to the end or closed.
+ * When gzip is enabled, {@code Accept-Encoding: gzip} is sent and compressed responses are decompressed while streaming.
+ */
+public class PooledHttpTransport implements HttpTransport {
+
+	public static final int DEFAULT_MAX_CONNECTIONS = 20;
+	
+	public static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+	
+	public static final int DEFAULT_READ_TIMEOUT = 30000;
+	
+	public static final int DEFAULT_KEEP_ALIVE = 30000;
+	
+	private final CloseableHttpClient client;
+	
+	/**
+	 * Uses the defaults with gzip enabled.
+	 */
+	public PooledHttpTransport() {
+		this(DEFAULT_MAX_CONNECTIONS, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, DEFAULT_KEEP_ALIVE, true);
+	}
+	
+	/**
+	 * @param maxConnections maximum number of pooled connections, also waited for at most {@code connectTimeout}
+	 * @param connectTimeout connect timeout in milliseconds, 0 for none
+	 * @param readTimeout maximum inactivity in milliseconds while waiting for data, 0 for none
+	 * @param keepAlive how long in milliseconds an idle connection is kept when the server does not say otherwise
+	 * @param gzip whether to ask for and decompress gzip responses
+	 * @throws IllegalArgumentException if {@code maxConnections} or {@code keepAlive} is not positive, 
+	 * or a timeout is negative
+	 */
+	public PooledHttpTransport(int maxConnections, int connectTimeout, int readTimeout, final int keepAlive, boolean gzip) {
+		this(maxConnections, connectTimeout, readTimeout, keepAlive, gzip, null);
+	}
+	
+	/**
+	 * @param maxConnections maximum number of pooled connections, also waited for at most {@code connectTimeout}
+	 * @param connectTimeout connect timeout in milliseconds, 0 for none
+	 * @param readTimeout maximum inactivity in milliseconds while waiting for data, 0 for none
+	 * @param keepAlive how long in milliseconds an idle connection is kept when the server does not say otherwise
+	 * @param gzip whether to ask for and decompress gzip responses
+	 * @param metrics records the {@link QueryMetrics.Phase#DNS} and {@link QueryMetrics.Phase#CONNECT} phases of new connections,
+	 * may be {@code null}
+	 * @throws IllegalArgumentException if {@code maxConnections} or {@code keepAlive} is not positive, 
+	 * or a timeout is negative
+	 */
+	public PooledHttpTransport(int maxConnections, int connectTimeout, int readTimeout, final int keepAlive, boolean gzip, 
+			QueryMetrics metrics) {
+		Validate.isTrue(maxConnections > 0, "maxConnections must be positive: %d", maxConnections);
+		Validate.isTrue(connectTimeout >= 0, "connectTimeout must not be negative: %d", connectTimeout);
+		Validate.isTrue(readTimeout >= 0, "readTimeout must not be negative: %d", readTimeout);
+		Validate.isTrue(keepAlive > 0, "keepAlive must be positive: %d", keepAlive);
+		
+		PoolingHttpClientConnectionManager connectionManager = metrics == null ? new PoolingHttpClientConnectionManager()
+				: new PoolingHttpClientConnectionManager(RegistryBuilder.<ConnectionSocketFactory>create()
+						.register("http", new MeasuringSocketFactory(PlainConnectionSocketFactory.getSocketFactory(), metrics))
+						.register("https", new MeasuringSocketFactory(SSLConnectionSocketFactory.getSocketFactory(), metrics))
+						.build(), new MeasuringDnsResolver(metrics));
+		connectionManager.setMaxTotal(maxConnections);
+		connectionManager.setDefaultMaxPerRoute(maxConnections);
+		
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(connectTimeout)
+				.setSocketTimeout(readTimeout)
+				.setConnectionRequestTimeout(connectTimeout)
+				.setContentCompressionEnabled(gzip)
+				.build();
+		
+		ConnectionKeepAliveStrategy keepAliveStrategy = new DefaultConnectionKeepAliveStrategy() {
+			@Override
+			public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+				long duration = super.getKeepAliveDuration(response, context);
+				return duration > 0 ? duration : keepAlive;
+			}
+		};
+		
+		HttpClientBuilder builder = HttpClientBuilder.create()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.setKeepAliveStrategy(keepAliveStrategy)
+				.evictExpiredConnections()
+				.evictIdleConnections(keepAlive, TimeUnit.MILLISECONDS)
+				// every retry is left to the RetryingHttpTransport, with its budget, backoff and deadline
+				.disableAutomaticRetries();
+		if (!gzip) {
+			builder.disableContentCompression();
+		}
+		this.client = builder.build();
+	}
+
+	/**
+	 * @see com.goeuro.devTest.impl.HttpTransport#get(java.lang.String, java.util.Map)
+	 */
+	public TransportResponse get(String url, Map<String, String> headers) throws IOException {
+		HttpGet request;
+		try {
+			request = new HttpGet(url);
+		} catch (IllegalArgumentException e) {
+			MalformedURLException mue = new MalformedURLException(e.getLocalizedMessage());
+			mue.initCause(e);
+			throw mue;
+		}
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			request.setHeader(header.getKey(), header.getValue());
+		}
+		
+		CloseableHttpResponse response = client.execute(request);
+		Map<String, String> responseHeaders = new HashMap<String, String>();
+		for (Header header : response.getAllHeaders()) {
+			responseHeaders.put(header.getName(), header.getValue());
+		}
+		HttpEntity entity = response.getEntity();
+		if (entity == null) {
+			response.close();
+			return new TransportResponse(response.getStatusLine().getStatusCode(), responseHeaders, 
+					new ByteArrayInputStream(new byte[0]));
+		}
+		if (response.getStatusLine().getStatusCode() >= 300) {
+			// error bodies are small, read them fully so the connection can be reused
+			byte[] content = EntityUtils.toByteArray(entity);
+			response.close();
+			return new TransportResponse(response.getStatusLine().getStatusCode(), responseHeaders, 
+					new ByteArrayInputStream(content));
+		}
+		return new TransportResponse(response.getStatusLine().getStatusCode(), responseHeaders, entity.getContent());
+	}
+
+	/**
+	 * Closes every pooled connection.
+	 */
+	public void close() throws IOException {
+		client.close();
+	}
+	
+	/**
+	 * Records the time to resolve host names as {@link QueryMetrics.Phase#DNS}.
+	 */
+	static class MeasuringDnsResolver implements DnsResolver {
+		
+		private final QueryMetrics metrics;
+		
+		MeasuringDnsResolver(QueryMetrics metrics) {
+			this.metrics = metrics;
+		}
+		
+		public InetAddress[] resolve(String host) throws UnknownHostException {
+			long start = System.nanoTime();
+			try {
+				return SystemDefaultDnsResolver.INSTANCE.resolve(host);
+			} finally {
+				metrics.record(QueryMetrics.Phase.DNS, System.nanoTime() - start);
+			}
+		}
+	}
+	
+	/**
+	 * Records the time to connect, including the TLS handshake, as {@link QueryMetrics.Phase#CONNECT}.
+	 */
+	private static class MeasuringSocketFactory implements ConnectionSocketFactory {
+		
+		private final ConnectionSocketFactory factory;
+		
+		private final QueryMetrics metrics;
+		
+		MeasuringSocketFactory(ConnectionSocketFactory factory, QueryMetrics metrics) {
+			this.factory = factory;
+			this.metrics = metrics;
+		}
+		
+		public Socket createSocket(HttpContext context) throws IOException {
+			return factory.createSocket(context);
+		}
+		
+		public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host, InetSocketAddress remoteAddress,
+				InetSocketAddress localAddress, HttpContext context) throws IOException {
+			long start = System.nanoTime();
+			try {
+				return factory.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+			} finally {
+				metrics.record(QueryMetrics.Phase.CONNECT, System.nanoTime() - start);
+			}
+		}
+	}
+}
@@ -0,0 +1,385 @@
+package com.goeuro.devTest.impl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.time.FastDateFormat;
+
+import com.goeuro.devTest.QueryProcessorException;
+
+/**
+ * Latencies per {@link Phase} and counters of the queries sent to the endpoint, shared by every query of a processor.
+ * Exposed over JMX once {@link #register()}ed and optionally dumped to a file periodically with {@link #startDump(File, long)}.
+ * Recording only increments counters, so that the metrics can be left on.
+ */
+public class QueryMetrics implements QueryMetricsMXBean, Closeable {
+
+	/**
+	 * Name under which the metrics are registered.
+	 */
+	public static final String OBJECT_NAME = "com.goeuro.devTest:type=QueryMetrics";
+
+	private static final FastDateFormat DUMP_DATE_FORMAT = FastDateFormat.getInstance("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+
+	/**
+	 * The phases of a query.
+	 */
+	public enum Phase {
+
+		/**
+		 * Resolving the host name of the endpoint, only when a new connection is opened.
+		 */
+		DNS,
+
+		/**
+		 * Opening a new connection, including the TLS handshake.
+		 */
+		CONNECT,
+
+		/**
+		 * From sending the request until the response headers are received, including {@link #DNS} and {@link #CONNECT}.
+		 */
+		RESPONSE,
+
+		/**
+		 * Reading and parsing the reply, excluding {@link #WRITE}.
+		 */
+		PARSE,
+
+		/**
+		 * Writing the locations to the sink, formatting and disk writes included.
+		 */
+		WRITE,
+
+		/**
+		 * The whole query.
+		 */
+		TOTAL
+	}
+
+	private final Map<Phase, LatencyHistogram> latencies = new EnumMap<Phase, LatencyHistogram>(Phase.class);
+
+	private final LongAdder queries = new LongAdder();
+
+	private final LongAdder records = new LongAdder();
+
+	private final LongAdder bytesIn = new LongAdder();
+
+	private final LongAdder bytesOut = new LongAdder();
+
+	private final LongAdder failures = new LongAdder();
+
+	private final LongAdder rejections = new LongAdder();
+
+	private final LongAdder throttled = new LongAdder();
+
+	/**
+	 * A gauge, not cleared by {@link #reset()}.
+	 */
+	private volatile double requestLimit;
+
+	private final ConcurrentMap<String, LongAdder> failuresByType = new ConcurrentHashMap<String, LongAdder>();
+
+	private ObjectName registeredName;
+
+	private ScheduledExecutorService dumper;
+
+	private File dumpFile;
+
+	public QueryMetrics() {
+		for (Phase phase : Phase.values()) {
+			latencies.put(phase, new LatencyHistogram());
+		}
+	}
+
+	/**
+	 * @param phase
+	 * @param nanos the duration of the phase
+	 */
+	public void record(Phase phase, long nanos) {
+		latencies.get(phase).record(nanos);
+	}
+
+	/**
+	 * Counts a query sent to the endpoint.
+	 */
+	public void addQuery() {
+		queries.increment();
+	}
+
+	public void addRecords(long count) {
+		records.add(count);
+	}
+
+	public void addBytesIn(long count) {
+		bytesIn.add(count);
+	}
+
+	public void addBytesOut(long count) {
+		bytesOut.add(count);
+	}
+
+	/**
+	 * Counts a request rejected by the {@link LimitingHttpTransport}.
+	 */
+	public void addRejection() {
+		rejections.increment();
+	}
+
+	/**
+	 * Counts a {@code 429} response.
+	 */
+	public void addThrottled() {
+		throttled.increment();
+	}
+
+	/**
+	 * @param requestLimit the current limit of the {@link LimitingHttpTransport}
+	 */
+	public void setRequestLimit(double requestLimit) {
+		this.requestLimit = requestLimit;
+	}
+
+	/**
+	 * Counts a failed query by the type of its cause, the cause of a {@link QueryProcessorException}
+	 * when it has one.
+	 *
+	 * @param failure why the query failed
+	 */
+	public void addFailure(Throwable failure) {
+		Validate.notNull(failure);
+
+		Throwable cause = failure instanceof QueryProcessorException && failure.getCause() != null
+				? failure.getCause() : failure;
+		failures.increment();
+		LongAdder count = failuresByType.get(cause.getClass().getSimpleName());
+		if (count == null) {
+			LongAdder created = new LongAdder();
+			count = failuresByType.putIfAbsent(cause.getClass().getSimpleName(), created);
+			if (count == null) {
+				count = created;
+			}
+		}
+		count.increment();
+	}
+
+	/**
+	 * @param phase
+	 * @return the latencies of the phase
+	 */
+	public LatencyHistogram getLatency(Phase phase) {
+		return latencies.get(phase);
+	}
+
+	public long getQueries() {
+		return queries.sum();
+	}
+
+	public long getRecords() {
+		return records.sum();
+	}
+
+	public long getBytesIn() {
+		return bytesIn.sum();
+	}
+
+	public long getBytesOut() {
+		return bytesOut.sum();
+	}
+
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	public long getRejections() {
+		return rejections.sum();
+	}
+
+	public long getThrottled() {
+		return throttled.sum();
+	}
+
+	public double getRequestLimit() {
+		return requestLimit;
+	}
+
+	public Map<String, Long> getFailuresByType() {
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (Map.Entry<String, LongAdder> entry : failuresByType.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().sum());
+		}
+		return result;
+	}
+
+	public Map<String, LatencyHistogram.Snapshot> getLatencies() {
+		Map<String, LatencyHistogram.Snapshot> result = new LinkedHashMap<String, LatencyHistogram.Snapshot>();
+		for (Map.Entry<Phase, LatencyHistogram> entry : latencies.entrySet()) {
+			result.put(entry.getKey().name(), entry.getValue().snapshot());
+		}
+		return result;
+	}
+
+	public void reset() {
+		for (LatencyHistogram histogram : latencies.values()) {
+			histogram.reset();
+		}
+		queries.reset();
+		records.reset();
+		bytesIn.reset();
+		bytesOut.reset();
+		failures.reset();
+		rejections.reset();
+		throttled.reset();
+		failuresByType.clear();
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server as {@value #OBJECT_NAME}, replacing any metrics registered before.
+	 *
+	 * @throws IllegalStateException if the metrics cannot be registered
+	 */
+	public synchronized void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(this, name);
+			registeredName = name;
+		} catch (JMException e) {
+			throw new IllegalStateException("Cannot register " + OBJECT_NAME, e);
+		}
+	}
+
+	/**
+	 * Appends the metrics to {@code file} every {@code period} milliseconds, and once more when closed.
+	 *
+	 * @param file the file to append to
+	 * @param period milliseconds between dumps, must be positive
+	 * @throws NullPointerException if {@code file} is {@code null}
+	 * @throws IllegalArgumentException if {@code period} is not positive
+	 * @throws IllegalStateException if already dumping
+	 */
+	public synchronized void startDump(File file, long period) {
+		Validate.notNull(file);
+		Validate.isTrue(period > 0, "period must be positive: %d", period);
+		Validate.validState(dumper == null, "Already dumping to %s", dumpFile);
+
+		dumpFile = file;
+		dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "query-metrics-dump");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		dumper.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				dumpQuietly();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Appends the current metrics to the file, see {@link #toString()}.
+	 *
+	 * @param file the file to append to
+	 * @throws IOException when the file cannot be written
+	 */
+	public void dump(File file) throws IOException {
+		Validate.notNull(file);
+
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.exists()) {
+			parent.mkdirs();
+		}
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+		try {
+			writer.write(DUMP_DATE_FORMAT.format(new Date()));
+			writer.write(System.lineSeparator());
+			writer.write(this.toString());
+			writer.write(System.lineSeparator());
+		} finally {
+			IOUtils.closeQuietly(writer);
+		}
+	}
+
+	/**
+	 * Stops dumping after a last dump and unregisters the metrics from JMX.
+	 */
+	public synchronized void close() throws IOException {
+		try {
+			if (dumper != null) {
+				dumper.shutdownNow();
+				dumper = null;
+				this.dump(dumpFile);
+			}
+		} finally {
+			if (registeredName != null) {
+				try {
+					ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+				} catch (JMException e) {
+					// already unregistered
+				}
+				registeredName = null;
+			}
+		}
+	}
+
+	/**
+	 * @return the counters and the latencies of every phase, one per line
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("queries=").append(this.getQueries())
+				.append(" records=").append(this.getRecords())
+				.append(" bytesIn=").append(this.getBytesIn())
+				.append(" bytesOut=").append(this.getBytesOut())
+				.append(" failures=").append(this.getFailures())
+				.append(' ').append(this.getFailuresByType());
+		if (requestLimit > 0) {
+			sb.append(" requestLimit=").append(requestLimit)
+					.append(" rejections=").append(this.getRejections())
+					.append(" throttled=").append(this.getThrottled());
+		}
+		for (Map.Entry<String, LatencyHistogram.Snapshot> entry : this.getLatencies().entrySet()) {
+			sb.append(System.lineSeparator()).append(entry.getKey()).append(' ').append(entry.getValue());
+		}
+		return sb.toString();
+	}
+
+	private synchronized void dumpQuietly() {
+		try {
+			if (dumper != null) {
+				this.dump(dumpFile);
+			}
+		} catch (IOException e) {
+			// retried on the next period
+		}
+	}
+}
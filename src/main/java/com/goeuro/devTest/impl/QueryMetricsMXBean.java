@@ -0,0 +1,65 @@
+package com.goeuro.devTest.impl;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link QueryMetrics}, registered as {@value QueryMetrics#OBJECT_NAME}.
+ */
+public interface QueryMetricsMXBean {
+
+	/**
+	 * @return the number of queries sent to the endpoint
+	 */
+	long getQueries();
+
+	/**
+	 * @return the number of locations read from the replies
+	 */
+	long getRecords();
+
+	/**
+	 * @return the number of bytes read from the replies, after decompression
+	 */
+	long getBytesIn();
+
+	/**
+	 * @return the number of bytes written to files
+	 */
+	long getBytesOut();
+
+	/**
+	 * @return the number of failed queries
+	 */
+	long getFailures();
+
+	/**
+	 * @return the number of requests rejected by the {@link LimitingHttpTransport}
+	 */
+	long getRejections();
+
+	/**
+	 * @return the number of {@code 429} responses seen by the {@link LimitingHttpTransport}
+	 */
+	long getThrottled();
+
+	/**
+	 * @return the current limit of the {@link LimitingHttpTransport}, requests per second or in flight depending on its mode,
+	 * 0 without limit
+	 */
+	double getRequestLimit();
+
+	/**
+	 * @return the number of failed queries by the simple class name of their cause
+	 */
+	Map<String, Long> getFailuresByType();
+
+	/**
+	 * @return the latencies in milliseconds by {@link QueryMetrics.Phase} name
+	 */
+	Map<String, LatencyHistogram.Snapshot> getLatencies();
+
+	/**
+	 * Clears every counter and latency.
+	 */
+	void reset();
+}
@@ -5,53 +5,76 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
-import java.net.URL;
 import java.net.URLEncoder;
-import java.util.Date;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
 
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
 import org.apache.commons.lang3.Validate;
-import org.apache.commons.lang3.time.FastDateFormat;
 
+import com.goeuro.devTest.LocationSink;
 import com.goeuro.devTest.QueryProcessor;
+import com.goeuro.devTest.QueryOptions;
 import com.goeuro.devTest.QueryProcessorException;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
 import com.google.gson.stream.JsonReader;
 
 /**
  * Default implementation of {@link QueryProcessor}, uses streaming read of the returned JSON 
  * and immediately writes location to CSV to minimize memory use.
  */
-public class QueryProcessorImpl implements QueryProcessor {
+public class QueryProcessorImpl extends AbstractQueryProcessor {
 	
-	/**
-	 * Format for the resulting CSV files.
-	 */
-	private static final String FILENAME_FORMAT = "yyyyMMdd-HHmmssSSS";
-
 	/**
 	 * This is the URL prepended to the location being queried to form the proper API call.
 	 */
 	private final String endpointBaseUrl;
 	
 	/**
-	 * The path of the base directory where the generated CSVs will be located.
+	 * The expected Encoding of the returned JSON, will also be used for writing the CSV.
+	 */
+	private final String jsonEncoding;
+	
+	/**
+	 * {@code jsonEncoding} if it can be scanned as bytes, otherwise {@code null}.
 	 */
-	private final String csvBaseDirectory;
+	private final Charset byteCharset;
 	
 	/**
-	 * The expected Encoding of the returned JSON, will also be used for writing the CSV.
+	 * Executes the requests to the endpoint, created with the defaults on first use if not set.
 	 */
-	private final String jsonEncoding;
+	private HttpTransport transport;
 	
 	/**
-	 * Used to format the name of the resulting CSV files.
+	 * Reads the JSON returned by the endpoint.
 	 */
-	private final FastDateFormat format;
+	private volatile LocationParser parser = ParsingMode.GSON.createParser();
+	
+	/**
+	 * Reads the bytes of the JSON returned by the endpoint when the parsing mode does, otherwise {@code null}.
+	 */
+	private volatile ByteLocationParser byteParser;
+	
+	/**
+	 * The locations kept and the columns read from every reply, applied while parsing.
+	 */
+	private volatile QueryOptions queryOptions = QueryOptions.ALL;
+	
+	private ParsingMode parsingMode = ParsingMode.GSON;
+	
+	private boolean directBuffers;
 	
 	/**
 	 * @param endpointBaseUrl the URL prepended to the location being queried to form the proper API call.
@@ -62,90 +85,450 @@ public class QueryProcessorImpl implements QueryProcessor {
      * @throws IllegalArgumentException if {@code endpointBaseUrl} or {@code csvBaseDirectory} or {@code jsonEncoding} is blank
 	 */
 	public QueryProcessorImpl(String endpointBaseUrl, String csvBaseDirectory, String jsonEncoding) {
+		super(csvBaseDirectory, jsonEncoding);
 		Validate.notBlank(endpointBaseUrl);
-		Validate.notBlank(csvBaseDirectory);
-		Validate.notBlank(jsonEncoding);
 		
 		if (!endpointBaseUrl.endsWith("/")) {
 			endpointBaseUrl = endpointBaseUrl + "/";
 		}
 		this.endpointBaseUrl = endpointBaseUrl;
-		this.csvBaseDirectory = csvBaseDirectory;
 		this.jsonEncoding = jsonEncoding;
-		this.format = FastDateFormat.getInstance(FILENAME_FORMAT);
+		this.byteCharset = Charset.isSupported(jsonEncoding) && ByteLocationParser.supports(Charset.forName(jsonEncoding))
+				? Charset.forName(jsonEncoding) : null;
+	}
+
+	/**
+	 * @param transport executes the requests to the endpoint, will be closed together with this processor
+	 * @throws NullPointerException if {@code transport} is {@code null}
+	 */
+	public synchronized void setTransport(HttpTransport transport) {
+		Validate.notNull(transport);
+		this.transport = transport;
+	}
+	
+	/**
+	 * @param parsingMode how the JSON returned by the endpoint is read, {@link ParsingMode#GSON} by default
+	 * @throws NullPointerException if {@code parsingMode} is {@code null}
+	 */
+	public synchronized void setParsingMode(ParsingMode parsingMode) {
+		Validate.notNull(parsingMode);
+		this.parsingMode = parsingMode;
+		this.parser = parsingMode.createParser();
+		this.byteParser = parsingMode.createByteParser(directBuffers);
+	}
+	
+	/**
+	 * @param directBuffers whether {@link ParsingMode#BYTES} reads the reply into buffers outside of the heap, 
+	 * {@code false} by default
+	 */
+	public synchronized void setDirectBuffers(boolean directBuffers) {
+		this.directBuffers = directBuffers;
+		this.byteParser = parsingMode.createByteParser(directBuffers);
+	}
+	
+	/**
+	 * @param queryOptions the locations kept and the columns read from every reply, {@link QueryOptions#ALL} by default
+	 * @throws NullPointerException if {@code queryOptions} is {@code null}
+	 */
+	public void setQueryOptions(QueryOptions queryOptions) {
+		Validate.notNull(queryOptions);
+		this.queryOptions = queryOptions;
+	}
+	
+	public QueryOptions getQueryOptions() {
+		return queryOptions;
+	}
+	
+	/**
+	 * @return the transport, a {@link PooledHttpTransport} with the defaults if none was set
+	 */
+	protected synchronized HttpTransport getTransport() {
+		if (transport == null) {
+			transport = new PooledHttpTransport();
+		}
+		return transport;
 	}
+	
+	/**
+	 * Uses streaming read of the returned JSON and immediately writes every location to the sink to minimize memory use.
+	 * Runs the asynchronous query on the calling thread.
+	 * @see com.goeuro.devTest.QueryProcessor#process(java.lang.String, com.goeuro.devTest.LocationSink)
+	 */
+	public void process(String location, LocationSink sink) throws QueryProcessorException {
+		Validate.notBlank(location);
+		Validate.notNull(sink);
 
+		Futures.await(this.processAsync(location, sink, Futures.DIRECT, new CompletableFuture<Void>()));
+	}
+	
 	/**
-	 * Uses streaming read of the returned JSON and immediately writes location to CSV to minimize memory use.
-	 * The name of the CSV will be in timestamp format.
-	 * @see com.goeuro.devTest.QueryProcessor#process(java.lang.String)
+	 * Applies {@code options} instead of the configured ones while parsing, skipping what they leave out.
+	 * @see com.goeuro.devTest.QueryProcessor#process(java.lang.String, com.goeuro.devTest.LocationSink, com.goeuro.devTest.QueryOptions)
 	 */
-	public File process(String location) throws QueryProcessorException {
-		File file = null;
+	@Override
+	public void process(String location, LocationSink sink, QueryOptions options) throws QueryProcessorException {
 		Validate.notBlank(location);
+		Validate.notNull(sink);
+		Validate.notNull(options);
 
-		InputStream inputStream = null;
+		Futures.await(this.processAsync(location, sink, Futures.DIRECT, new CompletableFuture<Void>(), options));
+	}
+	
+	/**
+	 * Requests the reply through {@link #getUrlInputStreamAsync(String, Executor)} and parses it on {@code executor}
+	 * once it arrives, so that no thread waits for the endpoint when the transport is an {@link AsyncHttpTransport}.
+	 * @see com.goeuro.devTest.impl.AbstractQueryProcessor#processAsync(java.lang.String, com.goeuro.devTest.LocationSink, java.util.concurrent.Executor, java.util.concurrent.CompletableFuture)
+	 */
+	@Override
+	protected CompletableFuture<Void> processAsync(String location, LocationSink sink, Executor executor,
+			CompletableFuture<?> cancellation) {
+		return this.processAsync(location, sink, executor, cancellation, queryOptions);
+	}
+	
+	private CompletableFuture<Void> processAsync(final String location, final LocationSink sink, Executor executor,
+			CompletableFuture<?> cancellation, final QueryOptions options) {
+		final QueryMetrics metrics = this.getMetrics();
+		final long start = System.nanoTime();
+		if (metrics != null) {
+			metrics.addQuery();
+		}
+		final CompletableFuture<Void> result = new CompletableFuture<Void>();
+		final CompletableFuture<InputStream> body = this.getUrlInputStreamAsync(location, executor);
+		cancellation.whenComplete(new BiConsumer<Object, Throwable>() {
+			public void accept(Object ignored, Throwable failure) {
+				body.cancel(false);
+			}
+		});
+		body.whenCompleteAsync(new BiConsumer<InputStream, Throwable>() {
+			public void accept(InputStream inputStream, Throwable failure) {
+				Throwable error = failure == null ? null : Futures.unwrap(failure);
+				try {
+					if (error == null) {
+						parse(inputStream, sink, options, metrics, start);
+					}
+				} catch (Throwable t) {
+					error = t;
+				} finally {
+					IOUtils.closeQuietly(inputStream);
+					if (metrics != null) {
+						metrics.record(QueryMetrics.Phase.TOTAL, System.nanoTime() - start);
+					}
+				}
+				if (error == null) {
+					result.complete(null);
+				} else {
+					result.completeExceptionally(failed(metrics, location, error));
+				}
+			}
+		}, executor);
+		return result;
+	}
+	
+	/**
+	 * Conditional variant of {@link #process(String, LocationSink)}, sends the given validators 
+	 * as {@code If-None-Match} and {@code If-Modified-Since}.
+	 * 
+	 * @param location
+	 * @param sink receives the locations unless the endpoint answers {@code 304 Not Modified}
+	 * @param validators of the previously received reply, may be {@code null}
+	 * @return the validators of the new reply, or {@code null} if the endpoint answered {@code 304 Not Modified}
+	 * @throws QueryProcessorException when there are problems with processing the JSON or writing to the sink
+	 */
+	public CacheValidators process(String location, LocationSink sink, CacheValidators validators) throws QueryProcessorException {
+		return this.process(location, sink, validators, queryOptions);
+	}
+	
+	/**
+	 * Like {@link #process(String, LocationSink, CacheValidators)}, applying {@code options} instead of the configured ones.
+	 * 
+	 * @param location
+	 * @param sink receives the locations kept unless the endpoint answers {@code 304 Not Modified}
+	 * @param validators of the previously received reply, may be {@code null}
+	 * @param options the locations kept and the columns read
+	 * @return the validators of the new reply, or {@code null} if the endpoint answered {@code 304 Not Modified}
+	 * @throws QueryProcessorException when there are problems with processing the JSON or writing to the sink
+	 */
+	public CacheValidators process(String location, LocationSink sink, CacheValidators validators, QueryOptions options) 
+			throws QueryProcessorException {
+		Validate.notBlank(location);
+		Validate.notNull(sink);
+		Validate.notNull(options);
+		
+		Map<String, String> headers = new HashMap<String, String>();
+		if (validators != null && validators.getEtag() != null) {
+			headers.put("If-None-Match", validators.getEtag());
+		}
+		if (validators != null && validators.getLastModified() != null) {
+			headers.put("If-Modified-Since", validators.getLastModified());
+		}
+		
+		QueryMetrics metrics = this.getMetrics();
+		long start = System.nanoTime();
+		if (metrics != null) {
+			metrics.addQuery();
+		}
+		TransportResponse response = null;
+		try {
+			String url = this.getUrl(location);
+			response = this.getTransport().get(url, headers);
+			if (response.getStatus() == HttpURLConnection.HTTP_NOT_MODIFIED && !headers.isEmpty()) {
+				return null;
+			}
+			if (!response.isSuccessful()) {
+				throw new HttpStatusException(url, response.getStatus());
+			}
+			this.parse(response.getBody(), sink, options, metrics, start);
+			return new CacheValidators(response.getHeader("ETag"), response.getHeader("Last-Modified"));
+		} catch (MalformedURLException mue) {
+			throw this.failed(metrics, new QueryProcessorException("Exception with the using the base url \"" 
+					+ this.endpointBaseUrl + "\" and location \"" + location + "\"", mue));
+		} catch (IOException ioe) {
+			throw this.failed(metrics, new QueryProcessorException(ioe.getLocalizedMessage(), ioe));
+		} catch (JsonParseException jpe) {
+			throw this.failed(metrics, new QueryProcessorException(jpe.getLocalizedMessage(), jpe));
+		} finally {
+			IOUtils.closeQuietly(response);
+			if (metrics != null) {
+				metrics.record(QueryMetrics.Phase.TOTAL, System.nanoTime() - start);
+			}
+		}
+	}
+	
+	/**
+	 * Parses the reply, recording the {@link QueryMetrics.Phase#RESPONSE}, {@link QueryMetrics.Phase#PARSE} 
+	 * and {@link QueryMetrics.Phase#WRITE} phases, the records and the bytes read when {@code metrics} is not {@code null}.
+	 * 
+	 * @param inputStream the JSON reply
+	 * @param sink receives the locations
+	 * @param options the locations kept and the columns read
+	 * @param metrics may be {@code null}
+	 * @param start when the request was sent, as by {@link System#nanoTime()}
+	 * @throws IOException
+	 */
+	private void parse(InputStream inputStream, LocationSink sink, QueryOptions options, QueryMetrics metrics, long start) 
+			throws IOException {
+		if (metrics == null) {
+			this.parse(inputStream, sink, options);
+			return;
+		}
+		
+		long responded = System.nanoTime();
+		metrics.record(QueryMetrics.Phase.RESPONSE, responded - start);
+		CountingInputStream countingStream = new CountingInputStream(inputStream);
+		MeasuringLocationSink measuringSink = new MeasuringLocationSink(sink);
+		try {
+			this.parse(countingStream, measuringSink, options);
+		} finally {
+			metrics.record(QueryMetrics.Phase.PARSE, System.nanoTime() - responded - measuringSink.nanos);
+			metrics.record(QueryMetrics.Phase.WRITE, measuringSink.nanos);
+			metrics.addRecords(measuringSink.records);
+			metrics.addBytesIn(countingStream.getByteCount());
+		}
+	}
+	
+	/**
+	 * Reads the JSON array of locations in {@code jsonEncoding} and writes each one kept by {@code options} 
+	 * to the sink as soon as it is read.
+	 * 
+	 * @param inputStream the JSON reply
+	 * @param sink receives the locations
+	 * @param options the locations kept and the columns read
+	 * @throws IOException
+	 */
+	protected void parse(InputStream inputStream, LocationSink sink, QueryOptions options) throws IOException {
+		ByteLocationParser currentByteParser = byteParser;
+		if (currentByteParser != null && byteCharset != null) {
+			currentByteParser.parse(Channels.newChannel(inputStream), byteCharset, sink, options);
+			return;
+		}
+		
 		InputStreamReader inputStreamReader = null;
 		BufferedReader bufferedReader = null;
 		JsonReader reader = null;
 
 		try {
 			// prepare JSON reader
-			inputStream = this.getUrlInputStream(location);
-			inputStreamReader = new InputStreamReader(inputStream);
+			inputStreamReader = new InputStreamReader(inputStream, jsonEncoding);
 			bufferedReader = new BufferedReader(inputStreamReader);
 			reader = new JsonReader(bufferedReader);
-			Gson gson = new GsonBuilder().create();
-			reader.beginArray();
-	        
-			this.createDirectoryIfNotExisting(this.csvBaseDirectory);
-			String filename = format.format(new Date()) + ".csv";
-			file = new File(this.csvBaseDirectory, filename);
-			this.createFile(file);
-			
-			while (reader.hasNext()) {
-	            // Read data into object model
-	            LocationJson json = gson.fromJson(reader, LocationJson.class);
-	            this.writeCsv(file, CSVFormat.DEFAULT.format(this.flatten(json)) + System.lineSeparator(), jsonEncoding, true);
-	        }
-		} catch (MalformedURLException mue) {
-			throw new QueryProcessorException("Exception with the using the base url \"" 
-					+ this.endpointBaseUrl + "\" and location \"" + location + "\"", mue);
-		} catch (IOException ioe) {
-			throw new QueryProcessorException(ioe.getLocalizedMessage(), ioe);
+			parser.parse(reader, sink, options);
 		} finally {
 			IOUtils.closeQuietly(reader);
 			IOUtils.closeQuietly(bufferedReader);
 			IOUtils.closeQuietly(inputStreamReader);
-			IOUtils.closeQuietly(inputStream);
 		}
-		
-		return file;
 	}
 
+	/**
+	 * With {@link ParsingMode#BYTES} the file is written through a {@link FileChannel}, 
+	 * see {@link com.goeuro.devTest.OutputFormat#createSink(java.nio.channels.WritableByteChannel, String, int)}.
+	 * @see com.goeuro.devTest.impl.AbstractQueryProcessor#createSink(java.io.File)
+	 */
+	@Override
+	protected LocationSink createSink(File file) throws IOException {
+		if (byteParser == null) {
+			return super.createSink(file);
+		}
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		try {
+			return this.getOutputFormat().createSink(channel, this.getCsvEncoding(), this.getBufferSize());
+		} catch (IOException ioe) {
+			IOUtils.closeQuietly(channel);
+			throw ioe;
+		}
+	}
+
+	/**
+	 * Counts the failure when {@code metrics} is not {@code null}.
+	 * 
+	 * @return {@code exception}, to be thrown
+	 */
+	private QueryProcessorException failed(QueryMetrics metrics, QueryProcessorException exception) {
+		if (metrics != null) {
+			metrics.addFailure(exception);
+		}
+		return exception;
+	}
+	
+	/**
+	 * Wraps the checked failures of an asynchronous query in a {@link QueryProcessorException}, 
+	 * counted when {@code metrics} is not {@code null}.
+	 * 
+	 * @return the failure of the query
+	 */
+	private Throwable failed(QueryMetrics metrics, String location, Throwable error) {
+		if (error instanceof MalformedURLException) {
+			return this.failed(metrics, new QueryProcessorException("Exception with the using the base url \"" 
+					+ this.endpointBaseUrl + "\" and location \"" + location + "\"", error));
+		}
+		if (error instanceof IOException || error instanceof JsonParseException) {
+			return this.failed(metrics, new QueryProcessorException(error.getLocalizedMessage(), error));
+		}
+		if (error instanceof QueryProcessorException) {
+			return this.failed(metrics, (QueryProcessorException) error);
+		}
+		return error;
+	}
+	
+	/**
+	 * Requests the reply without blocking if the transport is an {@link AsyncHttpTransport}, 
+	 * otherwise runs {@link #getUrlInputStream(String)} on {@code executor}.
+	 * A reply arriving after the future was cancelled is closed.
+	 * 
+	 * @param location appended to the base URL
+	 * @param executor runs the blocking request
+	 * @return completed with the URL's input stream, already decompressed, 
+	 * or failed with an {@link IOException}, e.g. an {@link HttpStatusException} if the endpoint does not answer with 2xx
+	 */
+	protected CompletableFuture<InputStream> getUrlInputStreamAsync(final String location, Executor executor) {
+		final CompletableFuture<InputStream> body = new CompletableFuture<InputStream>();
+		AsyncHttpTransport asyncTransport = this.getAsyncTransport();
+		if (asyncTransport == null) {
+			try {
+				executor.execute(new Runnable() {
+					public void run() {
+						if (body.isDone()) {
+							return;
+						}
+						try {
+							InputStream inputStream = getUrlInputStream(location);
+							if (!body.complete(inputStream)) {
+								IOUtils.closeQuietly(inputStream);
+							}
+						} catch (Throwable t) {
+							body.completeExceptionally(t);
+						}
+					}
+				});
+			} catch (RejectedExecutionException ree) {
+				body.completeExceptionally(ree);
+			}
+			return body;
+		}
+		
+		final String url;
+		try {
+			url = this.getUrl(location);
+		} catch (IOException ioe) {
+			body.completeExceptionally(ioe);
+			return body;
+		}
+		final CompletableFuture<TransportResponse> request = asyncTransport.getAsync(url, Collections.<String, String>emptyMap());
+		request.whenComplete(new BiConsumer<TransportResponse, Throwable>() {
+			public void accept(TransportResponse response, Throwable failure) {
+				if (failure != null) {
+					body.completeExceptionally(Futures.unwrap(failure));
+				} else if (!response.isSuccessful()) {
+					IOUtils.closeQuietly(response);
+					body.completeExceptionally(new HttpStatusException(url, response.getStatus()));
+				} else if (!body.complete(response.getBody())) {
+					IOUtils.closeQuietly(response);
+				}
+			}
+		});
+		body.whenComplete(new BiConsumer<InputStream, Throwable>() {
+			public void accept(InputStream inputStream, Throwable failure) {
+				if (body.isCancelled()) {
+					request.cancel(true);
+				}
+			}
+		});
+		return body;
+	}
+	
 	/**
 	 * @param location appended to the base URL
-	 * @return the URL's input stream
+	 * @return the URL's input stream, already decompressed
 	 * @throws MalformedURLException
+	 * @throws HttpStatusException if the endpoint does not answer with 2xx
 	 * @throws IOException
 	 */
 	protected InputStream getUrlInputStream(String location) throws MalformedURLException, IOException {
-		InputStream inputStream;
-		String encoded = this.endpointBaseUrl 
-				+ URLEncoder.encode(location, jsonEncoding).replace("+", "%20");
-		URL url = new URL(encoded);
-		inputStream = url.openStream();
+		String url = this.getUrl(location);
+		TransportResponse response = this.getTransport().get(url, Collections.<String, String>emptyMap());
+		if (!response.isSuccessful()) {
+			response.close();
+			throw new HttpStatusException(url, response.getStatus());
+		}
 		
-		return inputStream;
+		return response.getBody();
 	}
-
+	
+	/**
+	 * @return the transport if it is an {@link AsyncHttpTransport}, otherwise {@code null}, without creating the default one
+	 */
+	private synchronized AsyncHttpTransport getAsyncTransport() {
+		return transport instanceof AsyncHttpTransport ? (AsyncHttpTransport) transport : null;
+	}
+	
 	/**
-	 * Write CSV String to file.
+	 * @param location appended to the base URL
+	 * @return the URL of the query for {@code location}
+	 * @throws IOException if {@code jsonEncoding} is not supported
 	 */
-	protected void writeCsv(File file, String csv, String encoding, boolean append) throws IOException {
-		FileUtils.write(file, csv, encoding, append);
+	protected String getUrl(String location) throws IOException {
+		return this.endpointBaseUrl + URLEncoder.encode(location, jsonEncoding).replace("+", "%20");
 	}
 	
+	/**
+	 * Closes the transport and its pooled connections, the metrics if set and the default executor.
+	 */
+	public synchronized void close() throws IOException {
+		try {
+			if (transport != null) {
+				transport.close();
+			}
+		} finally {
+			try {
+				if (this.getMetrics() != null) {
+					this.getMetrics().close();
+				}
+			} finally {
+				super.close();
+			}
+		}
+	}
+
 	/**
 	 * @param non-flat JSON representation of a location.
 	 * @return an {@code Object} array as a flat representation of the given {@code LocationJson} object.
@@ -161,22 +544,49 @@ public class QueryProcessorImpl implements QueryProcessor {
 	}
 	
 	/**
-	 * @param directory directory to create, must not be blank
+	 * Counts the locations written to the sink and the time spent writing them.
 	 */
-	protected void createDirectoryIfNotExisting(String directory) {
-		Validate.notBlank(csvBaseDirectory);
-		File file = new File(directory);
-		if (!file.exists()) {
-			file.mkdir();
+	private static class MeasuringLocationSink implements ByteLocationSink {
+		
+		private final LocationSink sink;
+		
+		private long records;
+		
+		private long nanos;
+		
+		MeasuringLocationSink(LocationSink sink) {
+			this.sink = sink;
+		}
+		
+		public void write(int id, String name, String type, String latitude, String longitude) throws IOException {
+			long start = System.nanoTime();
+			try {
+				sink.write(id, name, type, latitude, longitude);
+			} finally {
+				nanos += System.nanoTime() - start;
+				records++;
+			}
+		}
+		
+		public void write(LocationBytes location) throws IOException {
+			long start = System.nanoTime();
+			try {
+				if (sink instanceof ByteLocationSink) {
+					((ByteLocationSink) sink).write(location);
+				} else {
+					location.writeTo(sink);
+				}
+			} finally {
+				nanos += System.nanoTime() - start;
+				records++;
+			}
+		}
+		
+		/**
+		 * The sink of a query is not closed by the processor.
+		 */
+		public void close() {
 		}
-	}
-	
-	/**
-	 * @param file the file to create
-	 * @throws IOException
-	 */
-	protected void createFile(File file) throws IOException {
-		file.createNewFile();
 	}
 
 }
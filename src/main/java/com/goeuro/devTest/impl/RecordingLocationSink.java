@@ -0,0 +1,65 @@
+package com.goeuro.devTest.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.goeuro.devTest.LocationSink;
+
+/**
+ * Keeps the locations written to it so that they can be replayed to other sinks.
+ */
+public class RecordingLocationSink implements LocationSink {
+
+	private final List<LocationJson> records = new ArrayList<LocationJson>();
+
+	/**
+	 * @see com.goeuro.devTest.LocationSink#write(int, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+	 */
+	public void write(int id, String name, String type, String latitude, String longitude) {
+		records.add(toLocation(id, name, type, latitude, longitude));
+	}
+
+	/**
+	 * Nothing to close.
+	 */
+	public void close() {
+	}
+
+	/**
+	 * @return the locations written so far, in order
+	 */
+	public List<LocationJson> getRecords() {
+		return records;
+	}
+
+	/**
+	 * @return a new {@link LocationJson} with the given values
+	 */
+	public static LocationJson toLocation(int id, String name, String type, String latitude, String longitude) {
+		GeoPosition geoPosition = new GeoPosition();
+		geoPosition.setLatitude(latitude);
+		geoPosition.setLongitude(longitude);
+
+		LocationJson json = new LocationJson();
+		json.set_id(id);
+		json.setName(name);
+		json.setType(type);
+		json.setGeoPosition(geoPosition);
+		return json;
+	}
+
+	/**
+	 * Write the given locations to {@code sink}, in order.
+	 * 
+	 * @param records the locations to write
+	 * @param sink receives the locations, not closed
+	 * @throws IOException
+	 */
+	public static void replay(List<LocationJson> records, LocationSink sink) throws IOException {
+		for (LocationJson json : records) {
+			sink.write(json.get_id(), json.getName(), json.getType(), 
+					json.getGeoPosition().getLatitude(), json.getGeoPosition().getLongitude());
+		}
+	}
+}
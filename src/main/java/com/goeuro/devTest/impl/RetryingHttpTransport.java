@@ -0,0 +1,682 @@
+package com.goeuro.devTest.impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * {@link HttpTransport} that retries failed requests and hedges slow ones on top of another transport.
+ * <ul>
+ * <li>Requests failing with an {@link IOException} or a {@code 408}, {@code 429} or {@code 5xx} status are retried
+ * up to {@code maxAttempts} times, after an exponential backoff with full jitter.</li>
+ * <li>A request that has not answered after the hedge delay is sent a second time, the first response wins
+ * and the other one is closed when it arrives. The hedge delay is the observed {@code hedgePercentile} of the response times
+ * once enough responses were seen, the fixed {@code hedgeDelay} before.</li>
+ * <li>Every request has a deadline, after which it fails with a {@link SocketTimeoutException} and is not retried.</li>
+ * <li>Retries and hedges draw from a budget refilled by a fraction of the requests, so that they cannot multiply the load
+ * on an endpoint that is down.</li>
+ * </ul>
+ * Only GET requests are sent, which are idempotent. Without hedging nor deadline, the defaults, requests run on the calling
+ * thread, otherwise on virtual threads when available, else on a cached pool.
+ * {@link AsyncRetryingHttpTransport} does the same without blocking over an {@link AsyncHttpTransport}.
+ */
+public class RetryingHttpTransport implements HttpTransport {
+
+	public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+	public static final long DEFAULT_BACKOFF = 100;
+
+	public static final long DEFAULT_MAX_BACKOFF = 2000;
+
+	public static final double DEFAULT_HEDGE_PERCENTILE = 95;
+
+	public static final double DEFAULT_BUDGET_RATIO = 0.1;
+
+	public static final int DEFAULT_BUDGET_MIN = 10;
+
+	/**
+	 * Number of responses after which the hedge delay follows the observed response times.
+	 */
+	static final int MIN_SAMPLES = 20;
+
+	private final HttpTransport delegate;
+
+	private final ExecutorService executor;
+
+	/**
+	 * Response times of the successful requests.
+	 */
+	private final LatencyHistogram latencies = new LatencyHistogram();
+
+	private final RetryBudget budget = new RetryBudget();
+
+	private volatile int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+	private volatile long backoff = DEFAULT_BACKOFF;
+
+	private volatile long maxBackoff = DEFAULT_MAX_BACKOFF;
+
+	/**
+	 * In milliseconds, 0 for none.
+	 */
+	private volatile long deadline;
+
+	/**
+	 * In milliseconds, 0 to disable hedging.
+	 */
+	private volatile long hedgeDelay;
+
+	private volatile double hedgePercentile = DEFAULT_HEDGE_PERCENTILE;
+
+	private final AtomicLong retries = new AtomicLong();
+
+	private final AtomicLong hedges = new AtomicLong();
+
+	private final AtomicLong hedgeWins = new AtomicLong();
+
+	private final AtomicLong budgetExhausted = new AtomicLong();
+
+	/**
+	 * Retries with the defaults, without deadline nor hedging.
+	 *
+	 * @param delegate executes the requests, will be closed together with this transport
+	 * @throws NullPointerException if {@code delegate} is {@code null}
+	 */
+	public RetryingHttpTransport(HttpTransport delegate) {
+		Validate.notNull(delegate);
+
+		this.delegate = delegate;
+		this.executor = createExecutor();
+	}
+
+	/**
+	 * @param maxAttempts the maximum number of attempts of a request, 1 to never retry
+	 * @throws IllegalArgumentException if {@code maxAttempts} is not positive
+	 */
+	public void setMaxAttempts(int maxAttempts) {
+		Validate.isTrue(maxAttempts > 0, "maxAttempts must be positive: %d", maxAttempts);
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * @param backoff milliseconds of the first backoff, doubled on every retry
+	 * @param maxBackoff maximum milliseconds of a backoff
+	 * @throws IllegalArgumentException if {@code backoff} is negative or {@code maxBackoff} is less than {@code backoff}
+	 */
+	public void setBackoff(long backoff, long maxBackoff) {
+		Validate.isTrue(backoff >= 0, "backoff must not be negative: %d", backoff);
+		Validate.isTrue(maxBackoff >= backoff, "maxBackoff must not be less than backoff: %d", maxBackoff);
+		this.backoff = backoff;
+		this.maxBackoff = maxBackoff;
+	}
+
+	/**
+	 * @param deadline milliseconds a request may take including its retries, 0 for none
+	 * @throws IllegalArgumentException if {@code deadline} is negative
+	 */
+	public void setDeadline(long deadline) {
+		Validate.isTrue(deadline >= 0, "deadline must not be negative: %d", deadline);
+		this.deadline = deadline;
+	}
+
+	/**
+	 * @param hedgeDelay milliseconds after which a request is sent again until enough response times were observed, 0 to disable hedging
+	 * @param hedgePercentile the percentile of the observed response times used as hedge delay, 0 to always use {@code hedgeDelay}
+	 * @throws IllegalArgumentException if {@code hedgeDelay} is negative or {@code hedgePercentile} is not between 0 and 100
+	 */
+	public void setHedging(long hedgeDelay, double hedgePercentile) {
+		Validate.isTrue(hedgeDelay >= 0, "hedgeDelay must not be negative: %d", hedgeDelay);
+		Validate.inclusiveBetween(0.0, 100.0, hedgePercentile);
+		this.hedgeDelay = hedgeDelay;
+		this.hedgePercentile = hedgePercentile;
+	}
+
+	/**
+	 * @param ratio retries and hedges allowed per request, on top of {@code min}
+	 * @param min retries and hedges allowed without requests, also the initial budget
+	 * @throws IllegalArgumentException if {@code ratio} or {@code min} is negative
+	 */
+	public void setRetryBudget(double ratio, int min) {
+		Validate.isTrue(ratio >= 0, "ratio must not be negative: %s", ratio);
+		Validate.isTrue(min >= 0, "min must not be negative: %d", min);
+		budget.configure(ratio, min);
+	}
+
+	/**
+	 * @see com.goeuro.devTest.impl.HttpTransport#get(java.lang.String, java.util.Map)
+	 */
+	public TransportResponse get(String url, Map<String, String> headers) throws IOException {
+		long end = deadline == 0 ? Long.MAX_VALUE : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadline);
+		budget.deposit();
+
+		for (int attempt = 1; ; attempt++) {
+			TransportResponse response = null;
+			IOException failure = null;
+			try {
+				response = this.attempt(url, headers, end);
+				if (!isRetryable(response.getStatus())) {
+					return response;
+				}
+			} catch (IOException ioe) {
+				if (!isRetryable(ioe)) {
+					throw ioe;
+				}
+				failure = ioe;
+			}
+
+			long sleep = this.backoff(attempt);
+			if (attempt >= maxAttempts || (end != Long.MAX_VALUE && remaining(end) <= TimeUnit.MILLISECONDS.toNanos(sleep))) {
+				return giveUp(response, failure);
+			}
+			if (!budget.withdraw()) {
+				budgetExhausted.incrementAndGet();
+				return giveUp(response, failure);
+			}
+			IOUtils.closeQuietly(response);
+			retries.incrementAndGet();
+			sleep(sleep);
+		}
+	}
+
+	/**
+	 * Closes the delegate, requests in progress fail.
+	 */
+	public void close() throws IOException {
+		executor.shutdownNow();
+		delegate.close();
+	}
+
+	/**
+	 * @return the current hedge delay in milliseconds, 0 if hedging is disabled
+	 */
+	public long getHedgeDelay() {
+		if (hedgeDelay == 0) {
+			return 0;
+		}
+		if (hedgePercentile == 0 || latencies.getCount() < MIN_SAMPLES) {
+			return hedgeDelay;
+		}
+		return Math.max(1, TimeUnit.NANOSECONDS.toMillis(latencies.getPercentile(hedgePercentile)));
+	}
+
+	/**
+	 * @return the number of retried requests
+	 */
+	public long getRetries() {
+		return retries.get();
+	}
+
+	/**
+	 * @return the number of hedged requests
+	 */
+	public long getHedges() {
+		return hedges.get();
+	}
+
+	/**
+	 * @return the number of hedged requests answered first
+	 */
+	public long getHedgeWins() {
+		return hedgeWins.get();
+	}
+
+	/**
+	 * @return the number of retries and hedges not made because the budget was exhausted
+	 */
+	public long getBudgetExhausted() {
+		return budgetExhausted.get();
+	}
+
+	/**
+	 * @return a virtual thread per task executor when available, otherwise a cached pool of daemon threads
+	 */
+	protected ExecutorService createExecutor() {
+		return Futures.newExecutor("http-request");
+	}
+
+	/**
+	 * The asynchronous variant of {@link #get(String, Map)} for the {@link AsyncRetryingHttpTransport}: the attempts are sent
+	 * through {@code async}, the delegate, and the backoffs, hedges and deadline are timed by {@link Futures#schedule(Runnable, long, TimeUnit)},
+	 * so that no thread waits.
+	 *
+	 * @return completed with the response, or failed with an {@link IOException}. Cancelling it aborts the attempt in flight.
+	 */
+	CompletableFuture<TransportResponse> getAsync(AsyncHttpTransport async, String url, Map<String, String> headers) {
+		long end = deadline == 0 ? Long.MAX_VALUE : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadline);
+		budget.deposit();
+
+		final CompletableFuture<TransportResponse> result = new CompletableFuture<TransportResponse>();
+		if (end != Long.MAX_VALUE) {
+			final ScheduledFuture<?> timeout = Futures.schedule(new Runnable() {
+				public void run() {
+					result.completeExceptionally(new DeadlineExceededException());
+				}
+			}, deadline, TimeUnit.MILLISECONDS);
+			result.whenComplete(new BiConsumer<TransportResponse, Throwable>() {
+				public void accept(TransportResponse response, Throwable failure) {
+					timeout.cancel(false);
+				}
+			});
+		}
+		this.attemptAsync(async, url, headers, end, 1, result);
+		return result;
+	}
+
+	/**
+	 * An asynchronous attempt, completes {@code result} or schedules the next attempt.
+	 */
+	private void attemptAsync(final AsyncHttpTransport async, final String url, final Map<String, String> headers, final long end,
+			final int attempt, final CompletableFuture<TransportResponse> result) {
+		if (result.isDone()) {
+			return;
+		}
+		final CompletableFuture<TransportResponse> request = this.hedgeAsync(async, url, headers);
+		result.whenComplete(new BiConsumer<TransportResponse, Throwable>() {
+			public void accept(TransportResponse response, Throwable failure) {
+				request.cancel(true);
+			}
+		});
+		request.whenComplete(new BiConsumer<TransportResponse, Throwable>() {
+			public void accept(TransportResponse response, Throwable failure) {
+				IOException error = null;
+				if (failure != null) {
+					Throwable cause = Futures.unwrap(failure);
+					if (cause instanceof CancellationException) {
+						// the result is done
+						return;
+					}
+					if (!(cause instanceof IOException) || !isRetryable((IOException) cause)) {
+						result.completeExceptionally(cause);
+						return;
+					}
+					error = (IOException) cause;
+				} else if (!isRetryable(response.getStatus())) {
+					complete(result, response);
+					return;
+				}
+
+				long sleep = backoff(attempt);
+				if (attempt >= maxAttempts || (end != Long.MAX_VALUE && remaining(end) <= TimeUnit.MILLISECONDS.toNanos(sleep))) {
+					giveUp(result, response, error);
+					return;
+				}
+				if (!budget.withdraw()) {
+					budgetExhausted.incrementAndGet();
+					giveUp(result, response, error);
+					return;
+				}
+				IOUtils.closeQuietly(response);
+				retries.incrementAndGet();
+				Futures.schedule(new Runnable() {
+					public void run() {
+						attemptAsync(async, url, headers, end, attempt + 1, result);
+					}
+				}, sleep, TimeUnit.MILLISECONDS);
+			}
+		});
+	}
+
+	/**
+	 * Sends an asynchronous attempt, and a second one if the first has not answered after the hedge delay.
+	 *
+	 * @return completes with the first successful response of the two, or the failure of the last one if both fail.
+	 * The other response is closed. Cancelling it cancels both.
+	 */
+	private CompletableFuture<TransportResponse> hedgeAsync(final AsyncHttpTransport async, final String url, 
+			final Map<String, String> headers) {
+		final CompletableFuture<TransportResponse> primary = this.sendAsync(async, url, headers);
+		long delay = this.getHedgeDelay();
+		if (delay == 0) {
+			return primary;
+		}
+
+		final CompletableFuture<TransportResponse> winner = new CompletableFuture<TransportResponse>();
+		final AtomicInteger pending = new AtomicInteger(1);
+		primary.whenComplete(this.racerAsync(winner, pending, false));
+		final ScheduledFuture<?> hedging = Futures.schedule(new Runnable() {
+			public void run() {
+				if (winner.isDone()) {
+					return;
+				}
+				if (!budget.withdraw()) {
+					budgetExhausted.incrementAndGet();
+					return;
+				}
+				hedges.incrementAndGet();
+				pending.incrementAndGet();
+				final CompletableFuture<TransportResponse> hedge = sendAsync(async, url, headers);
+				hedge.whenComplete(racerAsync(winner, pending, true));
+				winner.whenComplete(new BiConsumer<TransportResponse, Throwable>() {
+					public void accept(TransportResponse response, Throwable failure) {
+						hedge.cancel(true);
+					}
+				});
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+		winner.whenComplete(new BiConsumer<TransportResponse, Throwable>() {
+			public void accept(TransportResponse response, Throwable failure) {
+				hedging.cancel(false);
+				primary.cancel(true);
+			}
+		});
+		return winner;
+	}
+
+	/**
+	 * @return completes {@code winner} with the response unless another request already did,
+	 * or with the failure if it is the last of the requests sent
+	 */
+	private BiConsumer<TransportResponse, Throwable> racerAsync(final CompletableFuture<TransportResponse> winner,
+			final AtomicInteger pending, final boolean hedge) {
+		return new BiConsumer<TransportResponse, Throwable>() {
+			public void accept(TransportResponse response, Throwable failure) {
+				if (failure == null) {
+					// counted before completing, whoever waits for the winner must see it
+					if (hedge) {
+						hedgeWins.incrementAndGet();
+					}
+					if (!winner.complete(response)) {
+						if (hedge) {
+							hedgeWins.decrementAndGet();
+						}
+						IOUtils.closeQuietly(response);
+					}
+				} else if (pending.decrementAndGet() == 0) {
+					winner.completeExceptionally(failure);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Sends the request through {@code async} and records its response time.
+	 */
+	private CompletableFuture<TransportResponse> sendAsync(AsyncHttpTransport async, String url, Map<String, String> headers) {
+		final long start = System.nanoTime();
+		CompletableFuture<TransportResponse> request = async.getAsync(url, headers);
+		request.whenComplete(new BiConsumer<TransportResponse, Throwable>() {
+			public void accept(TransportResponse response, Throwable failure) {
+				if (failure == null && !isRetryable(response.getStatus())) {
+					latencies.record(System.nanoTime() - start);
+				}
+			}
+		});
+		return request;
+	}
+
+	/**
+	 * Completes {@code result} with the response if there is one, otherwise with the failure.
+	 */
+	private static void giveUp(CompletableFuture<TransportResponse> result, TransportResponse response, IOException failure) {
+		if (response == null) {
+			result.completeExceptionally(failure);
+		} else {
+			complete(result, response);
+		}
+	}
+
+	/**
+	 * Completes {@code result} with the response, which is closed if {@code result} is already done.
+	 */
+	private static void complete(CompletableFuture<TransportResponse> result, TransportResponse response) {
+		if (!result.complete(response)) {
+			IOUtils.closeQuietly(response);
+		}
+	}
+
+	/**
+	 * A single attempt, hedged if it is slower than the hedge delay.
+	 * Without hedging nor deadline nothing is waited for concurrently, so the request runs on the calling thread.
+	 */
+	private TransportResponse attempt(String url, Map<String, String> headers, long end) throws IOException {
+		long delay = this.getHedgeDelay();
+		if (delay == 0 && end == Long.MAX_VALUE) {
+			long start = System.nanoTime();
+			TransportResponse response = delegate.get(url, headers);
+			if (!isRetryable(response.getStatus())) {
+				latencies.record(System.nanoTime() - start);
+			}
+			return response;
+		}
+
+		CompletableFuture<TransportResponse> primary = this.send(url, headers);
+		if (delay == 0) {
+			return await(primary, end);
+		}
+
+		try {
+			long wait = TimeUnit.MILLISECONDS.toNanos(delay);
+			return primary.get(end == Long.MAX_VALUE ? wait : Math.min(wait, remaining(end)), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException te) {
+			if (end != Long.MAX_VALUE && remaining(end) <= 0) {
+				return await(primary, end);
+			}
+		} catch (InterruptedException ie) {
+			abandon(primary);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while requesting " + url);
+		} catch (ExecutionException ee) {
+			throw unwrap(ee);
+		}
+
+		if (!budget.withdraw()) {
+			budgetExhausted.incrementAndGet();
+			return await(primary, end);
+		}
+		hedges.incrementAndGet();
+		CompletableFuture<TransportResponse> hedge = this.send(url, headers);
+		TransportResponse response = await(first(primary, hedge), end);
+		if (hedge.isDone() && !hedge.isCompletedExceptionally() && hedge.getNow(null) == response) {
+			hedgeWins.incrementAndGet();
+		}
+		return response;
+	}
+
+	/**
+	 * Sends the request on the executor and records its response time.
+	 */
+	private CompletableFuture<TransportResponse> send(final String url, final Map<String, String> headers) {
+		final long start = System.nanoTime();
+		final CompletableFuture<TransportResponse> future = new CompletableFuture<TransportResponse>();
+		executor.execute(new Runnable() {
+			public void run() {
+				try {
+					TransportResponse response = delegate.get(url, headers);
+					if (!isRetryable(response.getStatus())) {
+						latencies.record(System.nanoTime() - start);
+					}
+					future.complete(response);
+				} catch (Throwable t) {
+					future.completeExceptionally(t);
+				}
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * @return completes with the first successful response of the two, or the failure of the last one if both fail.
+	 * The other response is closed.
+	 */
+	private static CompletableFuture<TransportResponse> first(CompletableFuture<TransportResponse> primary,
+			CompletableFuture<TransportResponse> hedge) {
+		final CompletableFuture<TransportResponse> winner = new CompletableFuture<TransportResponse>();
+		final AtomicBoolean otherFailed = new AtomicBoolean();
+		primary.whenComplete(racer(winner, otherFailed));
+		hedge.whenComplete(racer(winner, otherFailed));
+		return winner;
+	}
+
+	/**
+	 * @return completes {@code winner} with the response unless the other request already did, 
+	 * or with the failure if the other request failed as well
+	 */
+	private static BiConsumer<TransportResponse, Throwable> racer(final CompletableFuture<TransportResponse> winner,
+			final AtomicBoolean otherFailed) {
+		return new BiConsumer<TransportResponse, Throwable>() {
+			public void accept(TransportResponse response, Throwable failure) {
+				if (failure == null) {
+					if (!winner.complete(response)) {
+						IOUtils.closeQuietly(response);
+					}
+				} else if (otherFailed.getAndSet(true)) {
+					winner.completeExceptionally(failure);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Waits for the response until the deadline, the response is closed when it arrives if the deadline passes first.
+	 */
+	private static TransportResponse await(CompletableFuture<TransportResponse> future, long end) throws IOException {
+		try {
+			if (end == Long.MAX_VALUE) {
+				return future.get();
+			}
+			return future.get(Math.max(0, remaining(end)), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException te) {
+			abandon(future);
+			throw new DeadlineExceededException();
+		} catch (InterruptedException ie) {
+			abandon(future);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the response");
+		} catch (ExecutionException ee) {
+			throw unwrap(ee);
+		}
+	}
+
+	/**
+	 * Closes the response whenever it arrives.
+	 */
+	private static void abandon(CompletableFuture<TransportResponse> future) {
+		future.whenComplete(new BiConsumer<TransportResponse, Throwable>() {
+			public void accept(TransportResponse response, Throwable failure) {
+				IOUtils.closeQuietly(response);
+			}
+		});
+	}
+
+	private static IOException unwrap(ExecutionException ee) {
+		Throwable cause = ee.getCause();
+		if (cause instanceof IOException) {
+			return (IOException) cause;
+		}
+		if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		}
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		return new IOException(cause);
+	}
+
+	/**
+	 * @return the failure if there is no response to return
+	 */
+	private static TransportResponse giveUp(TransportResponse response, IOException failure) throws IOException {
+		if (response == null) {
+			throw failure;
+		}
+		return response;
+	}
+
+	/**
+	 * @return a random delay between 0 and the exponential backoff of the attempt, in milliseconds
+	 */
+	private long backoff(int attempt) {
+		long limit = Math.min(maxBackoff, backoff << Math.min(attempt - 1, 30));
+		return limit == 0 ? 0 : ThreadLocalRandom.current().nextLong(limit + 1);
+	}
+
+	private static void sleep(long millis) throws InterruptedIOException {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while backing off");
+		}
+	}
+
+	private static long remaining(long end) {
+		return end - System.nanoTime();
+	}
+
+	/**
+	 * @return {@code true} for request timeouts, too many requests and server errors
+	 */
+	static boolean isRetryable(int status) {
+		return status == 408 || status == 429 || status >= 500;
+	}
+
+	/**
+	 * @return {@code false} for malformed URLs, an exceeded deadline, a request rejected by a {@link LimitingHttpTransport}
+	 * and when interrupted
+	 */
+	private static boolean isRetryable(IOException ioe) {
+		return !(ioe instanceof MalformedURLException) && !(ioe instanceof DeadlineExceededException)
+				&& !(ioe instanceof LimitingHttpTransport.LimitExceededException) && !Thread.currentThread().isInterrupted();
+	}
+
+	/**
+	 * Thrown when a request is still not answered at its deadline.
+	 */
+	static class DeadlineExceededException extends SocketTimeoutException {
+
+		private static final long serialVersionUID = 1L;
+
+		DeadlineExceededException() {
+			super("Deadline exceeded");
+		}
+	}
+
+	/**
+	 * Every request deposits {@code ratio} tokens and every retry or hedge takes one.
+	 * The budget starts with {@code min} tokens and is capped at {@code min + 1000 * ratio}, 
+	 * so that a long quiet period does not allow a burst of retries.
+	 */
+	private static class RetryBudget {
+
+		private double ratio = DEFAULT_BUDGET_RATIO;
+
+		private double max = DEFAULT_BUDGET_MIN + DEFAULT_BUDGET_RATIO * 1000;
+
+		private double tokens = DEFAULT_BUDGET_MIN;
+
+		synchronized void configure(double ratio, int min) {
+			this.ratio = ratio;
+			this.max = min + ratio * 1000;
+			this.tokens = min;
+		}
+
+		synchronized void deposit() {
+			tokens = Math.min(max, tokens + ratio);
+		}
+
+		synchronized boolean withdraw() {
+			if (tokens < 1) {
+				return false;
+			}
+			tokens--;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,236 @@
+package com.goeuro.devTest.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.Validate;
+
+import com.goeuro.devTest.LocationSink;
+import com.goeuro.devTest.OutputFormat;
+
+/**
+ * Writes the locations to a single file, or rolls over to a new part of it after a number of records or bytes,
+ * named with a dash and the number of the part before the extension, e.g. {@code batch-00001.csv}.
+ * Every part is a complete file of the {@link OutputFormat}, written under a temporary name and renamed once
+ * complete, replacing an existing file of the same name, so that readers only ever see complete parts.
+ * The parts are written through a channel, see {@link OutputFormat#createSink(WritableByteChannel, String, int)}.
+ * The size of a part is counted as its bytes leave the buffers of the sink, so a part may exceed the maximum
+ * by up to the size of these buffers and the last record.
+ * Not thread-safe.
+ */
+public class RollingLocationSink implements LocationSink {
+
+	private final File file;
+
+	private final OutputFormat outputFormat;
+
+	private final String encoding;
+
+	private final int bufferSize;
+
+	private final long maxRecords;
+
+	private final long maxBytes;
+
+	/**
+	 * The base name and the extension of the parts.
+	 */
+	private final String base;
+
+	private final String extension;
+
+	private final List<File> files = new ArrayList<File>();
+
+	private LocationSink sink;
+
+	private CountingChannel channel;
+
+	private File temporary;
+
+	/**
+	 * The records of the current part.
+	 */
+	private long partRecords;
+
+	private long records;
+
+	private boolean closed;
+
+	/**
+	 * @param file the single file, or the name of the parts
+	 * @param outputFormat the format of the file or of every part
+	 * @param encoding the encoding of the file
+	 * @param bufferSize the size of the buffer of the sinks of the format, must be positive
+	 * @param maxRecords the records of a part, 0 for no limit
+	 * @param maxBytes the approximate bytes of a part, 0 for no limit
+	 * @throws NullPointerException if {@code file}, {@code outputFormat} or {@code encoding} is {@code null}
+	 * @throws IllegalArgumentException if {@code encoding} is blank, {@code bufferSize} is not positive
+	 * or a limit is negative
+	 */
+	public RollingLocationSink(File file, OutputFormat outputFormat, String encoding, int bufferSize,
+			long maxRecords, long maxBytes) {
+		Validate.notNull(file);
+		Validate.notNull(outputFormat);
+		Validate.notBlank(encoding);
+		Validate.isTrue(bufferSize > 0, "bufferSize must be positive: %d", bufferSize);
+		Validate.isTrue(maxRecords >= 0, "maxRecords must not be negative: %d", maxRecords);
+		Validate.isTrue(maxBytes >= 0, "maxBytes must not be negative: %d", maxBytes);
+
+		this.file = file;
+		this.outputFormat = outputFormat;
+		this.encoding = encoding;
+		this.bufferSize = bufferSize;
+		this.maxRecords = maxRecords;
+		this.maxBytes = maxBytes;
+		String name = file.getName();
+		int dot = name.indexOf('.', 1);
+		this.base = dot < 0 ? name : name.substring(0, dot);
+		this.extension = dot < 0 ? "" : name.substring(dot);
+	}
+
+	/**
+	 * Opens the next part when needed and rolls over once the part is full.
+	 * @see com.goeuro.devTest.LocationSink#write(int, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+	 * @throws IllegalStateException if closed
+	 */
+	public void write(int id, String name, String type, String latitude, String longitude) throws IOException {
+		Validate.validState(!closed, "Closed");
+		if (sink == null) {
+			this.open();
+		}
+		sink.write(id, name, type, latitude, longitude);
+		records++;
+		partRecords++;
+		if ((maxRecords > 0 && partRecords >= maxRecords) || (maxBytes > 0 && channel.count >= maxBytes)) {
+			this.publish();
+		}
+	}
+
+	/**
+	 * Publishes the current part, or an empty one if nothing was written at all.
+	 */
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (sink == null && files.isEmpty()) {
+			this.open();
+		}
+		if (sink != null) {
+			this.publish();
+		}
+	}
+
+	/**
+	 * Closes and deletes the current part, the parts already published are kept.
+	 */
+	public void discard() {
+		closed = true;
+		IOUtils.closeQuietly(sink);
+		IOUtils.closeQuietly(channel);
+		sink = null;
+		if (temporary != null) {
+			temporary.delete();
+			temporary = null;
+		}
+	}
+
+	/**
+	 * @return the files published so far, in order
+	 */
+	public List<File> getFiles() {
+		return Collections.unmodifiableList(files);
+	}
+
+	/**
+	 * @return the number of records written
+	 */
+	public long getRecords() {
+		return records;
+	}
+
+	/**
+	 * @return the file of the next part
+	 */
+	private File nextFile() {
+		if (maxRecords == 0 && maxBytes == 0) {
+			return file;
+		}
+		return new File(file.getParentFile(), base + "-" + String.format("%05d", files.size() + 1) + extension);
+	}
+
+	private void open() throws IOException {
+		temporary = OutputLayout.getTemporaryFile(this.nextFile());
+		File parent = temporary.getAbsoluteFile().getParentFile();
+		if (!parent.exists()) {
+			parent.mkdirs();
+		}
+		channel = new CountingChannel(FileChannel.open(temporary.toPath(), 
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+		try {
+			sink = outputFormat.createSink(channel, encoding, bufferSize);
+		} catch (IOException e) {
+			IOUtils.closeQuietly(channel);
+			temporary.delete();
+			temporary = null;
+			throw e;
+		}
+		partRecords = 0;
+	}
+
+	/**
+	 * Closes the current part and renames it to its name.
+	 */
+	private void publish() throws IOException {
+		LocationSink current = sink;
+		sink = null;
+		try {
+			current.close();
+			File target = this.nextFile();
+			Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			files.add(target);
+		} finally {
+			temporary.delete();
+			temporary = null;
+		}
+	}
+
+	/**
+	 * Counts the bytes written to a channel.
+	 */
+	private static class CountingChannel implements WritableByteChannel {
+
+		private final WritableByteChannel channel;
+
+		long count;
+
+		CountingChannel(WritableByteChannel channel) {
+			this.channel = channel;
+		}
+
+		public int write(ByteBuffer src) throws IOException {
+			int written = channel.write(src);
+			count += written;
+			return written;
+		}
+
+		public boolean isOpen() {
+			return channel.isOpen();
+		}
+
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,608 @@
+package com.goeuro.devTest.impl;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.Validate;
+
+import com.goeuro.devTest.LocationSink;
+
+/**
+ * Writes the locations to another sink sorted, within a memory budget: the locations are gathered into runs,
+ * every full run is sorted and spilled to a temporary file on one of several threads while the next one is gathered,
+ * and on {@link #close()} the runs are merged with a heap, in several passes if there are too many to read at once.
+ * If everything fits into a single run nothing is spilled.
+ * <p>
+ * Ties are broken by id, so the order does not depend on the order of arrival. Not thread-safe, wrap it in a
+ * {@link DeduplicatingLocationSink} or synchronize to share it between queries.
+ */
+public class SortingLocationSink implements LocationSink {
+
+	/**
+	 * The keys the locations can be sorted by, values compared as {@code String}s with {@code null} first.
+	 */
+	public enum Order {
+		/**
+		 * By id.
+		 */
+		ID,
+		/**
+		 * By name, then id.
+		 */
+		NAME,
+		/**
+		 * By type, then name, then id.
+		 */
+		TYPE_NAME
+	}
+
+	/**
+	 * Default memory budget, in bytes.
+	 */
+	public static final long DEFAULT_MEMORY = 64 * 1024 * 1024;
+
+	/**
+	 * The most runs merged at once, each with its own read buffer.
+	 */
+	static final int MAX_MERGE_WIDTH = 256;
+
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+	private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+	/**
+	 * Estimated bytes of a location besides its values: the object, its reference and four string headers.
+	 */
+	private static final int LOCATION_OVERHEAD = 32 + 8 + 4 * 40;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final LocationSink sink;
+
+	private final Comparator<Row> comparator;
+
+	private final File parentDirectory;
+
+	/**
+	 * The budget of the run being gathered and of every run being sorted and spilled.
+	 */
+	private final long runMemory;
+
+	private final ExecutorService executor;
+
+	/**
+	 * One per thread, taken by every run until it is spilled so that at most that many wait in memory.
+	 */
+	private final Semaphore spilling;
+
+	private final List<Future<File>> spills = new ArrayList<Future<File>>();
+
+	private List<Row> run = new ArrayList<Row>();
+
+	private long runBytes;
+
+	/**
+	 * Holds the spilled runs, created with the first one.
+	 */
+	private File directory;
+
+	private int files;
+
+	private long records;
+
+	private boolean closed;
+
+	/**
+	 * @param sink receives the locations sorted on {@link #close()}, closed then
+	 * @param order the key of the sort
+	 * @param directory where the runs are spilled, in a new subdirectory deleted on close, {@code null} for the default
+	 * temporary directory
+	 * @param memory the approximate bytes of the locations kept in memory, shared by the run being gathered
+	 * and those being sorted
+	 * @param threads the runs sorted and spilled at the same time, 0 for the available processors
+	 * @throws NullPointerException if {@code sink} or {@code order} is {@code null}
+	 * @throws IllegalArgumentException if {@code memory} is not positive or {@code threads} is negative
+	 */
+	public SortingLocationSink(LocationSink sink, Order order, File directory, long memory, int threads) {
+		Validate.notNull(sink);
+		Validate.notNull(order);
+		Validate.isTrue(memory > 0, "memory must be positive: %d", memory);
+		Validate.isTrue(threads >= 0, "threads must not be negative: %d", threads);
+
+		if (threads == 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		this.sink = sink;
+		this.comparator = comparator(order);
+		this.parentDirectory = directory;
+		this.runMemory = Math.max(1, memory / (threads + 1));
+		this.spilling = new Semaphore(threads);
+		final AtomicInteger count = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "location-sort-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Spills the current run once it is full, waiting while every thread is busy with a previous one.
+	 * @see com.goeuro.devTest.LocationSink#write(int, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+	 * @throws IllegalStateException if closed
+	 */
+	public void write(int id, String name, String type, String latitude, String longitude) throws IOException {
+		Validate.validState(!closed, "Closed");
+		Row row = new Row(id, name, type, latitude, longitude);
+		run.add(row);
+		runBytes += row.size();
+		records++;
+		if (runBytes >= runMemory) {
+			this.spill();
+		}
+	}
+
+	/**
+	 * Writes the locations sorted to the other sink and closes it, then deletes the runs.
+	 */
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			if (spills.isEmpty()) {
+				Row[] rows = run.toArray(new Row[run.size()]);
+				run = null;
+				Arrays.parallelSort(rows, comparator);
+				for (Row row : rows) {
+					row.writeTo(sink);
+				}
+			} else {
+				if (!run.isEmpty()) {
+					this.spill();
+				}
+				run = null;
+				List<File> runs = new ArrayList<File>();
+				for (Future<File> spill : spills) {
+					runs.add(this.await(spill));
+				}
+				while (runs.size() > MAX_MERGE_WIDTH) {
+					runs = this.mergePass(runs);
+				}
+				this.merge(runs, sink);
+			}
+			sink.close();
+		} finally {
+			this.cleanUp();
+		}
+	}
+
+	/**
+	 * Drops the locations written and deletes the runs, the other sink is neither written nor closed.
+	 */
+	public void discard() {
+		closed = true;
+		run = null;
+		this.cleanUp();
+	}
+
+	/**
+	 * @return the number of locations written
+	 */
+	public long getRecords() {
+		return records;
+	}
+
+	/**
+	 * @return the number of runs spilled so far, including those written by the merge passes
+	 */
+	public int getSpilledRuns() {
+		return files;
+	}
+
+	/**
+	 * Hands the current run to a thread that sorts it and writes it to a new file.
+	 */
+	private void spill() throws IOException {
+		if (directory == null) {
+			if (parentDirectory != null) {
+				FileUtils.forceMkdir(parentDirectory);
+			}
+			directory = parentDirectory == null ? Files.createTempDirectory("locations-sort").toFile()
+					: Files.createTempDirectory(parentDirectory.toPath(), "locations-sort").toFile();
+		}
+		try {
+			spilling.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to spill a run");
+		}
+		final Row[] rows = run.toArray(new Row[run.size()]);
+		final File file = this.newRunFile();
+		run = new ArrayList<Row>(rows.length);
+		runBytes = 0;
+		spills.add(executor.submit(new Callable<File>() {
+			public File call() throws IOException {
+				try {
+					Arrays.sort(rows, comparator);
+					RunWriter writer = new RunWriter(file);
+					try {
+						for (Row row : rows) {
+							writer.write(row);
+						}
+					} finally {
+						writer.close();
+					}
+					return file;
+				} finally {
+					spilling.release();
+				}
+			}
+		}));
+	}
+
+	/**
+	 * Merges the runs by groups of {@link #MAX_MERGE_WIDTH} into fewer, longer runs.
+	 */
+	private List<File> mergePass(List<File> runs) throws IOException {
+		List<File> merged = new ArrayList<File>();
+		for (int from = 0; from < runs.size(); from += MAX_MERGE_WIDTH) {
+			List<File> group = runs.subList(from, Math.min(from + MAX_MERGE_WIDTH, runs.size()));
+			if (group.size() == 1) {
+				merged.add(group.get(0));
+				continue;
+			}
+			final RunWriter writer = new RunWriter(this.newRunFile());
+			try {
+				this.merge(group, new LocationSink() {
+					public void write(int id, String name, String type, String latitude, String longitude) throws IOException {
+						writer.write(new Row(id, name, type, latitude, longitude));
+					}
+					public void close() {
+					}
+				});
+			} finally {
+				writer.close();
+			}
+			for (File run : group) {
+				run.delete();
+			}
+			merged.add(writer.file);
+		}
+		return merged;
+	}
+
+	/**
+	 * Writes the smallest head of the runs until they are all read, {@code target} is not closed.
+	 */
+	private void merge(List<File> runs, LocationSink target) throws IOException {
+		PriorityQueue<RunReader> heap = new PriorityQueue<RunReader>(runs.size(), new Comparator<RunReader>() {
+			public int compare(RunReader a, RunReader b) {
+				return comparator.compare(a.head, b.head);
+			}
+		});
+		// every reader opened, closed again in the end whether it is exhausted, polled or failed
+		List<RunReader> readers = new ArrayList<RunReader>(runs.size());
+		try {
+			for (File run : runs) {
+				RunReader reader = new RunReader(run);
+				readers.add(reader);
+				if (reader.next()) {
+					heap.add(reader);
+				} else {
+					reader.close();
+				}
+			}
+			while (!heap.isEmpty()) {
+				RunReader reader = heap.poll();
+				reader.head.writeTo(target);
+				if (reader.next()) {
+					heap.add(reader);
+				} else {
+					reader.close();
+				}
+			}
+		} finally {
+			for (RunReader reader : readers) {
+				IOUtils.closeQuietly(reader);
+			}
+		}
+	}
+
+	private File newRunFile() {
+		return new File(directory, String.format("run-%06d.tmp", ++files));
+	}
+
+	/**
+	 * @return the file of the run once spilled
+	 * @throws IOException when the run could not be spilled
+	 */
+	private File await(Future<File> spill) throws IOException {
+		try {
+			return spill.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a run to be spilled");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Stops the runs still being spilled and deletes them all.
+	 */
+	private void cleanUp() {
+		for (Future<File> spill : spills) {
+			spill.cancel(true);
+		}
+		executor.shutdownNow();
+		try {
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (directory != null) {
+			FileUtils.deleteQuietly(directory);
+		}
+	}
+
+	private static Comparator<Row> comparator(Order order) {
+		switch (order) {
+		case NAME:
+			return new Comparator<Row>() {
+				public int compare(Row a, Row b) {
+					int result = compareValues(a.name, b.name);
+					return result != 0 ? result : Integer.compare(a.id, b.id);
+				}
+			};
+		case TYPE_NAME:
+			return new Comparator<Row>() {
+				public int compare(Row a, Row b) {
+					int result = compareValues(a.type, b.type);
+					if (result == 0) {
+						result = compareValues(a.name, b.name);
+					}
+					return result != 0 ? result : Integer.compare(a.id, b.id);
+				}
+			};
+		default:
+			return new Comparator<Row>() {
+				public int compare(Row a, Row b) {
+					return Integer.compare(a.id, b.id);
+				}
+			};
+		}
+	}
+
+	private static int compareValues(String a, String b) {
+		if (a == null) {
+			return b == null ? 0 : -1;
+		}
+		return b == null ? 1 : a.compareTo(b);
+	}
+
+	/**
+	 * A location kept in a run.
+	 */
+	private static final class Row {
+
+		final int id;
+
+		final String name;
+
+		final String type;
+
+		final String latitude;
+
+		final String longitude;
+
+		Row(int id, String name, String type, String latitude, String longitude) {
+			this.id = id;
+			this.name = name;
+			this.type = type;
+			this.latitude = latitude;
+			this.longitude = longitude;
+		}
+
+		/**
+		 * @return the estimated bytes of this location in memory
+		 */
+		long size() {
+			return LOCATION_OVERHEAD + length(name) + length(type) + length(latitude) + length(longitude);
+		}
+
+		void writeTo(LocationSink sink) throws IOException {
+			sink.write(id, name, type, latitude, longitude);
+		}
+
+		private static int length(String value) {
+			return value == null ? 0 : value.length();
+		}
+	}
+
+	/**
+	 * Writes the locations of a run: the id, then every value as its length in UTF-8 bytes, -1 for {@code null},
+	 * followed by the bytes, all through a buffer of its own.
+	 */
+	private static final class RunWriter implements Closeable {
+
+		final File file;
+
+		private final FileOutputStream output;
+
+		private final byte[] buffer = new byte[WRITE_BUFFER_SIZE];
+
+		private int position;
+
+		RunWriter(File file) throws IOException {
+			this.file = file;
+			this.output = new FileOutputStream(file);
+		}
+
+		void write(Row row) throws IOException {
+			this.writeInt(row.id);
+			this.writeValue(row.name);
+			this.writeValue(row.type);
+			this.writeValue(row.latitude);
+			this.writeValue(row.longitude);
+		}
+
+		private void writeValue(String value) throws IOException {
+			if (value == null) {
+				this.writeInt(-1);
+				return;
+			}
+			byte[] bytes = value.getBytes(UTF_8);
+			this.writeInt(bytes.length);
+			if (bytes.length > buffer.length - position) {
+				this.flush();
+				if (bytes.length > buffer.length) {
+					output.write(bytes);
+					return;
+				}
+			}
+			System.arraycopy(bytes, 0, buffer, position, bytes.length);
+			position += bytes.length;
+		}
+
+		private void writeInt(int value) throws IOException {
+			if (buffer.length - position < 4) {
+				this.flush();
+			}
+			buffer[position++] = (byte) (value >>> 24);
+			buffer[position++] = (byte) (value >>> 16);
+			buffer[position++] = (byte) (value >>> 8);
+			buffer[position++] = (byte) value;
+		}
+
+		private void flush() throws IOException {
+			output.write(buffer, 0, position);
+			position = 0;
+		}
+
+		public void close() throws IOException {
+			try {
+				this.flush();
+			} finally {
+				output.close();
+			}
+		}
+	}
+
+	/**
+	 * Reads the locations of a run written by a {@link RunWriter}, one at a time, through a buffer of its own.
+	 */
+	private static final class RunReader implements Closeable {
+
+		private final FileInputStream input;
+
+		private byte[] buffer = new byte[READ_BUFFER_SIZE];
+
+		private int position;
+
+		private int limit;
+
+		/**
+		 * The location read last.
+		 */
+		Row head;
+
+		RunReader(File file) throws IOException {
+			this.input = new FileInputStream(file);
+		}
+
+		/**
+		 * @return {@code false} at the end of the run
+		 */
+		boolean next() throws IOException {
+			if (!this.fill(4, true)) {
+				head = null;
+				return false;
+			}
+			int id = this.readInt();
+			head = new Row(id, this.readValue(), this.readValue(), this.readValue(), this.readValue());
+			return true;
+		}
+
+		private String readValue() throws IOException {
+			this.fill(4, false);
+			int length = this.readInt();
+			if (length < 0) {
+				return null;
+			}
+			this.fill(length, false);
+			String value = new String(buffer, position, length, UTF_8);
+			position += length;
+			return value;
+		}
+
+		private int readInt() {
+			int value = ((buffer[position] & 0xff) << 24) | ((buffer[position + 1] & 0xff) << 16)
+					| ((buffer[position + 2] & 0xff) << 8) | (buffer[position + 3] & 0xff);
+			position += 4;
+			return value;
+		}
+
+		/**
+		 * Makes {@code count} bytes available from {@code position}, growing the buffer if needed.
+		 *
+		 * @param atEnd whether the end of the run may come before the first byte
+		 * @return {@code false} if the run ended where allowed
+		 * @throws EOFException if the run ended anywhere else
+		 */
+		private boolean fill(int count, boolean atEnd) throws IOException {
+			if (limit - position >= count) {
+				return true;
+			}
+			if (count > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(count, buffer.length * 2));
+			}
+			System.arraycopy(buffer, position, buffer, 0, limit - position);
+			limit -= position;
+			position = 0;
+			while (limit < count) {
+				int read = input.read(buffer, limit, buffer.length - limit);
+				if (read < 0) {
+					if (atEnd && limit == 0) {
+						return false;
+					}
+					throw new EOFException("Truncated run");
+				}
+				limit += read;
+			}
+			return true;
+		}
+
+		public void close() throws IOException {
+			input.close();
+		}
+	}
+}
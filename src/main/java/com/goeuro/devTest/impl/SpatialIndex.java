@@ -0,0 +1,446 @@
+package com.goeuro.devTest.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.Validate;
+
+import com.goeuro.devTest.LocationSink;
+
+/**
+ * Grid index over the coordinates of a {@link LocationStore} for nearest neighbour, radius and bounding box queries.
+ * The globe is split into cells of {@code cellSize} degrees, each holding the rows located in it.
+ * Rows added to the store, directly or through {@link #write(int, String, String, String, String)}, are indexed before the next query,
+ * so the index can be filled as locations stream out of {@code process()}.
+ * Rows without coordinates are never returned. Distances are great-circle distances in kilometres.
+ * Not thread-safe.
+ */
+public class SpatialIndex implements LocationSink {
+
+	/**
+	 * Default size in degrees of the grid cells.
+	 */
+	public static final double DEFAULT_CELL_SIZE = 0.5;
+
+	/**
+	 * Mean radius of the Earth in kilometres.
+	 */
+	public static final double EARTH_RADIUS = 6371.0088;
+
+	private static final int MAGIC = 0x47454F49;
+
+	private static final int VERSION = 1;
+
+	private static final double HALF_CIRCUMFERENCE = Math.PI * EARTH_RADIUS;
+
+	/**
+	 * Type code matching every location.
+	 */
+	private static final int ANY = -2;
+
+	/**
+	 * Type code matching no location.
+	 */
+	private static final int NO_MATCH = -1;
+
+	private final LocationStore store;
+
+	private final double cellSize;
+
+	private final int latitudeCells;
+
+	private final int longitudeCells;
+
+	private final int[][] cells;
+
+	private final int[] cellCounts;
+
+	/**
+	 * Rows of the store below this one are in the grid.
+	 */
+	private int indexed;
+
+	/**
+	 * Indexes an empty store with the default cell size.
+	 */
+	public SpatialIndex() {
+		this(new LocationStore(), DEFAULT_CELL_SIZE);
+	}
+
+	/**
+	 * @param store the locations to index, rows added later are indexed on the next query
+	 * @param cellSize size in degrees of the grid cells, must be in (0, 90]
+	 * @throws NullPointerException if {@code store} is {@code null}
+	 * @throws IllegalArgumentException if {@code cellSize} is out of range
+	 */
+	public SpatialIndex(LocationStore store, double cellSize) {
+		Validate.notNull(store);
+		Validate.isTrue(cellSize > 0 && cellSize <= 90, "cellSize must be in (0, 90]: %s", cellSize);
+
+		this.store = store;
+		this.cellSize = cellSize;
+		this.latitudeCells = (int) Math.ceil(180 / cellSize);
+		this.longitudeCells = (int) Math.ceil(360 / cellSize);
+		this.cells = new int[latitudeCells * longitudeCells][];
+		this.cellCounts = new int[cells.length];
+	}
+
+	/**
+	 * Adds the location to the store.
+	 * @see com.goeuro.devTest.impl.LocationStore#write(int, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+	 */
+	public void write(int id, String name, String type, String latitude, String longitude) {
+		store.write(id, name, type, latitude, longitude);
+	}
+
+	/**
+	 * Nothing to release, the index stays usable.
+	 */
+	public void close() {
+	}
+
+	/**
+	 * @param latitude of the centre
+	 * @param longitude of the centre
+	 * @param k maximum number of locations to return
+	 * @param type only locations of this type, {@code null} for any
+	 * @return the rows of the {@code k} nearest locations, nearest first
+	 * @throws IllegalArgumentException if {@code k} is negative
+	 */
+	public int[] nearest(double latitude, double longitude, int k, String type) {
+		Validate.isTrue(k >= 0, "k must not be negative: %d", k);
+
+		this.sync();
+		// a quarter of a cell, grown until it holds k locations
+		double radius = Math.max(cellSize * HALF_CIRCUMFERENCE / 180 / 4, 1);
+		while (true) {
+			Matches matches = this.collect(latitude, longitude, radius, type);
+			// every location within the radius was visited, so the k nearest are among them
+			if (matches.size >= k || radius >= HALF_CIRCUMFERENCE) {
+				return matches.sorted(k);
+			}
+			radius = Math.min(radius * 4, HALF_CIRCUMFERENCE);
+		}
+	}
+
+	/**
+	 * @param latitude of the centre
+	 * @param longitude of the centre
+	 * @param radius in kilometres
+	 * @param type only locations of this type, {@code null} for any
+	 * @return the rows of the locations within {@code radius}, nearest first
+	 * @throws IllegalArgumentException if {@code radius} is negative
+	 */
+	public int[] withinRadius(double latitude, double longitude, double radius, String type) {
+		Validate.isTrue(radius >= 0, "radius must not be negative: %s", radius);
+
+		this.sync();
+		return this.collect(latitude, longitude, radius, type).sorted(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * The box crosses the antimeridian when {@code minLongitude} is greater than {@code maxLongitude}.
+	 *
+	 * @param type only locations of this type, {@code null} for any
+	 * @return the rows of the locations within the box, edges included, in no particular order
+	 * @throws IllegalArgumentException if {@code minLatitude} is greater than {@code maxLatitude}
+	 */
+	public int[] withinBox(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude, String type) {
+		Validate.isTrue(minLatitude <= maxLatitude, "minLatitude must not be greater than maxLatitude");
+
+		this.sync();
+		int typeCode = this.typeCode(type);
+		if (typeCode == NO_MATCH) {
+			return new int[0];
+		}
+
+		boolean wraps = minLongitude > maxLongitude;
+		int[] result = new int[16];
+		int size = 0;
+		int fromLatitude = this.latitudeCell(minLatitude);
+		int toLatitude = this.latitudeCell(maxLatitude);
+		int fromLongitude = this.longitudeCell(minLongitude);
+		int longitudeSpan = this.longitudeSpan(minLongitude, wraps ? maxLongitude + 360 - minLongitude : maxLongitude - minLongitude);
+		for (int latitudeCell = fromLatitude; latitudeCell <= toLatitude; latitudeCell++) {
+			for (int i = 0; i <= longitudeSpan; i++) {
+				int cell = latitudeCell * longitudeCells + (fromLongitude + i) % longitudeCells;
+				for (int j = 0; j < cellCounts[cell]; j++) {
+					int row = cells[cell][j];
+					double rowLatitude = store.getLatitude(row);
+					double rowLongitude = store.getLongitude(row);
+					boolean inLongitude = wraps ? rowLongitude >= minLongitude || rowLongitude <= maxLongitude
+							: rowLongitude >= minLongitude && rowLongitude <= maxLongitude;
+					if (inLongitude && rowLatitude >= minLatitude && rowLatitude <= maxLatitude
+							&& (typeCode == ANY || store.getTypeCode(row) == typeCode)) {
+						if (size == result.length) {
+							result = Arrays.copyOf(result, size * 2);
+						}
+						result[size++] = row;
+					}
+				}
+			}
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	/**
+	 * @return the great-circle distance in kilometres between the two points
+	 */
+	public static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+		double dLatitude = Math.toRadians(latitude2 - latitude1);
+		double dLongitude = Math.toRadians(longitude2 - longitude1);
+		double a = Math.sin(dLatitude / 2) * Math.sin(dLatitude / 2) + Math.cos(Math.toRadians(latitude1))
+				* Math.cos(Math.toRadians(latitude2)) * Math.sin(dLongitude / 2) * Math.sin(dLongitude / 2);
+		return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+	}
+
+	/**
+	 * Writes the cell size and every row of the store. The grid is rebuilt when read.
+	 *
+	 * @param outputStream not closed
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream outputStream) throws IOException {
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream));
+		output.writeInt(MAGIC);
+		output.writeInt(VERSION);
+		output.writeDouble(cellSize);
+		output.writeInt(store.getTypeCount());
+		for (int code = 0; code < store.getTypeCount(); code++) {
+			output.writeUTF(store.decode(code));
+		}
+		output.writeInt(store.size());
+		for (int row = 0; row < store.size(); row++) {
+			String name = store.getName(row);
+			output.writeInt(store.getId(row));
+			output.writeBoolean(name != null);
+			if (name != null) {
+				output.writeUTF(name);
+			}
+			output.writeInt(store.getTypeCode(row));
+			output.writeDouble(store.getLatitude(row));
+			output.writeDouble(store.getLongitude(row));
+		}
+		output.flush();
+	}
+
+	/**
+	 * @param inputStream as written by {@link #writeTo(OutputStream)}, not closed
+	 * @return a new index over a new store
+	 * @throws IOException if the stream cannot be read or was not written by {@link #writeTo(OutputStream)}
+	 */
+	public static SpatialIndex readFrom(InputStream inputStream) throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(inputStream));
+		if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+			throw new IOException("Not a spatial index");
+		}
+		double cellSize = input.readDouble();
+		String[] types = new String[input.readInt()];
+		for (int code = 0; code < types.length; code++) {
+			types[code] = input.readUTF();
+		}
+		int size = input.readInt();
+		LocationStore store = new LocationStore(Math.max(size, 1));
+		for (int row = 0; row < size; row++) {
+			int id = input.readInt();
+			String name = input.readBoolean() ? input.readUTF() : null;
+			int typeCode = input.readInt();
+			store.add(id, name, typeCode < 0 ? null : types[typeCode], input.readDouble(), input.readDouble());
+		}
+
+		SpatialIndex index = new SpatialIndex(store, cellSize);
+		index.sync();
+		return index;
+	}
+
+	/**
+	 * @param file where to save the index, overwritten
+	 * @throws IOException
+	 */
+	public void save(File file) throws IOException {
+		FileOutputStream outputStream = new FileOutputStream(file);
+		try {
+			this.writeTo(outputStream);
+		} finally {
+			IOUtils.closeQuietly(outputStream);
+		}
+	}
+
+	/**
+	 * @param file saved by {@link #save(File)}
+	 * @return the index
+	 * @throws IOException
+	 */
+	public static SpatialIndex load(File file) throws IOException {
+		FileInputStream inputStream = new FileInputStream(file);
+		try {
+			return readFrom(inputStream);
+		} finally {
+			IOUtils.closeQuietly(inputStream);
+		}
+	}
+
+	// Getters
+
+	public LocationStore getStore() {
+		return store;
+	}
+
+	public double getCellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * Indexes the rows added to the store since the last query.
+	 */
+	private void sync() {
+		for (; indexed < store.size(); indexed++) {
+			double latitude = store.getLatitude(indexed);
+			double longitude = store.getLongitude(indexed);
+			if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+				continue;
+			}
+			int cell = this.latitudeCell(latitude) * longitudeCells + this.longitudeCell(longitude);
+			if (cells[cell] == null) {
+				cells[cell] = new int[4];
+			} else if (cellCounts[cell] == cells[cell].length) {
+				cells[cell] = Arrays.copyOf(cells[cell], cellCounts[cell] * 2);
+			}
+			cells[cell][cellCounts[cell]++] = indexed;
+		}
+	}
+
+	/**
+	 * Visits every cell that may hold a location within {@code radius} and keeps the ones that do.
+	 */
+	private Matches collect(double latitude, double longitude, double radius, String type) {
+		Matches matches = new Matches();
+		int typeCode = this.typeCode(type);
+		if (typeCode == NO_MATCH) {
+			return matches;
+		}
+
+		// bounding coordinates of the circle, the whole longitude range when it contains a pole
+		double angularRadius = Math.toDegrees(radius / EARTH_RADIUS);
+		double minLatitude = latitude - angularRadius;
+		double maxLatitude = latitude + angularRadius;
+		int fromLongitude;
+		int longitudeSpan;
+		if (minLatitude <= -90 || maxLatitude >= 90 || radius >= HALF_CIRCUMFERENCE) {
+			fromLongitude = 0;
+			longitudeSpan = longitudeCells - 1;
+		} else {
+			double deltaLongitude = Math.toDegrees(Math.asin(
+					Math.sin(radius / EARTH_RADIUS) / Math.cos(Math.toRadians(latitude))));
+			fromLongitude = this.longitudeCell(longitude - deltaLongitude);
+			longitudeSpan = this.longitudeSpan(longitude - deltaLongitude, 2 * deltaLongitude);
+		}
+
+		int fromLatitude = this.latitudeCell(minLatitude);
+		int toLatitude = this.latitudeCell(maxLatitude);
+		for (int latitudeCell = fromLatitude; latitudeCell <= toLatitude; latitudeCell++) {
+			for (int i = 0; i <= longitudeSpan; i++) {
+				int cell = latitudeCell * longitudeCells + (fromLongitude + i) % longitudeCells;
+				for (int j = 0; j < cellCounts[cell]; j++) {
+					int row = cells[cell][j];
+					if (typeCode != ANY && store.getTypeCode(row) != typeCode) {
+						continue;
+					}
+					double distance = distance(latitude, longitude, store.getLatitude(row), store.getLongitude(row));
+					if (distance <= radius) {
+						matches.add(row, distance);
+					}
+				}
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * @return the code of the type, {@link #ANY} for {@code null} or {@link #NO_MATCH} if no location has this type
+	 */
+	private int typeCode(String type) {
+		return type == null ? ANY : store.encodeType(type);
+	}
+
+	private int latitudeCell(double latitude) {
+		int cell = (int) Math.floor((latitude + 90) / cellSize);
+		return Math.max(0, Math.min(latitudeCells - 1, cell));
+	}
+
+	private int longitudeCell(double longitude) {
+		return Math.min(longitudeCells - 1, (int) Math.floor(normalize(longitude) / cellSize));
+	}
+
+	/**
+	 * @param from western edge of the range in degrees
+	 * @param width of the range in degrees
+	 * @return the number of cells after the one of {@code from} that the range reaches, at most all the others
+	 */
+	private int longitudeSpan(double from, double width) {
+		if (width >= 360) {
+			return longitudeCells - 1;
+		}
+		return Math.min(longitudeCells - 1, (int) Math.floor((normalize(from) + width) / cellSize) - this.longitudeCell(from));
+	}
+
+	/**
+	 * @return the longitude moved to [0, 360) from the antimeridian
+	 */
+	private static double normalize(double longitude) {
+		return ((longitude + 180) % 360 + 360) % 360;
+	}
+
+	/**
+	 * Rows and their distance found by a radius search.
+	 */
+	private static final class Matches {
+
+		private int[] rows = new int[16];
+
+		private double[] distances = new double[16];
+
+		private int size;
+
+		void add(int row, double distance) {
+			if (size == rows.length) {
+				rows = Arrays.copyOf(rows, size * 2);
+				distances = Arrays.copyOf(distances, size * 2);
+			}
+			rows[size] = row;
+			distances[size] = distance;
+			size++;
+		}
+
+		/**
+		 * @return the {@code limit} nearest rows, nearest first
+		 */
+		int[] sorted(int limit) {
+			Integer[] order = new Integer[size];
+			for (int i = 0; i < size; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return Double.compare(distances[a], distances[b]);
+				}
+			});
+			int[] result = new int[Math.min(limit, size)];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = rows[order[i]];
+			}
+			return result;
+		}
+	}
+}
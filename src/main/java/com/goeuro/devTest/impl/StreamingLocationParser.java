@@ -0,0 +1,139 @@
+package com.goeuro.devTest.impl;
+
+import java.io.IOException;
+
+import com.goeuro.devTest.LocationSink;
+import com.goeuro.devTest.QueryOptions;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * {@link LocationParser} that walks the tokens of the {@link JsonReader} and writes the five columns straight to the sink, 
+ * without reflection or intermediate objects. Unknown fields are skipped.
+ * Values are converted exactly as Gson converts them into {@link LocationJson}, including reading each element leniently,
+ * so the output is the same as {@link GsonLocationParser}.
+ */
+public class StreamingLocationParser implements LocationParser {
+
+	/**
+	 * @see com.goeuro.devTest.impl.LocationParser#parse(com.google.gson.stream.JsonReader, com.goeuro.devTest.LocationSink)
+	 */
+	public void parse(JsonReader reader, LocationSink sink) throws IOException {
+		this.parse(reader, sink, QueryOptions.ALL);
+	}
+	
+	/**
+	 * Applies the options while reading: the columns left out and not needed by a filter are skipped without being
+	 * decoded, and the rest of a location is skipped as soon as its type or its position is filtered out.
+	 * The filters of a location repeating its type or its position may see either occurrence.
+	 * @see com.goeuro.devTest.impl.LocationParser#parse(com.google.gson.stream.JsonReader, com.goeuro.devTest.LocationSink, com.goeuro.devTest.QueryOptions)
+	 */
+	@Override
+	public void parse(JsonReader reader, LocationSink sink, QueryOptions options) throws IOException {
+		reader.beginArray();
+		while (reader.hasNext()) {
+			boolean lenient = reader.isLenient();
+			reader.setLenient(true);
+			this.readLocation(reader, sink, options);
+			reader.setLenient(lenient);
+		}
+		reader.endArray();
+	}
+	
+	/**
+	 * Reads a single location object and writes it to the sink.
+	 */
+	void readLocation(JsonReader reader, LocationSink sink) throws IOException {
+		this.readLocation(reader, sink, QueryOptions.ALL);
+	}
+	
+	/**
+	 * Reads a single location object and writes it to the sink if kept by the options.
+	 */
+	private void readLocation(JsonReader reader, LocationSink sink, QueryOptions options) throws IOException {
+		boolean readName = options.isProjected(QueryOptions.Column.NAME);
+		boolean readType = options.hasTypes() || options.isProjected(QueryOptions.Column.TYPE);
+		boolean readPosition = options.hasBoundingBox() || options.isProjected(QueryOptions.Column.LATITUDE) 
+				|| options.isProjected(QueryOptions.Column.LONGITUDE);
+		int id = 0;
+		String name = null;
+		String type = null;
+		String latitude = null;
+		String longitude = null;
+		
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String field = reader.nextName();
+			if ("_id".equals(field)) {
+				if (reader.peek() == JsonToken.NULL) {
+					reader.nextNull();
+				} else {
+					id = reader.nextInt();
+				}
+			} else if ("name".equals(field) && readName) {
+				name = nextString(reader);
+			} else if ("type".equals(field) && readType) {
+				type = nextString(reader);
+				if (!options.acceptsType(type)) {
+					skipRest(reader);
+					return;
+				}
+			} else if ("geo_position".equals(field) && readPosition && reader.peek() == JsonToken.BEGIN_OBJECT) {
+				latitude = null;
+				longitude = null;
+				reader.beginObject();
+				while (reader.hasNext()) {
+					String geoField = reader.nextName();
+					if ("latitude".equals(geoField)) {
+						latitude = nextString(reader);
+					} else if ("longitude".equals(geoField)) {
+						longitude = nextString(reader);
+					} else {
+						reader.skipValue();
+					}
+				}
+				reader.endObject();
+				if (!options.acceptsPosition(latitude, longitude)) {
+					skipRest(reader);
+					return;
+				}
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		
+		if (options.isFiltered() && !(options.acceptsType(type) && options.acceptsPosition(latitude, longitude))) {
+			return;
+		}
+		sink.write(id, name, options.isProjected(QueryOptions.Column.TYPE) ? type : null,
+				options.isProjected(QueryOptions.Column.LATITUDE) ? latitude : null,
+				options.isProjected(QueryOptions.Column.LONGITUDE) ? longitude : null);
+	}
+	
+	/**
+	 * Skips the remaining fields of the current object and its end.
+	 */
+	private static void skipRest(JsonReader reader) throws IOException {
+		while (reader.hasNext()) {
+			reader.nextName();
+			reader.skipValue();
+		}
+		reader.endObject();
+	}
+	
+	/**
+	 * @return the value as Gson reads it into a {@code String} field
+	 */
+	private static String nextString(JsonReader reader) throws IOException {
+		JsonToken token = reader.peek();
+		if (token == JsonToken.NULL) {
+			reader.nextNull();
+			return null;
+		}
+		if (token == JsonToken.BOOLEAN) {
+			return Boolean.toString(reader.nextBoolean());
+		}
+		return reader.nextString();
+	}
+}
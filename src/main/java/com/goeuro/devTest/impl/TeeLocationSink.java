@@ -0,0 +1,47 @@
+package com.goeuro.devTest.impl;
+
+import java.io.IOException;
+
+import org.apache.commons.lang3.Validate;
+
+import com.goeuro.devTest.LocationSink;
+
+/**
+ * Writes every location to two sinks, in order.
+ */
+public class TeeLocationSink implements LocationSink {
+
+	private final LocationSink first;
+	
+	private final LocationSink second;
+	
+	/**
+	 * @throws NullPointerException if {@code first} or {@code second} is {@code null}
+	 */
+	public TeeLocationSink(LocationSink first, LocationSink second) {
+		Validate.notNull(first);
+		Validate.notNull(second);
+		
+		this.first = first;
+		this.second = second;
+	}
+
+	/**
+	 * @see com.goeuro.devTest.LocationSink#write(int, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+	 */
+	public void write(int id, String name, String type, String latitude, String longitude) throws IOException {
+		first.write(id, name, type, latitude, longitude);
+		second.write(id, name, type, latitude, longitude);
+	}
+
+	/**
+	 * Closes both sinks, the second one even if closing the first one fails.
+	 */
+	public void close() throws IOException {
+		try {
+			first.close();
+		} finally {
+			second.close();
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package com.goeuro.devTest.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * The status, headers and streamed body of a response returned by a {@link HttpTransport}.
+ */
+public class TransportResponse implements Closeable {
+
+	private final int status;
+	
+	/**
+	 * Header names are case insensitive.
+	 */
+	private final Map<String, String> headers;
+	
+	private final InputStream body;
+	
+	/**
+	 * @param status the HTTP status code
+	 * @param headers the response headers
+	 * @param body the response body, already decompressed
+	 * @throws NullPointerException if {@code headers} or {@code body} is {@code null}
+	 */
+	public TransportResponse(int status, Map<String, String> headers, InputStream body) {
+		Validate.notNull(headers);
+		Validate.notNull(body);
+		
+		Map<String, String> caseInsensitive = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+		caseInsensitive.putAll(headers);
+		this.status = status;
+		this.headers = Collections.unmodifiableMap(caseInsensitive);
+		this.body = body;
+	}
+	
+	/**
+	 * @return {@code true} if the status is 2xx
+	 */
+	public boolean isSuccessful() {
+		return status >= 200 && status < 300;
+	}
+	
+	/**
+	 * @param name the header name, case insensitive
+	 * @return the header value or {@code null} if absent
+	 */
+	public String getHeader(String name) {
+		return headers.get(name);
+	}
+	
+	/**
+	 * Closing the body releases the connection.
+	 */
+	public void close() throws IOException {
+		IOUtils.closeQuietly(body);
+	}
+	
+	// Getters
+	
+	public int getStatus() {
+		return status;
+	}
+	
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+	
+	public InputStream getBody() {
+		return body;
+	}
+}
@@ -0,0 +1,48 @@
+package com.goeuro.devTest;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * @see {@link Arguments}
+ */
+public class ArgumentsTest {
+
+	@Test(expected=NullPointerException.class)
+	public void testParse_null_shouldThrowNullPointerException() {
+		Arguments.parse(null);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testParse_containsNull_shouldThrowIllegalArgumentException() {
+		Arguments.parse(new String[] {"--batch", null});
+	}
+
+	@Test
+	public void testParse_noOptions() {
+		Arguments arguments = Arguments.parse(new String[] {"Alcazar", "del", "Rey"});
+		
+		assertFalse(arguments.hasOption("batch"));
+		assertArrayEquals(new String[] {"Alcazar", "del", "Rey"}, arguments.getRemaining());
+	}
+
+	@Test
+	public void testParse_leadingOptions() {
+		Arguments arguments = Arguments.parse(new String[] {"--batch=cities.txt", "--verbose", "Berlin"});
+		
+		assertEquals("cities.txt", arguments.getOption("batch", null));
+		assertTrue(arguments.hasOption("verbose"));
+		assertEquals("", arguments.getOption("verbose", null));
+		assertEquals("16", arguments.getOption("concurrency", "16"));
+		assertArrayEquals(new String[] {"Berlin"}, arguments.getRemaining());
+	}
+
+	@Test
+	public void testParse_optionAfterArgument_shouldBeAnArgument() {
+		Arguments arguments = Arguments.parse(new String[] {"Berlin", "--batch=cities.txt"});
+		
+		assertFalse(arguments.hasOption("batch"));
+		assertArrayEquals(new String[] {"Berlin", "--batch=cities.txt"}, arguments.getRemaining());
+	}
+}
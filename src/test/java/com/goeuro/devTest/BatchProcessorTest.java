@@ -0,0 +1,122 @@
+package com.goeuro.devTest;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.goeuro.devTest.impl.DeduplicatingLocationSink;
+import com.goeuro.devTest.impl.RecordingLocationSink;
+
+/**
+ * @see {@link BatchProcessor}
+ */
+public class BatchProcessorTest {
+
+	private final Set<String> processed = Collections.synchronizedSet(new HashSet<String>());
+	
+	private final AtomicInteger inFlight = new AtomicInteger();
+	
+	private final AtomicInteger maxInFlight = new AtomicInteger();
+	
+	private PrintStream out;
+	
+	private QueryProcessor processor;
+	
+	@Before
+	public void setUp() {
+		out = new PrintStream(new ByteArrayOutputStream());
+		processor = new QueryProcessor() {
+			public File process(String location) throws QueryProcessorException {
+				int current = inFlight.incrementAndGet();
+				try {
+					synchronized (maxInFlight) {
+						maxInFlight.set(Math.max(maxInFlight.get(), current));
+					}
+					Thread.sleep(5);
+					if (location.startsWith("fail")) {
+						throw new QueryProcessorException(location);
+					}
+					processed.add(location);
+					return new File(location + ".csv");
+				} catch (InterruptedException e) {
+					throw new QueryProcessorException(location, e);
+				} finally {
+					inFlight.decrementAndGet();
+				}
+			}
+			public void process(String location, LocationSink sink) throws QueryProcessorException {
+				try {
+					for (int id = 0; id < location.length(); id++) {
+						sink.write(id, location, "location", null, null);
+					}
+				} catch (IOException e) {
+					throw new QueryProcessorException(location, e);
+				}
+				processed.add(location);
+			}
+			public void close() {
+			}
+		};
+	}
+
+	@Test(expected=NullPointerException.class)
+	public void testBatchProcessor_processorNull_mustThrowNullPointerException() {
+		new BatchProcessor(null, 1, out, out);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testBatchProcessor_concurrencyNotPositive_mustThrowIllegalArgumentException() {
+		new BatchProcessor(processor, 0, out, out);
+	}
+
+	@Test
+	public void testProcess() throws IOException, InterruptedException {
+		StringBuilder locations = new StringBuilder();
+		for (int i = 0; i < 50; i++) {
+			locations.append("'city").append(i).append("'\n");
+		}
+		locations.append("\n# comment\nfail1\n  \nfail2\n");
+		
+		BatchProcessor.Result result = new BatchProcessor(processor, 4, out, out).process(new StringReader(locations.toString()));
+		
+		assertEquals(50, result.getSucceeded());
+		assertEquals(2, result.getFailed());
+		assertTrue(processed.contains("city0"));
+		assertTrue(processed.contains("city49"));
+		assertTrue(maxInFlight.get() <= 4);
+	}
+
+	@Test
+	public void testConsolidate_overlappingQueries_everyIdWrittenOnce() throws IOException, InterruptedException {
+		RecordingLocationSink recording = new RecordingLocationSink();
+		DeduplicatingLocationSink sink = new DeduplicatingLocationSink(recording);
+		
+		BatchProcessor.Result result = new BatchProcessor(processor, 4, out, out).consolidate(new StringReader("Ber\nBerl\nBerlin\n"), sink);
+		
+		assertEquals(3, result.getSucceeded());
+		assertEquals(6, recording.getRecords().size());
+		assertEquals(6, sink.getDistinct());
+		assertEquals(3 + 4 + 6 - 6, sink.getDuplicates());
+	}
+
+	@Test(expected=NullPointerException.class)
+	public void testConsolidate_sinkNull_mustThrowNullPointerException() throws IOException, InterruptedException {
+		new BatchProcessor(processor, 4, out, out).consolidate(new StringReader("Berlin"), null);
+	}
+
+	@Test
+	public void testResultToString() {
+		assertEquals("Processed 3 locations: 2 succeeded, 1 failed in 10 ms", new BatchProcessor.Result(2, 1, 10).toString());
+	}
+}
@@ -0,0 +1,196 @@
+package com.goeuro.devTest;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @see {@link LocationServer}
+ */
+public class LocationServerTest {
+
+	private static final String NL = System.lineSeparator();
+
+	private final CountDownLatch slowStarted = new CountDownLatch(1);
+
+	private QueryProcessor processor;
+
+	private LocationServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		processor = new QueryProcessor() {
+			public File process(String location) throws QueryProcessorException {
+				throw new UnsupportedOperationException();
+			}
+			public void process(String location, LocationSink sink) throws QueryProcessorException {
+				try {
+					if (location.equals("fail")) {
+						throw new QueryProcessorException("unreachable");
+					}
+					if (location.equals("slow")) {
+						slowStarted.countDown();
+						Thread.sleep(300);
+					}
+					if (location.equals("none")) {
+						return;
+					}
+					sink.write(1, location, "location", "52.5", "13.4");
+					sink.write(2, location + ", \"Mitte\"", null, null, null);
+				} catch (IOException e) {
+					throw new QueryProcessorException(e.getLocalizedMessage(), e);
+				} catch (InterruptedException e) {
+					throw new QueryProcessorException(location, e);
+				}
+			}
+			public void close() {
+			}
+		};
+		server = new LocationServer(processor, 0, 4, new PrintStream(new ByteArrayOutputStream()));
+		server.start();
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		server.stop(0);
+	}
+
+	@Test(expected=NullPointerException.class)
+	public void testLocationServer_processorNull_mustThrowNullPointerException() {
+		new LocationServer(null, 0, 1, System.err);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testLocationServer_invalidPort_mustThrowIllegalArgumentException() {
+		new LocationServer(processor, 65536, 1, System.err);
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testStart_alreadyStarted_mustThrowIllegalStateException() throws IOException {
+		server.start();
+	}
+
+	@Test
+	public void testGet() throws IOException {
+		HttpURLConnection connection = this.get("/locations/Berlin");
+		assertEquals(200, connection.getResponseCode());
+		assertEquals("text/csv; charset=UTF-8", connection.getContentType());
+		assertEquals("1,Berlin,location,52.5,13.4" + NL + "2,\"Berlin, \"\"Mitte\"\"\",,," + NL, read(connection.getInputStream()));
+	}
+
+	@Test
+	public void testGet_encodedAndQuotedName() throws IOException {
+		HttpURLConnection connection = this.get("/locations/%22Alcazar%20del%20Rey%22");
+		assertEquals(200, connection.getResponseCode());
+		assertTrue(read(connection.getInputStream()).startsWith("1,Alcazar del Rey,location"));
+	}
+
+	@Test
+	public void testGet_noLocations() throws IOException {
+		HttpURLConnection connection = this.get("/locations/none");
+		assertEquals(200, connection.getResponseCode());
+		assertEquals("", read(connection.getInputStream()));
+	}
+
+	@Test
+	public void testGet_missingName() throws IOException {
+		assertEquals(400, this.get("/locations/").getResponseCode());
+	}
+
+	@Test
+	public void testGet_unknownPath() throws IOException {
+		assertEquals(404, this.get("/other").getResponseCode());
+	}
+
+	@Test
+	public void testGet_queryFails() throws IOException {
+		HttpURLConnection connection = this.get("/locations/fail");
+		assertEquals(502, connection.getResponseCode());
+		assertTrue(read(connection.getErrorStream()).contains("unreachable"));
+	}
+
+	@Test
+	public void testPost_notAllowed() throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) this.url("/locations/Berlin").openConnection();
+		connection.setRequestMethod("POST");
+		assertEquals(405, connection.getResponseCode());
+		assertEquals("GET", connection.getHeaderField("Allow"));
+	}
+
+	@Test
+	public void testGet_concurrent() throws Exception {
+		ExecutorService clients = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<String>> responses = new ArrayList<Future<String>>();
+			for (int i = 0; i < 32; i++) {
+				final String name = "city" + i;
+				responses.add(clients.submit(new Callable<String>() {
+					public String call() throws IOException {
+						return read(LocationServerTest.this.get("/locations/" + name).getInputStream());
+					}
+				}));
+			}
+			for (int i = 0; i < responses.size(); i++) {
+				assertTrue(responses.get(i).get().startsWith("1,city" + i + ","));
+			}
+		} finally {
+			clients.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testStop_waitsForRequestsInProgress() throws Exception {
+		ExecutorService clients = Executors.newSingleThreadExecutor();
+		try {
+			Future<String> response = clients.submit(new Callable<String>() {
+				public String call() throws IOException {
+					return read(LocationServerTest.this.get("/locations/slow").getInputStream());
+				}
+			});
+			assertTrue(slowStarted.await(5, TimeUnit.SECONDS));
+			server.stop(5);
+			assertTrue(response.get(5, TimeUnit.SECONDS).startsWith("1,slow,"));
+		} finally {
+			clients.shutdownNow();
+		}
+	}
+
+	private HttpURLConnection get(String path) throws IOException {
+		return (HttpURLConnection) this.url(path).openConnection();
+	}
+
+	private URL url(String path) {
+		try {
+			return new URL("http://localhost:" + server.getPort() + path);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String read(InputStream inputStream) throws IOException {
+		try {
+			return IOUtils.toString(inputStream, "UTF-8");
+		} finally {
+			inputStream.close();
+		}
+	}
+}
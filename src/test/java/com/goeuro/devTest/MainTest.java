@@ -26,6 +26,31 @@ public class MainTest {
 		Main.main(new String[] {});
 	}
 
+	@Test
+	public void testMain_unknownFormat_shouldShowUsageMessage() throws IOException, QueryProcessorException {
+		Main.main(new String[] {"--format=xml", "Berlin"});
+	}
+
+	@Test
+	public void testMain_batchWithInvalidConcurrency_shouldShowUsageMessage() throws IOException, QueryProcessorException {
+		Main.main(new String[] {"--batch=cities.txt", "--concurrency=0"});
+	}
+
+	@Test
+	public void testMain_batchWithStdout_shouldShowUsageMessage() throws IOException, QueryProcessorException {
+		Main.main(new String[] {"--batch=cities.txt", "--stdout"});
+	}
+
+	@Test
+	public void testMain_consolidateWithoutBatch_shouldShowUsageMessage() throws IOException, QueryProcessorException {
+		Main.main(new String[] {"--consolidate=all.csv", "Berlin"});
+	}
+
+	@Test
+	public void testMain_serverWithInvalidPort_shouldShowUsageMessage() throws IOException, QueryProcessorException {
+		Main.main(new String[] {"--server", "--port=70000"});
+	}
+
 	@Test(expected=NullPointerException.class)
 	public void testGetLocationFromArguments_nullArgument_shouldThrowNullPointerException() {
 		Main.getLocationFromArguments(null);
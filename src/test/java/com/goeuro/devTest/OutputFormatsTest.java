@@ -0,0 +1,40 @@
+package com.goeuro.devTest;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.goeuro.devTest.impl.ColumnarOutputFormat;
+import com.goeuro.devTest.impl.CsvOutputFormat;
+import com.goeuro.devTest.impl.GzipCsvOutputFormat;
+import com.goeuro.devTest.impl.NdjsonOutputFormat;
+
+/**
+ * @see {@link OutputFormats}
+ */
+public class OutputFormatsTest {
+
+	@Test
+	public void testForName() {
+		assertEquals(CsvOutputFormat.class, OutputFormats.forName(OutputFormats.DEFAULT_FORMAT).getClass());
+		assertEquals(GzipCsvOutputFormat.class, OutputFormats.forName("csv.gz").getClass());
+		assertEquals(NdjsonOutputFormat.class, OutputFormats.forName(" NDJSON ").getClass());
+		assertEquals(ColumnarOutputFormat.class, OutputFormats.forName("columnar").getClass());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testForName_unknown_mustThrowIllegalArgumentException() {
+		OutputFormats.forName("xml");
+	}
+
+	@Test(expected=NullPointerException.class)
+	public void testForName_null_mustThrowNullPointerException() {
+		OutputFormats.forName(null);
+	}
+
+	@Test
+	public void testGetNames() {
+		assertEquals(4, OutputFormats.getNames().size());
+		assertTrue(OutputFormats.getNames().contains("csv.gz"));
+	}
+}
@@ -0,0 +1,115 @@
+package com.goeuro.devTest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import com.goeuro.devTest.impl.CsvLocationSink;
+
+/**
+ * @see {@link QueryOptions}
+ */
+public class QueryOptionsTest {
+
+	@Test
+	public void testAll() {
+		assertTrue(QueryOptions.ALL.isAll());
+		assertFalse(QueryOptions.ALL.isFiltered());
+		assertTrue(QueryOptions.ALL.acceptsType(null));
+		assertTrue(QueryOptions.ALL.acceptsPosition(null, null));
+		for (QueryOptions.Column column : QueryOptions.Column.values()) {
+			assertTrue(QueryOptions.ALL.isProjected(column));
+		}
+	}
+
+	@Test
+	public void testWithTypes() {
+		QueryOptions options = QueryOptions.ALL.withTypes("location", "airport");
+
+		assertFalse(options.isAll());
+		assertTrue(options.isFiltered());
+		assertTrue(options.acceptsType("airport"));
+		assertFalse(options.acceptsType("station"));
+		assertFalse(options.acceptsType(null));
+		assertTrue(QueryOptions.ALL.withTypes().isAll());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testWithTypes_containsNull_shouldThrowIllegalArgumentException() {
+		QueryOptions.ALL.withTypes("location", null);
+	}
+
+	@Test
+	public void testWithBoundingBox() {
+		QueryOptions options = QueryOptions.ALL.withBoundingBox(47, 5, 55, 15);
+
+		assertTrue(options.acceptsPosition(52.52437, 13.41053));
+		assertTrue(options.acceptsPosition(47, 15));
+		assertFalse(options.acceptsPosition(48.85, 2.35));
+		assertTrue(options.acceptsPosition("52.52437", "13.41053"));
+		assertFalse(options.acceptsPosition("52.52437", null));
+		assertFalse(options.acceptsPosition("north", "13.41053"));
+	}
+
+	@Test
+	public void testWithBoundingBox_antimeridian() {
+		QueryOptions options = QueryOptions.ALL.withBoundingBox(-50, 170, -30, -170);
+
+		assertTrue(options.acceptsPosition(-41.3, 174.8));
+		assertTrue(options.acceptsPosition(-40, -175));
+		assertFalse(options.acceptsPosition(-40, 0));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testWithBoundingBox_minGreaterThanMax_shouldThrowIllegalArgumentException() {
+		QueryOptions.ALL.withBoundingBox(55, 5, 47, 15);
+	}
+
+	@Test
+	public void testFilter() throws IOException {
+		StringWriter writer = new StringWriter();
+		LocationSink sink = QueryOptions.ALL.withTypes("location").withColumns(QueryOptions.Column.NAME)
+				.filter(new CsvLocationSink(writer));
+		sink.write(1, "Berlin", "location", "52.52437", "13.41053");
+		sink.write(2, "Berlin Tegel", "airport", "52.5597", "13.2877");
+		sink.close();
+
+		assertEquals("1,Berlin,,," + System.lineSeparator(), writer.toString());
+	}
+
+	@Test
+	public void testFilter_all_shouldReturnSink() throws IOException {
+		LocationSink sink = new CsvLocationSink(new StringWriter());
+
+		assertSame(sink, QueryOptions.ALL.filter(sink));
+	}
+
+	@Test
+	public void testParse() {
+		QueryOptions expected = QueryOptions.ALL.withTypes("location", "airport").withBoundingBox(47, 5, 55, 15)
+				.withColumns(QueryOptions.Column.NAME, QueryOptions.Column.LATITUDE);
+
+		assertEquals(expected, QueryOptions.parse("location, airport", "47,5,55,15", "id,Name,latitude"));
+		assertEquals(expected, QueryOptions.parse(expected.toString().split(";")[0].substring(6), "47,5,55,15", "latitude,name"));
+		assertEquals(QueryOptions.ALL, QueryOptions.parse(null, "", " "));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testParse_unknownColumn_shouldThrowIllegalArgumentException() {
+		QueryOptions.parse(null, null, "name,population");
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testParse_incompleteBoundingBox_shouldThrowIllegalArgumentException() {
+		QueryOptions.parse(null, "47,5,55", null);
+	}
+
+	@Test
+	public void testToString() {
+		assertEquals("types=location;box=47.0,5.0,55.0,15.0;columns=latitude,longitude", QueryOptions.ALL.withTypes("location")
+				.withBoundingBox(47, 5, 55, 15).withColumns(QueryOptions.Column.LATITUDE, QueryOptions.Column.LONGITUDE).toString());
+	}
+}
@@ -0,0 +1,79 @@
+package com.goeuro.devTest;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @see {@link QueryProcessor}
+ */
+public class QueryProcessorTest {
+
+	private static final String CSV = "1,Berlin,location,52.52437,13.41053" + System.lineSeparator()
+			+ "2,München,location,48.13743,11.57549" + System.lineSeparator();
+
+	/**
+	 * Implements only what the interface does not default.
+	 */
+	private final QueryProcessor processor = new QueryProcessor() {
+		public File process(String location) throws QueryProcessorException {
+			if ("fail".equals(location)) {
+				throw new QueryProcessorException("failed " + location);
+			}
+			return new File(location + ".csv");
+		}
+		public void process(String location, LocationSink sink) throws QueryProcessorException {
+			try {
+				sink.write(1, "Berlin", "location", "52.52437", "13.41053");
+				sink.write(2, "München", "location", "48.13743", "11.57549");
+			} catch (IOException ioe) {
+				throw new QueryProcessorException(ioe.getLocalizedMessage(), ioe);
+			}
+		}
+		public void close() {
+		}
+	};
+
+	@Test
+	public void testProcessAsync_default_mustCompleteWithTheFile() throws Exception {
+		CompletableFuture<File> future = processor.processAsync("Berlin", 1, TimeUnit.SECONDS);
+
+		assertTrue(future.isDone());
+		assertEquals("Berlin.csv", future.get().getName());
+	}
+
+	@Test
+	public void testProcessAsync_defaultFailure_mustFailTheFuture() throws InterruptedException {
+		try {
+			processor.processAsync("fail").get();
+			fail("ExecutionException expected");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof QueryProcessorException);
+		}
+	}
+
+	@Test
+	public void testProcessWriter_default_mustWriteCsvWithoutClosing() throws QueryProcessorException {
+		StringWriter writer = new StringWriter();
+		processor.process("Berlin", writer);
+		writer.write("end");
+
+		assertEquals(CSV + "end", writer.toString());
+	}
+
+	@Test
+	public void testProcessOutputStream_default_mustWriteUtf8Csv() throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		processor.process("Berlin", output);
+
+		assertEquals(CSV, output.toString("UTF-8"));
+	}
+}
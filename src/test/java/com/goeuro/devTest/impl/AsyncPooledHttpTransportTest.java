@@ -0,0 +1,157 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * @see {@link AsyncPooledHttpTransport}
+ */
+public class AsyncPooledHttpTransportTest {
+
+	private static final String BODY = "[{\"_id\":376217,\"name\":\"Berlin\"}]";
+
+	private static final Map<String, String> NO_HEADERS = Collections.<String, String>emptyMap();
+
+	private final List<String> acceptEncodings = new CopyOnWriteArrayList<String>();
+
+	private StubServer server;
+
+	private AsyncPooledHttpTransport transport;
+
+	@After
+	public void tearDown() throws IOException {
+		IOUtils.closeQuietly(transport);
+		if (server != null) {
+			server.stop();
+		}
+	}
+
+	private void startServer(final int status, final long delayMillis) throws IOException {
+		server = new StubServer(new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+				acceptEncodings.add(String.valueOf(acceptEncoding));
+				try {
+					Thread.sleep(delayMillis);
+				} catch (InterruptedException e) {
+					return;
+				}
+				byte[] body = BODY.getBytes("UTF-8");
+				if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+					ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+					GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+					gzip.write(body);
+					gzip.close();
+					body = compressed.toByteArray();
+					exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+				}
+				StubServer.respond(exchange, status, body);
+			}
+		});
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testAsyncPooledHttpTransport_maxConnectionsNotPositive_mustThrowIllegalArgumentException() {
+		new AsyncPooledHttpTransport(0, 1, 1, 1, true, null);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testAsyncPooledHttpTransport_negativeTimeout_mustThrowIllegalArgumentException() {
+		new AsyncPooledHttpTransport(1, -1, 1, 1, true, null);
+	}
+
+	@Test
+	public void testGetAsync_gzipEnabled_mustBeDecompressed() throws Exception {
+		startServer(200, 0);
+		transport = new AsyncPooledHttpTransport();
+
+		TransportResponse response = transport.getAsync(server.getBaseUrl() + "Berlin", NO_HEADERS).get(5, TimeUnit.SECONDS);
+		try {
+			assertEquals(BODY, IOUtils.toString(response.getBody(), "UTF-8"));
+			assertNull(response.getHeader("Content-Encoding"));
+		} finally {
+			response.close();
+		}
+		assertTrue(acceptEncodings.get(0).contains("gzip"));
+	}
+
+	@Test
+	public void testGet_gzipDisabled_mustNotAskForGzip() throws IOException {
+		startServer(200, 0);
+		transport = new AsyncPooledHttpTransport(1, 1000, 1000, 1000, false, null);
+
+		TransportResponse response = transport.get(server.getBaseUrl() + "Berlin", NO_HEADERS);
+		try {
+			assertEquals(BODY, IOUtils.toString(response.getBody(), "UTF-8"));
+		} finally {
+			response.close();
+		}
+		assertEquals("null", acceptEncodings.get(0));
+	}
+
+	@Test
+	public void testGetAsync_errorStatus_mustBeReturned() throws Exception {
+		startServer(503, 0);
+		transport = new AsyncPooledHttpTransport();
+
+		TransportResponse response = transport.getAsync(server.getBaseUrl() + "Berlin", NO_HEADERS).get(5, TimeUnit.SECONDS);
+		response.close();
+
+		assertEquals(503, response.getStatus());
+	}
+
+	@Test
+	public void testGetAsync_slowServer_mustTimeOut() throws Exception {
+		startServer(200, 2000);
+		transport = new AsyncPooledHttpTransport(1, 1000, 100, 1000, true, null);
+
+		try {
+			transport.getAsync(server.getBaseUrl() + "Berlin", NO_HEADERS).get(5, TimeUnit.SECONDS);
+			fail("ExecutionException expected");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof SocketTimeoutException);
+		}
+	}
+
+	@Test(expected=MalformedURLException.class)
+	public void testGet_malformedUrl_mustThrowMalformedURLException() throws IOException {
+		transport = new AsyncPooledHttpTransport();
+		transport.get("http://in valid/", NO_HEADERS);
+	}
+
+	@Test
+	public void testGetAsync_cancelled_mustFreeTheConnection() throws Exception {
+		startServer(200, 1000);
+		transport = new AsyncPooledHttpTransport(1, 200, 5000, 1000, true, null);
+
+		CompletableFuture<TransportResponse> slow = transport.getAsync(server.getBaseUrl() + "Berlin", NO_HEADERS);
+		Thread.sleep(100);
+		slow.cancel(false);
+
+		// the only pooled connection was given back, otherwise leasing it would time out before the first reply
+		TransportResponse response = transport.getAsync(server.getBaseUrl() + "Berlin", NO_HEADERS).get(5, TimeUnit.SECONDS);
+		response.close();
+		assertEquals(200, response.getStatus());
+		assertTrue(slow.isCancelled());
+		assertEquals(2, acceptEncodings.size());
+	}
+}
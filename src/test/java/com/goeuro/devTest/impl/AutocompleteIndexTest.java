@@ -0,0 +1,150 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.goeuro.devTest.QueryOptions;
+
+/**
+ * @see {@link AutocompleteIndex}
+ */
+public class AutocompleteIndexTest {
+
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("autocomplete", "");
+		directory.delete();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Test
+	public void testFold() {
+		assertEquals("munchen", AutocompleteIndex.fold(" München "));
+		assertEquals("saint-etienne", AutocompleteIndex.fold("SAINT-ÉTIENNE"));
+		assertEquals("alcazar del rey", AutocompleteIndex.fold("Alcázar del Rey"));
+	}
+
+	@Test
+	public void testLookup() throws IOException {
+		AutocompleteIndex index = new AutocompleteIndex(null);
+		write(index);
+		
+		assertEquals("2,München,location,48.13743,11.57549" + System.lineSeparator()
+				+ "3,München Hbf,station,48.1402,11.5600" + System.lineSeparator()
+				+ "4,Münster,,," + System.lineSeparator(), lookup(index, "MUN", 10));
+		assertEquals("1,Berlin,location,52.52437,13.41053" + System.lineSeparator(), lookup(index, "Berlin", 10));
+		assertEquals("", lookup(index, "Hamburg", 10));
+		assertEquals(4, index.size());
+	}
+
+	@Test
+	public void testLookup_limit() throws IOException {
+		AutocompleteIndex index = new AutocompleteIndex(null);
+		write(index);
+		
+		assertEquals("1,Berlin,location,52.52437,13.41053" + System.lineSeparator(), lookup(index, "", 1));
+	}
+
+	@Test
+	public void testLookup_options_mustFilterBeforeLimit() throws IOException {
+		AutocompleteIndex index = new AutocompleteIndex(new File(directory, "autocomplete.idx"));
+		write(index);
+		QueryOptions stations = QueryOptions.ALL.withTypes("station").withColumns(QueryOptions.Column.NAME);
+		QueryOptions bavaria = QueryOptions.ALL.withBoundingBox(47, 9, 50, 14);
+		
+		assertEquals("3,München Hbf,,," + System.lineSeparator(), lookup(index, "m", 1, stations));
+		assertEquals("2,München,location,48.13743,11.57549" + System.lineSeparator(), lookup(index, "", 1, bavaria));
+		index.save();
+		index.write(5, "Mainz Hbf", "station", "49.99", "8.26");
+		assertEquals("5,Mainz Hbf,,," + System.lineSeparator() + "3,München Hbf,,," + System.lineSeparator(),
+				lookup(index, "m", 2, stations));
+		assertEquals("3,München Hbf,,," + System.lineSeparator(), lookup(index, "mu", 1, stations));
+		assertEquals("", lookup(index, "berlin", 10, stations));
+	}
+
+	@Test
+	public void testWrite_sameId_mustReplace() throws IOException {
+		AutocompleteIndex index = new AutocompleteIndex(null);
+		index.write(1, "Berlin", "location", "52.52437", "13.41053");
+		index.write(1, "Berlin Mitte", "location", "52.52", "13.40");
+		index.write(2, null, "location", "1", "2");
+		
+		assertEquals(1, index.size());
+		assertEquals("1,Berlin Mitte,location,52.52,13.40" + System.lineSeparator(), lookup(index, "ber", 10));
+	}
+
+	@Test
+	public void testSave_mustBeMappedWhenCreated() throws IOException {
+		File file = new File(directory, "autocomplete.idx");
+		AutocompleteIndex index = new AutocompleteIndex(file);
+		write(index);
+		assertTrue(index.isModified());
+		index.save();
+		assertFalse(index.isModified());
+		AutocompleteIndex inMemory = new AutocompleteIndex(null);
+		write(inMemory);
+		assertEquals(lookup(inMemory, "m", 10), lookup(index, "m", 10));
+		
+		AutocompleteIndex loaded = new AutocompleteIndex(file);
+		assertEquals(4, loaded.size());
+		assertEquals("4,Münster,,,"  + System.lineSeparator(), lookup(loaded, "munst", 10));
+		
+		// updates are merged with the file, the one of the same id replaced
+		loaded.write(5, "Mainz", "location", "49.98419", "8.2791");
+		loaded.write(3, "München Ost", "station", "48.1272", "11.6046");
+		assertEquals("5,Mainz,location,49.98419,8.2791" + System.lineSeparator()
+				+ "2,München,location,48.13743,11.57549" + System.lineSeparator()
+				+ "3,München Ost,station,48.1272,11.6046" + System.lineSeparator()
+				+ "4,Münster,,," + System.lineSeparator(), lookup(loaded, "M", 10));
+		loaded.save();
+		
+		AutocompleteIndex reloaded = new AutocompleteIndex(file);
+		assertEquals(5, reloaded.size());
+		assertEquals(lookup(loaded, "", 10), lookup(reloaded, "", 10));
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testSave_noFile_mustThrowIllegalStateException() throws IOException {
+		new AutocompleteIndex(null).save();
+	}
+
+	@Test(expected=IOException.class)
+	public void testAutocompleteIndex_notAnIndex_mustThrowIOException() throws IOException {
+		File file = new File(directory, "autocomplete.idx");
+		FileUtils.writeStringToFile(file, "not an index at all", "UTF-8");
+		new AutocompleteIndex(file);
+	}
+
+	private static void write(AutocompleteIndex index) {
+		index.write(3, "München Hbf", "station", "48.1402", "11.5600");
+		index.write(1, "Berlin", "location", "52.52437", "13.41053");
+		index.write(4, "Münster", null, null, null);
+		index.write(2, "München", "location", "48.13743", "11.57549");
+	}
+
+	private static String lookup(AutocompleteIndex index, String prefix, int limit) throws IOException {
+		return lookup(index, prefix, limit, QueryOptions.ALL);
+	}
+
+	private static String lookup(AutocompleteIndex index, String prefix, int limit, QueryOptions options) throws IOException {
+		StringWriter writer = new StringWriter();
+		CsvLocationSink sink = new CsvLocationSink(writer);
+		index.lookup(prefix, limit, options, sink);
+		sink.close();
+		return writer.toString();
+	}
+}
@@ -0,0 +1,175 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.goeuro.devTest.LocationSink;
+import com.goeuro.devTest.QueryOptions;
+import com.goeuro.devTest.QueryProcessor;
+import com.goeuro.devTest.QueryProcessorException;
+
+/**
+ * @see {@link AutocompleteQueryProcessor}
+ */
+public class AutocompleteQueryProcessorTest {
+
+	private File directory;
+
+	private final List<String> queried = new ArrayList<String>();
+
+	private boolean closed;
+
+	private QueryProcessor delegate;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("autocomplete", "");
+		directory.delete();
+		delegate = new QueryProcessor() {
+			public File process(String location) throws QueryProcessorException {
+				throw new UnsupportedOperationException();
+			}
+			public void process(String location, LocationSink sink) throws QueryProcessorException {
+				queried.add(location);
+				try {
+					sink.write(376217, "Berlin", "location", "52.52437", "13.41053");
+					sink.write(448103, "Berlin Tegel", "airport", "52.5548", "13.28903");
+				} catch (IOException ioe) {
+					throw new QueryProcessorException(ioe.getLocalizedMessage(), ioe);
+				}
+			}
+			public void close() {
+				closed = true;
+			}
+		};
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Test(expected=NullPointerException.class)
+	public void testAutocompleteQueryProcessor_indexNull_mustThrowNullPointerException() {
+		new AutocompleteQueryProcessor(delegate, null, "csv", "UTF-8");
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testSetMaxResults_notPositive_mustThrowIllegalArgumentException() throws IOException {
+		new AutocompleteQueryProcessor(delegate, new AutocompleteIndex(null), "csv", "UTF-8").setMaxResults(0);
+	}
+
+	@Test
+	public void testProcess_blankOnceNormalized_mustThrowIllegalArgumentException() throws QueryProcessorException, IOException {
+		AutocompleteQueryProcessor processor = new AutocompleteQueryProcessor(delegate, new AutocompleteIndex(null), "csv", "UTF-8");
+		processor.process("Berlin", new RecordingLocationSink());
+		
+		for (String location : new String[] {"'", "\"\"", "' '", "\u0301"}) {
+			RecordingLocationSink sink = new RecordingLocationSink();
+			try {
+				processor.process(location, sink);
+				throw new AssertionError("IllegalArgumentException expected for " + location);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+			assertTrue(sink.getRecords().isEmpty());
+		}
+		assertEquals(1, queried.size());
+	}
+
+	@Test
+	public void testProcess_mustQueryOnlyUnknownPrefixes() throws QueryProcessorException, IOException {
+		AutocompleteQueryProcessor processor = new AutocompleteQueryProcessor(delegate, new AutocompleteIndex(null), "csv", "UTF-8");
+		processor.setMaxResults(1);
+		
+		RecordingLocationSink first = new RecordingLocationSink();
+		processor.process("'Berl'", first);
+		RecordingLocationSink second = new RecordingLocationSink();
+		processor.process("BERLIN T", second);
+		RecordingLocationSink third = new RecordingLocationSink();
+		processor.process("be", third);
+		
+		assertEquals(1, queried.size());
+		assertEquals("Berl", queried.get(0));
+		assertEquals(2, first.getRecords().size());
+		assertEquals(1, second.getRecords().size());
+		assertEquals("Berlin Tegel", second.getRecords().get(0).getName());
+		assertEquals(1, third.getRecords().size());
+		assertEquals(1, processor.getMisses());
+		assertEquals(2, processor.getHits());
+	}
+
+	@Test
+	public void testProcess_queryOptions_mustIndexEveryLocationAndFilterOutput() throws QueryProcessorException, IOException {
+		AutocompleteQueryProcessor processor = new AutocompleteQueryProcessor(delegate, new AutocompleteIndex(null), "csv", "UTF-8");
+		processor.setQueryOptions(QueryOptions.ALL.withTypes("airport").withColumns(QueryOptions.Column.NAME));
+		
+		RecordingLocationSink first = new RecordingLocationSink();
+		processor.process("Berl", first);
+		RecordingLocationSink second = new RecordingLocationSink();
+		processor.process("Berlin", second);
+		RecordingLocationSink indexed = new RecordingLocationSink();
+		processor.getIndex().lookup("berlin", 10, indexed);
+		
+		assertEquals(1, queried.size());
+		assertEquals(1, first.getRecords().size());
+		assertEquals("Berlin Tegel", first.getRecords().get(0).getName());
+		assertNull(first.getRecords().get(0).getType());
+		assertEquals(1, second.getRecords().size());
+		assertEquals(2, indexed.getRecords().size());
+		assertEquals("location", indexed.getRecords().get(0).getType());
+		assertEquals("52.52437", indexed.getRecords().get(0).getGeoPosition().getLatitude());
+		assertEquals(1, processor.getHits());
+	}
+
+	@Test
+	public void testProcess_queryOptionsBeyondMaxResults_mustBeAnsweredFromIndex() throws QueryProcessorException, IOException {
+		AutocompleteQueryProcessor processor = new AutocompleteQueryProcessor(delegate, new AutocompleteIndex(null), "csv", "UTF-8");
+		processor.process("Berl", new RecordingLocationSink());
+		processor.setMaxResults(1);
+		processor.setQueryOptions(QueryOptions.ALL.withTypes("airport"));
+		
+		RecordingLocationSink sink = new RecordingLocationSink();
+		processor.process("Berlin", sink);
+		
+		assertEquals(1, queried.size());
+		assertEquals(1, sink.getRecords().size());
+		assertEquals("Berlin Tegel", sink.getRecords().get(0).getName());
+		assertEquals(1, processor.getHits());
+	}
+
+	@Test
+	public void testProcess_noMatchAccepted_mustQueryDelegate() throws QueryProcessorException, IOException {
+		AutocompleteQueryProcessor processor = new AutocompleteQueryProcessor(delegate, new AutocompleteIndex(null), "csv", "UTF-8");
+		processor.process("Berl", new RecordingLocationSink());
+		processor.setQueryOptions(QueryOptions.ALL.withTypes("station"));
+		
+		RecordingLocationSink sink = new RecordingLocationSink();
+		processor.process("Berlin", sink);
+		
+		assertEquals(2, queried.size());
+		assertTrue(sink.getRecords().isEmpty());
+		assertEquals(2, processor.getMisses());
+		assertEquals(0, processor.getHits());
+	}
+
+	@Test
+	public void testClose_mustSaveIndexAndCloseDelegate() throws QueryProcessorException, IOException {
+		File file = new File(directory, "autocomplete.idx");
+		AutocompleteQueryProcessor processor = new AutocompleteQueryProcessor(delegate, new AutocompleteIndex(file), "csv", "UTF-8");
+		processor.process("Berlin", new RecordingLocationSink());
+		processor.close();
+		
+		assertTrue(closed);
+		assertEquals(2, new AutocompleteIndex(file).size());
+	}
+}
@@ -0,0 +1,51 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+/**
+ * @see {@link ByteCsvLocationSink}
+ */
+public class ByteCsvLocationSinkTest {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Values at the edges of the quoting of {@link org.apache.commons.csv.CSVFormat#DEFAULT}.
+	 */
+	private static final String[] VALUES = {null, "", "Berlin", "M\u00fcnchen", "a,b", "say \"hi\"", "\"", "line\nbreak", 
+			"carriage\rreturn", " leading", "trailing ", "trailing\t", "#hash", "!bang", "$dollar", "-2.5e-3", "\u00e9", 
+			"a'b", "tab\tinside", "\ud83d\ude00"};
+
+	@Test
+	public void testWrite_mustMatchCsvLocationSink() throws IOException {
+		StringWriter expected = new StringWriter();
+		CsvLocationSink csvSink = new CsvLocationSink(expected);
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		ByteCsvLocationSink byteSink = new ByteCsvLocationSink(Channels.newChannel(actual), UTF_8, 5);
+		int id = 376217;
+		for (String value : VALUES) {
+			for (String other : VALUES) {
+				csvSink.write(id, value, other, value, other);
+				byteSink.write(id, value, other, value, other);
+				id = id * 7 + 1;
+			}
+		}
+		csvSink.close();
+		byteSink.close();
+		
+		assertEquals(expected.toString(), new String(actual.toByteArray(), UTF_8));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testByteCsvLocationSink_utf16_mustThrowIllegalArgumentException() {
+		new ByteCsvLocationSink(Channels.newChannel(new ByteArrayOutputStream()), Charset.forName("UTF-16"), 16);
+	}
+}
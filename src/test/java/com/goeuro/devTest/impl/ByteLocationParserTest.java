@@ -0,0 +1,166 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import com.goeuro.devTest.LocationSink;
+import com.goeuro.devTest.QueryOptions;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
+
+/**
+ * @see {@link ByteLocationParser}
+ */
+public class ByteLocationParserTest {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final String JSON = "[\n"
+			+ "{\"_id\":376217,\"key\":null,\"name\":\"Berlin\",\"fullName\":\"Berlin, Germany\",\"iata_airport_code\":null,"
+			+ "\"type\":\"location\",\"country\":\"Germany\",\"geo_position\":{\"latitude\":52.52437,\"longitude\":13.41053},"
+			+ "\"names\":{\"de\":\"Berlin\",\"en\":[\"Berlin\",\"Berlín\",\"}]\\\"\"]},\"inEurope\":true,\"distance\":null},\n"
+			+ "{\"geo_position\":{\"longitude\":\"-2.5e-3\",\"altitude\":12,\"latitude\":1E2},\"type\":true,"
+			+ "\"_id\":\"42\",\"name\":\"\\\"quoted\\\", \\u00e9\\nline\"},\n"
+			+ "{\"_id\":null,\"name\":null,\"type\":\"airport\",\"geo_position\":{\"latitude\":null,\"longitude\":0}},\n"
+			+ "{\"name\":\"first\",\"name\":\"last\",\"_id\":7.0,\"geo_position\":{\"latitude\":1,\"longitude\":2}},\n"
+			+ "{\"_id\":-8,\"name\":\"M\u00fcnchen \\ud83d\\ude00.\",\"type\":\"#station \",\"geo_position\":[1,2]}\n"
+			+ "]";
+
+	@Test
+	public void testParse_byteSink_mustMatchStreamingLocationParser() throws IOException {
+		assertEquals(parseStreaming(JSON), parse(new ByteLocationParser(), JSON, true));
+	}
+
+	@Test
+	public void testParse_stringSink_mustMatchStreamingLocationParser() throws IOException {
+		assertEquals(parseStreaming(JSON), parse(new ByteLocationParser(), JSON, false));
+	}
+
+	@Test
+	public void testParse_tinyDirectBuffers_mustMatchStreamingLocationParser() throws IOException {
+		ByteLocationParser parser = new ByteLocationParser(1, true);
+		
+		assertEquals(parseStreaming(JSON), parse(parser, JSON, true));
+		assertEquals(parseStreaming(JSON), parse(parser, JSON, false));
+	}
+
+	@Test
+	public void testParse() throws IOException {
+		String expected = "376217,Berlin,location,52.52437,13.41053" + System.lineSeparator()
+				+ "42,\"\"\"quoted\"\", \u00e9\nline\",true,1E2,-2.5e-3" + System.lineSeparator()
+				+ "0,,airport,,0" + System.lineSeparator()
+				+ "7,last,,1,2" + System.lineSeparator()
+				+ "\"-8\",M\u00fcnchen \ud83d\ude00.,\"#station \",," + System.lineSeparator();
+
+		assertEquals(expected, parse(new ByteLocationParser(), JSON, true));
+	}
+
+	@Test
+	public void testParse_options_mustMatchStreamingLocationParser() throws IOException {
+		QueryOptions options = QueryOptions.ALL.withTypes("location", "true", "#station ")
+				.withColumns(QueryOptions.Column.NAME, QueryOptions.Column.LONGITUDE);
+		
+		assertEquals(parseStreaming(JSON, options), parse(new ByteLocationParser(), JSON, true, options));
+		assertEquals(parseStreaming(JSON, options), parse(new ByteLocationParser(1, false), JSON, false, options));
+	}
+
+	@Test
+	public void testParse_boundingBox() throws IOException {
+		QueryOptions options = QueryOptions.ALL.withBoundingBox(50, 10, 60, 20).withColumns(QueryOptions.Column.TYPE);
+		
+		assertEquals("376217,,location,," + System.lineSeparator(), parse(new ByteLocationParser(), JSON, true, options));
+	}
+
+	@Test
+	public void testParse_boundingBox_mustMatchStreamingLocationParser() throws IOException {
+		QueryOptions exponents = QueryOptions.ALL.withBoundingBox(99, -0.0025, 101, 0);
+		QueryOptions decimals = QueryOptions.ALL.withBoundingBox(52.52437, 13.41053, 52.52437, 13.41053);
+		
+		assertEquals(parseStreaming(JSON, exponents), parse(new ByteLocationParser(), JSON, true, exponents));
+		assertEquals(parseStreaming(JSON, decimals), parse(new ByteLocationParser(), JSON, true, decimals));
+		assertEquals(1, parse(new ByteLocationParser(), JSON, true, decimals).split(System.lineSeparator()).length);
+	}
+
+	@Test
+	public void testParse_types_mustSkipOtherLocations() throws IOException {
+		String expected = "0,,airport,,0" + System.lineSeparator();
+		
+		assertEquals(expected, parse(new ByteLocationParser(), JSON, true, QueryOptions.ALL.withTypes("airport")));
+	}
+
+	@Test
+	public void testParse_latin1() throws IOException {
+		Charset latin1 = Charset.forName("ISO-8859-1");
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ByteCsvLocationSink sink = new ByteCsvLocationSink(Channels.newChannel(output), latin1, 16);
+		new ByteLocationParser().parse(Channels.newChannel(new ByteArrayInputStream(
+				"[{\"_id\":1,\"name\":\"M\u00fcnchen \\u00df\"}]".getBytes(latin1))), latin1, sink);
+		sink.close();
+		
+		assertEquals("1,M\u00fcnchen \u00df,,," + System.lineSeparator(), new String(output.toByteArray(), latin1));
+	}
+
+	@Test
+	public void testParse_empty() throws IOException {
+		assertEquals("", parse(new ByteLocationParser(), " [ ] ", true));
+	}
+
+	@Test(expected=IOException.class)
+	public void testParse_truncated_mustThrowIOException() throws IOException {
+		parse(new ByteLocationParser(), "[{\"_id\":1,\"name\":\"Ber", true);
+	}
+
+	@Test(expected=MalformedJsonException.class)
+	public void testParse_unquotedName_mustThrowMalformedJsonException() throws IOException {
+		parse(new ByteLocationParser(), "[{_id:1}]", true);
+	}
+
+	@Test(expected=MalformedJsonException.class)
+	public void testParse_fractionalId_mustThrowMalformedJsonException() throws IOException {
+		parse(new ByteLocationParser(), "[{\"_id\":1.5}]", true);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testParse_utf16_mustThrowIllegalArgumentException() throws IOException {
+		new ByteLocationParser().parse(Channels.newChannel(new ByteArrayInputStream(new byte[0])), 
+				Charset.forName("UTF-16"), new RecordingLocationSink());
+	}
+
+	private static String parseStreaming(String json) throws IOException {
+		return parseStreaming(json, QueryOptions.ALL);
+	}
+
+	private static String parseStreaming(String json, QueryOptions options) throws IOException {
+		StringWriter writer = new StringWriter();
+		CsvLocationSink sink = new CsvLocationSink(writer);
+		new StreamingLocationParser().parse(new JsonReader(new StringReader(json)), sink, options);
+		sink.close();
+		return writer.toString();
+	}
+
+	/**
+	 * @param bytes whether to write to a {@link ByteCsvLocationSink} or to a {@link CsvLocationSink}
+	 */
+	private static String parse(ByteLocationParser parser, String json, boolean bytes) throws IOException {
+		return parse(parser, json, bytes, QueryOptions.ALL);
+	}
+
+	private static String parse(ByteLocationParser parser, String json, boolean bytes, QueryOptions options) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		StringWriter writer = new StringWriter();
+		LocationSink sink = bytes ? new ByteCsvLocationSink(Channels.newChannel(output), UTF_8, 7)
+				: new CsvLocationSink(writer);
+		parser.parse(Channels.newChannel(new ByteArrayInputStream(json.getBytes(UTF_8))), UTF_8, sink, options);
+		sink.close();
+		return bytes ? new String(output.toByteArray(), UTF_8) : writer.toString();
+	}
+}
@@ -0,0 +1,133 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.goeuro.devTest.QueryOptions;
+import com.goeuro.devTest.QueryProcessorException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * @see {@link CachingQueryProcessor}
+ */
+public class CachingQueryProcessorTest {
+
+	private static final String JSON = 
+			"[{\"_id\":376217,\"name\":\"Berlin\",\"type\":\"location\","
+			+ "\"geo_position\":{\"latitude\": 52.52437,\"longitude\": 13.41053}}]";
+	
+	private static final String CSV = "376217,Berlin,location,52.52437,13.41053" + System.lineSeparator();
+	
+	private static final String ETAG = "\"v1\"";
+	
+	private final List<String> requests = new CopyOnWriteArrayList<String>();
+	
+	private StubServer server;
+	
+	private QueryProcessorImpl delegate;
+	
+	@Before
+	public void setUp() throws IOException {
+		server = new StubServer(new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+				requests.add(exchange.getRequestURI().getPath() + " " + ifNoneMatch);
+				exchange.getResponseHeaders().set("ETag", ETAG);
+				if (ETAG.equals(ifNoneMatch)) {
+					StubServer.respond(exchange, 304, new byte[0]);
+				} else {
+					StubServer.respond(exchange, 200, JSON.getBytes("UTF-8"));
+				}
+			}
+		});
+		delegate = new QueryProcessorImpl(server.getBaseUrl(), "csvBaseDirectory", "UTF-8");
+	}
+	
+	@After
+	public void tearDown() throws IOException {
+		delegate.close();
+		server.stop();
+	}
+	
+	private String process(CachingQueryProcessor processor, String location) throws QueryProcessorException, IOException {
+		StringWriter writer = new StringWriter();
+		CsvLocationSink sink = new CsvLocationSink(writer);
+		processor.process(location, sink);
+		sink.close();
+		return writer.toString();
+	}
+
+	@Test(expected=NullPointerException.class)
+	public void testCachingQueryProcessor_delegateNull_mustThrowNullPointerException() {
+		new CachingQueryProcessor(null, new LocationCache(1, null, 0), "csvBaseDirectory", "UTF-8");
+	}
+
+	@Test
+	public void testProcess_fresh_mustBeServedFromCache() throws Exception {
+		CachingQueryProcessor processor = new CachingQueryProcessor(delegate, new LocationCache(10, null, 60000), "csvBaseDirectory", "UTF-8");
+		
+		assertEquals(CSV, process(processor, "Berlin"));
+		assertEquals(CSV, process(processor, "'Berlin'"));
+		assertEquals(CSV, process(processor, "\"Berlin\""));
+		
+		assertEquals(1, requests.size());
+		assertEquals(1, processor.getMisses());
+		assertEquals(2, processor.getHits());
+	}
+
+	@Test
+	public void testProcess_expired_mustBeRevalidated() throws Exception {
+		CachingQueryProcessor processor = new CachingQueryProcessor(delegate, new LocationCache(10, null, 0), "csvBaseDirectory", "UTF-8");
+		
+		assertEquals(CSV, process(processor, "Berlin"));
+		assertEquals(CSV, process(processor, "Berlin"));
+		
+		assertEquals(2, requests.size());
+		assertEquals("/Berlin null", requests.get(0));
+		assertEquals("/Berlin " + ETAG, requests.get(1));
+		assertEquals(1, processor.getMisses());
+		assertEquals(1, processor.getRevalidations());
+		assertEquals(0, processor.getHits());
+	}
+
+	@Test
+	public void testProcess_revalidated_mustReplaceEntry() throws Exception {
+		LocationCache cache = new LocationCache(10, null, 0);
+		CachingQueryProcessor processor = new CachingQueryProcessor(delegate, cache, "csvBaseDirectory", "UTF-8");
+		process(processor, "Berlin");
+		CacheEntry first = cache.get("Berlin");
+		long expiresAt = first.getExpiresAt();
+		Thread.sleep(2);
+		
+		assertEquals(CSV, process(processor, "Berlin"));
+		
+		assertEquals(1, processor.getRevalidations());
+		assertNotSame(first, cache.get("Berlin"));
+		assertEquals(expiresAt, first.getExpiresAt());
+		assertEquals(ETAG, cache.get("Berlin").getValidators().getEtag());
+	}
+
+	@Test
+	public void testProcess_options_mustBeCachedApartFromDelegateOptions() throws Exception {
+		delegate.setQueryOptions(QueryOptions.ALL.withTypes("airport"));
+		CachingQueryProcessor processor = new CachingQueryProcessor(delegate, new LocationCache(10, null, 60000), "csvBaseDirectory", "UTF-8");
+		
+		assertEquals("", process(processor, "Berlin"));
+		RecordingLocationSink recorder = new RecordingLocationSink();
+		processor.process("Berlin", recorder, QueryOptions.ALL);
+		
+		assertEquals(1, recorder.getRecords().size());
+		assertEquals(2, requests.size());
+		assertEquals(2, processor.getMisses());
+	}
+}
@@ -0,0 +1,295 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.goeuro.devTest.LocationSink;
+import com.goeuro.devTest.QueryProcessor;
+import com.goeuro.devTest.QueryProcessorException;
+
+/**
+ * @see {@link CoalescingQueryProcessor}
+ */
+public class CoalescingQueryProcessorTest {
+
+	private static final int CALLERS = 8;
+	
+	private final AtomicInteger calls = new AtomicInteger();
+	
+	private final CountDownLatch release = new CountDownLatch(1);
+	
+	private final AtomicInteger failures = new AtomicInteger();
+	
+	private ExecutorService executor;
+	
+	private QueryProcessor delegate;
+	
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(CALLERS);
+		delegate = new QueryProcessor() {
+			public File process(String location) throws QueryProcessorException {
+				this.await(location);
+				return new File(location + calls.get() + ".csv");
+			}
+			public void process(String location, LocationSink sink) throws QueryProcessorException {
+				this.await(location);
+				try {
+					sink.write(1, location, "location", "1.5", "2.5");
+				} catch (IOException ioe) {
+					throw new QueryProcessorException(ioe.getLocalizedMessage(), ioe);
+				}
+			}
+			private void await(String location) throws QueryProcessorException {
+				calls.incrementAndGet();
+				try {
+					release.await();
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					throw new QueryProcessorException("interrupted", e);
+				}
+				if (failures.getAndDecrement() > 0) {
+					throw new QueryProcessorException("failed " + location);
+				}
+			}
+			public CompletableFuture<File> processAsync(final String location, long timeout, TimeUnit unit) {
+				final CompletableFuture<File> future = new CompletableFuture<File>();
+				executor.execute(new Runnable() {
+					public void run() {
+						try {
+							future.complete(process(location));
+						} catch (QueryProcessorException e) {
+							future.completeExceptionally(e);
+						}
+					}
+				});
+				return future;
+			}
+			public void close() {
+			}
+		};
+	}
+	
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+	
+	private <T> List<Future<T>> submitAndRelease(final Callable<T> call) throws InterruptedException {
+		List<Future<T>> futures = new ArrayList<Future<T>>();
+		for (int i = 0; i < CALLERS; i++) {
+			futures.add(executor.submit(call));
+		}
+		// give the other callers time to queue behind the one in the delegate
+		while (calls.get() == 0) {
+			Thread.sleep(1);
+		}
+		Thread.sleep(100);
+		release.countDown();
+		return futures;
+	}
+
+	@Test(expected=NullPointerException.class)
+	public void testCoalescingQueryProcessor_delegateNull_mustThrowNullPointerException() {
+		new CoalescingQueryProcessor(null, CoalescingQueryProcessor.FailurePolicy.PROPAGATE, 0);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testCoalescingQueryProcessor_negativeMaxWait_mustThrowIllegalArgumentException() {
+		new CoalescingQueryProcessor(delegate, CoalescingQueryProcessor.FailurePolicy.PROPAGATE, -1);
+	}
+
+	@Test
+	public void testProcess_concurrentIdenticalQueries_mustShareFile() throws Exception {
+		final CoalescingQueryProcessor processor = new CoalescingQueryProcessor(delegate, CoalescingQueryProcessor.FailurePolicy.PROPAGATE, 0);
+		
+		List<Future<File>> futures = submitAndRelease(new Callable<File>() {
+			public File call() throws Exception {
+				return processor.process("'Berlin'");
+			}
+		});
+		
+		File first = futures.get(0).get(5, TimeUnit.SECONDS);
+		for (Future<File> future : futures) {
+			assertSame(first, future.get(5, TimeUnit.SECONDS));
+		}
+		assertEquals(1, calls.get());
+		assertEquals(CALLERS - 1, processor.getCoalesced());
+	}
+
+	@Test
+	public void testProcessSink_concurrentIdenticalQueries_mustReplayRecords() throws Exception {
+		final CoalescingQueryProcessor processor = new CoalescingQueryProcessor(delegate, CoalescingQueryProcessor.FailurePolicy.PROPAGATE, 0);
+		
+		List<Future<String>> futures = submitAndRelease(new Callable<String>() {
+			public String call() throws Exception {
+				StringWriter writer = new StringWriter();
+				CsvLocationSink sink = new CsvLocationSink(writer);
+				processor.process("Berlin", sink);
+				sink.close();
+				return writer.toString();
+			}
+		});
+		
+		for (Future<String> future : futures) {
+			assertEquals("1,Berlin,location,1.5,2.5" + System.lineSeparator(), future.get(5, TimeUnit.SECONDS));
+		}
+		assertEquals(1, calls.get());
+	}
+
+	@Test
+	public void testProcessSink_sinkFails_onlyItsCallerMustFail() throws Exception {
+		final CoalescingQueryProcessor processor = new CoalescingQueryProcessor(delegate, CoalescingQueryProcessor.FailurePolicy.PROPAGATE, 0);
+		final AtomicInteger sinkFailures = new AtomicInteger(1);
+		
+		List<Future<String>> futures = submitAndRelease(new Callable<String>() {
+			public String call() throws Exception {
+				StringWriter writer = new StringWriter();
+				final CsvLocationSink csv = new CsvLocationSink(writer);
+				processor.process("Berlin", new LocationSink() {
+					public void write(int id, String name, String type, String latitude, String longitude) throws IOException {
+						if (sinkFailures.getAndDecrement() > 0) {
+							throw new IOException("disk full");
+						}
+						csv.write(id, name, type, latitude, longitude);
+					}
+					public void close() throws IOException {
+						csv.close();
+					}
+				});
+				csv.close();
+				return writer.toString();
+			}
+		});
+		
+		int failed = 0;
+		for (Future<String> future : futures) {
+			try {
+				assertEquals("1,Berlin,location,1.5,2.5" + System.lineSeparator(), future.get(5, TimeUnit.SECONDS));
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof QueryProcessorException);
+				failed++;
+			}
+		}
+		assertEquals(1, failed);
+		assertEquals(1, calls.get());
+	}
+
+	@Test
+	public void testProcess_failurePropagate_everyCallerMustFail() throws Exception {
+		failures.set(1);
+		final CoalescingQueryProcessor processor = new CoalescingQueryProcessor(delegate, CoalescingQueryProcessor.FailurePolicy.PROPAGATE, 0);
+		
+		List<Future<File>> futures = submitAndRelease(new Callable<File>() {
+			public File call() throws Exception {
+				return processor.process("Berlin");
+			}
+		});
+		
+		for (Future<File> future : futures) {
+			try {
+				future.get(5, TimeUnit.SECONDS);
+				throw new AssertionError("QueryProcessorException expected");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof QueryProcessorException);
+			}
+		}
+		assertEquals(1, calls.get());
+	}
+
+	@Test
+	public void testProcess_failureRetry_waitingCallersMustQueryAgain() throws Exception {
+		failures.set(1);
+		final CoalescingQueryProcessor processor = new CoalescingQueryProcessor(delegate, CoalescingQueryProcessor.FailurePolicy.RETRY, 0);
+		
+		List<Future<File>> futures = submitAndRelease(new Callable<File>() {
+			public File call() throws Exception {
+				return processor.process("Berlin");
+			}
+		});
+		
+		int failed = 0;
+		for (Future<File> future : futures) {
+			try {
+				future.get(5, TimeUnit.SECONDS);
+			} catch (ExecutionException e) {
+				failed++;
+			}
+		}
+		assertEquals(1, failed);
+		assertEquals(2, calls.get());
+	}
+
+	@Test(expected=QueryProcessorException.class)
+	public void testProcess_maxWaitExceeded_mustThrowQueryProcessorException() throws Exception {
+		final CoalescingQueryProcessor processor = new CoalescingQueryProcessor(delegate, CoalescingQueryProcessor.FailurePolicy.PROPAGATE, 10);
+		executor.submit(new Callable<File>() {
+			public File call() throws Exception {
+				return processor.process("Berlin");
+			}
+		});
+		while (calls.get() == 0) {
+			Thread.sleep(1);
+		}
+		
+		try {
+			processor.process("Berlin");
+		} finally {
+			release.countDown();
+		}
+	}
+
+	@Test
+	public void testProcessAsync_concurrentIdenticalQueries_mustShareFile() throws Exception {
+		CoalescingQueryProcessor processor = new CoalescingQueryProcessor(delegate, CoalescingQueryProcessor.FailurePolicy.PROPAGATE, 0);
+		List<CompletableFuture<File>> futures = new ArrayList<CompletableFuture<File>>();
+		for (int i = 0; i < CALLERS; i++) {
+			futures.add(processor.processAsync("Berlin"));
+		}
+		release.countDown();
+		
+		File first = futures.get(0).get(5, TimeUnit.SECONDS);
+		for (CompletableFuture<File> future : futures) {
+			assertSame(first, future.get(5, TimeUnit.SECONDS));
+		}
+		assertEquals(1, calls.get());
+		assertEquals(CALLERS - 1, processor.getCoalesced());
+	}
+
+	@Test
+	public void testProcessAsync_callerTimesOut_otherCallersMustGetFile() throws Exception {
+		CoalescingQueryProcessor processor = new CoalescingQueryProcessor(delegate, CoalescingQueryProcessor.FailurePolicy.PROPAGATE, 0);
+		CompletableFuture<File> impatient = processor.processAsync("Berlin", 10, TimeUnit.MILLISECONDS);
+		CompletableFuture<File> patient = processor.processAsync("Berlin");
+		
+		try {
+			impatient.get(5, TimeUnit.SECONDS);
+			throw new AssertionError("QueryProcessorException expected");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof QueryProcessorException);
+		}
+		release.countDown();
+		assertEquals("Berlin1.csv", patient.get(5, TimeUnit.SECONDS).getName());
+		assertEquals(1, calls.get());
+	}
+}
@@ -0,0 +1,67 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * @see {@link ColumnarLocationReader}
+ */
+public class ColumnarLocationReaderTest {
+
+	private static final String[] TYPES = {"location", "airport", null, "station"};
+
+	@Test
+	public void testNext() throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		ColumnarLocationSink sink = new ColumnarLocationSink(outputStream, "UTF-8", 3);
+		for (int i = 0; i < 7; i++) {
+			sink.write(i, i == 5 ? null : "name " + i, TYPES[i % TYPES.length], Integer.toString(i), i == 6 ? null : "-" + i + ".5");
+		}
+		sink.close();
+		
+		ColumnarLocationReader reader = new ColumnarLocationReader(new ByteArrayInputStream(outputStream.toByteArray()), "UTF-8");
+		int[] blocks = {3, 3, 1};
+		int row = 0;
+		for (int block : blocks) {
+			assertTrue(reader.next());
+			assertEquals(block, reader.getRows());
+			for (int i = 0; i < block; i++, row++) {
+				assertEquals(row, reader.getIds()[i]);
+				assertEquals(row == 5 ? null : "name " + row, reader.getNames()[i]);
+				assertEquals(TYPES[row % TYPES.length], reader.getType(reader.getTypeCodes()[i]));
+				assertEquals(row, reader.getLatitudes()[i], 0);
+				assertEquals(row == 6 ? Double.NaN : -row - 0.5, reader.getLongitudes()[i], 0);
+			}
+		}
+		assertFalse(reader.next());
+		assertFalse(reader.next());
+	}
+
+	@Test
+	public void testReadAll() throws IOException {
+		assertEquals("376217,Berlin,location,52.52437,13.41053" + System.lineSeparator()
+				+ "2,\"Alcázar, \"\"del\"\" Rey\",airport,-1.5,100.0" + System.lineSeparator()
+				+ "3,\"line\nbreak\",,," + System.lineSeparator(), CsvOutputFormatTest.roundTrip(new ColumnarOutputFormat()));
+	}
+
+	@Test
+	public void testReadAll_empty() throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		new ColumnarLocationSink(outputStream, "UTF-8", 3).close();
+		RecordingLocationSink sink = new RecordingLocationSink();
+		
+		new ColumnarLocationReader(new ByteArrayInputStream(outputStream.toByteArray()), "UTF-8").readAll(sink);
+		
+		assertTrue(sink.getRecords().isEmpty());
+	}
+
+	@Test(expected=IOException.class)
+	public void testColumnarLocationReader_notColumnar_mustThrowIOException() throws IOException {
+		new ColumnarLocationReader(new ByteArrayInputStream("376217,Berlin".getBytes("UTF-8")), "UTF-8");
+	}
+}
@@ -0,0 +1,45 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.apache.commons.csv.CSVFormat;
+import org.junit.Test;
+
+/**
+ * @see {@link CsvLocationSink}
+ */
+public class CsvLocationSinkTest {
+
+	@Test(expected=NullPointerException.class)
+	public void testCsvLocationSink_writerNull_mustThrowNullPointerException() throws IOException {
+		new CsvLocationSink(null);
+	}
+
+	@Test
+	public void testWrite_mustMatchFormatOfSingleRecord() throws IOException {
+		String[][] records = new String[][] {
+				{"Berlin", "location", "52.52437", "13.41053"},
+				{"Alcazar, del Rey", "location", "1", "2"},
+				{"\"quoted\"", "airport", "-1.5", "-2.5"},
+				{"#comment", " leading", "trailing ", "line\nbreak"},
+				{null, "", null, ""}
+		};
+		StringWriter writer = new StringWriter();
+		StringBuilder expected = new StringBuilder();
+		
+		CsvLocationSink sink = new CsvLocationSink(writer);
+		for (int i = 0; i < records.length; i++) {
+			String[] record = records[i];
+			sink.write(i, record[0], record[1], record[2], record[3]);
+			expected.append(CSVFormat.DEFAULT.format(i, record[0], record[1], record[2], record[3]))
+					.append(System.lineSeparator());
+		}
+		sink.close();
+		
+		assertEquals(expected.toString(), writer.toString());
+	}
+
+}
@@ -0,0 +1,63 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import com.goeuro.devTest.LocationSink;
+import com.goeuro.devTest.OutputFormat;
+
+/**
+ * @see {@link CsvOutputFormat}
+ */
+public class CsvOutputFormatTest {
+
+	/**
+	 * Writes sample locations in the format, reads them back and returns them as CSV.
+	 */
+	static String roundTrip(OutputFormat format) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		LocationSink sink = format.createSink(outputStream, "UTF-8", 16);
+		sink.write(376217, "Berlin", "location", "52.52437", "13.41053");
+		sink.write(2, "Alcázar, \"del\" Rey", "airport", "-1.5", "1E2");
+		sink.write(3, "line\nbreak", null, null, null);
+		sink.close();
+		
+		ByteArrayOutputStream csv = new ByteArrayOutputStream();
+		LocationSink csvSink = new CsvOutputFormat().createSink(csv, "UTF-8", 16);
+		format.read(new ByteArrayInputStream(outputStream.toByteArray()), "UTF-8", csvSink);
+		csvSink.close();
+		return csv.toString("UTF-8");
+	}
+
+	@Test
+	public void testRead() throws IOException {
+		assertEquals("376217,Berlin,location,52.52437,13.41053" + System.lineSeparator()
+				+ "2,\"Alcázar, \"\"del\"\" Rey\",airport,-1.5,1E2" + System.lineSeparator()
+				+ "3,\"line\nbreak\",,," + System.lineSeparator(), roundTrip(new CsvOutputFormat()));
+	}
+
+	@Test
+	public void testCreateSink_writer_mustMatchOutputStream() throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		LocationSink sink = new CsvOutputFormat().createSink(outputStream, "UTF-8", 16);
+		sink.write(376217, "Berlin", "location", "52.52437", "13.41053");
+		sink.close();
+		StringWriter writer = new StringWriter();
+		LocationSink writerSink = new CsvOutputFormat().createSink(writer, 16);
+		writerSink.write(376217, "Berlin", "location", "52.52437", "13.41053");
+		writerSink.close();
+		
+		assertEquals(outputStream.toString("UTF-8"), writer.toString());
+	}
+
+	@Test(expected=IOException.class)
+	public void testRead_notCsvOfLocations_mustThrowIOException() throws IOException {
+		new CsvOutputFormat().read(new ByteArrayInputStream("a,b,c,d,e".getBytes("UTF-8")), "UTF-8", new RecordingLocationSink());
+	}
+}
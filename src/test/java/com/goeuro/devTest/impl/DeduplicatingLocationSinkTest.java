@@ -0,0 +1,84 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @see {@link DeduplicatingLocationSink}
+ */
+public class DeduplicatingLocationSinkTest {
+
+	@Test(expected=NullPointerException.class)
+	public void testDeduplicatingLocationSink_sinkNull_mustThrowNullPointerException() {
+		new DeduplicatingLocationSink(null);
+	}
+
+	@Test
+	public void testWrite_duplicatesDropped() throws IOException {
+		StringWriter writer = new StringWriter();
+		DeduplicatingLocationSink sink = new DeduplicatingLocationSink(new CsvLocationSink(writer));
+		sink.write(376217, "Berlin", "location", "52.52437", "13.41053");
+		sink.write(2, "Berlingen", "location", "1", "2");
+		sink.write(376217, "Berlin", "location", "52.52437", "13.41053");
+		sink.close();
+
+		assertEquals("376217,Berlin,location,52.52437,13.41053" + System.lineSeparator()
+				+ "2,Berlingen,location,1,2" + System.lineSeparator(), writer.toString());
+		assertEquals(2, sink.getDistinct());
+		assertEquals(1, sink.getDuplicates());
+	}
+
+	@Test
+	public void testWrite_idsAlreadyWritten_dropped() throws IOException {
+		IdBitmap ids = new IdBitmap();
+		ids.add(376217);
+		RecordingLocationSink recording = new RecordingLocationSink();
+		DeduplicatingLocationSink sink = new DeduplicatingLocationSink(recording, ids);
+		sink.write(376217, "Berlin", "location", "52.52437", "13.41053");
+
+		assertEquals(0, recording.getRecords().size());
+	}
+
+	@Test
+	public void testWrite_concurrentProducers_everyIdWrittenOnce() throws Exception {
+		RecordingLocationSink recording = new RecordingLocationSink();
+		final DeduplicatingLocationSink sink = new DeduplicatingLocationSink(recording);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					try {
+						for (int id = 0; id < 20000; id++) {
+							sink.write(id, "name", "type", "1", "2");
+						}
+					} catch (IOException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		sink.close();
+
+		assertEquals(20000, recording.getRecords().size());
+		assertEquals(20000, sink.getDistinct());
+		assertEquals(3 * 20000, sink.getDuplicates());
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testWrite_afterClose_mustThrowIllegalStateException() throws IOException {
+		DeduplicatingLocationSink sink = new DeduplicatingLocationSink(new RecordingLocationSink());
+		sink.close();
+		sink.write(1, "name", "type", "1", "2");
+	}
+}
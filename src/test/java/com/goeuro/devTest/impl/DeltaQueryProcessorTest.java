@@ -0,0 +1,261 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.goeuro.devTest.LocationSink;
+import com.goeuro.devTest.QueryProcessor;
+import com.goeuro.devTest.QueryProcessorException;
+
+/**
+ * @see {@link DeltaQueryProcessor}
+ */
+public class DeltaQueryProcessorTest {
+
+	private static final String NEW_LINE = System.lineSeparator();
+
+	private File directory;
+	
+	/**
+	 * The reply of the delegate, id, name, type, latitude and longitude of every location.
+	 */
+	private List<String[]> reply;
+	
+	private boolean failing;
+	
+	/**
+	 * Counted down by the delegate after its first location when {@link #gate} is set.
+	 */
+	private final CountDownLatch started = new CountDownLatch(1);
+	
+	/**
+	 * Holds the delegate after its first location if set.
+	 */
+	private volatile CountDownLatch gate;
+	
+	private DeltaQueryProcessor processor;
+	
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("delta", "");
+		directory.delete();
+		reply = new ArrayList<String[]>();
+		reply.add(new String[] {"1", "Berlin", "location", "52.52437", "13.41053"});
+		reply.add(new String[] {"2", "Berlingen", "location", "47.6", "8.9"});
+		processor = new DeltaQueryProcessor(new QueryProcessor() {
+			public File process(String location) throws QueryProcessorException {
+				throw new UnsupportedOperationException();
+			}
+			public void process(String location, LocationSink sink) throws QueryProcessorException {
+				try {
+					for (String[] fields : reply) {
+						sink.write(Integer.parseInt(fields[0]), fields[1], fields[2], fields[3], fields[4]);
+						if (gate != null) {
+							started.countDown();
+							gate.await();
+						}
+					}
+				} catch (InterruptedException ie) {
+					throw new QueryProcessorException(ie.getLocalizedMessage(), ie);
+				} catch (IOException ioe) {
+					throw new QueryProcessorException(ioe.getLocalizedMessage(), ioe);
+				}
+				if (failing) {
+					throw new QueryProcessorException("failed " + location);
+				}
+			}
+			public void close() {
+			}
+		}, new File(directory, "index"), new File(directory, "csv").getPath(), "UTF-8");
+	}
+	
+	@After
+	public void tearDown() throws IOException {
+		processor.close();
+		FileUtils.deleteDirectory(directory);
+	}
+	
+	private String process(String location) throws QueryProcessorException {
+		StringWriter writer = new StringWriter();
+		processor.process(location, writer);
+		return writer.toString();
+	}
+
+	@Test
+	public void testProcess_firstRun_mustAddEveryLocation() throws QueryProcessorException {
+		assertEquals("ADDED,1,Berlin,location,52.52437,13.41053" + NEW_LINE 
+				+ "ADDED,2,Berlingen,location,47.6,8.9" + NEW_LINE, this.process("Berlin"));
+		assertEquals(2, processor.getAdded());
+	}
+
+	@Test
+	public void testProcess_unchanged_mustWriteNothing() throws QueryProcessorException {
+		this.process("Berlin");
+		
+		assertEquals("", this.process("\"Berlin\""));
+		assertEquals(2, processor.getUnchanged());
+	}
+
+	@Test
+	public void testProcess_changedAddedRemoved_mustWriteTheChangesOnly() throws QueryProcessorException {
+		this.process("Berlin");
+		reply.set(0, new String[] {"1", "Berlin", "location", "52.52438", "13.41053"});
+		reply.set(1, new String[] {"3", "Berlinchen", "location", "53.2", "12.6"});
+		
+		assertEquals("CHANGED,1,Berlin,location,52.52438,13.41053" + NEW_LINE 
+				+ "ADDED,3,Berlinchen,location,53.2,12.6" + NEW_LINE 
+				+ "REMOVED,2,,,," + NEW_LINE, this.process("Berlin"));
+		assertEquals("", this.process("Berlin"));
+		assertEquals(3, processor.getAdded());
+		assertEquals(1, processor.getChanged());
+		assertEquals(1, processor.getRemoved());
+	}
+
+	@Test
+	public void testProcess_otherLocation_mustHaveItsOwnIndex() throws QueryProcessorException {
+		this.process("Berlin");
+		
+		assertTrue(this.process("Hamburg").startsWith("ADDED,1,"));
+	}
+
+	@Test
+	public void testProcess_failure_mustKeepThePreviousIndex() throws QueryProcessorException {
+		this.process("Berlin");
+		reply.remove(1);
+		failing = true;
+		try {
+			this.process("Berlin");
+		} catch (QueryProcessorException e) {
+			// expected
+		}
+		failing = false;
+		
+		assertEquals("REMOVED,2,,,," + NEW_LINE, this.process("Berlin"));
+	}
+
+	@Test
+	public void testProcess_file_mustWriteDeltaCsv() throws QueryProcessorException, IOException {
+		File file = processor.process("Berlin");
+		
+		assertTrue(file.getName().endsWith(DeltaQueryProcessor.FILE_EXTENSION));
+		assertEquals(Arrays.asList("ADDED,1,Berlin,location,52.52437,13.41053", "ADDED,2,Berlingen,location,47.6,8.9"), 
+				FileUtils.readLines(file, "UTF-8"));
+	}
+
+	@Test
+	public void testProcess_fileFailure_mustDeleteTheFile() throws QueryProcessorException {
+		failing = true;
+		try {
+			processor.process("Berlin");
+		} catch (QueryProcessorException e) {
+			// expected
+		}
+		
+		assertEquals(0, new File(directory, "csv").list().length);
+		assertFalse(new File(directory, "index").exists() && new File(directory, "index").list().length > 0);
+	}
+
+	@Test
+	public void testProcess_indexNotSaved_mustDeleteTheFile() throws IOException {
+		File indexDirectory = new File(directory, "index");
+		indexDirectory.getParentFile().mkdirs();
+		// a file where the directory of the index should be
+		indexDirectory.createNewFile();
+		try {
+			processor.process("Berlin");
+			throw new AssertionError("QueryProcessorException expected");
+		} catch (QueryProcessorException e) {
+			// expected
+		}
+		
+		assertEquals(0, new File(directory, "csv").list().length);
+	}
+
+	@Test
+	public void testProcessAsync_concurrentRuns_mustBeSerialized() throws Exception {
+		List<CompletableFuture<File>> futures = new ArrayList<CompletableFuture<File>>();
+		for (int i = 0; i < 8; i++) {
+			futures.add(processor.processAsync("Berlin", 1, TimeUnit.MINUTES));
+		}
+		for (CompletableFuture<File> future : futures) {
+			future.get();
+		}
+		
+		assertEquals(2, processor.getAdded());
+		assertEquals(14, processor.getUnchanged());
+	}
+
+	@Test
+	public void testProcessAsync_mustCompleteWithTheFile() throws Exception {
+		File file = processor.processAsync("Berlin", 1, TimeUnit.MINUTES).get();
+		
+		assertEquals(2, FileUtils.readLines(file, "UTF-8").size());
+	}
+
+	@Test
+	public void testProcessAsync_cancelled_mustDeleteTheFileAndKeepThePreviousIndex() throws Exception {
+		gate = new CountDownLatch(1);
+		CompletableFuture<File> future = processor.processAsync("Berlin", 1, TimeUnit.MINUTES);
+		started.await();
+		future.cancel(false);
+		gate.countDown();
+		gate = null;
+		
+		// waits for the cancelled run, which holds the lock of the query
+		assertEquals("ADDED,1,Berlin,location,52.52437,13.41053" + NEW_LINE 
+				+ "ADDED,2,Berlingen,location,47.6,8.9" + NEW_LINE, this.process("Berlin"));
+		// the cancelled run deletes its file once it has released the lock
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (new File(directory, "csv").list().length > 0 && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		assertEquals(0, new File(directory, "csv").list().length);
+	}
+
+	@Test
+	public void testProcessAndCollect_unchanged_mustCollectEveryLocation() throws Exception {
+		this.process("Berlin");
+		RecordingLocationSink collector = new RecordingLocationSink();
+		File file = processor.processAndCollect("Berlin", collector);
+		
+		assertEquals(0, file.length());
+		assertEquals(2, collector.getRecords().size());
+	}
+
+	@Test
+	public void testProcess_pipelined_mustWriteTheChanges() throws QueryProcessorException {
+		processor.setPipelining(1, 1);
+		this.process("Berlin");
+		reply.remove(0);
+		
+		assertEquals("REMOVED,1,,,," + NEW_LINE, this.process("Berlin"));
+	}
+
+	@Test
+	public void testSetOutputFormat_notCsv_mustThrowIllegalArgumentException() {
+		try {
+			processor.setOutputFormat(new NdjsonOutputFormat());
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		processor.setOutputFormat(new CsvOutputFormat());
+	}
+}
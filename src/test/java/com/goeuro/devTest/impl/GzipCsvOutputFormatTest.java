@@ -0,0 +1,39 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import com.goeuro.devTest.LocationSink;
+
+/**
+ * @see {@link GzipCsvOutputFormat}
+ */
+public class GzipCsvOutputFormatTest {
+
+	@Test
+	public void testCreateSink_mustWriteGzip() throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		LocationSink sink = new GzipCsvOutputFormat().createSink(outputStream, "UTF-8", 16);
+		sink.write(376217, "Berlin", "location", "52.52437", "13.41053");
+		sink.close();
+		
+		byte[] bytes = outputStream.toByteArray();
+		assertEquals((byte) 0x1f, bytes[0]);
+		assertEquals((byte) 0x8b, bytes[1]);
+	}
+
+	@Test
+	public void testRead_mustMatchCsv() throws IOException {
+		assertEquals(CsvOutputFormatTest.roundTrip(new CsvOutputFormat()), CsvOutputFormatTest.roundTrip(new GzipCsvOutputFormat()));
+	}
+
+	@Test(expected=UnsupportedOperationException.class)
+	public void testCreateSink_writer_mustThrowUnsupportedOperationException() {
+		new GzipCsvOutputFormat().createSink(new StringWriter(), 16);
+	}
+}
@@ -0,0 +1,81 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @see {@link IdBitmap}
+ */
+public class IdBitmapTest {
+
+	@Test
+	public void testAdd() {
+		IdBitmap ids = new IdBitmap();
+
+		assertTrue(ids.add(376217));
+		assertFalse(ids.add(376217));
+		assertTrue(ids.add(376218));
+		assertTrue(ids.contains(376217));
+		assertFalse(ids.contains(376216));
+		assertEquals(2, ids.size());
+	}
+
+	@Test
+	public void testAdd_extremeIds() {
+		IdBitmap ids = new IdBitmap();
+
+		assertTrue(ids.add(0));
+		assertTrue(ids.add(-1));
+		assertTrue(ids.add(Integer.MIN_VALUE));
+		assertTrue(ids.add(Integer.MAX_VALUE));
+		assertFalse(ids.add(-1));
+		assertTrue(ids.contains(Integer.MIN_VALUE));
+		assertFalse(ids.contains(1));
+		assertEquals(4, ids.size());
+	}
+
+	@Test
+	public void testGetAllocatedBytes_densePagesOnly() {
+		IdBitmap ids = new IdBitmap();
+		assertEquals(0, ids.getAllocatedBytes());
+		for (int id = 0; id < 10 * IdBitmap.PAGE_IDS; id++) {
+			ids.add(id);
+		}
+
+		// one bit per id
+		assertEquals(10 * IdBitmap.PAGE_IDS / 8, ids.getAllocatedBytes());
+	}
+
+	@Test
+	public void testAdd_concurrentProducers_eachIdAddedOnce() throws InterruptedException {
+		final IdBitmap ids = new IdBitmap();
+		final AtomicInteger added = new AtomicInteger();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			final int offset = t * 1000;
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					// every thread adds every id twice, starting at a different one
+					for (int id = offset; id < offset + 200000; id++) {
+						if (ids.add(id % 100000)) {
+							added.incrementAndGet();
+						}
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(100000, added.get());
+		assertEquals(100000, ids.size());
+	}
+}
@@ -0,0 +1,130 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @see {@link LatencyHistogram}
+ */
+public class LatencyHistogramTest {
+
+	@Test
+	public void testEmpty() {
+		LatencyHistogram histogram = new LatencyHistogram();
+
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getPercentile(50));
+		assertEquals(0, histogram.getMax());
+		assertEquals(0.0, histogram.snapshot().getMean(), 0.0);
+	}
+
+	@Test
+	public void testBuckets() {
+		for (long value : new long[] {0, 1, 15, 16, 17, 31, 32, 1000, 123456789, Long.MAX_VALUE}) {
+			int bucket = LatencyHistogram.bucketOf(value);
+			assertTrue(value + " below its bucket", LatencyHistogram.lowerBoundOf(bucket) <= value);
+			if (value < Long.MAX_VALUE) {
+				assertTrue(value + " above its bucket", LatencyHistogram.bucketOf(value + 1) >= bucket);
+			}
+		}
+		assertEquals(LatencyHistogram.bucketOf(15) + 1, LatencyHistogram.bucketOf(16));
+	}
+
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000L);
+		}
+
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000000, histogram.getMax());
+		assertEquals(500500000L, histogram.getTotal());
+		assertEquals(500000, histogram.getPercentile(50), 500000 * 0.07);
+		assertEquals(990000, histogram.getPercentile(99), 990000 * 0.07);
+		assertEquals(1000000, histogram.getPercentile(100));
+		assertEquals(1000, histogram.getPercentile(0), 1000 * 0.07);
+	}
+
+	@Test
+	public void testPercentiles_random() {
+		Random random = new Random(7);
+		LatencyHistogram histogram = new LatencyHistogram();
+		long[] values = new long[10000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (long) Math.exp(random.nextDouble() * 20);
+			histogram.record(values[i]);
+		}
+		Arrays.sort(values);
+
+		for (double percentile : new double[] {10, 50, 90, 99, 99.9}) {
+			long expected = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+			assertEquals("p" + percentile, expected, histogram.getPercentile(percentile), Math.max(1, expected * 0.07));
+		}
+	}
+
+	@Test
+	public void testRecord_negative_recordedAsZero() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5);
+
+		assertEquals(1, histogram.getCount());
+		assertEquals(0, histogram.getMax());
+	}
+
+	@Test
+	public void testRecord_concurrent() throws InterruptedException {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int offset = t;
+			threads[t] = new Thread(new Runnable() {
+				public void run() {
+					for (int i = 0; i < 10000; i++) {
+						histogram.record(i + offset);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(40000, histogram.getCount());
+		assertEquals(9999 + 3, histogram.getMax());
+	}
+
+	@Test
+	public void testReset() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(1000);
+		histogram.reset();
+
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getTotal());
+		assertEquals(0, histogram.getPercentile(99));
+	}
+
+	@Test
+	public void testSnapshot() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(2000000);
+		histogram.record(4000000);
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+		assertEquals(2, snapshot.getCount());
+		assertEquals(3.0, snapshot.getMean(), 0.0);
+		assertEquals(4.0, snapshot.getMax(), 0.0);
+		assertEquals(4.0, snapshot.getP99(), 4.0 * 0.07);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testGetPercentile_outOfRange_mustThrowIllegalArgumentException() {
+		new LatencyHistogram().getPercentile(101);
+	}
+}
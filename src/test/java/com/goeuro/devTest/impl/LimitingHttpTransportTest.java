@@ -0,0 +1,305 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @see {@link LimitingHttpTransport}
+ */
+public class LimitingHttpTransportTest {
+
+	private static final String BODY = "[{\"_id\":376217,\"name\":\"Berlin\"}]";
+
+	private static final Map<String, String> NO_HEADERS = Collections.<String, String>emptyMap();
+
+	private StubServer server;
+
+	private LimitingHttpTransport transport;
+
+	private final QueryMetrics metrics = new QueryMetrics();
+
+	@After
+	public void tearDown() throws IOException {
+		IOUtils.closeQuietly(transport);
+		if (server != null) {
+			server.stop();
+		}
+	}
+
+	private StubServer.Script start(StubServer.Script script, LimitingHttpTransport.Mode mode) throws IOException {
+		server = new StubServer(script);
+		transport = new LimitingHttpTransport(new PooledHttpTransport(20, 1000, 5000, 30000, false), mode, metrics);
+		return script;
+	}
+
+	private StubServer.Script startAsync(StubServer.Script script, LimitingHttpTransport.Mode mode) throws IOException {
+		server = new StubServer(script);
+		transport = new AsyncLimitingHttpTransport(new AsyncPooledHttpTransport(20, 1000, 5000, 30000, false, null), mode, metrics);
+		return script;
+	}
+
+	private CompletableFuture<TransportResponse> getAsync() {
+		return ((AsyncHttpTransport) transport).getAsync(server.getBaseUrl() + "Berlin", NO_HEADERS);
+	}
+
+	private int get() throws IOException {
+		TransportResponse response = transport.get(server.getBaseUrl() + "Berlin", NO_HEADERS);
+		try {
+			IOUtils.toString(response.getBody(), "UTF-8");
+			return response.getStatus();
+		} finally {
+			response.close();
+		}
+	}
+
+	@Test(expected=NullPointerException.class)
+	public void testLimitingHttpTransport_delegateNull_mustThrowNullPointerException() {
+		new LimitingHttpTransport(null, LimitingHttpTransport.Mode.ADAPTIVE);
+	}
+
+	@Test(expected=NullPointerException.class)
+	public void testLimitingHttpTransport_modeNull_mustThrowNullPointerException() throws IOException {
+		new LimitingHttpTransport(new PooledHttpTransport(), null);
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testSetRate_adaptive_mustThrowIllegalStateException() throws IOException {
+		start(new StubServer.Script().then(200, 0, BODY), LimitingHttpTransport.Mode.ADAPTIVE);
+		transport.setRate(10, 10);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testSetLimits_initialAboveMax_mustThrowIllegalArgumentException() throws IOException {
+		start(new StubServer.Script().then(200, 0, BODY), LimitingHttpTransport.Mode.ADAPTIVE);
+		transport.setLimits(5, 1, 4);
+	}
+
+	@Test
+	public void testGet_tokenBucket_requestsSpacedByRate() throws IOException {
+		start(new StubServer.Script().then(200, 0, BODY), LimitingHttpTransport.Mode.TOKEN_BUCKET);
+		transport.setRate(20, 1);
+		long start = System.nanoTime();
+		for (int i = 0; i < 6; i++) {
+			assertEquals(200, get());
+		}
+
+		// the first request takes the burst, the five others wait 50 ms each
+		assertTrue(System.nanoTime() - start >= 240000000L);
+		assertEquals(20, transport.getLimit(), 0);
+		assertEquals(20, metrics.getRequestLimit(), 0);
+	}
+
+	@Test
+	public void testGet_tokenBucketExhausted_mustThrowLimitExceededException() throws IOException {
+		StubServer.Script script = start(new StubServer.Script().then(200, 0, BODY), LimitingHttpTransport.Mode.TOKEN_BUCKET);
+		transport.setRate(1, 1);
+		transport.setMaxWait(0);
+		assertEquals(200, get());
+		try {
+			get();
+			fail("LimitExceededException expected");
+		} catch (LimitingHttpTransport.LimitExceededException e) {
+			// expected
+		}
+
+		assertEquals(1, script.getRequests());
+		assertEquals(1, transport.getRejections());
+		assertEquals(1, metrics.getRejections());
+	}
+
+	@Test
+	public void testGet_throttled_limitDecreased() throws IOException {
+		start(new StubServer.Script().then(429, 0, ""), LimitingHttpTransport.Mode.ADAPTIVE);
+		transport.setLimits(10, 2, 20);
+		for (int i = 0; i < 20; i++) {
+			assertEquals(429, get());
+		}
+
+		assertEquals(2, transport.getLimit(), 0);
+		assertEquals(2, metrics.getRequestLimit(), 0);
+		assertEquals(20, transport.getThrottled());
+		assertEquals(20, metrics.getThrottled());
+	}
+
+	@Test
+	public void testGet_serverErrorThenSuccesses_limitRecovers() throws IOException {
+		start(new StubServer.Script().then(503, 0, "").then(200, 0, BODY), LimitingHttpTransport.Mode.ADAPTIVE);
+		transport.setLimits(2, 1, 4);
+		assertEquals(503, get());
+		assertEquals(1, transport.getLimit(), 0);
+		for (int i = 0; i < 20; i++) {
+			assertEquals(200, get());
+		}
+
+		// one request at a time uses a limit of 2 at most
+		assertEquals(2, transport.getLimit(), 0);
+		assertEquals(0, transport.getThrottled());
+	}
+
+	@Test
+	public void testGet_concurrentThrottled_decreasedOnce() throws Exception {
+		start(new StubServer.Script().then(429, 300, ""), LimitingHttpTransport.Mode.ADAPTIVE);
+		transport.setLimits(10, 1, 20);
+		transport.setBackoff(0.5, 0);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 5; i++) {
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					try {
+						get();
+					} catch (IOException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		// sent before the first decrease
+		assertEquals(5, transport.getLimit(), 0);
+		assertEquals(5, transport.getThrottled());
+	}
+
+	@Test
+	public void testGet_limitReached_waitsForAResponseToBeClosed() throws IOException {
+		start(new StubServer.Script().then(200, 0, BODY), LimitingHttpTransport.Mode.ADAPTIVE);
+		transport.setLimits(2, 1, 2);
+		transport.setMaxWait(100);
+		TransportResponse first = transport.get(server.getBaseUrl() + "Berlin", NO_HEADERS);
+		TransportResponse second = transport.get(server.getBaseUrl() + "Berlin", NO_HEADERS);
+		assertEquals(2, transport.getInFlight());
+		try {
+			get();
+			fail("LimitExceededException expected");
+		} catch (LimitingHttpTransport.LimitExceededException e) {
+			assertEquals(1, transport.getRejections());
+		}
+
+		first.close();
+		first.close();
+		assertEquals(1, transport.getInFlight());
+		assertEquals(200, get());
+		second.close();
+		assertEquals(0, transport.getInFlight());
+	}
+
+	@Test
+	public void testGet_timeout_limitDecreased() throws IOException {
+		server = new StubServer(new StubServer.Script().then(200, 1000, BODY));
+		transport = new LimitingHttpTransport(new PooledHttpTransport(20, 1000, 100, 30000, false),
+				LimitingHttpTransport.Mode.ADAPTIVE);
+		transport.setLimits(10, 1, 20);
+		try {
+			get();
+			fail("SocketTimeoutException expected");
+		} catch (SocketTimeoutException e) {
+			// expected
+		}
+
+		assertEquals(9, transport.getLimit(), 0);
+		assertEquals(0, transport.getInFlight());
+	}
+
+	@Test
+	public void testGet_slowResponse_limitDecreasedWithLatencyTolerance() throws IOException {
+		start(new StubServer.Script().then(200, 0, BODY).then(200, 0, BODY).then(200, 300, BODY),
+				LimitingHttpTransport.Mode.ADAPTIVE);
+		transport.setLimits(10, 1, 20);
+		transport.setBackoff(0.5, 10);
+		get();
+		get();
+		get();
+
+		assertEquals(5, transport.getLimit(), 0);
+	}
+
+	@Test
+	public void testGetAsync_limitReached_queuedUntilAResponseIsClosed() throws Exception {
+		startAsync(new StubServer.Script().then(200, 0, BODY), LimitingHttpTransport.Mode.ADAPTIVE);
+		transport.setLimits(2, 1, 2);
+		transport.setMaxWait(5000);
+		TransportResponse first = getAsync().get(5, TimeUnit.SECONDS);
+		TransportResponse second = getAsync().get(5, TimeUnit.SECONDS);
+		CompletableFuture<TransportResponse> third = getAsync();
+		Thread.sleep(100);
+		assertFalse(third.isDone());
+		assertEquals(2, transport.getInFlight());
+
+		first.close();
+		TransportResponse response = third.get(5, TimeUnit.SECONDS);
+		assertEquals(200, response.getStatus());
+		response.close();
+		second.close();
+		assertEquals(0, transport.getInFlight());
+	}
+
+	@Test
+	public void testGetAsync_limitReachedBeyondMaxWait_mustFailWithLimitExceededException() throws Exception {
+		startAsync(new StubServer.Script().then(200, 0, BODY), LimitingHttpTransport.Mode.ADAPTIVE);
+		transport.setLimits(1, 1, 1);
+		transport.setMaxWait(100);
+		TransportResponse first = getAsync().get(5, TimeUnit.SECONDS);
+		try {
+			getAsync().get(5, TimeUnit.SECONDS);
+			fail("ExecutionException expected");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof LimitingHttpTransport.LimitExceededException);
+		} finally {
+			first.close();
+		}
+
+		assertEquals(1, transport.getRejections());
+		assertEquals(0, transport.getInFlight());
+	}
+
+	@Test
+	public void testGetAsync_cancelledWhileQueued_mustNotTakeASlot() throws Exception {
+		StubServer.Script script = startAsync(new StubServer.Script().then(200, 0, BODY), LimitingHttpTransport.Mode.ADAPTIVE);
+		transport.setLimits(1, 1, 1);
+		transport.setMaxWait(5000);
+		TransportResponse first = getAsync().get(5, TimeUnit.SECONDS);
+		CompletableFuture<TransportResponse> queued = getAsync();
+		queued.cancel(false);
+		first.close();
+
+		assertEquals(0, transport.getInFlight());
+		assertEquals(1, script.getRequests());
+	}
+
+	@Test
+	public void testGetAsync_tokenBucket_requestsSpacedByRate() throws Exception {
+		StubServer.Script script = startAsync(new StubServer.Script().then(200, 0, BODY), LimitingHttpTransport.Mode.TOKEN_BUCKET);
+		transport.setRate(20, 1);
+		long start = System.nanoTime();
+		List<CompletableFuture<TransportResponse>> futures = new ArrayList<CompletableFuture<TransportResponse>>();
+		for (int i = 0; i < 6; i++) {
+			futures.add(getAsync());
+		}
+		for (CompletableFuture<TransportResponse> future : futures) {
+			TransportResponse response = future.get(5, TimeUnit.SECONDS);
+			assertEquals(200, response.getStatus());
+			response.close();
+		}
+
+		// the first request takes the burst, the five others are sent 50 ms apart
+		assertTrue(System.nanoTime() - start >= 240000000L);
+		assertEquals(6, script.getRequests());
+	}
+}
@@ -0,0 +1,113 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @see {@link LocationCache}
+ */
+public class LocationCacheTest {
+
+	private File directory;
+	
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("cache", "");
+		directory.delete();
+	}
+	
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+	
+	private static CacheEntry entry(String key, long expiresAt) {
+		GeoPosition geoPosition = new GeoPosition();
+		geoPosition.setLatitude("52.52437");
+		geoPosition.setLongitude("13.41053");
+		LocationJson json = new LocationJson();
+		json.set_id(376217);
+		json.setName(key);
+		json.setType("location");
+		json.setGeoPosition(geoPosition);
+		return new CacheEntry(key, Collections.singletonList(json), expiresAt, new CacheValidators("\"etag\"", null));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testLocationCache_maxEntriesNotPositive_mustThrowIllegalArgumentException() {
+		new LocationCache(0, null, 0);
+	}
+
+	@Test
+	public void testGet_absent_mustReturnNull() {
+		assertNull(new LocationCache(1, directory, 0).get("Berlin"));
+	}
+
+	@Test
+	public void testPut_overMaxEntries_mustEvictLeastRecentlyUsed() throws IOException {
+		LocationCache cache = new LocationCache(2, null, 0);
+		cache.put(entry("Berlin", 0));
+		cache.put(entry("Hamburg", 0));
+		cache.get("Berlin");
+		cache.put(entry("Munich", 0));
+		
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictions());
+		assertNotNull(cache.get("Berlin"));
+		assertNull(cache.get("Hamburg"));
+	}
+
+	@Test
+	public void testGet_evictedFromMemory_mustBeReadFromDisk() throws IOException {
+		LocationCache cache = new LocationCache(1, directory, 0);
+		cache.put(entry("Berlin", 1234));
+		cache.put(entry("Hamburg", 0));
+		assertEquals(1, cache.getEvictions());
+		
+		CacheEntry entry = cache.get("Berlin");
+		
+		assertEquals(1234, entry.getExpiresAt());
+		assertEquals("\"etag\"", entry.getValidators().getEtag());
+		assertEquals("52.52437", entry.getRecords().get(0).getGeoPosition().getLatitude());
+	}
+
+	@Test
+	public void testGet_newInstance_mustSurviveRestart() throws IOException {
+		new LocationCache(10, directory, 0).put(entry("Berlin", 1234));
+		
+		CacheEntry entry = new LocationCache(10, directory, 0).get("Berlin");
+		
+		assertEquals("Berlin", entry.getKey());
+		assertEquals(376217, entry.getRecords().get(0).get_id());
+	}
+
+	@Test
+	public void testGet_corruptFile_mustBeIgnored() throws IOException {
+		LocationCache cache = new LocationCache(10, directory, 0);
+		cache.put(entry("Berlin", 1234));
+		File[] files = directory.listFiles();
+		FileUtils.write(files[0], "{not json", "UTF-8");
+		
+		assertNull(new LocationCache(10, directory, 0).get("Berlin"));
+		assertFalse(files[0].exists());
+	}
+
+	@Test
+	public void testGetExpiry() {
+		assertEquals(1500, new LocationCache(1, null, 500).getExpiry(1000));
+		assertTrue(entry("Berlin", 1000).isExpired(1000));
+		assertFalse(entry("Berlin", 1000).isExpired(999));
+	}
+}
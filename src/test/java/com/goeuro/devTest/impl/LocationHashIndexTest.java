@@ -0,0 +1,96 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @see {@link LocationHashIndex}
+ */
+public class LocationHashIndexTest {
+
+	private File directory;
+	
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("delta", "");
+		directory.delete();
+	}
+	
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Test
+	public void testLoad_missingFile_mustReturnEmpty() throws IOException {
+		LocationHashIndex index = LocationHashIndex.load(new File(directory, "missing.idx"));
+		
+		assertSame(LocationHashIndex.EMPTY, index);
+		assertEquals(-1, index.indexOf(376217));
+	}
+
+	@Test(expected=IOException.class)
+	public void testLoad_notAnIndex_mustThrowIOException() throws IOException {
+		File file = new File(directory, "other.idx");
+		FileUtils.writeStringToFile(file, "Berlin,location,52.52437,13.41053", "UTF-8");
+		
+		LocationHashIndex.load(file);
+	}
+
+	@Test
+	public void testSave_mustLoadSortedWithFirstHashOfEachId() throws IOException {
+		File file = new File(directory, "berlin.idx");
+		LocationHashIndex.Builder builder = new LocationHashIndex.Builder();
+		for (int id = 200; id > 0; id--) {
+			builder.add(id * 7, id);
+		}
+		builder.add(-5, -1L);
+		builder.add(14, 99L);
+		builder.save(file);
+		
+		LocationHashIndex index = LocationHashIndex.load(file);
+		assertEquals(201, index.size());
+		assertEquals(-5, index.getId(0));
+		assertEquals(-1L, index.getHash(0));
+		assertEquals(7, index.getId(1));
+		assertEquals(2L, index.getHash(index.indexOf(14)));
+		assertEquals(200L, index.getHash(index.indexOf(1400)));
+		assertEquals(-1, index.indexOf(15));
+		assertEquals(1, directory.list().length);
+	}
+
+	@Test
+	public void testSave_existingFile_mustReplaceIt() throws IOException {
+		File file = new File(directory, "berlin.idx");
+		LocationHashIndex.Builder builder = new LocationHashIndex.Builder();
+		builder.add(1, 1L);
+		builder.add(2, 2L);
+		builder.save(file);
+		builder = new LocationHashIndex.Builder();
+		builder.add(3, 3L);
+		builder.save(file);
+		
+		LocationHashIndex index = LocationHashIndex.load(file);
+		assertEquals(1, index.size());
+		assertEquals(3, index.getId(0));
+	}
+
+	@Test
+	public void testHash_mustTellFieldsApart() {
+		long hash = LocationHashIndex.hash("Berlin", "location", "52.52437", "13.41053");
+		
+		assertEquals(hash, LocationHashIndex.hash("Berlin", "location", "52.52437", "13.41053"));
+		assertNotEquals(hash, LocationHashIndex.hash("Berlin", "location", "52.52437", "13.41054"));
+		assertNotEquals(LocationHashIndex.hash("ab", "c", null, null), LocationHashIndex.hash("a", "bc", null, null));
+		assertNotEquals(LocationHashIndex.hash("", "location", null, null), LocationHashIndex.hash(null, "location", null, null));
+	}
+}
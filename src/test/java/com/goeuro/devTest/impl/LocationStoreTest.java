@@ -0,0 +1,96 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+/**
+ * @see {@link LocationStore}
+ */
+public class LocationStoreTest {
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testLocationStore_capacityNotPositive_mustThrowIllegalArgumentException() {
+		new LocationStore(0);
+	}
+
+	@Test
+	public void testWrite() {
+		LocationStore store = new LocationStore(1);
+		store.write(376217, "Berlin", "location", "52.52437", "13.41053");
+		store.write(376218, new String("Berlin"), "airport", "1E2", null);
+		store.write(376219, null, null, "", "-0.5");
+		
+		assertEquals(3, store.size());
+		assertEquals(376217, store.getId(0));
+		assertEquals("Berlin", store.getName(0));
+		assertSame(store.getName(0), store.getName(1));
+		assertNull(store.getName(2));
+		assertEquals("location", store.getType(0));
+		assertEquals("airport", store.getType(1));
+		assertNull(store.getType(2));
+		assertEquals(-1, store.getTypeCode(2));
+		assertEquals(2, store.getTypeCount());
+		assertEquals(52.52437, store.getLatitude(0), 0);
+		assertEquals(100, store.getLatitude(1), 0);
+		assertTrue(Double.isNaN(store.getLongitude(1)));
+		assertTrue(Double.isNaN(store.getLatitude(2)));
+		assertEquals(-0.5, store.getLongitude(2), 0);
+	}
+
+	@Test(expected=NumberFormatException.class)
+	public void testWrite_coordinateNotANumber_mustThrowNumberFormatException() {
+		new LocationStore().write(1, "Berlin", "location", "north", "13.41053");
+	}
+
+	@Test(expected=IndexOutOfBoundsException.class)
+	public void testGetId_rowOutOfBounds_mustThrowIndexOutOfBoundsException() {
+		LocationStore store = new LocationStore();
+		store.add(1, "Berlin", "location", 1, 2);
+		store.getId(1);
+	}
+
+	@Test
+	public void testIndexOf() {
+		LocationStore store = new LocationStore(4);
+		for (int i = 0; i < 10000; i++) {
+			assertEquals(i, store.add(i * 31, "name" + i, "location", i, -i));
+		}
+		store.add(31, "duplicate", "location", 0, 0);
+		
+		assertEquals(0, store.indexOf(0));
+		assertEquals(9999, store.indexOf(9999 * 31));
+		assertEquals(10000, store.indexOf(31));
+		assertEquals(-1, store.indexOf(1));
+		assertEquals(-1, store.indexOf(-31));
+	}
+
+	@Test
+	public void testEncodeType() {
+		LocationStore store = new LocationStore();
+		store.add(1, "Berlin", "location", 1, 2);
+		store.add(2, "Berlin", "airport", 1, 2);
+		
+		assertEquals(1, store.encodeType("airport"));
+		assertEquals(-1, store.encodeType("station"));
+		assertEquals("airport", store.decode(1));
+		assertNull(store.decode(-1));
+	}
+
+	@Test
+	public void testExportCsv() throws IOException {
+		LocationStore store = new LocationStore();
+		store.write(376217, "Berlin", "location", "52.52437", "13.41053");
+		store.write(2, "Alcazar, del Rey", null, null, "13");
+		store.trimToSize();
+		StringWriter writer = new StringWriter();
+		
+		store.exportCsv(writer);
+		
+		assertEquals("376217,Berlin,location,52.52437,13.41053" + System.lineSeparator()
+				+ "2,\"Alcazar, del Rey\",,,13.0" + System.lineSeparator(), writer.toString());
+	}
+}
@@ -0,0 +1,32 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+/**
+ * @see {@link NdjsonLocationSink}
+ */
+public class NdjsonLocationSinkTest {
+
+	@Test(expected=NullPointerException.class)
+	public void testNdjsonLocationSink_writerNull_mustThrowNullPointerException() {
+		new NdjsonLocationSink(null);
+	}
+
+	@Test
+	public void testWrite() throws IOException {
+		StringWriter writer = new StringWriter();
+		NdjsonLocationSink sink = new NdjsonLocationSink(writer);
+		sink.write(376217, "Berlin", "location", "52.52437", "13.41053");
+		sink.write(2, "\"quoted\"\n", null, "north", null);
+		sink.close();
+		
+		assertEquals("{\"_id\":376217,\"name\":\"Berlin\",\"type\":\"location\",\"geo_position\":{\"latitude\":52.52437,\"longitude\":13.41053}}\n"
+				+ "{\"_id\":2,\"name\":\"\\\"quoted\\\"\\n\",\"type\":null,\"geo_position\":{\"latitude\":\"north\",\"longitude\":null}}\n",
+				writer.toString());
+	}
+}
@@ -0,0 +1,24 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * @see {@link NdjsonOutputFormat}
+ */
+public class NdjsonOutputFormatTest {
+
+	@Test
+	public void testRead_mustMatchCsv() throws IOException {
+		assertEquals(CsvOutputFormatTest.roundTrip(new CsvOutputFormat()), CsvOutputFormatTest.roundTrip(new NdjsonOutputFormat()));
+	}
+
+	@Test(expected=IOException.class)
+	public void testRead_notNdjson_mustThrowIOException() throws IOException {
+		new NdjsonOutputFormat().read(new ByteArrayInputStream("[1, 2]".getBytes("UTF-8")), "UTF-8", new RecordingLocationSink());
+	}
+}
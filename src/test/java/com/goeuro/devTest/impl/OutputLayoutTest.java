@@ -0,0 +1,198 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.time.FastDateFormat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @see {@link OutputLayout}
+ */
+public class OutputLayoutTest {
+
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("layout", "");
+		directory.delete();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testOutputLayout_blankBaseDirectory_mustThrowIllegalArgumentException() {
+		new OutputLayout(" ");
+	}
+
+	@Test(expected=NullPointerException.class)
+	public void testOutputLayout_nullPartitioning_mustThrowNullPointerException() {
+		new OutputLayout("csv", null);
+	}
+
+	@Test
+	public void testSlug() {
+		assertEquals("munchen", OutputLayout.slug("München"));
+		assertEquals("sao-paulo-sp", OutputLayout.slug("  São Paulo (SP) "));
+		assertEquals("location", OutputLayout.slug("東京"));
+		assertEquals("location", OutputLayout.slug(""));
+		assertEquals(32, OutputLayout.slug("Llanfairpwllgwyngyllgogerychwyrndrobwllllantysiliogogogoch").length());
+	}
+
+	@Test
+	public void testNewFile_none_mustBeInBaseDirectory() {
+		File file = new OutputLayout(directory.getPath()).newFile("Berlin", ".csv");
+
+		assertEquals(directory, file.getParentFile());
+		assertTrue(file.getName(), file.getName().matches("\\d{8}-\\d{9}-\\d{6}-berlin\\.csv"));
+		assertFalse(file.exists());
+	}
+
+	@Test
+	public void testNewFile_date_mustBeInDayDirectory() {
+		String day = FastDateFormat.getInstance("yyyyMMdd").format(System.currentTimeMillis());
+		File file = new OutputLayout(directory.getPath(), OutputLayout.Partitioning.DATE).newFile("Berlin", ".csv");
+
+		assertEquals(directory, file.getParentFile().getParentFile());
+		assertTrue(file.getParentFile().getName().compareTo(day) >= 0);
+		assertTrue(file.getName().startsWith(file.getParentFile().getName()));
+	}
+
+	@Test
+	public void testNewFile_hash_mustSpreadOverPartitions() {
+		OutputLayout layout = new OutputLayout(directory.getPath(), OutputLayout.Partitioning.HASH);
+		Set<String> partitions = new HashSet<String>();
+		for (int i = 0; i < 10000; i++) {
+			File file = layout.newFile("Berlin", ".csv");
+
+			assertEquals(directory, file.getParentFile().getParentFile());
+			assertTrue(file.getParentFile().getName().matches("[0-9a-f]{2}"));
+			partitions.add(file.getParentFile().getName());
+		}
+		assertEquals(OutputLayout.HASH_PARTITIONS, partitions.size());
+	}
+
+	@Test
+	public void testNewFile_concurrent_mustBeUnique() throws Exception {
+		final OutputLayout layout = new OutputLayout(directory.getPath());
+		final Set<File> files = ConcurrentHashMap.newKeySet();
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for (int i = 0; i < 8; i++) {
+				futures.add(executor.submit(new Callable<Integer>() {
+					public Integer call() throws InterruptedException {
+						start.await();
+						int duplicates = 0;
+						for (int i = 0; i < 10000; i++) {
+							if (!files.add(layout.newFile("Berlin", ".csv"))) {
+								duplicates++;
+							}
+						}
+						return duplicates;
+					}
+				}));
+			}
+			start.countDown();
+			for (Future<Integer> future : futures) {
+				assertEquals(0, future.get().intValue());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(80000, files.size());
+	}
+
+	@Test
+	public void testGetTemporaryFile_mustBeHiddenNextToFile() {
+		File file = new File(directory, "berlin.csv");
+
+		assertEquals(new File(directory, ".berlin.csv.tmp"), OutputLayout.getTemporaryFile(file));
+	}
+
+	@Test
+	public void testPublish_mustRenameTemporary() throws IOException {
+		File file = new File(directory, "berlin.csv.gz");
+		File temporary = OutputLayout.getTemporaryFile(file);
+		FileUtils.writeStringToFile(temporary, "new", "UTF-8");
+
+		assertEquals(file, OutputLayout.publish(temporary, file));
+		assertFalse(temporary.exists());
+		assertEquals("new", FileUtils.readFileToString(file, "UTF-8"));
+	}
+
+	@Test
+	public void testPublish_existing_mustNotOverwrite() throws IOException {
+		File file = new File(directory, "berlin.csv.gz");
+		FileUtils.writeStringToFile(file, "old", "UTF-8");
+		FileUtils.writeStringToFile(new File(directory, "berlin-1.csv.gz"), "older", "UTF-8");
+		File temporary = OutputLayout.getTemporaryFile(file);
+		FileUtils.writeStringToFile(temporary, "new", "UTF-8");
+
+		File published = OutputLayout.publish(temporary, file);
+
+		assertEquals(new File(directory, "berlin-2.csv.gz"), published);
+		assertEquals("new", FileUtils.readFileToString(published, "UTF-8"));
+		assertEquals("old", FileUtils.readFileToString(file, "UTF-8"));
+		assertFalse(temporary.exists());
+	}
+
+	@Test(expected=IOException.class)
+	public void testPublish_missingTemporary_mustThrowIOException() throws IOException {
+		directory.mkdirs();
+
+		OutputLayout.publish(new File(directory, ".missing.csv.tmp"), new File(directory, "missing.csv"));
+	}
+
+	@Test
+	public void testPublish_concurrentSameName_mustKeepEveryFile() throws Exception {
+		directory.mkdirs();
+		final File file = new File(directory, "berlin.csv");
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<File>> futures = new ArrayList<Future<File>>();
+			for (int i = 0; i < 64; i++) {
+				final File temporary = new File(directory, ".berlin.csv." + i + ".tmp");
+				FileUtils.writeStringToFile(temporary, Integer.toString(i), "UTF-8");
+				futures.add(executor.submit(new Callable<File>() {
+					public File call() throws Exception {
+						start.await();
+						return OutputLayout.publish(temporary, file);
+					}
+				}));
+			}
+			start.countDown();
+			Set<String> contents = new HashSet<String>();
+			for (Future<File> future : futures) {
+				contents.add(FileUtils.readFileToString(future.get(), "UTF-8"));
+			}
+			assertEquals(64, contents.size());
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(64, directory.list().length);
+	}
+}
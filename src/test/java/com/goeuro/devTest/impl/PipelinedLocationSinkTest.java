@@ -0,0 +1,168 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.goeuro.devTest.LocationSink;
+
+/**
+ * @see {@link PipelinedLocationSink}
+ */
+public class PipelinedLocationSinkTest {
+
+	@Test(expected=NullPointerException.class)
+	public void testPipelinedLocationSink_sinkNull_mustThrowNullPointerException() {
+		new PipelinedLocationSink(null, 10, 2);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testPipelinedLocationSink_batchSizeNotPositive_mustThrowIllegalArgumentException() throws IOException {
+		new PipelinedLocationSink(new CsvLocationSink(new StringWriter()), 0, 2);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testPipelinedLocationSink_queueCapacityNotPositive_mustThrowIllegalArgumentException() throws IOException {
+		new PipelinedLocationSink(new CsvLocationSink(new StringWriter()), 10, 0);
+	}
+
+	@Test
+	public void testWrite_allLocationsWrittenInOrder() throws IOException {
+		StringWriter expected = new StringWriter();
+		LocationSink direct = new CsvLocationSink(expected);
+		StringWriter writer = new StringWriter();
+		LocationSink sink = new PipelinedLocationSink(new CsvLocationSink(writer), 7, 2);
+		for (int i = 0; i < 1000; i++) {
+			direct.write(i, "name" + i, "location", Integer.toString(i), null);
+			sink.write(i, "name" + i, "location", Integer.toString(i), null);
+		}
+		direct.close();
+		sink.close();
+
+		assertEquals(expected.toString(), writer.toString());
+	}
+
+	@Test
+	public void testClose_noLocations_downstreamClosed() throws IOException {
+		CountingSink downstream = new CountingSink(0);
+		new PipelinedLocationSink(downstream, 10, 2).close();
+
+		assertEquals(0, downstream.written.get());
+		assertTrue(downstream.closed);
+	}
+
+	@Test
+	public void testWrite_slowWriter_producerHeldBack() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		CountingSink downstream = new CountingSink(0) {
+			public void write(int id, String name, String type, String latitude, String longitude) throws IOException {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				super.write(id, name, type, latitude, longitude);
+			}
+		};
+		final PipelinedLocationSink sink = new PipelinedLocationSink(downstream, 10, 2);
+		final AtomicInteger produced = new AtomicInteger();
+		Thread producer = new Thread(new Runnable() {
+			public void run() {
+				try {
+					for (int i = 0; i < 1000; i++) {
+						sink.write(i, "name", "type", "1", "2");
+						produced.incrementAndGet();
+					}
+					sink.close();
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		});
+		producer.start();
+		producer.join(300);
+
+		// the batch being written, two in the queue and the one being filled
+		assertTrue(producer.isAlive());
+		assertTrue(produced.get() <= 4 * 10);
+		release.countDown();
+		producer.join(TimeUnit.SECONDS.toMillis(10));
+		assertEquals(1000, produced.get());
+		assertEquals(1000, downstream.written.get());
+		assertTrue(downstream.closed);
+	}
+
+	@Test
+	public void testWrite_downstreamFails_failureThrown() throws IOException {
+		CountingSink downstream = new CountingSink(5);
+		PipelinedLocationSink sink = new PipelinedLocationSink(downstream, 2, 1);
+		try {
+			for (int i = 0; i < 10000; i++) {
+				sink.write(i, "name", "type", "1", "2");
+			}
+			sink.close();
+			fail("IOException expected");
+		} catch (IOException e) {
+			assertEquals("disk full", e.getMessage());
+		}
+		try {
+			sink.close();
+			fail("IOException expected");
+		} catch (IOException e) {
+			assertEquals("disk full", e.getMessage());
+		}
+		assertEquals(5, downstream.written.get());
+		assertTrue(downstream.closed);
+	}
+
+	@Test
+	public void testAbort_pendingLocationsDropped_downstreamNotClosed() throws IOException {
+		CountingSink downstream = new CountingSink(0);
+		PipelinedLocationSink sink = new PipelinedLocationSink(downstream, 100, 2);
+		sink.write(1, "name", "type", "1", "2");
+		sink.abort();
+
+		assertEquals(0, downstream.written.get());
+		assertFalse(downstream.closed);
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testWrite_afterClose_mustThrowIllegalStateException() throws IOException {
+		PipelinedLocationSink sink = new PipelinedLocationSink(new CountingSink(0), 10, 2);
+		sink.close();
+		sink.write(1, "name", "type", "1", "2");
+	}
+
+	/**
+	 * Counts the locations, failing after {@code failAfter} of them if positive.
+	 */
+	private static class CountingSink implements LocationSink {
+
+		final AtomicInteger written = new AtomicInteger();
+
+		final int failAfter;
+
+		volatile boolean closed;
+
+		CountingSink(int failAfter) {
+			this.failAfter = failAfter;
+		}
+
+		public void write(int id, String name, String type, String latitude, String longitude) throws IOException {
+			if (failAfter > 0 && written.get() == failAfter) {
+				throw new IOException("disk full");
+			}
+			written.incrementAndGet();
+		}
+
+		public void close() {
+			closed = true;
+		}
+	}
+}
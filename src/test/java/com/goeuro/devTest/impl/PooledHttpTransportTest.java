@@ -0,0 +1,239 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * @see {@link PooledHttpTransport}
+ */
+public class PooledHttpTransportTest {
+
+	private static final String BODY = "[{\"_id\":376217,\"name\":\"Berlin\"}]";
+	
+	private final List<String> acceptEncodings = new CopyOnWriteArrayList<String>();
+	
+	private final List<Integer> clientPorts = new CopyOnWriteArrayList<Integer>();
+	
+	private StubServer server;
+	
+	private PooledHttpTransport transport;
+	
+	@After
+	public void tearDown() throws IOException {
+		IOUtils.closeQuietly(transport);
+		if (server != null) {
+			server.stop();
+		}
+	}
+	
+	private void startServer(final int status, final long delayMillis) throws IOException {
+		server = new StubServer(new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+				acceptEncodings.add(String.valueOf(acceptEncoding));
+				clientPorts.add(exchange.getRemoteAddress().getPort());
+				try {
+					Thread.sleep(delayMillis);
+				} catch (InterruptedException e) {
+					return;
+				}
+				byte[] body = BODY.getBytes("UTF-8");
+				if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+					ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+					GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+					gzip.write(body);
+					gzip.close();
+					body = compressed.toByteArray();
+					exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+				}
+				StubServer.respond(exchange, status, body);
+			}
+		});
+	}
+	
+	private String get(String location) throws IOException {
+		Map<String, String> headers = Collections.emptyMap();
+		TransportResponse response = transport.get(server.getBaseUrl() + location, headers);
+		try {
+			return IOUtils.toString(response.getBody(), "UTF-8");
+		} finally {
+			response.close();
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testPooledHttpTransport_maxConnectionsNotPositive_mustThrowIllegalArgumentException() {
+		new PooledHttpTransport(0, 1, 1, 1, true);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testPooledHttpTransport_negativeTimeout_mustThrowIllegalArgumentException() {
+		new PooledHttpTransport(1, -1, 1, 1, true);
+	}
+
+	@Test
+	public void testGet_gzipEnabled_mustBeDecompressed() throws IOException {
+		startServer(200, 0);
+		transport = new PooledHttpTransport();
+		
+		assertEquals(BODY, get("Berlin"));
+		assertTrue(acceptEncodings.get(0).contains("gzip"));
+	}
+
+	@Test
+	public void testGet_gzipDisabled_mustNotAskForGzip() throws IOException {
+		startServer(200, 0);
+		transport = new PooledHttpTransport(1, 1000, 1000, 1000, false);
+		
+		assertEquals(BODY, get("Berlin"));
+		assertEquals("null", acceptEncodings.get(0));
+	}
+
+	@Test
+	public void testGet_consecutiveRequests_mustReuseConnection() throws IOException {
+		startServer(200, 0);
+		transport = new PooledHttpTransport(1, 1000, 1000, 10000, true);
+		
+		get("Berlin");
+		get("Hamburg");
+		get("Munich");
+		
+		assertEquals(3, clientPorts.size());
+		assertEquals(3, Collections.frequency(clientPorts, clientPorts.get(0)));
+	}
+
+	@Test
+	public void testGet_errorStatus_mustBeReturned() throws IOException {
+		startServer(503, 0);
+		transport = new PooledHttpTransport();
+		
+		TransportResponse response = transport.get(server.getBaseUrl() + "Berlin", Collections.<String, String>emptyMap());
+		response.close();
+		
+		assertEquals(503, response.getStatus());
+		assertNull(response.getHeader("ETag"));
+	}
+
+	@Test(expected=SocketTimeoutException.class)
+	public void testGet_slowServer_mustTimeOut() throws IOException {
+		startServer(200, 2000);
+		transport = new PooledHttpTransport(1, 1000, 100, 1000, true);
+		
+		get("Berlin");
+	}
+
+	@Test
+	public void testGet_droppedConnection_mustNotRetry() throws Exception {
+		ConnectionDropper dropper = new ConnectionDropper();
+		transport = new PooledHttpTransport(1, 1000, 1000, 1000, true);
+		try {
+			transport.get(dropper.getBaseUrl() + "Berlin", Collections.<String, String>emptyMap());
+		} catch (IOException expected) {
+		} finally {
+			dropper.close();
+		}
+		
+		assertEquals(1, dropper.getConnections());
+	}
+
+	@Test
+	public void testGet_droppedConnectionUnderRetryingTransport_mustMakeExactlyMaxAttempts() throws Exception {
+		ConnectionDropper dropper = new ConnectionDropper();
+		transport = new PooledHttpTransport(1, 1000, 1000, 1000, true);
+		RetryingHttpTransport retrying = new RetryingHttpTransport(transport);
+		retrying.setMaxAttempts(3);
+		retrying.setBackoff(1, 1);
+		try {
+			retrying.get(dropper.getBaseUrl() + "Berlin", Collections.<String, String>emptyMap());
+		} catch (IOException expected) {
+		} finally {
+			dropper.close();
+		}
+		
+		assertEquals(3, dropper.getConnections());
+	}
+
+	@Test
+	public void testQueryProcessorImplGetUrlInputStream_againstStubServer() throws Exception {
+		startServer(200, 0);
+		QueryProcessorImpl processor = new QueryProcessorImpl(server.getBaseUrl(), "csvBaseDirectory", "UTF-8");
+		try {
+			assertEquals(BODY, IOUtils.toString(processor.getUrlInputStream("Alcazar del Rey"), "UTF-8"));
+		} finally {
+			processor.close();
+		}
+	}
+
+	@Test(expected=HttpStatusException.class)
+	public void testQueryProcessorImplGetUrlInputStream_errorStatus_mustThrowHttpStatusException() throws Exception {
+		startServer(404, 0);
+		QueryProcessorImpl processor = new QueryProcessorImpl(server.getBaseUrl(), "csvBaseDirectory", "UTF-8");
+		try {
+			processor.getUrlInputStream("Berlin");
+		} finally {
+			processor.close();
+		}
+	}
+
+	/**
+	 * Accepts connections, reads the request and closes them without any reply.
+	 */
+	private static class ConnectionDropper implements Runnable {
+
+		private final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+
+		private final AtomicInteger connections = new AtomicInteger();
+
+		ConnectionDropper() throws IOException {
+			Thread thread = new Thread(this, "connection-dropper");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		String getBaseUrl() {
+			return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/";
+		}
+
+		int getConnections() {
+			return connections.get();
+		}
+
+		public void run() {
+			while (!serverSocket.isClosed()) {
+				try {
+					Socket socket = serverSocket.accept();
+					connections.incrementAndGet();
+					socket.getInputStream().read(new byte[4096]);
+					socket.close();
+				} catch (IOException e) {
+					// closed
+				}
+			}
+		}
+
+		void close() throws IOException {
+			serverSocket.close();
+		}
+	}
+}
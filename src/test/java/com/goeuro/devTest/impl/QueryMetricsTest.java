@@ -0,0 +1,146 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.SocketTimeoutException;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import com.goeuro.devTest.QueryProcessorException;
+
+/**
+ * @see {@link QueryMetrics}
+ */
+public class QueryMetricsTest {
+
+	@Test
+	public void testCounters() {
+		QueryMetrics metrics = new QueryMetrics();
+		metrics.addQuery();
+		metrics.addQuery();
+		metrics.addRecords(10);
+		metrics.addBytesIn(100);
+		metrics.addBytesOut(50);
+
+		assertEquals(2, metrics.getQueries());
+		assertEquals(10, metrics.getRecords());
+		assertEquals(100, metrics.getBytesIn());
+		assertEquals(50, metrics.getBytesOut());
+	}
+
+	@Test
+	public void testAddFailure_countedByCause() {
+		QueryMetrics metrics = new QueryMetrics();
+		metrics.addFailure(new QueryProcessorException("timeout", new SocketTimeoutException()));
+		metrics.addFailure(new QueryProcessorException("timeout", new SocketTimeoutException()));
+		metrics.addFailure(new QueryProcessorException("no cause"));
+		metrics.addFailure(new IllegalStateException());
+
+		assertEquals(4, metrics.getFailures());
+		assertEquals(Long.valueOf(2), metrics.getFailuresByType().get("SocketTimeoutException"));
+		assertEquals(Long.valueOf(1), metrics.getFailuresByType().get("QueryProcessorException"));
+		assertEquals(Long.valueOf(1), metrics.getFailuresByType().get("IllegalStateException"));
+	}
+
+	@Test
+	public void testReset() {
+		QueryMetrics metrics = new QueryMetrics();
+		metrics.addQuery();
+		metrics.addFailure(new IOException());
+		metrics.record(QueryMetrics.Phase.TOTAL, 1000);
+		metrics.reset();
+
+		assertEquals(0, metrics.getQueries());
+		assertTrue(metrics.getFailuresByType().isEmpty());
+		assertEquals(0, metrics.getLatency(QueryMetrics.Phase.TOTAL).getCount());
+	}
+
+	@Test
+	public void testRegister() throws Exception {
+		QueryMetrics metrics = new QueryMetrics();
+		metrics.addQuery();
+		metrics.addFailure(new IOException());
+		metrics.record(QueryMetrics.Phase.PARSE, 3000000);
+		metrics.register();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(QueryMetrics.OBJECT_NAME);
+		try {
+			assertEquals(1L, server.getAttribute(name, "Queries"));
+			TabularData failures = (TabularData) server.getAttribute(name, "FailuresByType");
+			assertEquals(1, failures.size());
+			TabularData latencies = (TabularData) server.getAttribute(name, "Latencies");
+			CompositeData parse = (CompositeData) latencies.get(new Object[] {"PARSE"}).get("value");
+			assertEquals(1L, parse.get("count"));
+			assertEquals(3.0, (Double) parse.get("max"), 0.0);
+		} finally {
+			metrics.close();
+		}
+		assertFalse(server.isRegistered(name));
+	}
+
+	@Test
+	public void testStartDump() throws Exception {
+		File file = File.createTempFile("metrics", ".log");
+		file.delete();
+		QueryMetrics metrics = new QueryMetrics();
+		try {
+			metrics.addQuery();
+			metrics.startDump(file, 10);
+			Thread.sleep(100);
+			assertTrue(FileUtils.readFileToString(file, "UTF-8").contains("queries=1"));
+			metrics.addQuery();
+			metrics.close();
+			assertTrue(FileUtils.readFileToString(file, "UTF-8").contains("queries=2"));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testStartDump_twice_mustThrowIllegalStateException() throws IOException {
+		QueryMetrics metrics = new QueryMetrics();
+		try {
+			metrics.startDump(new File("metrics.log"), 60000);
+			metrics.startDump(new File("metrics.log"), 60000);
+		} finally {
+			metrics.reset();
+			metrics.close();
+			new File("metrics.log").delete();
+		}
+	}
+
+	@Test
+	public void testToString() {
+		QueryMetrics metrics = new QueryMetrics();
+		metrics.addQuery();
+		String report = metrics.toString();
+
+		assertTrue(report.startsWith("queries=1 records=0"));
+		for (QueryMetrics.Phase phase : QueryMetrics.Phase.values()) {
+			assertTrue(report.contains(System.lineSeparator() + phase.name() + " count=0"));
+		}
+	}
+
+	@Test
+	public void testToString_requestLimit() {
+		QueryMetrics metrics = new QueryMetrics();
+		assertFalse(metrics.toString().contains("requestLimit"));
+		metrics.setRequestLimit(4);
+		metrics.addThrottled();
+		metrics.addRejection();
+		metrics.addRejection();
+		metrics.reset();
+		metrics.addRejection();
+
+		assertTrue(metrics.toString().contains(" requestLimit=4.0 rejections=1 throttled=0"));
+	}
+}
@@ -1,22 +1,50 @@
 package com.goeuro.devTest.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
 import java.net.MalformedURLException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullWriter;
 import org.apache.commons.lang3.reflect.FieldUtils;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.goeuro.devTest.LocationSink;
+import com.goeuro.devTest.QueryOptions;
 import com.goeuro.devTest.QueryProcessorException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
 
 /**
  * @see {@link QueryProcessorImpl}
@@ -87,18 +115,243 @@ public class QueryProcessorImplTest {
 	
 	@Test
 	public void testProcess() throws QueryProcessorException {
-		processor = new QueryProcessorImpl("endpointBaseUrl", "csvBaseDirectory", "jsonEncoding") {
+		final StringWriter writer = new StringWriter();
+		processor = new QueryProcessorImpl("endpointBaseUrl", "csvBaseDirectory", "UTF-8") {
 			protected InputStream getUrlInputStream(String location) throws MalformedURLException, IOException {
 				return new ByteArrayInputStream(JSON.getBytes());
 			}
 			protected void createDirectoryIfNotExisting(String directory) {
 			}
-			protected void writeCsv(File file, String csv, String encoding, boolean append) throws IOException {
+			protected LocationSink createSink(File file) throws IOException {
+				return new CsvLocationSink(writer);
 			}
 			protected void createFile(File file) throws IOException {
 			}
+			protected File publishFile(File temporary, File file) {
+				return file;
+			}
 		};
 		processor.process("location");
+		
+		assertEquals("376217,Berlin,location,52.52437,13.41053" + System.lineSeparator(), writer.toString());
+	}
+	
+	@Test
+	public void testProcess_streamingParsingMode() throws QueryProcessorException, IOException {
+		final StringWriter writer = new StringWriter();
+		processor = new QueryProcessorImpl("endpointBaseUrl", "csvBaseDirectory", "UTF-8") {
+			protected InputStream getUrlInputStream(String location) throws MalformedURLException, IOException {
+				return new ByteArrayInputStream(JSON.getBytes());
+			}
+		};
+		processor.setParsingMode(ParsingMode.STREAMING);
+		processor.process("location", new CsvLocationSink(writer));
+		
+		assertEquals("376217,Berlin,location,52.52437,13.41053" + System.lineSeparator(), writer.toString());
+	}
+	
+	@Test
+	public void testProcess_queryOptions_mustApplyWhileParsing() throws QueryProcessorException, IOException {
+		final StringWriter writer = new StringWriter();
+		processor = new QueryProcessorImpl("endpointBaseUrl", "csvBaseDirectory", "UTF-8") {
+			protected InputStream getUrlInputStream(String location) throws MalformedURLException, IOException {
+				return new ByteArrayInputStream(JSON.getBytes());
+			}
+		};
+		processor.setParsingMode(ParsingMode.BYTES);
+		processor.setQueryOptions(QueryOptions.ALL.withColumns(QueryOptions.Column.LATITUDE, QueryOptions.Column.LONGITUDE));
+		processor.process("location", new CsvLocationSink(writer));
+		processor.process("location", new CsvLocationSink(writer), QueryOptions.ALL.withTypes("airport"));
+		
+		assertEquals("376217,,,52.52437,13.41053" + System.lineSeparator(), writer.toString());
+	}
+	
+	@Test(expected=NullPointerException.class)
+	public void testSetQueryOptions_null_mustThrowNullPointerException() {
+		processor.setQueryOptions(null);
+	}
+	
+	@Test
+	public void testProcess_latin1_mustDecodeWithJsonEncoding() throws QueryProcessorException, IOException {
+		processor = new QueryProcessorImpl("endpointBaseUrl", "csvBaseDirectory", "ISO-8859-1") {
+			protected InputStream getUrlInputStream(String location) throws MalformedURLException, IOException {
+				return new ByteArrayInputStream(JSON.replace("Berlin", "M\u00fcnchen").getBytes("ISO-8859-1"));
+			}
+		};
+		RecordingLocationSink sink = new RecordingLocationSink();
+		processor.process("location", sink);
+		
+		assertEquals("M\u00fcnchen", sink.getRecords().get(0).getName());
+	}
+	
+	@Test
+	public void testProcess_bytesParsingMode_mustWriteFileThroughChannel() throws QueryProcessorException, IOException {
+		File directory = new File(FileUtils.getTempDirectory(), "testProcess_bytes_" + System.nanoTime());
+		processor = new QueryProcessorImpl("endpointBaseUrl", directory.getPath(), "UTF-8") {
+			protected InputStream getUrlInputStream(String location) throws MalformedURLException, IOException {
+				return new ByteArrayInputStream(JSON.replace("Berlin", "M\u00fcnchen").getBytes("UTF-8"));
+			}
+		};
+		processor.setParsingMode(ParsingMode.BYTES);
+		processor.setDirectBuffers(true);
+		try {
+			File file = processor.process("location");
+			
+			assertEquals("376217,M\u00fcnchen,location,52.52437,13.41053" + System.lineSeparator(), 
+					FileUtils.readFileToString(file, "UTF-8"));
+		} finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+	
+	@Test
+	public void testProcess_concurrentSameLocation_mustWriteSeparatePartitionedFiles() throws Exception {
+		File directory = new File(FileUtils.getTempDirectory(), "testProcess_layout_" + System.nanoTime());
+		processor = new QueryProcessorImpl("endpointBaseUrl", directory.getPath(), "UTF-8") {
+			protected InputStream getUrlInputStream(String location) throws MalformedURLException, IOException {
+				return new ByteArrayInputStream(JSON.getBytes("UTF-8"));
+			}
+		};
+		processor.setOutputLayout(new OutputLayout(directory.getPath(), OutputLayout.Partitioning.HASH));
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<File>> futures = new ArrayList<Future<File>>();
+			for (int i = 0; i < 200; i++) {
+				futures.add(executor.submit(new Callable<File>() {
+					public File call() throws QueryProcessorException {
+						return processor.process("Berlin");
+					}
+				}));
+			}
+			Set<File> files = new HashSet<File>();
+			for (Future<File> future : futures) {
+				File file = future.get();
+				assertTrue(file.getName(), file.getName().endsWith("-berlin.csv"));
+				assertEquals("376217,Berlin,location,52.52437,13.41053" + System.lineSeparator(),
+						FileUtils.readFileToString(file, "UTF-8"));
+				files.add(file);
+			}
+			assertEquals(200, files.size());
+			assertEquals(200, FileUtils.listFiles(directory, null, true).size());
+		} finally {
+			executor.shutdownNow();
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void testProcess_bytesParsingModeUtf16_mustReadCharacters() throws QueryProcessorException, IOException {
+		processor = new QueryProcessorImpl("endpointBaseUrl", "csvBaseDirectory", "UTF-16") {
+			protected InputStream getUrlInputStream(String location) throws MalformedURLException, IOException {
+				return new ByteArrayInputStream(JSON.getBytes("UTF-16"));
+			}
+		};
+		processor.setParsingMode(ParsingMode.BYTES);
+		RecordingLocationSink sink = new RecordingLocationSink();
+		processor.process("location", sink);
+		
+		assertEquals("Berlin", sink.getRecords().get(0).getName());
+	}
+	
+	@Test
+	public void testProcessAndCollect() throws QueryProcessorException {
+		final StringWriter writer = new StringWriter();
+		processor = new QueryProcessorImpl("endpointBaseUrl", "csvBaseDirectory", "UTF-8") {
+			protected InputStream getUrlInputStream(String location) throws MalformedURLException, IOException {
+				return new ByteArrayInputStream(JSON.getBytes());
+			}
+			protected void createDirectoryIfNotExisting(String directory) {
+			}
+			protected LocationSink createSink(File file) throws IOException {
+				return new CsvLocationSink(writer);
+			}
+			protected void createFile(File file) throws IOException {
+			}
+			protected File publishFile(File temporary, File file) {
+				return file;
+			}
+		};
+		LocationStore store = new LocationStore();
+		processor.processAndCollect("location", store);
+		
+		assertEquals("376217,Berlin,location,52.52437,13.41053" + System.lineSeparator(), writer.toString());
+		assertEquals(1, store.size());
+		assertEquals(0, store.indexOf(376217));
+		assertEquals(13.41053, store.getLongitude(0), 0);
+	}
+	
+	@Test
+	public void testProcess_outputStream_noFileCreated() throws QueryProcessorException, IOException {
+		File directory = new File(FileUtils.getTempDirectory(), "testProcess_outputStream_" + System.nanoTime());
+		processor = new QueryProcessorImpl("endpointBaseUrl", directory.getPath(), "UTF-8") {
+			protected InputStream getUrlInputStream(String location) throws MalformedURLException, IOException {
+				return new ByteArrayInputStream(JSON.getBytes());
+			}
+		};
+		final AtomicInteger closed = new AtomicInteger();
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream() {
+			public void close() {
+				closed.incrementAndGet();
+			}
+		};
+		processor.process("location", outputStream);
+		
+		assertEquals("376217,Berlin,location,52.52437,13.41053" + System.lineSeparator(), outputStream.toString("UTF-8"));
+		assertEquals(0, closed.get());
+		assertFalse(directory.exists());
+	}
+	
+	@Test
+	public void testProcess_writer() throws QueryProcessorException {
+		processor = new QueryProcessorImpl("endpointBaseUrl", "csvBaseDirectory", "UTF-8") {
+			protected InputStream getUrlInputStream(String location) throws MalformedURLException, IOException {
+				return new ByteArrayInputStream(JSON.getBytes());
+			}
+		};
+		processor.setOutputFormat(new NdjsonOutputFormat());
+		StringWriter writer = new StringWriter();
+		processor.process("location", writer);
+		
+		assertTrue(writer.toString().startsWith("{\"_id\":376217,\"name\":\"Berlin\""));
+	}
+	
+	@Test
+	public void testProcess_channel() throws QueryProcessorException, IOException {
+		processor = new QueryProcessorImpl("endpointBaseUrl", "csvBaseDirectory", "UTF-8") {
+			protected InputStream getUrlInputStream(String location) throws MalformedURLException, IOException {
+				return new ByteArrayInputStream(JSON.getBytes());
+			}
+		};
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		processor.process("location", Channels.newChannel(outputStream));
+		
+		assertEquals("376217,Berlin,location,52.52437,13.41053" + System.lineSeparator(), outputStream.toString("UTF-8"));
+	}
+	
+	@Test(expected=UnsupportedOperationException.class)
+	public void testProcess_writerWithBinaryFormat_mustThrowUnsupportedOperationException() throws QueryProcessorException {
+		processor = new QueryProcessorImpl("endpointBaseUrl", "csvBaseDirectory", "UTF-8") {
+			protected InputStream getUrlInputStream(String location) throws MalformedURLException, IOException {
+				return new ByteArrayInputStream(JSON.getBytes());
+			}
+		};
+		processor.setOutputFormat(new GzipCsvOutputFormat());
+		processor.process("location", new StringWriter());
+	}
+	
+	@Test(expected=NullPointerException.class)
+	public void testProcessAndCollect_collectorNull_mustThrowNullPointerException() throws QueryProcessorException {
+		processor.processAndCollect("location", null);
+	}
+	
+	@Test(expected=NullPointerException.class)
+	public void testSetOutputFormat_null_mustThrowNullPointerException() {
+		processor.setOutputFormat(null);
+	}
+	
+	@Test(expected=NullPointerException.class)
+	public void testSetParsingMode_null_mustThrowNullPointerException() {
+		processor.setParsingMode(null);
 	}
 	
 	@Test(expected=QueryProcessorException.class)
@@ -121,6 +374,405 @@ public class QueryProcessorImplTest {
 		processor.process("location");
 	}
 	
+	@Test
+	public void testProcess_failsMidStream_fileMustBeDeleted() throws IOException {
+		final File directory = File.createTempFile("csv", "");
+		directory.delete();
+		processor = new QueryProcessorImpl("endpointBaseUrl", directory.getPath(), "UTF-8") {
+			protected InputStream getUrlInputStream(String location) throws MalformedURLException, IOException {
+				return new ByteArrayInputStream((JSON.substring(0, JSON.length() - 1) + ",{\"_id\":").getBytes());
+			}
+		};
+		
+		try {
+			processor.process("location");
+		} catch (QueryProcessorException e) {
+			assertEquals(0, directory.list().length);
+			return;
+		} finally {
+			FileUtils.deleteDirectory(directory);
+		}
+		throw new AssertionError("QueryProcessorException expected");
+	}
+	
+	@Test
+	public void testProcess_pipelined() throws QueryProcessorException, IOException {
+		final File directory = File.createTempFile("csv", "");
+		directory.delete();
+		final StringBuilder json = new StringBuilder("[");
+		for (int i = 0; i < 100; i++) {
+			json.append(i == 0 ? "" : ",").append("{\"_id\":").append(i).append(",\"name\":\"Berlin\",\"type\":\"location\","
+					+ "\"geo_position\":{\"latitude\": 52.52437,\"longitude\": 13.41053}}");
+		}
+		json.append("]");
+		processor = new QueryProcessorImpl("endpointBaseUrl", directory.getPath(), "UTF-8") {
+			protected InputStream getUrlInputStream(String location) throws MalformedURLException, IOException {
+				return new ByteArrayInputStream(json.toString().getBytes("UTF-8"));
+			}
+		};
+		processor.setParsingMode(ParsingMode.STREAMING);
+		processor.setPipelining(7, 2);
+
+		try {
+			File file = processor.process("location");
+
+			List<String> lines = FileUtils.readLines(file, "UTF-8");
+			assertEquals(100, lines.size());
+			assertEquals("99,Berlin,location,52.52437,13.41053", lines.get(99));
+		} finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void testProcess_pipelinedFailsMidStream_fileMustBeDeleted() throws IOException {
+		final File directory = File.createTempFile("csv", "");
+		directory.delete();
+		processor = new QueryProcessorImpl("endpointBaseUrl", directory.getPath(), "UTF-8") {
+			protected InputStream getUrlInputStream(String location) throws MalformedURLException, IOException {
+				return new ByteArrayInputStream((JSON.substring(0, JSON.length() - 1) + ",{\"_id\":").getBytes());
+			}
+		};
+		processor.setParsingMode(ParsingMode.STREAMING);
+		processor.setPipelining(1, 1);
+
+		try {
+			processor.process("location");
+		} catch (QueryProcessorException e) {
+			// the file is not even created when the writer had no batch yet
+			assertTrue(!directory.exists() || directory.list().length == 0);
+			return;
+		} finally {
+			FileUtils.deleteDirectory(directory);
+		}
+		throw new AssertionError("QueryProcessorException expected");
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testSetPipelining_negativeBatchSize_mustThrowIllegalArgumentException() {
+		processor.setPipelining(-1, 4);
+	}
+
+	// processAsync()
+	
+	/**
+	 * Answers every request after {@code delay} ms from a timer, like a non-blocking client, 
+	 * or never if {@code delay} is negative.
+	 */
+	private static class ScheduledTransport implements AsyncHttpTransport {
+		
+		private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+		
+		private final long delay;
+		
+		private final int status;
+		
+		private final AtomicInteger inFlight = new AtomicInteger();
+		
+		private final AtomicInteger maxInFlight = new AtomicInteger();
+		
+		private final List<CompletableFuture<TransportResponse>> requests = 
+				Collections.synchronizedList(new ArrayList<CompletableFuture<TransportResponse>>());
+		
+		ScheduledTransport(long delay, int status) {
+			this.delay = delay;
+			this.status = status;
+		}
+		
+		public CompletableFuture<TransportResponse> getAsync(String url, Map<String, String> headers) {
+			final CompletableFuture<TransportResponse> request = new CompletableFuture<TransportResponse>();
+			requests.add(request);
+			int current = inFlight.incrementAndGet();
+			int max = maxInFlight.get();
+			while (current > max && !maxInFlight.compareAndSet(max, current)) {
+				max = maxInFlight.get();
+			}
+			if (delay >= 0) {
+				timer.schedule(new Runnable() {
+					public void run() {
+						inFlight.decrementAndGet();
+						request.complete(new TransportResponse(status, Collections.<String, String>emptyMap(), 
+								new ByteArrayInputStream(JSON.getBytes())));
+					}
+				}, delay, TimeUnit.MILLISECONDS);
+			}
+			return request;
+		}
+		
+		public TransportResponse get(String url, Map<String, String> headers) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+		
+		public void close() {
+			timer.shutdownNow();
+		}
+	}
+	
+	private QueryProcessorImpl inMemoryProcessor() {
+		return inMemoryProcessor("endpointBaseUrl");
+	}
+	
+	private QueryProcessorImpl inMemoryProcessor(String endpointBaseUrl) {
+		return new QueryProcessorImpl(endpointBaseUrl, "csvBaseDirectory", "UTF-8") {
+			protected void createDirectoryIfNotExisting(String directory) {
+			}
+			protected LocationSink createSink(File file) throws IOException {
+				return new CsvLocationSink(new NullWriter());
+			}
+			protected void createFile(File file) throws IOException {
+			}
+			protected File publishFile(File temporary, File file) {
+				return file;
+			}
+		};
+	}
+	
+	@Test
+	public void testProcessAsync_thousandsOfLookups_handfulOfThreads() throws Exception {
+		final AtomicInteger threads = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(4, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				threads.incrementAndGet();
+				return new Thread(runnable);
+			}
+		});
+		ScheduledTransport transport = new ScheduledTransport(200, 200);
+		processor = inMemoryProcessor();
+		processor.setTransport(transport);
+		processor.setExecutor(executor);
+		
+		try {
+			long start = System.nanoTime();
+			List<CompletableFuture<File>> futures = new ArrayList<CompletableFuture<File>>();
+			for (int i = 0; i < 2000; i++) {
+				futures.add(processor.processAsync("location" + i));
+			}
+			for (CompletableFuture<File> future : futures) {
+				assertNotNull(future.get(30, TimeUnit.SECONDS));
+			}
+			
+			// a thread per lookup would take 2000 * 200 / 4 ms
+			assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 20000);
+			assertTrue(transport.maxInFlight.get() > 1000);
+			assertTrue(threads.get() <= 4);
+		} finally {
+			processor.close();
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void testProcessAsync_thousandLookupsOverSockets_handfulOfThreads() throws Exception {
+		final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+		final AtomicInteger inFlight = new AtomicInteger();
+		final AtomicInteger maxInFlight = new AtomicInteger();
+		StubServer server = new StubServer(new HttpHandler() {
+			public void handle(final HttpExchange exchange) throws IOException {
+				int current = inFlight.incrementAndGet();
+				int max = maxInFlight.get();
+				while (current > max && !maxInFlight.compareAndSet(max, current)) {
+					max = maxInFlight.get();
+				}
+				// answer from the timer so that the server does not hold a thread per request either
+				timer.schedule(new Callable<Void>() {
+					public Void call() throws IOException {
+						inFlight.decrementAndGet();
+						StubServer.respond(exchange, 200, JSON.getBytes("UTF-8"));
+						return null;
+					}
+				}, 200, TimeUnit.MILLISECONDS);
+			}
+		});
+		final AtomicInteger threads = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(4, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				threads.incrementAndGet();
+				return new Thread(runnable);
+			}
+		});
+		processor = inMemoryProcessor(server.getBaseUrl());
+		processor.setTransport(new AsyncRetryingHttpTransport(new AsyncPooledHttpTransport(1000, 5000, 10000, 30000, true, null)));
+		processor.setExecutor(executor);
+		
+		try {
+			long start = System.nanoTime();
+			List<CompletableFuture<File>> futures = new ArrayList<CompletableFuture<File>>();
+			for (int i = 0; i < 1000; i++) {
+				futures.add(processor.processAsync("location" + i));
+			}
+			for (CompletableFuture<File> future : futures) {
+				assertNotNull(future.get(30, TimeUnit.SECONDS));
+			}
+			
+			// a thread per lookup would take 1000 * 200 / 4 ms
+			assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 20000);
+			assertTrue(maxInFlight.get() > 100);
+			assertTrue(threads.get() <= 4);
+		} finally {
+			processor.close();
+			executor.shutdownNow();
+			timer.shutdownNow();
+			server.stop();
+		}
+	}
+	
+	@Test
+	public void testProcessAsync_blockingTransport() throws Exception {
+		final StringWriter writer = new StringWriter();
+		processor = new QueryProcessorImpl("endpointBaseUrl", "csvBaseDirectory", "UTF-8") {
+			protected InputStream getUrlInputStream(String location) throws MalformedURLException, IOException {
+				return new ByteArrayInputStream(JSON.getBytes());
+			}
+			protected void createDirectoryIfNotExisting(String directory) {
+			}
+			protected LocationSink createSink(File file) throws IOException {
+				return new CsvLocationSink(writer);
+			}
+			protected void createFile(File file) throws IOException {
+			}
+			protected File publishFile(File temporary, File file) {
+				return file;
+			}
+		};
+		
+		try {
+			assertNotNull(processor.processAsync("location").get(5, TimeUnit.SECONDS));
+			assertEquals("376217,Berlin,location,52.52437,13.41053" + System.lineSeparator(), writer.toString());
+		} finally {
+			processor.close();
+		}
+	}
+	
+	@Test
+	public void testProcessAsync_httpError_mustFailWithQueryProcessorException() throws Exception {
+		processor = inMemoryProcessor();
+		processor.setTransport(new ScheduledTransport(0, 503));
+		
+		try {
+			processor.processAsync("location").get(5, TimeUnit.SECONDS);
+			throw new AssertionError("QueryProcessorException expected");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof QueryProcessorException);
+			assertTrue(e.getCause().getCause() instanceof HttpStatusException);
+		} finally {
+			processor.close();
+		}
+	}
+	
+	@Test
+	public void testProcessAsync_timeout_mustFailAndCancelRequest() throws Exception {
+		ScheduledTransport transport = new ScheduledTransport(-1, 200);
+		processor = inMemoryProcessor();
+		processor.setTransport(transport);
+		
+		try {
+			processor.processAsync("location", 50, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS);
+			throw new AssertionError("QueryProcessorException expected");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof QueryProcessorException);
+			assertTrue(e.getCause().getCause() instanceof TimeoutException);
+			// cancelled by the timer thread right after failing the future
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (!transport.requests.get(0).isCancelled() && System.nanoTime() < deadline) {
+				Thread.sleep(1);
+			}
+			assertTrue(transport.requests.get(0).isCancelled());
+		} finally {
+			processor.close();
+		}
+	}
+	
+	@Test
+	public void testProcessAsync_cancelled_requestMustBeCancelled() throws Exception {
+		ScheduledTransport transport = new ScheduledTransport(-1, 200);
+		processor = inMemoryProcessor();
+		processor.setTransport(transport);
+		
+		try {
+			CompletableFuture<File> future = processor.processAsync("location");
+			assertTrue(future.cancel(true));
+			assertTrue(transport.requests.get(0).isCancelled());
+		} finally {
+			processor.close();
+		}
+	}
+	
+	@Test
+	public void testProcessAsync_cancelledWhileParsing_fileMustBeDeleted() throws Exception {
+		final File directory = File.createTempFile("csv", "");
+		directory.delete();
+		final CountDownLatch parsing = new CountDownLatch(1);
+		final CountDownLatch cancelled = new CountDownLatch(1);
+		processor = new QueryProcessorImpl("endpointBaseUrl", directory.getPath(), "UTF-8") {
+			protected InputStream getUrlInputStream(String location) throws MalformedURLException, IOException {
+				return new ByteArrayInputStream(JSON.getBytes());
+			}
+			protected void parse(InputStream inputStream, LocationSink sink, QueryOptions options) throws IOException {
+				sink.write(1, "Berlin", "location", "1", "2");
+				parsing.countDown();
+				try {
+					cancelled.await();
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+				sink.write(2, "Berlin", "location", "1", "2");
+			}
+		};
+		
+		try {
+			CompletableFuture<File> future = processor.processAsync("location");
+			parsing.await(5, TimeUnit.SECONDS);
+			future.cancel(true);
+			cancelled.countDown();
+			
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (directory.list().length > 0 && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(0, directory.list().length);
+		} finally {
+			processor.close();
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+	
+	@Test
+	public void testProcess_withMetrics() throws QueryProcessorException, IOException {
+		final File directory = File.createTempFile("csv", "");
+		directory.delete();
+		processor = new QueryProcessorImpl("endpointBaseUrl", directory.getPath(), "UTF-8") {
+			protected InputStream getUrlInputStream(String location) throws MalformedURLException, IOException {
+				if (location.equals("fail")) {
+					throw new MalformedURLException();
+				}
+				return new ByteArrayInputStream(JSON.getBytes());
+			}
+		};
+		QueryMetrics metrics = new QueryMetrics();
+		processor.setMetrics(metrics);
+		
+		try {
+			File file = processor.process("location");
+			try {
+				processor.process("fail");
+			} catch (QueryProcessorException e) {
+				// counted
+			}
+			
+			assertEquals(2, metrics.getQueries());
+			assertEquals(1, metrics.getRecords());
+			assertEquals(JSON.getBytes().length, metrics.getBytesIn());
+			assertEquals(file.length(), metrics.getBytesOut());
+			assertEquals(1, metrics.getFailures());
+			assertEquals(Long.valueOf(1), metrics.getFailuresByType().get("MalformedURLException"));
+			assertEquals(2, metrics.getLatency(QueryMetrics.Phase.TOTAL).getCount());
+			assertEquals(1, metrics.getLatency(QueryMetrics.Phase.PARSE).getCount());
+			assertEquals(1, metrics.getLatency(QueryMetrics.Phase.WRITE).getCount());
+		} finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+	
 	// others
 
 	@Test(expected=NullPointerException.class)
@@ -159,17 +811,28 @@ public class QueryProcessorImplTest {
 	}
 
 	@Test
-	public void testWriteCsv() throws IOException {
+	public void testCreateSink() throws IOException {
 		String prefix = Integer.toString(new Random().nextInt(Integer.MAX_VALUE));
 		String suffix = Integer.toString(new Random().nextInt(Integer.MAX_VALUE));
 		File file = File.createTempFile(prefix, suffix);
+		processor = new QueryProcessorImpl("endpointBaseUrl", "csvBaseDirectory", "UTF-8");
 		
-		processor.writeCsv(file, "csv", "UTF-8", true);
+		LocationSink sink = processor.createSink(file);
+		sink.write(1, "name", "type", "latitude", "longitude");
+		sink.write(2, "name", "type", "latitude", "longitude");
+		sink.close();
 		
-		assertEquals("csv", FileUtils.readFileToString(file, "UTF-8"));
+		assertEquals("1,name,type,latitude,longitude" + System.lineSeparator() 
+				+ "2,name,type,latitude,longitude" + System.lineSeparator(), 
+				FileUtils.readFileToString(file, "UTF-8"));
 		file.delete();
 	}
 
+	@Test(expected=IllegalArgumentException.class)
+	public void testSetBufferSize_notPositive_mustThrowIllegalArgumentException() {
+		processor.setBufferSize(0);
+	}
+
 	@Test
 	public void testCreateDirectoryIfNotExisting_notExisting_mustBeCreated() {
 		String name = Integer.toString(new Random().nextInt(Integer.MAX_VALUE));
@@ -0,0 +1,354 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @see {@link RetryingHttpTransport}
+ */
+public class RetryingHttpTransportTest {
+
+	private static final String BODY = "[{\"_id\":376217,\"name\":\"Berlin\"}]";
+
+	private static final Map<String, String> NO_HEADERS = Collections.<String, String>emptyMap();
+
+	private StubServer server;
+
+	private RetryingHttpTransport transport;
+
+	@After
+	public void tearDown() throws IOException {
+		IOUtils.closeQuietly(transport);
+		if (server != null) {
+			server.stop();
+		}
+	}
+
+	private StubServer.Script start(StubServer.Script script) throws IOException {
+		server = new StubServer(script);
+		transport = new RetryingHttpTransport(new PooledHttpTransport(20, 1000, 5000, 30000, false));
+		transport.setBackoff(1, 5);
+		return script;
+	}
+
+	private StubServer.Script startAsync(StubServer.Script script) throws IOException {
+		server = new StubServer(script);
+		transport = new AsyncRetryingHttpTransport(new AsyncPooledHttpTransport(20, 1000, 5000, 30000, false, null));
+		transport.setBackoff(1, 5);
+		return script;
+	}
+
+	private String getAsync() throws Exception {
+		TransportResponse response = ((AsyncHttpTransport) transport).getAsync(server.getBaseUrl() + "Berlin", NO_HEADERS)
+				.get(5, TimeUnit.SECONDS);
+		try {
+			return response.getStatus() + " " + IOUtils.toString(response.getBody(), "UTF-8");
+		} finally {
+			response.close();
+		}
+	}
+
+	private String get() throws IOException {
+		TransportResponse response = transport.get(server.getBaseUrl() + "Berlin", NO_HEADERS);
+		try {
+			return response.getStatus() + " " + IOUtils.toString(response.getBody(), "UTF-8");
+		} finally {
+			response.close();
+		}
+	}
+
+	@Test(expected=NullPointerException.class)
+	public void testRetryingHttpTransport_delegateNull_mustThrowNullPointerException() {
+		new RetryingHttpTransport(null);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testSetMaxAttempts_notPositive_mustThrowIllegalArgumentException() throws IOException {
+		start(new StubServer.Script().then(200, 0, BODY));
+		transport.setMaxAttempts(0);
+	}
+
+	@Test
+	public void testGet_serverErrors_retried() throws IOException {
+		StubServer.Script script = start(new StubServer.Script().then(503, 0, "").then(500, 0, "").then(200, 0, BODY));
+
+		assertEquals("200 " + BODY, get());
+		assertEquals(3, script.getRequests());
+		assertEquals(2, transport.getRetries());
+	}
+
+	@Test
+	public void testGet_attemptsExhausted_lastResponseReturned() throws IOException {
+		StubServer.Script script = start(new StubServer.Script().then(503, 0, "down"));
+		transport.setMaxAttempts(2);
+
+		assertEquals("503 down", get());
+		assertEquals(2, script.getRequests());
+	}
+
+	@Test
+	public void testGet_clientError_notRetried() throws IOException {
+		StubServer.Script script = start(new StubServer.Script().then(404, 0, "missing"));
+
+		assertEquals("404 missing", get());
+		assertEquals(1, script.getRequests());
+	}
+
+	@Test
+	public void testGet_readTimeout_retried() throws IOException {
+		StubServer.Script script = new StubServer.Script().then(200, 500, BODY).then(200, 0, BODY);
+		server = new StubServer(script);
+		transport = new RetryingHttpTransport(new PooledHttpTransport(20, 1000, 100, 30000, false));
+		transport.setBackoff(1, 5);
+
+		assertEquals("200 " + BODY, get());
+		assertEquals(2, script.getRequests());
+	}
+
+	@Test(expected=MalformedURLException.class)
+	public void testGet_malformedUrl_notRetried() throws IOException {
+		start(new StubServer.Script().then(200, 0, BODY));
+		transport.get("http://in valid/", NO_HEADERS);
+	}
+
+	@Test
+	public void testGet_deadline() throws IOException {
+		StubServer.Script script = start(new StubServer.Script().then(200, 2000, BODY));
+		transport.setDeadline(200);
+
+		long start = System.nanoTime();
+		try {
+			get();
+			fail("SocketTimeoutException expected");
+		} catch (SocketTimeoutException e) {
+			assertTrue((System.nanoTime() - start) / 1000000 < 1500);
+		}
+		assertEquals(1, script.getRequests());
+	}
+
+	@Test
+	public void testGet_deadlineStopsRetries() throws IOException {
+		StubServer.Script script = start(new StubServer.Script().then(503, 50, ""));
+		transport.setMaxAttempts(100);
+		transport.setBackoff(100, 100);
+		transport.setDeadline(300);
+
+		long start = System.nanoTime();
+		try {
+			assertEquals("503 ", get());
+		} catch (SocketTimeoutException e) {
+			// the deadline passed during the last attempt
+		}
+		assertTrue((System.nanoTime() - start) / 1000000 < 1000);
+		assertTrue(script.getRequests() < 5);
+	}
+
+	@Test
+	public void testGet_hedged_fasterResponseWins() throws IOException {
+		StubServer.Script script = start(new StubServer.Script().then(200, 2000, "slow").then(200, 0, "fast"));
+		transport.setHedging(100, 0);
+
+		long start = System.nanoTime();
+		assertEquals("200 fast", get());
+		assertTrue((System.nanoTime() - start) / 1000000 < 1500);
+		assertEquals(2, script.getRequests());
+		assertEquals(1, transport.getHedges());
+		assertEquals(1, transport.getHedgeWins());
+	}
+
+	@Test
+	public void testGet_fastResponse_notHedged() throws IOException {
+		StubServer.Script script = start(new StubServer.Script().then(200, 0, BODY));
+		transport.setHedging(1000, 0);
+
+		assertEquals("200 " + BODY, get());
+		assertEquals(1, script.getRequests());
+		assertEquals(0, transport.getHedges());
+	}
+
+	@Test
+	public void testGetHedgeDelay_followsObservedPercentile() throws IOException {
+		start(new StubServer.Script().then(200, 20, BODY));
+		transport.setHedging(5000, 50);
+
+		assertEquals(5000, transport.getHedgeDelay());
+		for (int i = 0; i < RetryingHttpTransport.MIN_SAMPLES; i++) {
+			get();
+		}
+		assertTrue(transport.getHedgeDelay() >= 15);
+		assertTrue(transport.getHedgeDelay() < 1000);
+	}
+
+	@Test
+	public void testGet_budgetExhausted_noMoreRetries() throws IOException {
+		StubServer.Script script = start(new StubServer.Script().then(503, 0, ""));
+		transport.setMaxAttempts(10);
+		transport.setRetryBudget(0, 3);
+
+		get();
+		get();
+		assertEquals(3, transport.getRetries());
+		assertEquals(5, script.getRequests());
+		assertEquals(2, transport.getBudgetExhausted());
+	}
+
+	@Test
+	public void testGet_budgetRefilledByRequests() throws IOException {
+		final AtomicInteger calls = new AtomicInteger();
+		transport = new RetryingHttpTransport(new HttpTransport() {
+			public TransportResponse get(String url, Map<String, String> headers) throws IOException {
+				if (calls.incrementAndGet() % 2 == 1) {
+					throw new IOException("reset");
+				}
+				return new TransportResponse(200, NO_HEADERS, IOUtils.toInputStream(BODY, "UTF-8"));
+			}
+			public void close() {
+			}
+		});
+		transport.setBackoff(0, 0);
+		transport.setRetryBudget(0.5, 0);
+
+		int failures = 0;
+		for (int i = 0; i < 10; i++) {
+			try {
+				transport.get("http://localhost/", NO_HEADERS).close();
+			} catch (IOException e) {
+				failures++;
+			}
+		}
+		// every other request deposits enough for one retry
+		assertEquals(4, transport.getRetries());
+		assertEquals(3, failures);
+	}
+
+	@Test
+	public void testGet_rejectedByLimit_notRetried() throws IOException {
+		server = new StubServer(new StubServer.Script().then(200, 0, BODY));
+		LimitingHttpTransport limitingTransport = new LimitingHttpTransport(new PooledHttpTransport(20, 1000, 5000, 30000, false),
+				LimitingHttpTransport.Mode.TOKEN_BUCKET);
+		limitingTransport.setRate(1, 1);
+		limitingTransport.setMaxWait(0);
+		transport = new RetryingHttpTransport(limitingTransport);
+		transport.setBackoff(0, 0);
+
+		assertEquals("200 " + BODY, get());
+		try {
+			get();
+			fail("LimitExceededException expected");
+		} catch (LimitingHttpTransport.LimitExceededException e) {
+			// expected
+		}
+		assertEquals(0, transport.getRetries());
+		assertEquals(1, limitingTransport.getRejections());
+	}
+
+	@Test
+	public void testGet_noHedgingNorDeadline_mustRunOnCallingThread() throws IOException {
+		final AtomicReference<Thread> thread = new AtomicReference<Thread>();
+		transport = new RetryingHttpTransport(new HttpTransport() {
+			public TransportResponse get(String url, Map<String, String> headers) {
+				thread.set(Thread.currentThread());
+				return new TransportResponse(200, NO_HEADERS, IOUtils.toInputStream(BODY));
+			}
+			public void close() {
+			}
+		});
+
+		transport.get("http://localhost/Berlin", NO_HEADERS).close();
+
+		assertSame(Thread.currentThread(), thread.get());
+	}
+
+	@Test
+	public void testGet_deadline_mustRunOnExecutor() throws IOException {
+		final AtomicReference<Thread> thread = new AtomicReference<Thread>();
+		transport = new RetryingHttpTransport(new HttpTransport() {
+			public TransportResponse get(String url, Map<String, String> headers) {
+				thread.set(Thread.currentThread());
+				return new TransportResponse(200, NO_HEADERS, IOUtils.toInputStream(BODY));
+			}
+			public void close() {
+			}
+		});
+		transport.setDeadline(5000);
+
+		transport.get("http://localhost/Berlin", NO_HEADERS).close();
+
+		assertNotSame(Thread.currentThread(), thread.get());
+	}
+
+	@Test
+	public void testGetAsync_serverErrors_retried() throws Exception {
+		StubServer.Script script = startAsync(new StubServer.Script().then(503, 0, "").then(500, 0, "").then(200, 0, BODY));
+
+		assertEquals("200 " + BODY, getAsync());
+		assertEquals(3, script.getRequests());
+		assertEquals(2, transport.getRetries());
+	}
+
+	@Test
+	public void testGetAsync_clientError_notRetried() throws Exception {
+		StubServer.Script script = startAsync(new StubServer.Script().then(404, 0, "missing"));
+
+		assertEquals("404 missing", getAsync());
+		assertEquals(1, script.getRequests());
+	}
+
+	@Test
+	public void testGetAsync_deadline() throws Exception {
+		StubServer.Script script = startAsync(new StubServer.Script().then(200, 2000, BODY));
+		transport.setDeadline(200);
+
+		long start = System.nanoTime();
+		try {
+			getAsync();
+			fail("ExecutionException expected");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof SocketTimeoutException);
+			assertTrue((System.nanoTime() - start) / 1000000 < 1500);
+		}
+		assertEquals(1, script.getRequests());
+	}
+
+	@Test
+	public void testGetAsync_hedged_fasterResponseWins() throws Exception {
+		StubServer.Script script = startAsync(new StubServer.Script().then(200, 2000, "slow").then(200, 0, "fast"));
+		transport.setHedging(100, 0);
+
+		long start = System.nanoTime();
+		assertEquals("200 fast", getAsync());
+		assertTrue((System.nanoTime() - start) / 1000000 < 1500);
+		assertEquals(2, script.getRequests());
+		assertEquals(1, transport.getHedges());
+		assertEquals(1, transport.getHedgeWins());
+	}
+
+	@Test
+	public void testGetAsync_cancelled_noMoreAttempts() throws Exception {
+		StubServer.Script script = startAsync(new StubServer.Script().then(503, 300, ""));
+		transport.setMaxAttempts(100);
+
+		CompletableFuture<TransportResponse> future = ((AsyncHttpTransport) transport).getAsync(server.getBaseUrl() + "Berlin", NO_HEADERS);
+		Thread.sleep(100);
+		future.cancel(false);
+		Thread.sleep(500);
+
+		// the attempt in flight was cancelled before its 503 could be retried
+		assertEquals(1, script.getRequests());
+		assertEquals(0, transport.getRetries());
+	}
+}
@@ -0,0 +1,136 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @see {@link RollingLocationSink}
+ */
+public class RollingLocationSinkTest {
+
+	private static final String RECORD = "1,Berlin,location,52.52437,13.41053" + System.lineSeparator();
+
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("rolling", "");
+		directory.delete();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	private RollingLocationSink sink(long maxRecords, long maxBytes) {
+		return new RollingLocationSink(new File(directory, "batch.csv"), new CsvOutputFormat(), "UTF-8", 16, maxRecords, maxBytes);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testRollingLocationSink_negativeMaxRecords_mustThrowIllegalArgumentException() {
+		this.sink(-1, 0);
+	}
+
+	@Test
+	public void testWrite_noLimit_mustWriteSingleFileOnClose() throws IOException {
+		File file = new File(directory, "batch.csv");
+		FileUtils.writeStringToFile(file, "previous", "UTF-8");
+		RollingLocationSink sink = this.sink(0, 0);
+		for (int i = 0; i < 5; i++) {
+			sink.write(1, "Berlin", "location", "52.52437", "13.41053");
+		}
+
+		assertEquals("previous", FileUtils.readFileToString(file, "UTF-8"));
+		sink.close();
+		assertEquals(Arrays.asList(file), sink.getFiles());
+		assertEquals(RECORD + RECORD + RECORD + RECORD + RECORD, FileUtils.readFileToString(file, "UTF-8"));
+		assertEquals(1, directory.list().length);
+	}
+
+	@Test
+	public void testWrite_maxRecords_mustRollOver() throws IOException {
+		RollingLocationSink sink = this.sink(2, 0);
+		for (int i = 0; i < 5; i++) {
+			sink.write(1, "Berlin", "location", "52.52437", "13.41053");
+		}
+		assertEquals(2, sink.getFiles().size());
+		sink.close();
+
+		List<File> files = sink.getFiles();
+		assertEquals(Arrays.asList(new File(directory, "batch-00001.csv"), new File(directory, "batch-00002.csv"),
+				new File(directory, "batch-00003.csv")), files);
+		assertEquals(RECORD + RECORD, FileUtils.readFileToString(files.get(0), "UTF-8"));
+		assertEquals(RECORD, FileUtils.readFileToString(files.get(2), "UTF-8"));
+		assertEquals(5, sink.getRecords());
+		assertEquals(3, directory.list().length);
+	}
+
+	@Test
+	public void testWrite_exactlyFull_mustNotPublishEmptyPart() throws IOException {
+		RollingLocationSink sink = this.sink(2, 0);
+		for (int i = 0; i < 4; i++) {
+			sink.write(1, "Berlin", "location", "52.52437", "13.41053");
+		}
+		sink.close();
+
+		assertEquals(2, sink.getFiles().size());
+	}
+
+	@Test
+	public void testWrite_maxBytes_mustRollOverWithinBuffer() throws IOException {
+		RollingLocationSink sink = this.sink(0, 100);
+		for (int i = 0; i < 20; i++) {
+			sink.write(1, "Berlin", "location", "52.52437", "13.41053");
+		}
+		sink.close();
+
+		assertTrue(sink.getFiles().size() > 1);
+		long total = 0;
+		for (File file : sink.getFiles()) {
+			assertTrue(file.length() < 100 + 16 + RECORD.length());
+			total += file.length();
+		}
+		assertEquals(20 * RECORD.length(), total);
+	}
+
+	@Test
+	public void testClose_nothingWritten_mustPublishEmptyFile() throws IOException {
+		RollingLocationSink sink = this.sink(2, 0);
+		sink.close();
+
+		assertEquals(Arrays.asList(new File(directory, "batch-00001.csv")), sink.getFiles());
+		assertEquals(0, sink.getFiles().get(0).length());
+	}
+
+	@Test
+	public void testDiscard_mustDeleteCurrentPartOnly() throws IOException {
+		RollingLocationSink sink = this.sink(2, 0);
+		for (int i = 0; i < 3; i++) {
+			sink.write(1, "Berlin", "location", "52.52437", "13.41053");
+		}
+		sink.discard();
+
+		assertEquals(Arrays.asList("batch-00001.csv"), Arrays.asList(directory.list()));
+		assertFalse(new File(directory, "batch-00002.csv").exists());
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testWrite_closed_mustThrowIllegalStateException() throws IOException {
+		RollingLocationSink sink = this.sink(0, 0);
+		sink.close();
+
+		sink.write(1, "Berlin", "location", "52.52437", "13.41053");
+	}
+}
@@ -0,0 +1,219 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.goeuro.devTest.LocationSink;
+
+/**
+ * @see {@link SortingLocationSink}
+ */
+public class SortingLocationSinkTest {
+
+	private static final String[] NAMES = {"Berlin", "berlin", "München", "Köln 😀", "Aachen", "", null};
+
+	private static final String[] TYPES = {"location", "airport", "station", null};
+
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("sorting", "");
+		directory.delete();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testSortingLocationSink_memoryNotPositive_mustThrowIllegalArgumentException() {
+		new SortingLocationSink(new RecordingLocationSink(), SortingLocationSink.Order.ID, directory, 0, 1);
+	}
+
+	@Test(expected=NullPointerException.class)
+	public void testSortingLocationSink_orderNull_mustThrowNullPointerException() {
+		new SortingLocationSink(new RecordingLocationSink(), null, directory, 1024, 1);
+	}
+
+	@Test
+	public void testClose_fitsInMemory_mustSortWithoutSpilling() throws IOException {
+		List<LocationJson> locations = locations(1000);
+		RecordingLocationSink recorder = new RecordingLocationSink();
+		SortingLocationSink sink = new SortingLocationSink(recorder, SortingLocationSink.Order.TYPE_NAME, directory,
+				SortingLocationSink.DEFAULT_MEMORY, 2);
+		RecordingLocationSink.replay(locations, sink);
+		sink.close();
+
+		assertEquals(toString(sorted(locations, SortingLocationSink.Order.TYPE_NAME)), toString(recorder.getRecords()));
+		assertEquals(0, sink.getSpilledRuns());
+		assertFalse(directory.exists());
+	}
+
+	@Test
+	public void testClose_spilled_mustMergeRunsInOrder() throws IOException {
+		List<LocationJson> locations = locations(5000);
+		for (SortingLocationSink.Order order : SortingLocationSink.Order.values()) {
+			RecordingLocationSink recorder = new RecordingLocationSink();
+			SortingLocationSink sink = new SortingLocationSink(recorder, order, directory, 64 * 1024, 3);
+			RecordingLocationSink.replay(locations, sink);
+			sink.close();
+
+			assertEquals(order.name(), toString(sorted(locations, order)), toString(recorder.getRecords()));
+			assertTrue(sink.getSpilledRuns() > 1);
+			assertEquals(0, directory.list().length);
+		}
+	}
+
+	@Test
+	public void testClose_manyRuns_mustMergeInSeveralPasses() throws IOException {
+		List<LocationJson> locations = locations(3000);
+		RecordingLocationSink recorder = new RecordingLocationSink();
+		SortingLocationSink sink = new SortingLocationSink(recorder, SortingLocationSink.Order.NAME, directory, 1, 1);
+		RecordingLocationSink.replay(locations, sink);
+		sink.close();
+
+		assertEquals(toString(sorted(locations, SortingLocationSink.Order.NAME)), toString(recorder.getRecords()));
+		assertTrue(sink.getSpilledRuns() > locations.size());
+		assertEquals(locations.size(), sink.getRecords());
+	}
+
+	@Test
+	public void testClose_valuesLargerThanBuffers_mustBeKept() throws IOException {
+		String longName = StringUtils.repeat("Llanfairpwllgwyngyll ", 10000);
+		RecordingLocationSink recorder = new RecordingLocationSink();
+		SortingLocationSink sink = new SortingLocationSink(recorder, SortingLocationSink.Order.NAME, directory, 1, 1);
+		sink.write(2, longName, "location", "53.2", "-4.2");
+		sink.write(1, "Zürich", "location", "47.4", "8.5");
+		sink.close();
+
+		assertEquals(2, recorder.getRecords().size());
+		assertEquals(longName, recorder.getRecords().get(0).getName());
+		assertEquals("Zürich", recorder.getRecords().get(1).getName());
+	}
+
+	@Test
+	public void testClose_empty_mustCloseSink() throws IOException {
+		final boolean[] closed = new boolean[1];
+		SortingLocationSink sink = new SortingLocationSink(new LocationSink() {
+			public void write(int id, String name, String type, String latitude, String longitude) {
+				throw new AssertionError();
+			}
+			public void close() {
+				closed[0] = true;
+			}
+		}, SortingLocationSink.Order.ID, directory, 1024, 1);
+		sink.close();
+
+		assertTrue(closed[0]);
+	}
+
+	@Test
+	public void testClose_targetFailsDuringMerge_mustDeleteRuns() throws IOException {
+		SortingLocationSink sink = new SortingLocationSink(new LocationSink() {
+			public void write(int id, String name, String type, String latitude, String longitude) throws IOException {
+				throw new IOException("disk full");
+			}
+			public void close() {
+			}
+		}, SortingLocationSink.Order.ID, directory, 1024, 2);
+		RecordingLocationSink.replay(locations(500), sink);
+		try {
+			sink.close();
+			throw new AssertionError("IOException expected");
+		} catch (IOException e) {
+			assertEquals("disk full", e.getMessage());
+		}
+
+		assertTrue(sink.getSpilledRuns() > 1);
+		assertFalse(directory.exists() && directory.list().length > 0);
+	}
+
+	@Test
+	public void testDiscard_mustDeleteRunsWithoutWriting() throws IOException {
+		RecordingLocationSink recorder = new RecordingLocationSink();
+		SortingLocationSink sink = new SortingLocationSink(recorder, SortingLocationSink.Order.ID, directory, 1024, 2);
+		RecordingLocationSink.replay(locations(500), sink);
+		sink.discard();
+
+		assertTrue(sink.getSpilledRuns() > 0);
+		assertEquals(0, directory.list().length);
+		assertTrue(recorder.getRecords().isEmpty());
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testWrite_closed_mustThrowIllegalStateException() throws IOException {
+		SortingLocationSink sink = new SortingLocationSink(new RecordingLocationSink(), SortingLocationSink.Order.ID,
+				directory, 1024, 1);
+		sink.close();
+		sink.write(1, "Berlin", "location", "52.52437", "13.41053");
+	}
+
+	/**
+	 * @return locations with shuffled ids and repeated names and types
+	 */
+	private static List<LocationJson> locations(int count) {
+		Random random = new Random(count);
+		List<Integer> ids = new ArrayList<Integer>();
+		for (int i = 0; i < count; i++) {
+			ids.add(i - count / 2);
+		}
+		Collections.shuffle(ids, random);
+		List<LocationJson> locations = new ArrayList<LocationJson>();
+		for (int id : ids) {
+			locations.add(RecordingLocationSink.toLocation(id, NAMES[random.nextInt(NAMES.length)],
+					TYPES[random.nextInt(TYPES.length)], random.nextBoolean() ? null : Double.toString(random.nextDouble()), "13.41053"));
+		}
+		return locations;
+	}
+
+	private static List<LocationJson> sorted(List<LocationJson> locations, final SortingLocationSink.Order order) {
+		List<LocationJson> sorted = new ArrayList<LocationJson>(locations);
+		Collections.sort(sorted, new Comparator<LocationJson>() {
+			public int compare(LocationJson a, LocationJson b) {
+				int result = 0;
+				if (order == SortingLocationSink.Order.TYPE_NAME) {
+					result = compareValues(a.getType(), b.getType());
+				}
+				if (result == 0 && order != SortingLocationSink.Order.ID) {
+					result = compareValues(a.getName(), b.getName());
+				}
+				return result != 0 ? result : Integer.compare(a.get_id(), b.get_id());
+			}
+		});
+		return sorted;
+	}
+
+	private static int compareValues(String a, String b) {
+		if (a == null || b == null) {
+			return a == null ? (b == null ? 0 : -1) : 1;
+		}
+		return a.compareTo(b);
+	}
+
+	private static String toString(List<LocationJson> locations) {
+		StringBuilder result = new StringBuilder();
+		for (LocationJson location : locations) {
+			result.append(location.get_id()).append('|').append(location.getName()).append('|').append(location.getType())
+				.append('|').append(location.getGeoPosition().getLatitude()).append('|')
+				.append(location.getGeoPosition().getLongitude()).append('\n');
+		}
+		return result.toString();
+	}
+}
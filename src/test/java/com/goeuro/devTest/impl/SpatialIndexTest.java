@@ -0,0 +1,166 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @see {@link SpatialIndex}
+ */
+public class SpatialIndexTest {
+
+	private static final String[] TYPES = {"location", "airport", "station"};
+
+	private SpatialIndex index;
+
+	@Before
+	public void setUp() {
+		index = new SpatialIndex(new LocationStore(), 2);
+		Random random = new Random(42);
+		for (int i = 0; i < 5000; i++) {
+			index.getStore().add(i, "name" + i, TYPES[i % TYPES.length], random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180);
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testSpatialIndex_cellSizeNotPositive_mustThrowIllegalArgumentException() {
+		new SpatialIndex(new LocationStore(), 0);
+	}
+
+	@Test
+	public void testDistance() {
+		// Berlin to Paris
+		assertEquals(877.5, SpatialIndex.distance(52.52437, 13.41053, 48.85341, 2.3488), 1);
+		assertEquals(0, SpatialIndex.distance(10, 179.9, 10, -180.1), 1e-6);
+	}
+
+	@Test
+	public void testNearest_mustMatchFullScan() {
+		double[][] centres = {{52.52437, 13.41053}, {0, 179.9}, {89.5, 0}, {-89.9, -120}, {10, -180}};
+		for (double[] centre : centres) {
+			for (String type : new String[] {null, "airport"}) {
+				int[] expected = this.scan(centre[0], centre[1], Double.MAX_VALUE, type);
+				int[] actual = index.nearest(centre[0], centre[1], 10, type);
+				assertArrayEquals(Arrays.copyOf(expected, 10), actual);
+			}
+		}
+	}
+
+	@Test
+	public void testNearest_moreThanIndexed() {
+		assertEquals(5000, index.nearest(0, 0, 6000, null).length);
+		assertEquals(0, index.nearest(0, 0, 10, "harbour").length);
+	}
+
+	@Test
+	public void testWithinRadius_mustMatchFullScan() {
+		double[][] centres = {{52.52437, 13.41053}, {0, 179.9}, {88, 45}, {-60, -179}};
+		for (double[] centre : centres) {
+			for (double radius : new double[] {0, 300, 1500, 25000}) {
+				assertArrayEquals(this.scan(centre[0], centre[1], radius, "station"), 
+						index.withinRadius(centre[0], centre[1], radius, "station"));
+			}
+		}
+	}
+
+	@Test
+	public void testWithinBox() {
+		assertBox(40, -10, 60, 30, null);
+		assertBox(-20, 170, 20, -170, "location");
+		assertBox(-90, -180, 90, 180, null);
+		assertBox(-5, 179, 5, 180, null);
+		assertEquals(0, index.withinBox(-90, -180, 90, 180, "harbour").length);
+	}
+
+	@Test
+	public void testWrite_mustBeIndexedIncrementally() {
+		LocationStore store = new LocationStore();
+		SpatialIndex incremental = new SpatialIndex(store, SpatialIndex.DEFAULT_CELL_SIZE);
+		incremental.write(1, "Berlin", "location", "52.52437", "13.41053");
+		assertArrayEquals(new int[] {0}, incremental.nearest(52, 13, 5, null));
+		
+		incremental.write(2, "Potsdam", "location", "52.39886", "13.06566");
+		incremental.write(3, "Nowhere", "location", null, null);
+		store.add(4, "Paris", "location", 48.85341, 2.3488);
+		
+		assertArrayEquals(new int[] {1, 0, 3}, incremental.nearest(52.4, 13, 5, null));
+		assertArrayEquals(new int[] {1, 0}, incremental.withinRadius(52.4, 13, 100, "location"));
+	}
+
+	@Test
+	public void testWriteTo_readFrom() throws IOException {
+		index.getStore().add(5000, null, null, Double.NaN, Double.NaN);
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		index.writeTo(outputStream);
+		
+		SpatialIndex read = SpatialIndex.readFrom(new ByteArrayInputStream(outputStream.toByteArray()));
+		
+		assertEquals(2, read.getCellSize(), 0);
+		assertEquals(5001, read.getStore().size());
+		assertEquals("name42", read.getStore().getName(42));
+		assertEquals(index.getStore().getLatitude(42), read.getStore().getLatitude(42), 0);
+		assertNull(read.getStore().getType(5000));
+		assertArrayEquals(index.nearest(48, 2, 20, "airport"), read.nearest(48, 2, 20, "airport"));
+	}
+
+	@Test(expected=IOException.class)
+	public void testReadFrom_notAnIndex_mustThrowIOException() throws IOException {
+		SpatialIndex.readFrom(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 5, 6, 7, 8}));
+	}
+
+	private void assertBox(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude, String type) {
+		List<Integer> expected = new ArrayList<Integer>();
+		LocationStore store = index.getStore();
+		for (int row = 0; row < store.size(); row++) {
+			double longitude = store.getLongitude(row);
+			boolean inLongitude = minLongitude > maxLongitude ? longitude >= minLongitude || longitude <= maxLongitude
+					: longitude >= minLongitude && longitude <= maxLongitude;
+			if (inLongitude && store.getLatitude(row) >= minLatitude && store.getLatitude(row) <= maxLatitude
+					&& (type == null || type.equals(store.getType(row)))) {
+				expected.add(row);
+			}
+		}
+		int[] actual = index.withinBox(minLatitude, minLongitude, maxLatitude, maxLongitude, type);
+		Arrays.sort(actual);
+		assertEquals(expected.size(), actual.length);
+		for (int i = 0; i < actual.length; i++) {
+			assertEquals(expected.get(i).intValue(), actual[i]);
+		}
+	}
+
+	/**
+	 * @return the rows within the radius, nearest first, by computing the distance of every row
+	 */
+	private int[] scan(final double latitude, final double longitude, double radius, String type) {
+		final LocationStore store = index.getStore();
+		List<Integer> rows = new ArrayList<Integer>();
+		for (int row = 0; row < store.size(); row++) {
+			if ((type == null || type.equals(store.getType(row)))
+					&& SpatialIndex.distance(latitude, longitude, store.getLatitude(row), store.getLongitude(row)) <= radius) {
+				rows.add(row);
+			}
+		}
+		Collections.sort(rows, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(SpatialIndex.distance(latitude, longitude, store.getLatitude(a), store.getLongitude(a)),
+						SpatialIndex.distance(latitude, longitude, store.getLatitude(b), store.getLongitude(b)));
+			}
+		});
+		int[] result = new int[rows.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = rows.get(i);
+		}
+		return result;
+	}
+}
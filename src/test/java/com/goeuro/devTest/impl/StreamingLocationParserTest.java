@@ -0,0 +1,87 @@
+package com.goeuro.devTest.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import com.goeuro.devTest.QueryOptions;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * @see {@link StreamingLocationParser}
+ */
+public class StreamingLocationParserTest {
+
+	private static final String JSON = "["
+			+ "{\"_id\":376217,\"key\":null,\"name\":\"Berlin\",\"fullName\":\"Berlin, Germany\",\"iata_airport_code\":null,"
+			+ "\"type\":\"location\",\"country\":\"Germany\",\"geo_position\":{\"latitude\":52.52437,\"longitude\":13.41053},"
+			+ "\"names\":{\"de\":\"Berlin\",\"en\":[\"Berlin\",\"Berlín\"]},\"inEurope\":true,\"distance\":null},"
+			+ "{\"geo_position\":{\"longitude\":\"-2.5e-3\",\"altitude\":12,\"latitude\":1E2},\"type\":true,"
+			+ "\"_id\":\"42\",\"name\":\"\\\"quoted\\\", \\u00e9\\nline\"},"
+			+ "{\"_id\":null,\"name\":null,\"type\":\"airport\",\"geo_position\":{\"latitude\":null,\"longitude\":0}},"
+			+ "{\"name\":\"first\",\"name\":\"last\",\"_id\":7,\"geo_position\":{\"latitude\":1,\"longitude\":2}}"
+			+ "]";
+
+	@Test
+	public void testParse_mustMatchGsonLocationParser() throws IOException {
+		assertEquals(parse(new GsonLocationParser(), JSON), parse(new StreamingLocationParser(), JSON));
+	}
+
+	@Test
+	public void testParse() throws IOException {
+		String expected = "376217,Berlin,location,52.52437,13.41053" + System.lineSeparator()
+				+ "42,\"\"\"quoted\"\", é\nline\",true,1E2,-2.5e-3" + System.lineSeparator()
+				+ "0,,airport,,0" + System.lineSeparator()
+				+ "7,last,,1,2" + System.lineSeparator();
+
+		assertEquals(expected, parse(new StreamingLocationParser(), JSON));
+	}
+
+	@Test
+	public void testParse_options_mustMatchFilteredGsonLocationParser() throws IOException {
+		QueryOptions options = QueryOptions.ALL.withTypes("location", "airport", "true")
+				.withColumns(QueryOptions.Column.NAME, QueryOptions.Column.LATITUDE);
+		
+		assertEquals(parse(new GsonLocationParser(), JSON, options), parse(new StreamingLocationParser(), JSON, options));
+	}
+
+	@Test
+	public void testParse_boundingBox() throws IOException {
+		QueryOptions options = QueryOptions.ALL.withBoundingBox(50, 10, 60, 20).withColumns(QueryOptions.Column.TYPE);
+		
+		assertEquals("376217,,location,," + System.lineSeparator(), parse(new StreamingLocationParser(), JSON, options));
+	}
+
+	@Test
+	public void testParse_types_mustSkipOtherLocations() throws IOException {
+		String expected = "0,,airport,,0" + System.lineSeparator();
+		
+		assertEquals(expected, parse(new StreamingLocationParser(), JSON, QueryOptions.ALL.withTypes("airport")));
+	}
+
+	@Test
+	public void testParse_empty() throws IOException {
+		assertEquals("", parse(new StreamingLocationParser(), "[]"));
+	}
+
+	@Test(expected=IOException.class)
+	public void testParse_truncated_mustThrowIOException() throws IOException {
+		parse(new StreamingLocationParser(), "[{\"_id\":1,\"name\":\"Ber");
+	}
+
+	private static String parse(LocationParser parser, String json) throws IOException {
+		return parse(parser, json, QueryOptions.ALL);
+	}
+
+	private static String parse(LocationParser parser, String json, QueryOptions options) throws IOException {
+		StringWriter writer = new StringWriter();
+		CsvLocationSink sink = new CsvLocationSink(writer);
+		parser.parse(new JsonReader(new StringReader(json)), sink, options);
+		sink.close();
+		return writer.toString();
+	}
+}
@@ -0,0 +1,101 @@
+package com.goeuro.devTest.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP server on an ephemeral port standing in for the location endpoint in tests.
+ */
+public class StubServer {
+
+	private final HttpServer server;
+	
+	private final ExecutorService executor;
+
+	/**
+	 * @param handler answers every request
+	 * @throws IOException
+	 */
+	public StubServer(HttpHandler handler) throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", handler);
+		executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * @return the base URL of the server, ending with a slash
+	 */
+	public String getBaseUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Send a complete response.
+	 */
+	public static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+		if (body.length == 0) {
+			// the server drops the connection after a reply without body, tell the client not to reuse it
+			exchange.getResponseHeaders().set("Connection", "close");
+		}
+		exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+
+	/**
+	 * Answers the n-th request with the n-th step, repeating the last step, to inject latency and errors.
+	 */
+	public static class Script implements HttpHandler {
+
+		private final List<Object[]> steps = new CopyOnWriteArrayList<Object[]>();
+
+		private final AtomicInteger requests = new AtomicInteger();
+
+		/**
+		 * @param status the status of the response
+		 * @param delayMillis how long to wait before responding
+		 * @param body the body of the response
+		 * @return this script
+		 */
+		public Script then(int status, long delayMillis, String body) {
+			steps.add(new Object[] {status, delayMillis, body});
+			return this;
+		}
+
+		/**
+		 * @return the number of requests received so far
+		 */
+		public int getRequests() {
+			return requests.get();
+		}
+
+		public void handle(HttpExchange exchange) throws IOException {
+			Object[] step = steps.get(Math.min(requests.getAndIncrement(), steps.size() - 1));
+			try {
+				Thread.sleep((Long) step[1]);
+			} catch (InterruptedException e) {
+				exchange.close();
+				return;
+			}
+			respond(exchange, (Integer) step[0], ((String) step[2]).getBytes("UTF-8"));
+		}
+	}
+}